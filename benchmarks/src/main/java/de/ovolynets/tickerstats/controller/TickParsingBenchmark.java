@@ -0,0 +1,79 @@
+package de.ovolynets.tickerstats.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the body of {@code POST /api/ticks}: binding a {@link Tick} and validating its annotations,
+ * like before, against {@link TickParser}. Run with {@code -prof gc} to compare the bytes allocated
+ * per tick ({@code gc.alloc.rate.norm}), which is zero for the parser.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TickParsingBenchmark {
+
+    private static final byte[] BODY = "{\"instrument\": \"IBM.N\", \"price\": 143.82, \"timestamp\": 1478192204000}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private ObjectMapper objectMapper;
+    private Validator validator;
+    private TickParser tickParser;
+    private ByteArrayInputStream body;
+    private TickParser.TickHandler<Boolean> handler;
+    // Written by the handler, so that the parsed fields are used
+    private String instrument;
+    private double price;
+    private long timestamp;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new ObjectMapper().registerModule(new ParameterNamesModule());
+        validator = Validation.buildDefaultValidatorFactory().getValidator();
+        tickParser = new TickParser(objectMapper.getFactory());
+        body = new ByteArrayInputStream(BODY);
+        handler = (instrument, price, timestamp) -> {
+            this.instrument = instrument;
+            this.price = price;
+            this.timestamp = timestamp;
+            return true;
+        };
+    }
+
+    @Benchmark
+    public void bindAndValidate(Blackhole blackhole) throws IOException {
+        body.reset();
+        Tick tick = objectMapper.readValue(body, Tick.class);
+        blackhole.consume(validator.validate(tick));
+        blackhole.consume(tick.getInstrument());
+        blackhole.consume(tick.getPrice().doubleValue());
+        blackhole.consume(tick.getTimestamp().longValue());
+    }
+
+    @Benchmark
+    public boolean parse() throws IOException {
+        body.reset();
+        return tickParser.read(body, handler);
+    }
+}
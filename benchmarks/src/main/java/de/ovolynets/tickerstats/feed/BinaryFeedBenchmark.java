@@ -0,0 +1,110 @@
+package de.ovolynets.tickerstats.feed;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+import de.ovolynets.tickerstats.service.impl.TickerServiceImpl;
+import de.ovolynets.tickerstats.service.impl.TickerServiceOptions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ticks per second through the binary feed over the loopback interface, from the encoding by the
+ * {@link BinaryTickClient} to the acknowledgement by the {@link BinaryTickServer}. Compare with
+ * {@code TickerServiceBenchmark.addTicksBatch} for the cost of the transport.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BinaryFeedBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+    private static final int INSTRUMENTS = 1_000;
+
+    @Param({"1", "16"})
+    public int window;
+
+    private TickerServiceImpl service;
+    private BinaryTickServer server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        service = new TickerServiceImpl(TickerServiceOptions.builder().build(), new SimpleMeterRegistry());
+        server = new BinaryTickServer(service, new InetSocketAddress("localhost", 0), 2,
+                BinaryTickClient.DEFAULT_MAX_FRAME_BYTES, new SimpleMeterRegistry());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        service.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        private final TickBatch batch = new TickBatch(BATCH_SIZE);
+        private BinaryTickClient client;
+
+        @Setup(Level.Trial)
+        public void connect(BinaryFeedBenchmark benchmark) throws IOException {
+            client = new BinaryTickClient("localhost", benchmark.server.getPort(), benchmark.window,
+                    BinaryTickClient.DEFAULT_MAX_FRAME_BYTES);
+        }
+
+        // Regenerated every iteration, so that the timestamps stay inside the window
+        @Setup(Level.Iteration)
+        public void generate() {
+            long now = System.currentTimeMillis();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            batch.clear();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                batch.add("INSTR" + random.nextInt(INSTRUMENTS) + ".N", 100 + random.nextDouble() * 10,
+                        now - random.nextInt(1_000));
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void flush() throws IOException {
+            client.flush();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            client.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void sendBatch(Connection connection) throws IOException {
+        connection.client.send(connection.batch);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void sendBatchFourConnections(Connection connection) throws IOException {
+        connection.client.send(connection.batch);
+    }
+}
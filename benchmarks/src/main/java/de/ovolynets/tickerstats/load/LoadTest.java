@@ -0,0 +1,285 @@
+package de.ovolynets.tickerstats.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.ovolynets.tickerstats.TickerServiceApp;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test of the HTTP API. Writers post ticks to {@code /api/ticks} and readers get
+ * {@code /api/statistics/{instrumentId}} for a configurable time, while the latency of every request
+ * is recorded. Afterwards the statistics of every instrument and the overall statistics are checked
+ * against a {@link ReferenceModel} of the accepted ticks.
+ * <p>
+ * With a request rate, latencies are measured from the time a request was scheduled rather than
+ * sent, so a stalled service is not hidden by the client waiting for it (coordinated omission).
+ * <p>
+ * The process exits with 1 if a check fails or a latency budget is exceeded, see {@link LoadTestOptions}.
+ */
+public class LoadTest {
+
+    private static final long WINDOW_MS = 60_000;
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final double AVG_TOLERANCE = 1e-9;
+
+    private final LoadTestOptions options;
+    private final String baseUrl;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ReferenceModel reference = new ReferenceModel();
+    private final String[] instruments;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private volatile long measurementStart;
+    private volatile long end;
+
+    LoadTest(LoadTestOptions options, String baseUrl) {
+        this.options = options;
+        this.baseUrl = baseUrl;
+        this.instruments = new String[options.instruments];
+        for (int i = 0; i < instruments.length; i++) {
+            instruments[i] = "LOAD" + i + ".N";
+        }
+    }
+
+    public static void main(String... args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+        ConfigurableApplicationContext context = null;
+        String baseUrl = options.url;
+        if (baseUrl.isEmpty()) {
+            context = new SpringApplicationBuilder(TickerServiceApp.class)
+                    .properties("server.port=0",
+                            "sliding-window-slot-ms=" + options.slotMillis,
+                            "index-update-period-ms=" + options.indexUpdatePeriodMillis,
+                            "statistics-mode=" + options.statisticsMode,
+                            "logging.level.de.ovolynets.tickerstats=WARN")
+                    .run();
+            baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        }
+        boolean passed;
+        try {
+            passed = new LoadTest(options, baseUrl).run();
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    boolean run() throws Exception {
+        System.out.printf("Load test of %s: %d writers, %d readers, %d instruments, skew %d ms%n",
+                baseUrl, options.writers, options.readers, options.instruments, options.skewMillis);
+        long start = System.nanoTime();
+        measurementStart = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+        end = measurementStart + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+
+        ExecutorService executor = Executors.newFixedThreadPool(options.writers + options.readers);
+        List<Future<Histogram>> writes = new ArrayList<>();
+        List<Future<Histogram>> reads = new ArrayList<>();
+        for (int i = 0; i < options.writers; i++) {
+            writes.add(executor.submit(() -> drive(true, options.writeRate, options.writers)));
+        }
+        for (int i = 0; i < options.readers; i++) {
+            reads.add(executor.submit(() -> drive(false, options.readRate, options.readers)));
+        }
+        Histogram writeLatencies = merge(writes);
+        Histogram readLatencies = merge(reads);
+        executor.shutdown();
+
+        double seconds = options.durationSeconds;
+        report("writes", writeLatencies, seconds);
+        report("reads", readLatencies, seconds);
+        System.out.printf("ticks accepted %d, stale %d, errors %d%n", accepted.sum(), stale.sum(), errors.sum());
+
+        boolean passed = verify();
+        passed &= withinBudget("write", writeLatencies, options.budgetWriteP99Millis);
+        passed &= withinBudget("read", readLatencies, options.budgetReadP99Millis);
+        passed &= errors.sum() == 0;
+        System.out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    private Histogram drive(boolean write, int rate, int threads) {
+        Histogram latencies = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * threads / rate : 0;
+        long scheduled = System.nanoTime();
+        while (true) {
+            long sent;
+            if (interval > 0) {
+                scheduled += interval;
+                long delay = scheduled - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                sent = scheduled;
+            } else {
+                sent = System.nanoTime();
+            }
+            if (sent - end >= 0) {
+                return latencies;
+            }
+            String instrument = instruments[random.nextInt(instruments.length)];
+            try {
+                if (write) {
+                    postTick(instrument, 100 + random.nextDouble() * 10,
+                            System.currentTimeMillis() - random.nextLong(options.skewMillis + 1));
+                } else {
+                    getStatistics(instrument);
+                }
+            } catch (IOException e) {
+                errors.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return latencies;
+            }
+            long now = System.nanoTime();
+            if (sent - measurementStart >= 0) {
+                latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - sent), HIGHEST_LATENCY_MICROS));
+            }
+        }
+    }
+
+    private void postTick(String instrument, double price, long timestamp) throws IOException, InterruptedException {
+        String body = "{\"instrument\": \"" + instrument + "\", \"price\": " + price + ", \"timestamp\": " + timestamp + "}";
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/ticks"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        if (status == 200) {
+            reference.record(instrument, price, timestamp);
+            accepted.increment();
+        } else if (status == 204) {
+            stale.increment();
+        } else {
+            errors.increment();
+        }
+    }
+
+    private HttpResponse<String> getStatistics(String instrument) throws IOException, InterruptedException {
+        String path = instrument == null ? "/api/statistics" : "/api/statistics/" + instrument;
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200 && response.statusCode() != 404) {
+            errors.increment();
+        }
+        return response;
+    }
+
+    /**
+     * Compares the statistics of the service with the reference model, once all writes are reflected
+     * in the statistics. Instruments with ticks close to the end of the window, which the service may
+     * or may not have expired yet, are skipped.
+     */
+    private boolean verify() throws IOException, InterruptedException {
+        Thread.sleep(2L * options.indexUpdatePeriodMillis);
+        long verificationStart = System.currentTimeMillis();
+        List<String> names = new ArrayList<>();
+        List<HttpResponse<String>> responses = new ArrayList<>();
+        for (String instrument : reference.instruments()) {
+            names.add(instrument);
+            responses.add(getStatistics(instrument));
+        }
+        names.add(null);
+        responses.add(getStatistics(null));
+        long verificationEnd = System.currentTimeMillis();
+
+        // A slot is kept as long as any part of it is inside the window, and the statistics of the
+        // periodic mode may be one update period old
+        long includedFrom = verificationEnd - WINDOW_MS + options.slotMillis;
+        long excludedBefore = verificationStart - WINDOW_MS - options.slotMillis - options.indexUpdatePeriodMillis;
+        int verified = 0;
+        int skipped = 0;
+        List<String> mismatches = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            String instrument = names.get(i);
+            ReferenceModel.Aggregate expected = reference.expected(instrument, includedFrom, excludedBefore);
+            if (expected == null) {
+                skipped++;
+                continue;
+            }
+            verified++;
+            String mismatch = compare(expected, responses.get(i));
+            if (mismatch != null) {
+                mismatches.add((instrument == null ? "overall" : instrument) + ": " + mismatch);
+            }
+        }
+        System.out.printf("statistics verified %d, skipped %d (ticks at the end of the window), mismatches %d%n",
+                verified, skipped, mismatches.size());
+        mismatches.stream().limit(20).forEach(System.out::println);
+        return mismatches.isEmpty();
+    }
+
+    private String compare(ReferenceModel.Aggregate expected, HttpResponse<String> response) throws IOException {
+        if (response.statusCode() == 404) {
+            return expected.count == 0 ? null : "not found, expected count " + expected.count;
+        }
+        JsonNode actual = objectMapper.readTree(response.body());
+        long count = actual.get("count").asLong();
+        if (count != expected.count) {
+            return "count " + count + ", expected " + expected.count;
+        }
+        if (count == 0) {
+            return null;
+        }
+        double avg = actual.get("avg").asDouble();
+        double min = actual.get("min").asDouble();
+        double max = actual.get("max").asDouble();
+        if (min != expected.min || max != expected.max
+                || Math.abs(avg - expected.avg()) > AVG_TOLERANCE * Math.abs(expected.avg())) {
+            return String.format(Locale.ROOT, "avg/min/max %s/%s/%s, expected %s/%s/%s",
+                    avg, min, max, expected.avg(), expected.min, expected.max);
+        }
+        return null;
+    }
+
+    private static boolean withinBudget(String name, Histogram latencies, double budgetP99Millis) {
+        double p99Millis = latencies.getValueAtPercentile(99) / 1_000.0;
+        if (budgetP99Millis > 0 && p99Millis > budgetP99Millis) {
+            System.out.printf(Locale.ROOT, "%s p99 %.3f ms exceeds the budget of %.3f ms%n", name, p99Millis,
+                    budgetP99Millis);
+            return false;
+        }
+        return true;
+    }
+
+    private static void report(String name, Histogram latencies, double seconds) {
+        System.out.printf(Locale.ROOT, "%-6s %10.1f req/s  p50 %8.3f ms  p99 %8.3f ms  p99.9 %8.3f ms  max %8.3f ms%n",
+                name, latencies.getTotalCount() / seconds,
+                latencies.getValueAtPercentile(50) / 1_000.0,
+                latencies.getValueAtPercentile(99) / 1_000.0,
+                latencies.getValueAtPercentile(99.9) / 1_000.0,
+                latencies.getMaxValue() / 1_000.0);
+    }
+
+    private static Histogram merge(List<Future<Histogram>> results) throws Exception {
+        Histogram merged = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+        for (Future<Histogram> result : results) {
+            merged.add(result.get());
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,67 @@
+package de.ovolynets.tickerstats.load;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Options of the {@link LoadTest}, given as {@code --name=value} arguments
+ */
+class LoadTestOptions {
+
+    // Target of the load test, the application is started in-process if empty
+    final String url;
+    final int writers;
+    final int readers;
+    final int instruments;
+    final int warmupSeconds;
+    final int durationSeconds;
+    // Timestamps of the generated ticks are spread over [now - skew, now]
+    final long skewMillis;
+    // Requests per second over all writers/readers, 0 to send the next request as soon as the previous one returned
+    final int writeRate;
+    final int readRate;
+    // Configuration of the application, must match the one of the target if it is not started in-process
+    final int slotMillis;
+    final int indexUpdatePeriodMillis;
+    final String statisticsMode;
+    // Regression budget, 0 for none
+    final double budgetWriteP99Millis;
+    final double budgetReadP99Millis;
+
+    private LoadTestOptions(Map<String, String> values) {
+        url = values.getOrDefault("url", "");
+        writers = intOption(values, "writers", 4);
+        readers = intOption(values, "readers", 4);
+        instruments = intOption(values, "instruments", 1_000);
+        warmupSeconds = intOption(values, "warmup-s", 5);
+        durationSeconds = intOption(values, "duration-s", 30);
+        skewMillis = intOption(values, "skew-ms", 5_000);
+        writeRate = intOption(values, "write-rate", 0);
+        readRate = intOption(values, "read-rate", 0);
+        slotMillis = intOption(values, "sliding-window-slot-ms", 1_000);
+        indexUpdatePeriodMillis = intOption(values, "index-update-period-ms", 500);
+        statisticsMode = values.getOrDefault("statistics-mode", "periodic");
+        budgetWriteP99Millis = Double.parseDouble(values.getOrDefault("budget-write-p99-ms", "0"));
+        budgetReadP99Millis = Double.parseDouble(values.getOrDefault("budget-read-p99-ms", "0"));
+        if (writers <= 0 || readers < 0 || instruments <= 0 || durationSeconds <= 0 || skewMillis < 0) {
+            throw new IllegalArgumentException("Invalid options: " + values);
+        }
+    }
+
+    static LoadTestOptions parse(String... args) {
+        Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        return new LoadTestOptions(values);
+    }
+
+    private static int intOption(Map<String, String> values, String name, int defaultValue) {
+        String value = values.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,85 @@
+package de.ovolynets.tickerstats.load;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Statistics of the accepted ticks computed independently of the service. Ticks are kept in
+ * buckets of one second per instrument, so the model can tell which ticks are certainly inside
+ * or outside of the window of the service at the time of the check, and which ones might be
+ * either (see {@link #expected}).
+ */
+class ReferenceModel {
+
+    private static final long BUCKET_MS = 1_000;
+
+    private final Map<String, NavigableMap<Long, Aggregate>> buckets = new ConcurrentHashMap<>();
+
+    void record(String instrument, double price, long timestamp) {
+        NavigableMap<Long, Aggregate> instrumentBuckets =
+                buckets.computeIfAbsent(instrument, (name) -> new TreeMap<>());
+        synchronized (instrumentBuckets) {
+            instrumentBuckets.computeIfAbsent(Math.floorDiv(timestamp, BUCKET_MS), (bucket) -> new Aggregate())
+                    .add(price);
+        }
+    }
+
+    /**
+     * Returns the statistics of an instrument (or all of them for {@code null}) over the ticks with
+     * timestamps from {@code includedFrom} on, or {@code null} if there are ticks between
+     * {@code excludedBefore} and {@code includedFrom}, for which it is unknown whether the service
+     * still counts them
+     */
+    Aggregate expected(String instrument, long includedFrom, long excludedBefore) {
+        Aggregate expected = new Aggregate();
+        for (Map.Entry<String, NavigableMap<Long, Aggregate>> entry : buckets.entrySet()) {
+            if (instrument != null && !instrument.equals(entry.getKey())) {
+                continue;
+            }
+            NavigableMap<Long, Aggregate> instrumentBuckets = entry.getValue();
+            synchronized (instrumentBuckets) {
+                for (Map.Entry<Long, Aggregate> bucket : instrumentBuckets.tailMap(
+                        Math.floorDiv(excludedBefore, BUCKET_MS), true).entrySet()) {
+                    long bucketStart = bucket.getKey() * BUCKET_MS;
+                    if (bucketStart >= includedFrom) {
+                        expected.merge(bucket.getValue());
+                    } else if (bucketStart + BUCKET_MS > excludedBefore) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return expected;
+    }
+
+    Iterable<String> instruments() {
+        return buckets.keySet();
+    }
+
+    static class Aggregate {
+        double sum;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        long count;
+
+        void add(double price) {
+            sum += price;
+            min = Math.min(min, price);
+            max = Math.max(max, price);
+            count++;
+        }
+
+        void merge(Aggregate other) {
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            count += other.count;
+        }
+
+        double avg() {
+            return count == 0 ? 0 : sum / count;
+        }
+    }
+}
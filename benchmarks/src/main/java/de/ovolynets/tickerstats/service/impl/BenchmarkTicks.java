@@ -0,0 +1,17 @@
+package de.ovolynets.tickerstats.service.impl;
+
+/**
+ * Test data shared by the benchmarks
+ */
+final class BenchmarkTicks {
+
+    private BenchmarkTicks() {}
+
+    static String[] instruments(int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "INSTR" + i + ".N";
+        }
+        return names;
+    }
+}
@@ -0,0 +1,89 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost per tick of the journal for every fsync policy. Segments are short-lived and dropped after
+ * every iteration, so the benchmark does not fill the disk. The journal is written to the directory
+ * given by the {@code journal.benchmark.dir} system property, the temporary directory by default.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final long SEGMENT_DURATION_MS = 1_000;
+    private static final long FSYNC_INTERVAL_MS = 1_000;
+
+    @Param({"NONE", "INTERVAL", "ALWAYS"})
+    public String fsync;
+
+    private Path directory;
+    private MappedTickJournal journal;
+    private String[] names;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path parent = Path.of(System.getProperty("journal.benchmark.dir", System.getProperty("java.io.tmpdir")));
+        directory = Files.createTempDirectory(parent, "journal-benchmark");
+        journal = new MappedTickJournal(directory, SEGMENT_BYTES, SEGMENT_DURATION_MS,
+                MappedTickJournal.FsyncPolicy.fromProperty(fsync), FSYNC_INTERVAL_MS,
+                Stripes.count(0));
+        names = BenchmarkTicks.instruments(1_000);
+    }
+
+    @TearDown(Level.Iteration)
+    public void dropSegments() {
+        journal.dropExpired(Long.MAX_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        journal.close();
+        journal.dropExpired(Long.MAX_VALUE);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach((file) -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void append() {
+        appendTick();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void appendMultiThreaded() {
+        appendTick();
+    }
+
+    private void appendTick() {
+        long now = System.currentTimeMillis();
+        journal.append(names[(int) (now & 0x3FF) % names.length], 143.82, now, now);
+    }
+}
@@ -0,0 +1,89 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the price sketches: adding a price to a sketch, and computing the quantiles of an
+ * instrument and of all instruments for the default and the longest window. The clock is frozen,
+ * so every invocation merges the same slots.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuantileBenchmark {
+
+    private static final int SLOT_MS = 1_000;
+    private static final int TICKS = 1_000_000;
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    @Param({"10", "10000"})
+    public int instruments;
+
+    private final QuantileSketch sketch = new QuantileSketch(0.01, 512);
+    private final double[] prices = new double[1024];
+    private int next;
+
+    private StatisticsWindows windows;
+    private PriceQuantiles quantiles;
+    private String instrument;
+    private long now;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = 100 + random.nextDouble() * 10;
+        }
+
+        windows = StatisticsWindows.fromProperties("60s,5m,1h", "60s", SLOT_MS);
+        InstrumentRegistry registry = new InstrumentRegistry(2L * windows.longestMillis());
+        quantiles = new PriceQuantiles(windows, registry, Stripes.count(0), QuantileOptions.enabled(0.01, 512));
+        String[] names = BenchmarkTicks.instruments(instruments);
+        instrument = names[0];
+        now = System.currentTimeMillis();
+        for (int i = 0; i < TICKS; i++) {
+            String name = names[i % names.length];
+            registry.register(name, now);
+            quantiles.add(name, prices[i % prices.length], now - random.nextInt(windows.longestMillis()), now);
+        }
+        quantiles.refresh(now);
+    }
+
+    @Benchmark
+    public void addToSketch() {
+        sketch.add(prices[next++ & (prices.length - 1)]);
+    }
+
+    @Benchmark
+    public Optional<double[]> instrumentDefaultWindow() {
+        return quantiles.quantiles(instrument, windows.defaultWindow(), QUANTILES, now);
+    }
+
+    @Benchmark
+    public Optional<double[]> instrumentLongestWindow() {
+        return quantiles.quantiles(instrument, windows.count() - 1, QUANTILES, now);
+    }
+
+    @Benchmark
+    public Optional<double[]> totalLongestWindow() {
+        return quantiles.quantiles(null, windows.count() - 1, QUANTILES, now);
+    }
+}
@@ -0,0 +1,68 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.StatisticsUpdate;
+import de.ovolynets.tickerstats.service.Ranking;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of the top {@code limit} instruments of a ranking from the tables of the last rebuild, for
+ * different numbers of instruments in the window. The cost follows the limit, not the instruments.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RankingBenchmark {
+
+    private static final int WINDOW_MS = 60_000;
+    private static final int SLOT_MS = 1_000;
+
+    @Param({"1000", "10000", "100000"})
+    public int instruments;
+
+    @Param({"10", "100"})
+    public int limit;
+
+    private PeriodicStatisticsEngine engine;
+    private int window;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        InstrumentRegistry registry = new InstrumentRegistry(2L * WINDOW_MS);
+        Duration duration = Duration.ofMillis(WINDOW_MS);
+        StatisticsWindows windows = new StatisticsWindows(List.of(duration), duration, SLOT_MS);
+        engine = new PeriodicStatisticsEngine(windows, registry, Stripes.count(0));
+        window = windows.defaultWindow();
+        String[] names = BenchmarkTicks.instruments(instruments);
+        long now = System.currentTimeMillis();
+        Random random = new Random(42);
+        for (int i = 0; i < 10 * instruments; i++) {
+            engine.add(names[i % names.length], 100 + random.nextDouble() * 10, now - random.nextInt(WINDOW_MS), now);
+        }
+        engine.rebuildStatisticsIndex(now);
+        engine.rebuildStatisticsIndex(now);
+    }
+
+    @Benchmark
+    public List<StatisticsUpdate> rankByRange() {
+        return engine.getRankings(Ranking.RANGE, window, limit, 0);
+    }
+}
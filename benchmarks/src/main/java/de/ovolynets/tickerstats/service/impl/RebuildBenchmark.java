@@ -0,0 +1,80 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duration of the periodic rebuild of the statistics for different window populations. The clock
+ * is frozen, so every invocation rebuilds the same window without evicting anything. Before every
+ * rebuild, {@code changed} instruments receive a tick, and the rebuild recomputes either only
+ * these or, with {@code full}, all instruments like before the rebuilds were incremental.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RebuildBenchmark {
+
+    private static final int WINDOW_MS = 60_000;
+    private static final int SLOT_MS = 1_000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int ticks;
+
+    @Param({"10", "1000", "10000"})
+    public int instruments;
+
+    @Param({"0", "10", "1000"})
+    public int changed;
+
+    @Param({"false", "true"})
+    public boolean full;
+
+    private PeriodicStatisticsEngine engine;
+    private String[] names;
+    private long now;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        InstrumentRegistry registry = new InstrumentRegistry(2L * WINDOW_MS);
+        Duration window = Duration.ofMillis(WINDOW_MS);
+        engine = new PeriodicStatisticsEngine(new StatisticsWindows(List.of(window), window, SLOT_MS), registry,
+                Stripes.count(0));
+        names = BenchmarkTicks.instruments(instruments);
+        now = System.currentTimeMillis();
+        Random random = new Random(42);
+        for (int i = 0; i < ticks; i++) {
+            engine.add(names[i % names.length], 100 + random.nextDouble() * 10, now - random.nextInt(WINDOW_MS), now);
+        }
+    }
+
+    @Benchmark
+    public void rebuildStatisticsIndex() {
+        for (int i = 0; i < changed; i++) {
+            engine.add(names[next], 105, now, now);
+            next = (next + 1) % names.length;
+        }
+        if (full) {
+            engine.recomputeAll();
+        }
+        engine.rebuildStatisticsIndex(now);
+    }
+}
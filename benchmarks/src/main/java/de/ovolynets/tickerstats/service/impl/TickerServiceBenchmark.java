@@ -0,0 +1,155 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.Tick;
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.TickBatch;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths of {@link TickerServiceImpl}: adding ticks from one and from all available threads,
+ * and reading the statistics while other threads keep adding ticks. Every benchmark runs against
+ * every {@link StatisticsMode}, so a new store plugged into {@link TickerServiceImpl#createEngine}
+ * is compared head to head with the existing ones.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TickerServiceBenchmark {
+
+    private static final int INDEX_UPDATE_PERIOD_MS = 500;
+    private static final int SLOT_MS = 1_000;
+    private static final long INSTRUMENT_RETENTION_MS = 300_000;
+    private static final int BATCH_SIZE = 100;
+
+    @Param
+    public StatisticsMode mode;
+
+    @Param({"10", "10000"})
+    public int instruments;
+
+    private TickerServiceImpl service;
+    private String[] names;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new TickerServiceImpl(TickerServiceOptions.builder()
+                .refreshPeriodMillis(INDEX_UPDATE_PERIOD_MS)
+                .slotMillis(SLOT_MS)
+                .statisticsMode(mode)
+                .instrumentRetentionMillis(INSTRUMENT_RETENTION_MS)
+                .build(), new SimpleMeterRegistry());
+        names = BenchmarkTicks.instruments(instruments);
+        // Every instrument has statistics before the measurement starts
+        long now = System.currentTimeMillis();
+        for (String name : names) {
+            service.addTick(new Tick(name, 100.0, now));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.close();
+    }
+
+    /**
+     * Pre-generated ticks of one thread. They are regenerated every iteration, so that their
+     * timestamps stay inside the window, and cycled through during the iteration.
+     */
+    @State(Scope.Thread)
+    public static class ThreadTicks {
+        private final Tick[] ticks = new Tick[4_096];
+        private final TickBatch batch = new TickBatch(BATCH_SIZE);
+        private int next;
+
+        @Setup(Level.Iteration)
+        public void generate(TickerServiceBenchmark benchmark) {
+            long now = System.currentTimeMillis();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < ticks.length; i++) {
+                ticks[i] = new Tick(benchmark.names[random.nextInt(benchmark.names.length)],
+                        100 + random.nextDouble() * 10, now - random.nextInt(1_000));
+            }
+            batch.clear();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                batch.add(ticks[i].getInstrument(), ticks[i].getPrice(), ticks[i].getTimestamp());
+            }
+        }
+
+        private Tick next() {
+            Tick tick = ticks[next];
+            next = (next + 1) & (ticks.length - 1);
+            return tick;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean addTick(ThreadTicks ticks) {
+        return service.addTick(ticks.next());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean addTickMultiThreaded(ThreadTicks ticks) {
+        return service.addTick(ticks.next());
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int addTicksBatch(ThreadTicks ticks) {
+        return service.addTicks(ticks.batch);
+    }
+
+    @Benchmark
+    @Group("totalUnderWrites")
+    @GroupThreads(3)
+    public boolean totalUnderWritesWriter(ThreadTicks ticks) {
+        return service.addTick(ticks.next());
+    }
+
+    @Benchmark
+    @Group("totalUnderWrites")
+    @GroupThreads(1)
+    public TickerStatistics totalUnderWritesReader() {
+        return service.getStatistics();
+    }
+
+    @Benchmark
+    @Group("instrumentUnderWrites")
+    @GroupThreads(3)
+    public boolean instrumentUnderWritesWriter(ThreadTicks ticks) {
+        return service.addTick(ticks.next());
+    }
+
+    @Benchmark
+    @Group("instrumentUnderWrites")
+    @GroupThreads(1)
+    public Optional<TickerStatistics> instrumentUnderWritesReader(ThreadTicks ticks) {
+        return service.getStatistics(ticks.next().getInstrument());
+    }
+}
@@ -0,0 +1,108 @@
+package de.ovolynets.tickerstats.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Requests of one node to the internal endpoints of the others (see {@link ClusterController}),
+ * asynchronous, so that a scatter-gather waits for the slowest node rather than the sum of all.
+ * A response other than 2xx completes the future exceptionally.
+ */
+class ClusterClient {
+
+    private final HttpClient client;
+    private final ObjectMapper objectMapper;
+    private final Duration timeout;
+
+    ClusterClient(ObjectMapper objectMapper, Duration timeout) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+        this.objectMapper = objectMapper;
+        this.timeout = timeout;
+    }
+
+    CompletableFuture<Void> sendTicks(String node, byte[] body) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(node + ClusterController.TICKS_PATH))
+                .timeout(timeout)
+                .header("Content-Type", ForwardedTicks.CONTENT_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .thenApply((response) -> checked(node, response))
+                .thenApply((response) -> null);
+    }
+
+    /**
+     * @param instrument instrument ID, {@code null} for all instruments
+     * @param window window of the statistics, {@code null} for the default window
+     */
+    CompletableFuture<PartialStatistics> partial(String node, String instrument, Duration window) {
+        StringBuilder uri = new StringBuilder(node).append(ClusterController.PARTIALS_PATH).append('?');
+        if (instrument != null) {
+            uri.append("instrument=").append(URLEncoder.encode(instrument, StandardCharsets.UTF_8)).append('&');
+        }
+        if (window != null) {
+            uri.append("window=").append(window.toMillis()).append("ms");
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri.toString()))
+                .timeout(timeout)
+                .GET()
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply((response) -> read(checked(node, response).body(), PartialStatistics.class));
+    }
+
+    CompletableFuture<Void> sendView(String node, ClusterView view) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(node + ClusterController.VIEW_PATH))
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(write(view)))
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .thenApply((response) -> checked(node, response))
+                .thenApply((response) -> null);
+    }
+
+    private static <T> HttpResponse<T> checked(String node, HttpResponse<T> response) {
+        if (response.statusCode() / 100 != 2) {
+            throw new NodeRequestException(node + " answered " + response.request().uri().getPath() + " with "
+                    + response.statusCode());
+        }
+        return response;
+    }
+
+    private <T> T read(byte[] json, Class<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] write(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to write " + value.getClass().getSimpleName(), e);
+        }
+    }
+
+    static final class NodeRequestException extends RuntimeException {
+        NodeRequestException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package de.ovolynets.tickerstats.cluster;
+
+import de.ovolynets.tickerstats.service.UnknownWindowException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Endpoints of a node for the other nodes of the cluster, and for the administrator who changes its
+ * nodes. Ticks forwarded here and partial statistics read here are the ones of this node only.
+ */
+@RestController
+@RequestMapping("/api/cluster")
+@ConditionalOnProperty(name = "cluster-enabled", havingValue = "true")
+public class ClusterController {
+
+    static final String TICKS_PATH = "/api/cluster/ticks";
+    static final String PARTIALS_PATH = "/api/cluster/partials";
+    static final String VIEW_PATH = "/api/cluster/view";
+
+    private final ClusterTickerService clusterService;
+
+    @Autowired
+    public ClusterController(final ClusterTickerService clusterService) {
+        this.clusterService = clusterService;
+    }
+
+    // Ticks of the instruments of this node, forwarded by the node that took them, see ForwardedTicks
+    @PostMapping(value = "/ticks", consumes = ForwardedTicks.CONTENT_TYPE)
+    public Map<String, Integer> addForwardedTicks(@RequestBody byte[] body) {
+        return Map.of("accepted", clusterService.addLocalTicks(ForwardedTicks.decode(body)));
+    }
+
+    @GetMapping(value = "/partials", produces = MediaType.APPLICATION_JSON_VALUE)
+    public PartialStatistics getPartialStatistics(@RequestParam(required = false) String instrument,
+                                                  @RequestParam(required = false) String window) {
+        return clusterService.localPartial(instrument, window == null ? null : parseWindow(window));
+    }
+
+    @GetMapping(value = "/nodes", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ClusterView getNodes() {
+        return clusterService.view();
+    }
+
+    // Joins and leaves of nodes: the base URLs of all nodes of the cluster from now on
+    @PutMapping(value = "/nodes", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ClusterView changeNodes(@RequestBody List<String> nodes) {
+        return clusterService.changeNodes(nodes);
+    }
+
+    // Sent by the node the nodes have been changed through
+    @PutMapping(value = "/view", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Boolean> applyView(@RequestBody ClusterView view) {
+        return Map.of("applied", clusterService.apply(view));
+    }
+
+    private static Duration parseWindow(String window) {
+        try {
+            return DurationStyle.SIMPLE.parse(window);
+        } catch (IllegalArgumentException e) {
+            throw new UnknownWindowException("'" + window + "' is not a window, expected e.g. 10s, 5m or 1h");
+        }
+    }
+
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(UnknownWindowException.class)
+    public Map<String, String> handleUnknownWindow(UnknownWindowException ex) {
+        return Map.of("window", ex.getMessage());
+    }
+
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(IllegalArgumentException.class)
+    public Map<String, String> handleInvalidRequest(IllegalArgumentException ex) {
+        return Map.of("cluster", ex.getMessage());
+    }
+}
@@ -0,0 +1,148 @@
+package de.ovolynets.tickerstats.cluster;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Membership of the cluster as seen by one node: the current nodes with their {@link HashRing}, and
+ * the rings they replaced during the handover period.
+ * <p>
+ * Window data is not moved when instruments change their owner. New ticks go to the new owner right
+ * away, while the ticks the previous owner took stay there until they leave the windows. Reads of an
+ * instrument therefore merge the statistics of its owners under the current and the replaced rings
+ * (the partial aggregates of disjoint ticks merge exactly), until the handover period, at least the
+ * longest window, has passed. A node that left keeps being asked as long as it is reachable. Views
+ * carry the nodes they replace, so that a node that joins knows the previous owners, too.
+ * <p>
+ * The state is immutable and replaced as a whole, reads take no lock.
+ */
+class ClusterMembership {
+
+    private final int virtualNodes;
+    private final long handoverMillis;
+    private volatile State state;
+
+    ClusterMembership(List<String> nodes, int virtualNodes, long handoverMillis) {
+        this.virtualNodes = virtualNodes;
+        this.handoverMillis = handoverMillis;
+        this.state = new State(1, new HashRing(nodes, virtualNodes), List.of());
+    }
+
+    ClusterView view() {
+        return view(state.version, state.ring.nodes());
+    }
+
+    HashRing ring() {
+        return state.ring;
+    }
+
+    /**
+     * @return view with the given nodes and the next version, to be applied and sent to the other nodes
+     */
+    ClusterView next(List<String> nodes) {
+        return view(state.version + 1, List.copyOf(new LinkedHashSet<>(nodes)));
+    }
+
+    private ClusterView view(long version, List<String> nodes) {
+        State state = this.state;
+        List<List<String>> previous = new ArrayList<>();
+        if (version > state.version) {
+            previous.add(state.ring.nodes());
+        }
+        for (int i = state.replaced.size() - 1; i >= 0; i--) {
+            previous.add(state.replaced.get(i).ring.nodes());
+        }
+        return new ClusterView(version, nodes, previous);
+    }
+
+    /**
+     * Applies the view if it is newer than the current one
+     *
+     * @return whether the view has been applied
+     */
+    synchronized boolean update(ClusterView view, long now) {
+        State state = this.state;
+        if (view.getVersion() <= state.version) {
+            return false;
+        }
+        List<ReplacedRing> replaced = new ArrayList<>();
+        for (ReplacedRing ring : state.replaced) {
+            if (ring.replacedAt >= now - handoverMillis) {
+                replaced.add(ring);
+            }
+        }
+        replaced.add(new ReplacedRing(state.ring, now));
+        // Views this node has not seen are taken as replaced now, which rather extends their handover
+        for (List<String> nodes : view.getPrevious()) {
+            if (replaced.stream().noneMatch((ring) -> ring.ring.nodes().equals(nodes))) {
+                replaced.add(new ReplacedRing(new HashRing(nodes, virtualNodes), now));
+            }
+        }
+        this.state = new State(view.getVersion(), new HashRing(view.getNodes(), virtualNodes), List.copyOf(replaced));
+        return true;
+    }
+
+    /**
+     * @return nodes that may hold ticks of the instrument in the windows, the current owner first
+     */
+    List<String> holdersOf(String instrument, long now) {
+        State state = this.state;
+        String owner = state.ring.ownerOf(instrument);
+        if (state.replaced.isEmpty()) {
+            return List.of(owner);
+        }
+        Set<String> holders = new LinkedHashSet<>();
+        holders.add(owner);
+        for (ReplacedRing ring : state.replaced) {
+            if (ring.replacedAt >= now - handoverMillis) {
+                holders.add(ring.ring.ownerOf(instrument));
+            }
+        }
+        return List.copyOf(holders);
+    }
+
+    /**
+     * @return nodes that may hold ticks in the windows, the current nodes first
+     */
+    List<String> holders(long now) {
+        State state = this.state;
+        if (state.replaced.isEmpty()) {
+            return state.ring.nodes();
+        }
+        Set<String> holders = new LinkedHashSet<>(state.ring.nodes());
+        for (ReplacedRing ring : state.replaced) {
+            if (ring.replacedAt >= now - handoverMillis) {
+                holders.addAll(ring.ring.nodes());
+            }
+        }
+        return List.copyOf(holders);
+    }
+
+    boolean isCurrent(String node) {
+        return state.ring.nodes().contains(node);
+    }
+
+    private static final class State {
+        private final long version;
+        private final HashRing ring;
+        private final List<ReplacedRing> replaced;
+
+        private State(long version, HashRing ring, List<ReplacedRing> replaced) {
+            this.version = version;
+            this.ring = ring;
+            this.replaced = replaced;
+        }
+    }
+
+    private static final class ReplacedRing {
+        private final HashRing ring;
+        private final long replacedAt;
+
+        private ReplacedRing(HashRing ring, long replacedAt) {
+            this.ring = ring;
+            this.replacedAt = replacedAt;
+        }
+    }
+}
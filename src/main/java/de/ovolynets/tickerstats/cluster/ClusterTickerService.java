@@ -0,0 +1,354 @@
+package de.ovolynets.tickerstats.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.ovolynets.tickerstats.controller.StatisticsUpdate;
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.BarCursor;
+import de.ovolynets.tickerstats.service.NodeUnavailableException;
+import de.ovolynets.tickerstats.service.Ranking;
+import de.ovolynets.tickerstats.service.TickBatch;
+import de.ovolynets.tickerstats.service.TickCounts;
+import de.ovolynets.tickerstats.service.TickOutcome;
+import de.ovolynets.tickerstats.service.TickerService;
+import de.ovolynets.tickerstats.service.UnsupportedInClusterException;
+import de.ovolynets.tickerstats.service.impl.TickClock;
+import de.ovolynets.tickerstats.service.impl.TickerServiceImpl;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * {@link TickerService} of a node of a cluster that partitions the instruments over its nodes by
+ * consistent hashing (see {@link HashRing}). Every node holds the windows of the instruments it owns
+ * in its local {@link TickerServiceImpl}, which this service wraps for the API and the binary feed.
+ * <p>
+ * Any node takes ticks: the ones of its own instruments are added locally, the others are forwarded
+ * to their owner in batches (see {@link TickForwarder}) if they are inside the windows. They are
+ * reported as forwarded rather than added, the owner applies its own admission, and as rejected if
+ * the outbox of the owner is full; {@link #addTick} and {@link #addTicks}, which have no way to tell
+ * them apart, count them as added. Statistics of an instrument are read from its
+ * owner, and while ownership is being handed over from its previous owners, too (see
+ * {@link ClusterMembership}). Overall statistics are gathered from all nodes: every node answers with
+ * the partial accumulator of the ticks it holds (see {@link PartialStatistics}), which are merged.
+ * Nodes are asked at the same time, a read waits for the slowest one. A current node that does not
+ * answer fails the read, a node that has left is skipped.
+ * <p>
+ * Statistics of other nodes may change without the local generation changing, so the generation
+ * moves on every {@code cluster-statistics-max-age-ms} instead. This service keeps no statistics of
+ * its own, every read asks the nodes; the readers that keep statistics per generation, the rendered
+ * statistics of the API and the topics of the subscriptions, read them again at least that often.
+ * Quantiles, rankings and history are not merged across the nodes, so they are rejected rather than
+ * served from the instruments the node owns as if those were all of them.
+ * <p>
+ * Nodes are changed by an administrator through any node (see {@link ClusterController}), which
+ * counts the version of the membership up and sends it to all nodes of the old and the new view.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "cluster-enabled", havingValue = "true")
+public class ClusterTickerService implements TickerService {
+
+    private final Logger logger = LoggerFactory.getLogger(ClusterTickerService.class);
+
+    private final TickerServiceImpl local;
+    private final String self;
+    private final ClusterMembership membership;
+    private final ClusterClient client;
+    private final TickForwarder forwarder;
+    private final long longestWindowMillis;
+    private final long statisticsMaxAgeMillis;
+    // Clock of the local service, which closes it, so that staleness and handovers follow its windows
+    private final TickClock clock;
+    private final Counter failedReads;
+
+    @Autowired
+    public ClusterTickerService(TickerServiceImpl local,
+                                @Value("${cluster-self:http://localhost:8080}") String self,
+                                @Value("${cluster-nodes:}") String nodes,
+                                @Value("${cluster-virtual-nodes:128}") int virtualNodes,
+                                @Value("${cluster-forward-batch-size:1000}") int forwardBatchSize,
+                                @Value("${cluster-forward-linger-ms:10}") long forwardLingerMillis,
+                                @Value("${cluster-forward-max-queued-batches:100}") int forwardMaxQueuedBatches,
+                                @Value("${cluster-request-timeout-ms:1000}") long requestTimeoutMillis,
+                                @Value("${cluster-statistics-max-age-ms:500}") long statisticsMaxAgeMillis,
+                                TickClock clock,
+                                ObjectMapper objectMapper,
+                                MeterRegistry meterRegistry) {
+        if (statisticsMaxAgeMillis < 1) {
+            throw new IllegalArgumentException("Statistics of the cluster need a positive maximum age: " + statisticsMaxAgeMillis);
+        }
+        this.local = local;
+        this.self = normalized(self);
+        List<Duration> windows = local.getWindows();
+        this.longestWindowMillis = windows.get(windows.size() - 1).toMillis();
+        this.membership = new ClusterMembership(nodesOf(nodes, this.self), virtualNodes, 2 * longestWindowMillis);
+        this.client = new ClusterClient(objectMapper, Duration.ofMillis(requestTimeoutMillis));
+        this.forwarder = new TickForwarder(client, forwardBatchSize, forwardLingerMillis, forwardMaxQueuedBatches,
+                meterRegistry);
+        this.statisticsMaxAgeMillis = statisticsMaxAgeMillis;
+        this.clock = clock;
+        failedReads = Counter.builder("tickerstats.cluster.reads.failed")
+                .description("Nodes that did not answer a read of statistics")
+                .register(meterRegistry);
+        Gauge.builder("tickerstats.cluster.nodes", membership, (current) -> current.ring().nodes().size())
+                .description("Nodes of the cluster the instruments are partitioned over")
+                .register(meterRegistry);
+        logger.info("Node {} of the cluster {}", this.self, membership.ring().nodes());
+    }
+
+    // The node itself is part of the cluster it is started with
+    private static List<String> nodesOf(String nodes, String self) {
+        Set<String> result = Arrays.stream(nodes.split(","))
+                .map(String::trim)
+                .filter((node) -> !node.isEmpty())
+                .map(ClusterTickerService::normalized)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        result.add(self);
+        return List.copyOf(result);
+    }
+
+    static String normalized(String node) {
+        return node.endsWith("/") ? node.substring(0, node.length() - 1) : node;
+    }
+
+    @Override
+    public boolean addTick(String instrument, double price, long timestamp) {
+        return addOrForwardTick(instrument, price, timestamp) != TickOutcome.REJECTED;
+    }
+
+    @Override
+    public TickOutcome addOrForwardTick(String instrument, double price, long timestamp) {
+        if (instrument.length() > MAX_INSTRUMENT_LENGTH) {
+            return TickOutcome.REJECTED;
+        }
+        String owner = membership.ring().ownerOf(instrument);
+        if (owner.equals(self)) {
+            return local.addTick(instrument, price, timestamp) ? TickOutcome.ADDED : TickOutcome.REJECTED;
+        }
+        if (timestamp < clock.millis() - longestWindowMillis
+                || !forwarder.forward(owner, instrument, price, timestamp)) {
+            return TickOutcome.REJECTED;
+        }
+        return TickOutcome.FORWARDED;
+    }
+
+    @Override
+    public int addTicks(TickBatch ticks) {
+        TickCounts counts = addOrForwardTicks(ticks);
+        return counts.getAdded() + counts.getForwarded();
+    }
+
+    @Override
+    public TickCounts addOrForwardTicks(TickBatch ticks) {
+        HashRing ring = membership.ring();
+        long staleBefore = clock.millis() - longestWindowMillis;
+        // Ticks of the own instruments, copied only once the batch turns out to have others
+        TickBatch owned = null;
+        int forwarded = 0;
+        for (int i = 0; i < ticks.size(); i++) {
+            String instrument = ticks.getInstrument(i);
+            if (instrument.length() > MAX_INSTRUMENT_LENGTH) {
+                owned = ownedBefore(ticks, i, owned);
+                continue;
+            }
+            String owner = ring.ownerOf(instrument);
+            if (owner.equals(self)) {
+                if (owned != null) {
+                    owned.add(instrument, ticks.getPrice(i), ticks.getTimestamp(i));
+                }
+                continue;
+            }
+            owned = ownedBefore(ticks, i, owned);
+            if (ticks.getTimestamp(i) >= staleBefore
+                    && forwarder.forward(owner, instrument, ticks.getPrice(i), ticks.getTimestamp(i))) {
+                forwarded++;
+            }
+        }
+        if (owned == null) {
+            return new TickCounts(local.addTicks(ticks), forwarded);
+        }
+        return new TickCounts(owned.size() > 0 ? local.addTicks(owned) : 0, forwarded);
+    }
+
+    private static TickBatch ownedBefore(TickBatch ticks, int index, TickBatch owned) {
+        if (owned != null) {
+            return owned;
+        }
+        owned = new TickBatch(ticks.size());
+        for (int i = 0; i < index; i++) {
+            owned.add(ticks.getInstrument(i), ticks.getPrice(i), ticks.getTimestamp(i));
+        }
+        return owned;
+    }
+
+    /**
+     * Adds ticks forwarded by another node, they are of instruments this node owns
+     */
+    int addLocalTicks(TickBatch ticks) {
+        return ticks.size() > 0 ? local.addTicks(ticks) : 0;
+    }
+
+    @Override
+    public void admitIngest() {
+        local.admitIngest();
+    }
+
+    @Override
+    public void releaseIngest() {
+        local.releaseIngest();
+    }
+
+    @Override
+    public TickerStatistics getStatistics() {
+        return gather(null, null, membership.holders(clock.millis())).toStatistics();
+    }
+
+    @Override
+    public TickerStatistics getStatistics(Duration window) {
+        return gather(null, window, membership.holders(clock.millis())).toStatistics();
+    }
+
+    @Override
+    public Optional<TickerStatistics> getStatistics(String instrumentId) {
+        return getStatistics(instrumentId, null);
+    }
+
+    @Override
+    public Optional<TickerStatistics> getStatistics(String instrumentId, Duration window) {
+        List<String> holders = membership.holdersOf(instrumentId, clock.millis());
+        if (holders.size() == 1 && holders.get(0).equals(self)) {
+            return window == null ? local.getStatistics(instrumentId) : local.getStatistics(instrumentId, window);
+        }
+        PartialStatistics partial = gather(instrumentId, window, holders);
+        return partial.getCount() == 0 ? Optional.empty() : Optional.of(partial.toStatistics());
+    }
+
+    /**
+     * @return statistics of the ticks this node holds, to be merged with the ones of the other nodes
+     */
+    PartialStatistics localPartial(String instrument, Duration window) {
+        if (instrument == null) {
+            return PartialStatistics.of(window == null ? local.getStatistics() : local.getStatistics(window));
+        }
+        return (window == null ? local.getStatistics(instrument) : local.getStatistics(instrument, window))
+                .map(PartialStatistics::of)
+                .orElse(PartialStatistics.EMPTY);
+    }
+
+    private PartialStatistics gather(String instrument, Duration window, List<String> nodes) {
+        List<CompletableFuture<PartialStatistics>> requests = new ArrayList<>(nodes.size());
+        for (String node : nodes) {
+            requests.add(node.equals(self) ? null : client.partial(node, instrument, window));
+        }
+        // Also rejects unknown windows before waiting for the other nodes
+        PartialStatistics result = nodes.contains(self) ? localPartial(instrument, window) : PartialStatistics.EMPTY;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (requests.get(i) == null) {
+                continue;
+            }
+            try {
+                result = result.merge(requests.get(i).get());
+            } catch (ExecutionException e) {
+                failedReads.increment();
+                if (membership.isCurrent(nodes.get(i))) {
+                    throw new NodeUnavailableException("Node " + nodes.get(i) + " of the cluster did not answer: "
+                            + e.getCause().getMessage(), e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NodeUnavailableException("Interrupted while waiting for " + nodes.get(i), e);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Optional<double[]> getQuantiles(String instrumentId, Duration window, double[] quantiles) {
+        throw new UnsupportedInClusterException("Quantiles are not served in cluster mode");
+    }
+
+    @Override
+    public List<StatisticsUpdate> getRankings(Ranking ranking, Duration window, int limit) {
+        throw new UnsupportedInClusterException("Rankings are not served in cluster mode");
+    }
+
+    @Override
+    public Optional<BarCursor> getHistory(String instrumentId, long from, long to, Duration resolution) {
+        throw new UnsupportedInClusterException("History is not served in cluster mode");
+    }
+
+    @Override
+    public long getGeneration() {
+        return clock.millis() / statisticsMaxAgeMillis;
+    }
+
+    @Override
+    public List<Duration> getWindows() {
+        return local.getWindows();
+    }
+
+    ClusterView view() {
+        return membership.view();
+    }
+
+    /**
+     * Changes the nodes of the cluster and sends the new view to the nodes of the old and the new one
+     */
+    ClusterView changeNodes(List<String> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A cluster needs at least one node");
+        }
+        List<String> previous = membership.ring().nodes();
+        ClusterView view = membership.next(nodes.stream().map(ClusterTickerService::normalized).collect(Collectors.toList()));
+        apply(view);
+        Set<String> recipients = new LinkedHashSet<>(previous);
+        recipients.addAll(view.getNodes());
+        recipients.remove(self);
+        for (String node : recipients) {
+            client.sendView(node, view).whenComplete((result, e) -> {
+                if (e != null) {
+                    logger.warn("Sending version {} of the cluster to {} failed: {}", view.getVersion(), node, e.getMessage());
+                }
+            });
+        }
+        return view;
+    }
+
+    /**
+     * Applies a view sent by another node, if it is newer than the current one
+     */
+    boolean apply(ClusterView view) {
+        boolean applied = membership.update(view, clock.millis());
+        if (applied) {
+            logger.info("Version {} of the cluster: {}", view.getVersion(), view.getNodes());
+        }
+        return applied;
+    }
+
+    /**
+     * Sends the ticks collected for other nodes and stops forwarding
+     */
+    @PreDestroy
+    public void close() {
+        forwarder.close();
+    }
+}
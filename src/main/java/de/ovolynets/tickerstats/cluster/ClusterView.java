@@ -0,0 +1,35 @@
+package de.ovolynets.tickerstats.cluster;
+
+import java.util.List;
+
+/**
+ * Nodes of the cluster by their base URL, e.g. {@code http://host:8080}, and the version of the
+ * membership. Every change of the nodes counts the version up, nodes only apply newer versions.
+ * The nodes of the views that are still being handed over from, most recent first, let a node that
+ * joins read the ticks the previous owners of its instruments took.
+ */
+public class ClusterView {
+    private long version;
+    private List<String> nodes;
+    private List<List<String>> previous = List.of();
+
+    public ClusterView() {}
+
+    public ClusterView(long version, List<String> nodes, List<List<String>> previous) {
+        this.version = version;
+        this.nodes = nodes;
+        this.previous = previous;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    public List<List<String>> getPrevious() {
+        return previous;
+    }
+}
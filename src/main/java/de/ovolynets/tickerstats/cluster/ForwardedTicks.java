@@ -0,0 +1,77 @@
+package de.ovolynets.tickerstats.cluster;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Body of ticks forwarded to their owner, all numbers big-endian, like the ticks of a frame of the
+ * binary feed.
+ * <pre>
+ * int32   number of ticks, followed by every tick:
+ *         uint16  length of the instrument in UTF-8 bytes, then the instrument
+ *         float64 price
+ *         int64   timestamp in milliseconds since the epoch
+ * </pre>
+ * Forwarded ticks have been validated by the node that took them.
+ */
+final class ForwardedTicks {
+
+    static final String CONTENT_TYPE = "application/octet-stream";
+
+    private static final int COUNT_BYTES = 4;
+    // Length of the instrument, price and timestamp
+    private static final int TICK_FIXED_BYTES = 18;
+
+    private ForwardedTicks() {}
+
+    static byte[] encode(TickBatch batch) {
+        byte[][] instruments = new byte[batch.size()][];
+        int length = COUNT_BYTES;
+        for (int i = 0; i < batch.size(); i++) {
+            instruments[i] = batch.getInstrument(i).getBytes(StandardCharsets.UTF_8);
+            length += TICK_FIXED_BYTES + instruments[i].length;
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        body.putInt(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            body.putShort((short) instruments[i].length)
+                    .put(instruments[i])
+                    .putDouble(batch.getPrice(i))
+                    .putLong(batch.getTimestamp(i));
+        }
+        return body.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the body does not follow the format
+     */
+    static TickBatch decode(byte[] bytes) {
+        ByteBuffer body = ByteBuffer.wrap(bytes);
+        if (body.remaining() < COUNT_BYTES) {
+            throw new IllegalArgumentException("Body of " + bytes.length + " bytes has no number of ticks");
+        }
+        int count = body.getInt();
+        if (count < 0 || count > body.remaining() / TICK_FIXED_BYTES) {
+            throw new IllegalArgumentException("Body of " + bytes.length + " bytes cannot hold " + count + " ticks");
+        }
+        TickBatch batch = new TickBatch(Math.max(count, 1));
+        for (int i = 0; i < count; i++) {
+            if (body.remaining() < TICK_FIXED_BYTES) {
+                throw new IllegalArgumentException("Body ends within tick " + i);
+            }
+            int length = Short.toUnsignedInt(body.getShort());
+            if (body.remaining() < length + TICK_FIXED_BYTES - 2) {
+                throw new IllegalArgumentException("Body ends within tick " + i);
+            }
+            String instrument = new String(bytes, body.position(), length, StandardCharsets.UTF_8);
+            body.position(body.position() + length);
+            batch.add(instrument, body.getDouble(), body.getLong());
+        }
+        if (body.hasRemaining()) {
+            throw new IllegalArgumentException("Body has " + body.remaining() + " bytes after its ticks");
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,72 @@
+package de.ovolynets.tickerstats.cluster;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hashing of instruments to the nodes of the cluster. Every node is placed on a ring of
+ * 64-bit hashes at a number of virtual points, an instrument is owned by the node of the first point
+ * at or after its hash. A node that joins or leaves therefore only moves the instruments between its
+ * points and the preceding ones, about {@code 1 / nodes} of them, and the virtual points spread the
+ * instruments evenly. Rings are immutable, a change of the nodes creates a new one.
+ */
+final class HashRing {
+
+    private final List<String> nodes;
+    // Points of all nodes in ascending order, and the node of every point
+    private final long[] points;
+    private final String[] owners;
+
+    HashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs nodes and at least one point per node: " + nodes
+                    + ", " + virtualNodes);
+        }
+        this.nodes = List.copyOf(nodes);
+        int size = nodes.size() * virtualNodes;
+        long[] keys = new long[size];
+        for (int i = 0; i < nodes.size(); i++) {
+            for (int point = 0; point < virtualNodes; point++) {
+                // Sorted along with the index of the point, so that the owner can be looked up afterwards
+                keys[i * virtualNodes + point] = hash(nodes.get(i) + "#" + point);
+            }
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+        points = new long[size];
+        owners = new String[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = keys[order[i]];
+            owners[i] = nodes.get(order[i] / virtualNodes);
+        }
+    }
+
+    String ownerOf(String instrument) {
+        int index = Arrays.binarySearch(points, hash(instrument));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    List<String> nodes() {
+        return nodes;
+    }
+
+    // FNV-1a over the characters, finished with the mixer of MurmurHash3 so that similar names spread
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,66 @@
+package de.ovolynets.tickerstats.cluster;
+
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+
+/**
+ * Statistics of the ticks one node holds as a mergeable accumulator: sum, count, min and max of the
+ * prices. The nodes hold disjoint ticks and answer with the sum their engine has added up, so the
+ * merge of their partial statistics is exact up to the rounding of adding the sums of the nodes.
+ */
+public class PartialStatistics {
+
+    static final PartialStatistics EMPTY = new PartialStatistics(0, 0, 0, 0);
+
+    private double sum;
+    private long count;
+    private double min;
+    private double max;
+
+    public PartialStatistics() {}
+
+    public PartialStatistics(double sum, long count, double min, double max) {
+        this.sum = sum;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+    }
+
+    // Statistics of the local service, which carry the sum of its engine
+    static PartialStatistics of(TickerStatistics statistics) {
+        return statistics.getCount() == 0
+                ? EMPTY
+                : new PartialStatistics(statistics.getSum(), statistics.getCount(), statistics.getMin(),
+                statistics.getMax());
+    }
+
+    PartialStatistics merge(PartialStatistics other) {
+        if (other.count == 0) {
+            return this;
+        }
+        if (count == 0) {
+            return other;
+        }
+        return new PartialStatistics(sum + other.sum, count + other.count, Math.min(min, other.min),
+                Math.max(max, other.max));
+    }
+
+    TickerStatistics toStatistics() {
+        return count == 0 ? new TickerStatistics(0, 0, 0, 0) : TickerStatistics.ofSum(sum, max, min, count);
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+}
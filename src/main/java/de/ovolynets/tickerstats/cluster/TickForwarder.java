@@ -0,0 +1,172 @@
+package de.ovolynets.tickerstats.cluster;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forwards ticks to the nodes that own their instruments, in batches. Every node has an outbox
+ * that collects ticks into a batch, which is sent once it is full or has lingered for the linger
+ * time, whichever comes first. At most {@value #SENDS_PER_NODE} batches per node are sent at the same
+ * time, further full batches queue up in the outbox.
+ * <p>
+ * The outbox of a node that does not keep up is bounded: ticks that find its queue full are dropped,
+ * as are the ticks of a batch the node fails to take. Forwarding is not retried, a node that has
+ * failed may have applied the batch anyway. Both are counted, like the ticks that have been sent, and
+ * only the first failure of a series is logged.
+ */
+class TickForwarder {
+
+    private static final int SENDS_PER_NODE = 2;
+
+    private final Logger logger = LoggerFactory.getLogger(TickForwarder.class);
+
+    private final ClusterClient client;
+    private final int batchSize;
+    private final int maxQueuedBatches;
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    private final Counter sentTicks;
+    private final Counter failedTicks;
+    private final Counter droppedTicks;
+
+    TickForwarder(ClusterClient client, int batchSize, long lingerMillis, int maxQueuedBatches,
+                  MeterRegistry meterRegistry) {
+        if (batchSize < 1 || lingerMillis < 1 || maxQueuedBatches < 1) {
+            throw new IllegalArgumentException("Forwarding needs positive batch sizes, linger times and queues: "
+                    + batchSize + ", " + lingerMillis + ", " + maxQueuedBatches);
+        }
+        this.client = client;
+        this.batchSize = batchSize;
+        this.maxQueuedBatches = maxQueuedBatches;
+        sentTicks = forwardedTicks(meterRegistry, "sent", "Ticks forwarded to the node that owns their instrument");
+        failedTicks = forwardedTicks(meterRegistry, "failed", "Ticks of batches the owner failed to take");
+        droppedTicks = forwardedTicks(meterRegistry, "dropped", "Ticks dropped because the outbox of the owner was full");
+        flusher = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "tick-forwarder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static Counter forwardedTicks(MeterRegistry meterRegistry, String result, String description) {
+        return Counter.builder("tickerstats.cluster.forwarded")
+                .description(description)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return {@code false} if the tick has been dropped because the outbox of the node is full
+     */
+    boolean forward(String node, String instrument, double price, long timestamp) {
+        Outbox outbox = outboxes.computeIfAbsent(node, Outbox::new);
+        TickBatch ready;
+        synchronized (outbox) {
+            if (outbox.current.isFull()) {
+                if (outbox.queued.size() >= maxQueuedBatches) {
+                    droppedTicks.increment();
+                    return false;
+                }
+                outbox.queued.addLast(outbox.current);
+                outbox.current = new TickBatch(batchSize);
+            }
+            outbox.current.add(instrument, price, timestamp);
+            ready = outbox.current.isFull() ? outbox.take() : null;
+        }
+        if (ready != null) {
+            send(outbox, ready);
+        }
+        return true;
+    }
+
+    // Sends the batches that have lingered, and the queued ones there is room for
+    private void flush() {
+        for (Outbox outbox : outboxes.values()) {
+            TickBatch ready;
+            synchronized (outbox) {
+                if (outbox.current.size() > 0 && outbox.queued.size() < maxQueuedBatches) {
+                    outbox.queued.addLast(outbox.current);
+                    outbox.current = new TickBatch(batchSize);
+                }
+                ready = outbox.take();
+            }
+            if (ready != null) {
+                send(outbox, ready);
+            }
+        }
+    }
+
+    private void send(Outbox outbox, TickBatch batch) {
+        client.sendTicks(outbox.node, ForwardedTicks.encode(batch)).whenComplete((result, e) -> {
+            TickBatch next;
+            boolean failing;
+            synchronized (outbox) {
+                // Only the first of a series of failures is logged, the counter tells how many there are
+                failing = e != null && !outbox.failing;
+                outbox.failing = e != null;
+                outbox.sending--;
+                next = outbox.take();
+            }
+            if (e == null) {
+                sentTicks.increment(batch.size());
+            } else {
+                failedTicks.increment(batch.size());
+                if (failing) {
+                    logger.warn("Forwarding ticks to {} failed: {}", outbox.node, e.getMessage());
+                }
+            }
+            if (next != null) {
+                send(outbox, next);
+            }
+        });
+    }
+
+    /**
+     * Sends what has been collected so far and stops forwarding, batches still being sent may complete
+     */
+    void close() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    private final class Outbox {
+        private final String node;
+        // Guarded by the outbox
+        private TickBatch current = new TickBatch(batchSize);
+        private final ArrayDeque<TickBatch> queued = new ArrayDeque<>();
+        private int sending;
+        private boolean failing;
+
+        private Outbox(String node) {
+            this.node = node;
+        }
+
+        // Next batch to send, if there is one and room to send it; the current one if it is full
+        private TickBatch take() {
+            if (sending >= SENDS_PER_NODE) {
+                return null;
+            }
+            TickBatch batch = queued.pollFirst();
+            if (batch == null && current.isFull()) {
+                batch = current;
+                current = new TickBatch(batchSize);
+            }
+            if (batch != null) {
+                sending++;
+            }
+            return batch;
+        }
+    }
+}
@@ -1,70 +1,428 @@
 package de.ovolynets.tickerstats.controller;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.ovolynets.tickerstats.service.BarCursor;
+import de.ovolynets.tickerstats.service.InvalidHistoryRequestException;
+import de.ovolynets.tickerstats.service.InvalidQuantilesException;
+import de.ovolynets.tickerstats.service.InvalidRankingException;
+import de.ovolynets.tickerstats.service.NodeUnavailableException;
+import de.ovolynets.tickerstats.service.OverloadedException;
+import de.ovolynets.tickerstats.service.Ranking;
+import de.ovolynets.tickerstats.service.StatisticsPublisher;
+import de.ovolynets.tickerstats.service.TickBatch;
+import de.ovolynets.tickerstats.service.TickCounts;
+import de.ovolynets.tickerstats.service.TickOutcome;
 import de.ovolynets.tickerstats.service.TickerService;
+import de.ovolynets.tickerstats.service.UnknownWindowException;
+import de.ovolynets.tickerstats.service.UnsupportedInClusterException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
+import org.springframework.boot.convert.DurationStyle;
+
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 
-import org.springframework.validation.FieldError;
-import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import javax.validation.Valid;
+import javax.servlet.http.HttpServletResponse;
 
 @RestController
 @RequestMapping("/api/")
 public class APIController {
 
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    // Number of ticks of a batch request handed over to the service at once
+    private static final int BATCH_CHUNK_SIZE = 1_000;
+
+    // Number of ranked instruments returned if the request does not limit them
+    private static final int DEFAULT_RANKING_LIMIT = 10;
+
     private final TickerService tickerService;
+    private final StatisticsPublisher statisticsPublisher;
+    private final ObjectMapper objectMapper;
+    private final TickParser tickParser;
+    private final TickParser.TickHandler<TickOutcome> tickHandler;
+    // JSON of the statistics, rendered once per generation of the statistics
+    private final RenderedStatistics renderedStatistics;
+    // Tells the ETags of different runs apart, as the generation of the statistics starts over on every run
+    private final String etagPrefix = Long.toHexString(System.currentTimeMillis());
+    // Event streams are closed after this time, clients are expected to reconnect
+    private final long subscriptionTimeoutMillis;
 
     @Autowired
-    public APIController(final TickerService tickerService) {
+    public APIController(final TickerService tickerService, final StatisticsPublisher statisticsPublisher,
+                         final ObjectMapper objectMapper,
+                         @Value("${subscription-timeout-ms:3600000}") final long subscriptionTimeoutMillis,
+                         @Value("${statistics-cache-max-entries:100000}") final int cacheMaxEntries) {
         this.tickerService = tickerService;
+        this.statisticsPublisher = statisticsPublisher;
+        this.objectMapper = objectMapper;
+        this.tickParser = new TickParser(objectMapper.getFactory());
+        this.tickHandler = tickerService::addOrForwardTick;
+        this.renderedStatistics = new RenderedStatistics(tickerService, objectMapper, cacheMaxEntries);
+        this.subscriptionTimeoutMillis = subscriptionTimeoutMillis;
     }
 
+    // Parsed and validated straight into primitives rather than bound to a Tick, see TickParser
     @PostMapping(value = "/ticks", consumes = MediaType.APPLICATION_JSON_VALUE)
-    ResponseEntity<Void> postTicks(@Valid @RequestBody Tick tick) {
-        if (tickerService.addTick(tick)) {
-            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).build();
-        } else {
-            return ResponseEntity.noContent().build();
+    ResponseEntity<Void> postTicks(InputStream body) throws IOException {
+        tickerService.admitIngest();
+        try {
+            switch (tickParser.read(body, tickHandler)) {
+                case ADDED:
+                    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).build();
+                case FORWARDED:
+                    // The node that owns the instrument has yet to admit the tick
+                    return ResponseEntity.accepted().build();
+                default:
+                    return ResponseEntity.noContent().build();
+            }
+        } finally {
+            tickerService.releaseIngest();
+        }
+    }
+
+    @PostMapping(value = "/ticks/batch",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE},
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    ResponseEntity<BatchResult> postTickBatch(InputStream body) throws IOException {
+        // Ticks are parsed from the stream and applied in chunks, so that even large
+        // payloads are never kept in memory as a whole. A malformed part therefore fails the
+        // request after the ticks before it have been applied, which the error reports, so that
+        // a client resends the ticks after them only
+        tickerService.admitIngest();
+        try {
+            TickStreamReader reader = new TickStreamReader(objectMapper.getFactory(), body);
+            TickBatch batch = new TickBatch(BATCH_CHUNK_SIZE);
+            long accepted = 0;
+            long forwarded = 0;
+            long stale = 0;
+            while (!reader.isFinished()) {
+                batch.clear();
+                JsonProcessingException malformed = null;
+                try {
+                    reader.readInto(batch);
+                } catch (JsonProcessingException e) {
+                    malformed = e;
+                }
+                TickCounts counts = tickerService.addOrForwardTicks(batch);
+                accepted += counts.getAdded();
+                forwarded += counts.getForwarded();
+                stale += batch.size() - counts.getAdded() - counts.getForwarded();
+                if (malformed != null) {
+                    throw new MalformedBatchException(malformed.getOriginalMessage(),
+                            new BatchResult(accepted, forwarded, stale, reader.getInvalid()));
+                }
+            }
+            return ResponseEntity.ok(new BatchResult(accepted, forwarded, stale, reader.getInvalid()));
+        } finally {
+            tickerService.releaseIngest();
         }
     }
 
     @GetMapping(value = "/statistics", produces = MediaType.APPLICATION_JSON_VALUE)
-    ResponseEntity<TickerStatistics> getStatistics() {
-        TickerStatistics result = tickerService.getStatistics();
-        return ResponseEntity.ok(result);
+    ResponseEntity<byte[]> getStatistics(@RequestParam(value = "window", required = false) final String window,
+                                         @RequestParam(value = "quantiles", required = false) final List<String> quantiles,
+                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        Duration duration = window == null ? null : parseWindow(window);
+        if (quantiles != null) {
+            // Quantiles are merged from the sketches on every request, there is nothing to cache
+            TickerStatistics result = duration == null
+                    ? tickerService.getStatistics()
+                    : tickerService.getStatistics(duration);
+            return ResponseEntity.ok(renderedStatistics.toJson(withQuantiles(result, null, duration, quantiles)));
+        }
+        long generation = tickerService.getGeneration();
+        String etag = etagOf(generation);
+        if (isNotModified(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok().eTag(etag).body(renderedStatistics.render(null, duration, generation));
     }
 
     @GetMapping(value = "/statistics/{instrumentId}", produces = MediaType.APPLICATION_JSON_VALUE)
-    ResponseEntity<TickerStatistics> getStatistics(@PathVariable("instrumentId") final String instrumentId) {
-        Optional<TickerStatistics> result = tickerService.getStatistics(instrumentId);
-        return result.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+    ResponseEntity<byte[]> getStatistics(@PathVariable("instrumentId") final String instrumentId,
+                                         @RequestParam(value = "window", required = false) final String window,
+                                         @RequestParam(value = "quantiles", required = false) final List<String> quantiles,
+                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        Duration duration = window == null ? null : parseWindow(window);
+        if (quantiles != null) {
+            Optional<TickerStatistics> result = duration == null
+                    ? tickerService.getStatistics(instrumentId)
+                    : tickerService.getStatistics(instrumentId, duration);
+            return result.map((statistics) -> withQuantiles(statistics, instrumentId, duration, quantiles))
+                    .map((statistics) -> ResponseEntity.ok(renderedStatistics.toJson(statistics)))
+                    .orElseGet(() -> ResponseEntity.notFound().build());
+        }
+        long generation = tickerService.getGeneration();
+        String etag = etagOf(generation);
+        if (isNotModified(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        byte[] json = renderedStatistics.render(instrumentId, duration, generation);
+        return json == null ? ResponseEntity.notFound().build() : ResponseEntity.ok().eTag(etag).body(json);
+    }
+
+    // Statistics of many instruments at once, e.g. ?ids=IBM.N,KO
+    @GetMapping(value = "/statistics", params = "ids", produces = MediaType.APPLICATION_JSON_VALUE)
+    ResponseEntity<byte[]> getStatistics(@RequestParam("ids") final List<String> instrumentIds,
+                                         @RequestParam(value = "window", required = false) final String window,
+                                         @RequestParam(value = "quantiles", required = false) final List<String> quantiles,
+                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        Duration duration = window == null ? null : parseWindow(window);
+        if (quantiles != null) {
+            throw new InvalidQuantilesException("Quantiles are served for single instruments and the total only");
+        }
+        long generation = tickerService.getGeneration();
+        String etag = etagOf(generation);
+        if (isNotModified(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok().eTag(etag)
+                .body(renderedStatistics.renderAll(new LinkedHashSet<>(instrumentIds), duration, generation));
+    }
+
+    // Same as the GET variant for lists of IDs too long for a URL, the body is a JSON array of IDs.
+    // The response carries the ETag as the version of the statistics, but is never conditional
+    @PostMapping(value = "/statistics", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    ResponseEntity<byte[]> postStatisticsQuery(@RequestBody final List<String> instrumentIds,
+                                               @RequestParam(value = "window", required = false) final String window) {
+        Duration duration = window == null ? null : parseWindow(window);
+        long generation = tickerService.getGeneration();
+        return ResponseEntity.ok().eTag(etagOf(generation))
+                .body(renderedStatistics.renderAll(new LinkedHashSet<>(instrumentIds), duration, generation));
+    }
+
+    // Weak, as statistics read for a generation may already include some changes of the next one
+    private String etagOf(long generation) {
+        return "W/\"" + etagPrefix + "-" + generation + "\"";
+    }
+
+    private static boolean isNotModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = etag.substring(2);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            // Weak comparison, as required for If-None-Match
+            if (candidate.equals("*") || (candidate.startsWith("W/") ? candidate.substring(2) : candidate).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Quantiles are given as a comma-separated list, e.g. 0.5,0.99, and reported with the keys as given
+    private TickerStatistics withQuantiles(TickerStatistics statistics, String instrumentId, Duration window,
+                                           List<String> quantiles) {
+        double[] values = new double[quantiles.size()];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                values[i] = Double.parseDouble(quantiles.get(i));
+            } catch (NumberFormatException e) {
+                throw new InvalidQuantilesException("'" + quantiles.get(i) + "' is not a quantile, expected e.g. 0.5 or 0.99");
+            }
+        }
+        Map<String, Double> prices = new LinkedHashMap<>();
+        Optional<double[]> result = tickerService.getQuantiles(instrumentId, window, values);
+        for (int i = 0; i < values.length; i++) {
+            // The sketches are updated right away while the statistics may be one refresh behind
+            prices.put(quantiles.get(i), result.isPresent() ? result.get()[i] : null);
+        }
+        return new TickerStatistics(statistics.getAvg(), statistics.getMax(), statistics.getMin(),
+                statistics.getCount(), prices);
+    }
+
+    // Instruments ranked by their statistics, e.g. ?by=range&limit=10 for the biggest movers of the default window
+    @GetMapping(value = "/rankings", produces = MediaType.APPLICATION_JSON_VALUE)
+    List<StatisticsUpdate> getRankings(@RequestParam(value = "by", required = false) final String by,
+                                       @RequestParam(value = "limit", required = false) final String limit,
+                                       @RequestParam(value = "window", required = false) final String window) {
+        Ranking ranking = by == null ? Ranking.COUNT : Ranking.fromParameter(by);
+        return tickerService.getRankings(ranking, window == null ? null : parseWindow(window),
+                limit == null ? DEFAULT_RANKING_LIMIT : parseLimit(limit));
+    }
+
+    private static int parseLimit(String limit) {
+        try {
+            return Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            throw new InvalidRankingException("'" + limit + "' is not a limit, expected e.g. 10");
+        }
+    }
+
+    // Bars are written as they are read from the history, a long range is never held in memory as a whole
+    @GetMapping(value = "/history/{instrumentId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    void getHistory(@PathVariable("instrumentId") final String instrumentId,
+                    @RequestParam(value = "from", required = false) final Long from,
+                    @RequestParam(value = "to", required = false) final Long to,
+                    @RequestParam(value = "resolution", required = false) final String resolution,
+                    final HttpServletResponse response) throws IOException {
+        Optional<BarCursor> result = tickerService.getHistory(instrumentId,
+                from == null ? Long.MIN_VALUE : from, to == null ? Long.MAX_VALUE : to,
+                resolution == null ? null : parseResolution(resolution));
+        if (result.isEmpty()) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        BarCursor bars = result.get();
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartObject();
+            generator.writeStringField("instrument", instrumentId);
+            generator.writeArrayFieldStart("bars");
+            while (bars.next()) {
+                generator.writeStartObject();
+                generator.writeNumberField("start", bars.getStart());
+                generator.writeNumberField("open", bars.getOpen());
+                generator.writeNumberField("high", bars.getHigh());
+                generator.writeNumberField("low", bars.getLow());
+                generator.writeNumberField("close", bars.getClose());
+                generator.writeNumberField("count", bars.getCount());
+                generator.writeNumberField("avg", bars.getAvg());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    // Resolutions are given like windows, e.g. 1m or 1h
+    private static Duration parseResolution(String resolution) {
+        try {
+            return DurationStyle.SIMPLE.parse(resolution);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidHistoryRequestException("'" + resolution + "' is not a resolution, expected e.g. 1m or 1h");
+        }
+    }
+
+    @GetMapping(value = "/subscriptions", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    ResponseEntity<SseEmitter> subscribe(@RequestParam(value = "instruments", required = false) final List<String> instruments,
+                                         @RequestParam(value = "window", required = false) final String window) {
+        SseEmitter emitter = new SseEmitter(subscriptionTimeoutMillis);
+        StatisticsPublisher.Subscription subscription;
+        try {
+            subscription = statisticsPublisher.subscribe(instruments == null ? List.of() : instruments,
+                    window == null ? null : parseWindow(window), new SseStatisticsSubscriber(emitter));
+        } catch (UnknownWindowException e) {
+            // An event stream cannot carry the JSON error of the other endpoints
+            return ResponseEntity.badRequest().build();
+        }
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError((e) -> subscription.cancel());
+        return ResponseEntity.ok(emitter);
+    }
+
+    // Windows are given like in the configuration, e.g. 10s, 5m or 1h
+    private static Duration parseWindow(String window) {
+        try {
+            return DurationStyle.SIMPLE.parse(window);
+        } catch (IllegalArgumentException e) {
+            throw new UnknownWindowException("'" + window + "' is not a window, expected e.g. 10s, 5m or 1h");
+        }
+    }
+
+    // The message of every violated constraint of a Tick by field, like the bean validation of a Tick reported them
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(InvalidTickException.class)
+    public Map<String, String> handleInvalidTick(InvalidTickException ex) {
+        return ex.getErrors();
+    }
+
+    // Shed before any tick of the request has been added, so the client retries the whole request
+    @ExceptionHandler(OverloadedException.class)
+    public ResponseEntity<Map<String, String>> handleOverloaded(OverloadedException ex) {
+        HttpStatus status = ex.getReason() == OverloadedException.Reason.TOO_MANY_INGESTS
+                ? HttpStatus.TOO_MANY_REQUESTS
+                : HttpStatus.SERVICE_UNAVAILABLE;
+        long retryAfterSeconds = Math.max(1, (ex.getRetryAfter().toMillis() + 999) / 1_000);
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds))
+                .body(Map.of("ticks", ex.getMessage()));
+    }
+
+    // Only in cluster mode, when a node that holds some of the statistics does not answer
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ExceptionHandler(NodeUnavailableException.class)
+    public Map<String, String> handleNodeUnavailable(NodeUnavailableException ex) {
+        return Map.of("cluster", ex.getMessage());
+    }
+
+    // Only in cluster mode, for queries that are not merged across the nodes
+    @ResponseStatus(HttpStatus.NOT_IMPLEMENTED)
+    @ExceptionHandler(UnsupportedInClusterException.class)
+    public Map<String, String> handleUnsupportedInCluster(UnsupportedInClusterException ex) {
+        return Map.of("cluster", ex.getMessage());
+    }
+
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(UnknownWindowException.class)
+    public Map<String, String> handleUnknownWindow(UnknownWindowException ex) {
+        return Map.of("window", ex.getMessage());
     }
 
     @ResponseStatus(HttpStatus.BAD_REQUEST)
-    @ExceptionHandler(MethodArgumentNotValidException.class)
-    public Map<String, String> handleValidationExceptions(MethodArgumentNotValidException ex) {
-        Map<String, String> errors = new HashMap<>();
-        ex.getBindingResult().getAllErrors().forEach((error) -> {
-            String fieldName = ((FieldError) error).getField();
-            String errorMessage = error.getDefaultMessage();
-            errors.put(fieldName, errorMessage);
-        });
+    @ExceptionHandler(InvalidQuantilesException.class)
+    public Map<String, String> handleInvalidQuantiles(InvalidQuantilesException ex) {
+        return Map.of("quantiles", ex.getMessage());
+    }
+
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(InvalidRankingException.class)
+    public Map<String, String> handleInvalidRanking(InvalidRankingException ex) {
+        return Map.of("rankings", ex.getMessage());
+    }
+
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(InvalidHistoryRequestException.class)
+    public Map<String, String> handleInvalidHistoryRequest(InvalidHistoryRequestException ex) {
+        return Map.of("history", ex.getMessage());
+    }
+
+    // The counts of the ticks before the malformed part, which have been added
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(MalformedBatchException.class)
+    public Map<String, Object> handlePartlyAppliedBatch(MalformedBatchException ex) {
+        Map<String, Object> errors = new LinkedHashMap<>();
+        errors.put("body", ex.getMessage());
+        errors.put("accepted", ex.getApplied().getAccepted());
+        errors.put("forwarded", ex.getApplied().getForwarded());
+        errors.put("stale", ex.getApplied().getStale());
+        errors.put("invalid", ex.getApplied().getInvalid());
         return errors;
     }
+
+    // Bodies that are not well-formed JSON, or with a field of the wrong type
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(JsonProcessingException.class)
+    public Map<String, String> handleMalformedJson(JsonProcessingException ex) {
+        return Map.of("body", ex.getOriginalMessage());
+    }
 }
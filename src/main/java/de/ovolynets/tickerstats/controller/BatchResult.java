@@ -0,0 +1,33 @@
+package de.ovolynets.tickerstats.controller;
+
+public class BatchResult {
+    private long accepted;
+    private long forwarded;
+    private long stale;
+    private long invalid;
+
+    public BatchResult() {}
+
+    public BatchResult(long accepted, long forwarded, long stale, long invalid) {
+        this.accepted = accepted;
+        this.forwarded = forwarded;
+        this.stale = stale;
+        this.invalid = invalid;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getForwarded() {
+        return forwarded;
+    }
+
+    public long getStale() {
+        return stale;
+    }
+
+    public long getInvalid() {
+        return invalid;
+    }
+}
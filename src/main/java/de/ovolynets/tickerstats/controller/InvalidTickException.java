@@ -0,0 +1,20 @@
+package de.ovolynets.tickerstats.controller;
+
+import java.util.Map;
+
+/**
+ * Thrown when a tick violates a constraint of {@link Tick}, with the message of every violated constraint by field
+ */
+class InvalidTickException extends RuntimeException {
+
+    private final Map<String, String> errors;
+
+    InvalidTickException(Map<String, String> errors) {
+        super("Invalid tick: " + errors);
+        this.errors = errors;
+    }
+
+    Map<String, String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,19 @@
+package de.ovolynets.tickerstats.controller;
+
+/**
+ * Thrown when a batch of ticks turns out not to be well-formed JSON after some of its ticks have been
+ * added, with the counts of the ticks before the malformed part
+ */
+class MalformedBatchException extends RuntimeException {
+
+    private final BatchResult applied;
+
+    MalformedBatchException(String message, BatchResult applied) {
+        super(message);
+        this.applied = applied;
+    }
+
+    BatchResult getApplied() {
+        return applied;
+    }
+}
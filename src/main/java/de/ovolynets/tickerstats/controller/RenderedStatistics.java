@@ -0,0 +1,170 @@
+package de.ovolynets.tickerstats.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.ovolynets.tickerstats.service.TickerService;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JSON of the statistics per instrument (or the total) and window, rendered at most once per
+ * generation of the statistics (see {@link TickerService#getGeneration()}), so that a read is mostly
+ * a copy of cached bytes instead of a serialization.
+ * <p>
+ * An entry is read again once the generation has moved past the one it has been rendered for, and
+ * only rendered again if its statistics differ. Instruments without data are not kept, and the cache
+ * is cleared when it reaches its maximum size, which bounds the memory held by instruments that are
+ * no longer requested.
+ */
+class RenderedStatistics {
+
+    private static final byte[] NO_STATISTICS = "null".getBytes(StandardCharsets.UTF_8);
+
+    private final TickerService tickerService;
+    private final ObjectMapper objectMapper;
+    private final int maxEntries;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    RenderedStatistics(TickerService tickerService, ObjectMapper objectMapper, int maxEntries) {
+        this.tickerService = tickerService;
+        this.objectMapper = objectMapper;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param instrument instrument ID, {@code null} for all instruments
+     * @param window window of the statistics, {@code null} for the default window
+     * @param generation generation of the statistics read before
+     * @return JSON of the statistics, {@code null} if there are no ticks of the instrument in the window
+     */
+    byte[] render(String instrument, Duration window, long generation) {
+        Entry entry = entryOf(instrument, window, generation);
+        return entry == null ? null : entry.json;
+    }
+
+    /**
+     * @return JSON object with the statistics of every instrument by its ID, {@code null} for
+     * instruments without ticks in the window
+     */
+    byte[] renderAll(Collection<String> instruments, Duration window, long generation) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(2 + 96 * instruments.size());
+        out.write('{');
+        for (String instrument : instruments) {
+            if (out.size() > 1) {
+                out.write(',');
+            }
+            Entry entry = entryOf(instrument, window, generation);
+            if (entry != null) {
+                out.writeBytes(entry.name);
+                out.writeBytes(entry.json);
+            } else {
+                out.writeBytes(nameOf(instrument));
+                out.writeBytes(NO_STATISTICS);
+            }
+        }
+        out.write('}');
+        return out.toByteArray();
+    }
+
+    byte[] toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to render " + value.getClass().getSimpleName(), e);
+        }
+    }
+
+    private Entry entryOf(String instrument, Duration window, long generation) {
+        Key key = new Key(instrument, window);
+        Entry entry = entries.get(key);
+        // Generations only grow, an entry rendered by a more recent request is just as good
+        if (entry != null && entry.generation >= generation) {
+            return entry;
+        }
+        TickerStatistics statistics = read(instrument, window);
+        if (statistics == null) {
+            entries.remove(key);
+            return null;
+        }
+        if (entry != null && statistics.equals(entry.statistics)) {
+            entry = new Entry(generation, statistics, entry.name, entry.json);
+        } else {
+            entry = new Entry(generation, statistics, entry != null ? entry.name : nameOf(instrument), toJson(statistics));
+        }
+        if (entries.size() >= maxEntries) {
+            entries.clear();
+        }
+        entries.put(key, entry);
+        return entry;
+    }
+
+    private TickerStatistics read(String instrument, Duration window) {
+        if (instrument == null) {
+            return window == null ? tickerService.getStatistics() : tickerService.getStatistics(window);
+        }
+        return (window == null
+                ? tickerService.getStatistics(instrument)
+                : tickerService.getStatistics(instrument, window)).orElse(null);
+    }
+
+    // Escaped name of a member of the JSON object, e.g. "IBM.N":
+    private byte[] nameOf(String instrument) {
+        if (instrument == null) {
+            return new byte[0];
+        }
+        byte[] name = toJson(instrument);
+        byte[] member = new byte[name.length + 1];
+        System.arraycopy(name, 0, member, 0, name.length);
+        member[name.length] = ':';
+        return member;
+    }
+
+    private static final class Key {
+        // null for all instruments
+        private final String instrument;
+        // null for the default window
+        private final Duration window;
+
+        private Key(String instrument, Duration window) {
+            this.instrument = instrument;
+            this.window = window;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(instrument, key.instrument) && Objects.equals(window, key.window);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(instrument, window);
+        }
+    }
+
+    private static final class Entry {
+        private final long generation;
+        private final TickerStatistics statistics;
+        private final byte[] name;
+        private final byte[] json;
+
+        private Entry(long generation, TickerStatistics statistics, byte[] name, byte[] json) {
+            this.generation = generation;
+            this.statistics = statistics;
+            this.name = name;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package de.ovolynets.tickerstats.controller;
+
+import de.ovolynets.tickerstats.service.StatisticsSubscriber;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Sends the updates of a subscription as server-sent events, one {@code statistics} event with a
+ * JSON array of {@link StatisticsUpdate}s per delivery
+ */
+class SseStatisticsSubscriber implements StatisticsSubscriber {
+
+    static final String EVENT_NAME = "statistics";
+
+    private final SseEmitter emitter;
+
+    SseStatisticsSubscriber(SseEmitter emitter) {
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void deliver(List<StatisticsUpdate> updates) throws IOException {
+        emitter.send(SseEmitter.event().name(EVENT_NAME).data(updates, MediaType.APPLICATION_JSON));
+    }
+
+    @Override
+    public void close() {
+        emitter.complete();
+    }
+}
@@ -0,0 +1,26 @@
+package de.ovolynets.tickerstats.controller;
+
+/**
+ * Changed statistics pushed to a subscriber
+ */
+public class StatisticsUpdate {
+    // null for the statistics over all instruments
+    private String instrument;
+    // null if there are no ticks of the instrument in the window
+    private TickerStatistics statistics;
+
+    public StatisticsUpdate() {}
+
+    public StatisticsUpdate(String instrument, TickerStatistics statistics) {
+        this.instrument = instrument;
+        this.statistics = statistics;
+    }
+
+    public String getInstrument() {
+        return instrument;
+    }
+
+    public TickerStatistics getStatistics() {
+        return statistics;
+    }
+}
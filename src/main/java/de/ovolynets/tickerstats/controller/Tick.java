@@ -1,19 +1,31 @@
 package de.ovolynets.tickerstats.controller;
 
+import de.ovolynets.tickerstats.service.TickerService;
+
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
 
 public class Tick {
 
-    @NotNull
-    @NotBlank(message = "Instrument must not be blank")
+    // Messages of the constraints, also reported by TickParser
+    static final String MISSING = "must not be null";
+    static final String BLANK_INSTRUMENT = "Instrument must not be blank";
+    static final String LONG_INSTRUMENT = "Instrument must not be longer than "
+            + TickerService.MAX_INSTRUMENT_LENGTH + " characters";
+    static final String NEGATIVE_PRICE = "Price must be positive";
+    static final String NEGATIVE_TIMESTAMP = "Timestamp cannot be negative";
+
+    @NotNull(message = MISSING)
+    @NotBlank(message = BLANK_INSTRUMENT)
+    @Size(max = TickerService.MAX_INSTRUMENT_LENGTH, message = LONG_INSTRUMENT)
     private final String instrument;
-    @NotNull
-    @Min(value = 0, message = "Price must be positive")
+    @NotNull(message = MISSING)
+    @Min(value = 0, message = NEGATIVE_PRICE)
     private final Double price;
-    @NotNull
-    @Min(value = 0, message = "Timestamp cannot be negative")
+    @NotNull(message = MISSING)
+    @Min(value = 0, message = NEGATIVE_TIMESTAMP)
     private final Long timestamp;
 
     public Tick(String instrument, Double price, Long timestamp) {
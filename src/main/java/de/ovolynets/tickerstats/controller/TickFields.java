@@ -0,0 +1,313 @@
+package de.ovolynets.tickerstats.controller;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import de.ovolynets.tickerstats.service.TickerService;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fields of a tick read from the token stream into primitives, with the rules of both the single
+ * tick ({@link TickParser}) and the batch endpoint ({@link TickStreamReader}), so that both accept
+ * the same ticks: scalars are taken as the instrument by their text, numbers in strings are
+ * coerced like Jackson binds them, unknown fields are skipped whatever their value, and the
+ * constraints of {@link Tick} are checked by {@link #violations()}. A field of the wrong type, e.g. a
+ * price of {@code true}, is a type error rather than a violation, the single tick endpoint reports
+ * it like malformed JSON. Instances are reused for one tick after the other by a single thread.
+ */
+final class TickFields {
+
+    // Powers of ten that are exact doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Direct-mapped cache of the instruments seen before, see TickParser, null to create every name
+    private final String[] instruments;
+
+    private String instrument;
+    private double price;
+    private boolean hasPrice;
+    private long timestamp;
+    private boolean hasTimestamp;
+    private String typeError;
+
+    /**
+     * @param instruments cache of instrument names shared by the readers of a parser, a power of two
+     *                    long, or {@code null} for none
+     */
+    TickFields(String[] instruments) {
+        this.instruments = instruments;
+    }
+
+    /**
+     * Reads the fields of a tick whose {@link JsonToken#START_OBJECT} has just been read, up to and
+     * including its {@link JsonToken#END_OBJECT}
+     *
+     * @throws JsonParseException if the tick ends before its object is complete
+     */
+    void read(JsonParser parser) throws IOException {
+        instrument = null;
+        hasPrice = false;
+        price = 0;
+        hasTimestamp = false;
+        timestamp = 0;
+        typeError = null;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            // Field names are canonicalized by the parser, the switch compares them by value though
+            String field = parser.getCurrentName();
+            JsonToken value = nextValue(parser);
+            switch (field) {
+                case "instrument":
+                    instrument = value == JsonToken.VALUE_NULL ? null : instrumentOf(parser, value);
+                    break;
+                case "price":
+                    hasPrice = value != JsonToken.VALUE_NULL;
+                    price = hasPrice ? priceOf(parser, value) : 0;
+                    break;
+                case "timestamp":
+                    hasTimestamp = value != JsonToken.VALUE_NULL;
+                    timestamp = hasTimestamp ? timestampOf(parser, value) : 0;
+                    break;
+                default:
+                    skipValue(parser, value);
+                    break;
+            }
+        }
+        if (token != JsonToken.END_OBJECT) {
+            throw new JsonParseException(parser, "Unexpected end of the tick");
+        }
+    }
+
+    String instrument() {
+        return instrument;
+    }
+
+    double price() {
+        return price;
+    }
+
+    long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return why a field of the tick read last has the wrong type, {@code null} if all have the right one
+     */
+    String typeError() {
+        return typeError;
+    }
+
+    /**
+     * @return {@code true} if the tick read last has fields of the right types and meets the constraints
+     */
+    boolean isValid() {
+        return typeError == null && instrument != null && !instrument.isBlank()
+                && instrument.length() <= TickerService.MAX_INSTRUMENT_LENGTH
+                && hasPrice && price >= 0 && hasTimestamp && timestamp >= 0;
+    }
+
+    /**
+     * @return messages of the constraints the tick read last violates by field, like the bean validation of {@link Tick}
+     */
+    Map<String, String> violations() {
+        Map<String, String> errors = new LinkedHashMap<>();
+        if (instrument == null || instrument.isBlank()) {
+            errors.put("instrument", Tick.BLANK_INSTRUMENT);
+        } else if (instrument.length() > TickerService.MAX_INSTRUMENT_LENGTH) {
+            errors.put("instrument", Tick.LONG_INSTRUMENT);
+        }
+        if (!hasPrice) {
+            errors.put("price", Tick.MISSING);
+        } else if (!(price >= 0)) {
+            errors.put("price", Tick.NEGATIVE_PRICE);
+        }
+        if (!hasTimestamp) {
+            errors.put("timestamp", Tick.MISSING);
+        } else if (timestamp < 0) {
+            errors.put("timestamp", Tick.NEGATIVE_TIMESTAMP);
+        }
+        return errors;
+    }
+
+    // A parser fed with a body reports the end of its input as NOT_AVAILABLE
+    private static JsonToken nextValue(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null || token == JsonToken.NOT_AVAILABLE) {
+            throw new JsonParseException(parser, "Unexpected end of the tick");
+        }
+        return token;
+    }
+
+    // Keeps the first type error of the tick and skips the value, so that the rest of the tick is read
+    private void wrongType(JsonParser parser, String message) throws IOException {
+        if (typeError == null) {
+            typeError = message;
+        }
+        skipValue(parser, parser.currentToken());
+    }
+
+    /**
+     * Skips the value that starts with the token just read, like {@link JsonParser#skipChildren()}, which
+     * a fed parser would keep waiting in for the end of a truncated value
+     *
+     * @throws JsonParseException if the input ends before the value
+     */
+    static void skipValue(JsonParser parser, JsonToken value) throws IOException {
+        if (!value.isStructStart()) {
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            JsonToken token = nextValue(parser);
+            if (token.isStructStart()) {
+                depth++;
+            } else if (token.isStructEnd()) {
+                depth--;
+            }
+        }
+    }
+
+    // Scalars are taken as their text, like Jackson binds them to a string
+    private String instrumentOf(JsonParser parser, JsonToken value) throws IOException {
+        if (!value.isScalarValue()) {
+            wrongType(parser, "Expected an instrument but found " + value);
+            return null;
+        }
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        if (instruments == null) {
+            return new String(chars, offset, length);
+        }
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[offset + i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (instruments.length - 1);
+        String cached = instruments[slot];
+        if (cached != null && matches(cached, chars, offset, length)) {
+            return cached;
+        }
+        String instrument = new String(chars, offset, length);
+        instruments[slot] = instrument;
+        return instrument;
+    }
+
+    private static boolean matches(String cached, char[] chars, int offset, int length) {
+        if (cached.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (cached.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Numbers in strings are accepted like Jackson coerces them
+    private double priceOf(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parseDouble(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            try {
+                return Double.parseDouble(parser.getText().trim());
+            } catch (NumberFormatException e) {
+                wrongType(parser, "'" + parser.getText() + "' is not a price");
+                return 0;
+            }
+        }
+        wrongType(parser, "Expected a price but found " + value);
+        return 0;
+    }
+
+    private long timestampOf(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+            // Fractions are truncated, like Jackson binds them to a long
+            return parser.getValueAsLong();
+        }
+        if (value == JsonToken.VALUE_STRING) {
+            try {
+                return Long.parseLong(parser.getText().trim());
+            } catch (NumberFormatException e) {
+                wrongType(parser, "'" + parser.getText() + "' is not a timestamp");
+                return 0;
+            }
+        }
+        wrongType(parser, "Expected a timestamp but found " + value);
+        return 0;
+    }
+
+    /**
+     * Converts a JSON number. Numbers of up to 15 digits with a small exponent, like prices, are
+     * converted exactly by a single multiplication or division of two exact doubles, which rounds
+     * correctly (Clinger's fast path); all others through {@link Double#parseDouble(String)}.
+     */
+    static double parseDouble(char[] chars, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        boolean negative = i < end && chars[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                if (mantissa > 0 || c != '0') {
+                    digits++;
+                }
+                if (digits > 15) {
+                    return Double.parseDouble(new String(chars, offset, length));
+                }
+                mantissa = 10 * mantissa + (c - '0');
+                if (fraction) {
+                    exponent--;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (i < end) {
+            // Explicit exponent
+            if (chars[i] != 'e' && chars[i] != 'E') {
+                return Double.parseDouble(new String(chars, offset, length));
+            }
+            i++;
+            boolean negativeExponent = i < end && chars[i] == '-';
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                i++;
+            }
+            int explicit = 0;
+            for (; i < end && explicit < 1_000; i++) {
+                char c = chars[i];
+                if (c < '0' || c > '9') {
+                    return Double.parseDouble(new String(chars, offset, length));
+                }
+                explicit = 10 * explicit + (c - '0');
+            }
+            if (i < end) {
+                return Double.parseDouble(new String(chars, offset, length));
+            }
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+        // The mantissa of up to 15 digits is exact
+        if (exponent < -22 || exponent > 22) {
+            return Double.parseDouble(new String(chars, offset, length));
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+}
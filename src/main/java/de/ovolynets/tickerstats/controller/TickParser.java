@@ -0,0 +1,125 @@
+package de.ovolynets.tickerstats.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Reader of a single tick straight from the token stream into primitives, validated inline with the
+ * constraints of {@link Tick}, so that accepting a tick neither builds a {@link Tick} with boxed
+ * fields nor runs the bean validation. The fields are read by {@link TickFields}, with the same rules
+ * as the ticks of a batch. Violations are reported by field with the messages of the constraints,
+ * like the bean validation does.
+ * <p>
+ * Accepting a tick of a known instrument allocates nothing: every request thread reuses a
+ * non-blocking parser that is fed one body after the other (bodies longer than its buffer get a
+ * parser of their own), the instrument is looked up in a cache of the names seen before, and
+ * prices are converted from the characters of the token (Jackson converts decimals through a
+ * string). A parser that fails or is left with unread input is replaced.
+ */
+class TickParser {
+
+    @FunctionalInterface
+    interface TickHandler<R> {
+        R handle(String instrument, double price, long timestamp);
+    }
+
+    private static final int CACHED_INSTRUMENTS = 8_192;
+    // Longest body read by the parser of the thread
+    private static final int BUFFER_BYTES = 4_096;
+
+    private final JsonFactory jsonFactory;
+    // Direct-mapped like the SymbolCache of the binary feed, but shared by all request threads:
+    // strings are immutable, so a slot written concurrently holds either instrument
+    private final String[] instruments = new String[CACHED_INSTRUMENTS];
+    private final ThreadLocal<ThreadParser> threadParsers;
+
+    TickParser(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+        this.threadParsers = ThreadLocal.withInitial(() -> new ThreadParser(jsonFactory, instruments));
+    }
+
+    /**
+     * Reads a tick from a JSON object and hands it to the handler if it is valid
+     *
+     * @return result of the handler
+     * @throws InvalidTickException if the tick violates a constraint of {@link Tick}
+     * @throws JsonParseException if the body is not a JSON object or a field has the wrong type
+     */
+    <R> R read(InputStream body, TickHandler<R> handler) throws IOException {
+        ThreadParser threadParser = threadParsers.get();
+        byte[] buffer = threadParser.buffer;
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = body.read(buffer, length, buffer.length - length)) > 0) {
+            length += read;
+        }
+        if (length == buffer.length && (read = body.read()) >= 0) {
+            InputStream rest = new SequenceInputStream(new ByteArrayInputStream(buffer, 0, length),
+                    new SequenceInputStream(new ByteArrayInputStream(new byte[]{(byte) read}), body));
+            try (JsonParser parser = jsonFactory.createParser(rest)) {
+                return read(parser, threadParser.fields, handler);
+            }
+        }
+        boolean completed = false;
+        try {
+            threadParser.feeder.feedInput(buffer, 0, length);
+            R result = read(threadParser.parser, threadParser.fields, handler);
+            completed = true;
+            return result;
+        } finally {
+            // Content after the tick is ignored like by the data binding, but would stay in the parser
+            if (!completed || !isDrained(threadParser.parser)) {
+                threadParsers.remove();
+            }
+        }
+    }
+
+    private static <R> R read(JsonParser parser, TickFields fields, TickHandler<R> handler) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a tick object but found " + token);
+        }
+        fields.read(parser);
+        if (fields.typeError() != null) {
+            throw new JsonParseException(parser, fields.typeError());
+        }
+        if (!fields.isValid()) {
+            throw new InvalidTickException(fields.violations());
+        }
+        return handler.handle(fields.instrument(), fields.price(), fields.timestamp());
+    }
+
+    private static boolean isDrained(JsonParser parser) {
+        try {
+            return parser.nextToken() == JsonToken.NOT_AVAILABLE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static final class ThreadParser {
+        private final JsonParser parser;
+        private final ByteArrayFeeder feeder;
+        private final byte[] buffer = new byte[BUFFER_BYTES];
+        private final TickFields fields;
+
+        private ThreadParser(JsonFactory jsonFactory, String[] instruments) {
+            try {
+                parser = jsonFactory.createNonBlockingByteArrayParser();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+            fields = new TickFields(instruments);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package de.ovolynets.tickerstats.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Incremental reader of ticks from either a JSON array or a stream of newline-delimited JSON
+ * objects. Ticks are read straight from the token stream into a {@link TickBatch}, so the payload
+ * is never materialized as a whole. The fields are read by {@link TickFields}, with the same rules as
+ * a single tick: ticks that the single tick endpoint would reject, and elements that are no objects,
+ * are skipped and counted as invalid. Also used to replay recorded ticks.
+ */
+public class TickStreamReader {
+
+    private final JsonParser parser;
+    private final TickFields fields = new TickFields(null);
+    private boolean started;
+    private boolean array;
+    private boolean finished;
+    private long invalid;
+
+    public TickStreamReader(JsonFactory jsonFactory, InputStream inputStream) throws IOException {
+        this.parser = jsonFactory.createParser(inputStream);
+    }
+
+    /**
+     * Reads ticks into the batch until it is full or the input is exhausted
+     */
+    public void readInto(TickBatch batch) throws IOException {
+        if (!started) {
+            started = true;
+            JsonToken first = parser.nextToken();
+            if (first == null) {
+                finished = true;
+                return;
+            }
+            array = first == JsonToken.START_ARRAY;
+            if (!array) {
+                readTick(first, batch);
+            }
+        }
+        while (!finished && !batch.isFull()) {
+            JsonToken token = parser.nextToken();
+            if (token == null || (array && token == JsonToken.END_ARRAY)) {
+                finished = true;
+            } else {
+                readTick(token, batch);
+            }
+        }
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public long getInvalid() {
+        return invalid;
+    }
+
+    private void readTick(JsonToken token, TickBatch batch) throws IOException {
+        // Anything but an object is an invalid tick, like a tick with invalid fields
+        if (token != JsonToken.START_OBJECT) {
+            TickFields.skipValue(parser, token);
+            invalid++;
+            return;
+        }
+        fields.read(parser);
+        if (fields.isValid()) {
+            batch.add(fields.instrument(), fields.price(), fields.timestamp());
+        } else {
+            invalid++;
+        }
+    }
+}
@@ -1,10 +1,23 @@
 package de.ovolynets.tickerstats.controller;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
+import java.util.Objects;
+
 public class TickerStatistics {
     private double avg;
     private double max;
     private double min;
     private long count;
+    // Price per requested quantile, e.g. "0.99", only present if quantiles have been requested
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Map<String, Double> quantiles;
+    // Sum of the prices as the service has added them up, so that nodes of a cluster merge it exactly.
+    // Not part of the API, statistics read from JSON recover it from the average.
+    @JsonIgnore
+    private double sum;
 
     public TickerStatistics() {}
 
@@ -13,6 +26,21 @@ public class TickerStatistics {
         this.max = max;
         this.min = min;
         this.count = count;
+        this.sum = avg * count;
+    }
+
+    public TickerStatistics(double avg, double max, double min, long count, Map<String, Double> quantiles) {
+        this(avg, max, min, count);
+        this.quantiles = quantiles;
+    }
+
+    /**
+     * @return statistics of prices that add up to the sum, which is kept as it is
+     */
+    public static TickerStatistics ofSum(double sum, double max, double min, long count) {
+        TickerStatistics statistics = new TickerStatistics(count > 0 ? sum / count : 0, max, min, count);
+        statistics.sum = sum;
+        return statistics;
     }
 
     public double getAvg() {
@@ -30,4 +58,33 @@ public class TickerStatistics {
     public long getCount() {
         return count;
     }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public Map<String, Double> getQuantiles() {
+        return quantiles;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        TickerStatistics that = (TickerStatistics) o;
+        return Double.compare(that.avg, avg) == 0
+                && Double.compare(that.max, max) == 0
+                && Double.compare(that.min, min) == 0
+                && count == that.count
+                && Objects.equals(quantiles, that.quantiles);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(avg, max, min, count, quantiles);
+    }
 }
@@ -0,0 +1,179 @@
+package de.ovolynets.tickerstats.feed;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static de.ovolynets.tickerstats.feed.BinaryTickProtocol.ACK_BYTES;
+import static de.ovolynets.tickerstats.feed.BinaryTickProtocol.HEADER_BYTES;
+import static de.ovolynets.tickerstats.feed.BinaryTickProtocol.LENGTH_BYTES;
+import static de.ovolynets.tickerstats.feed.BinaryTickProtocol.MAX_INSTRUMENT_BYTES;
+import static de.ovolynets.tickerstats.feed.BinaryTickProtocol.MAX_TICKS_PER_FRAME;
+import static de.ovolynets.tickerstats.feed.BinaryTickProtocol.TICK_FIXED_BYTES;
+
+/**
+ * Client of the binary tick feed (see {@link BinaryTickServer}), e.g. for tests and benchmarks.
+ * <p>
+ * Batches are sent as frames of at most the maximum frame size, with at most {@code window} frames
+ * unacknowledged at a time: sending blocks until the oldest frame has been acknowledged, so a client
+ * never runs ahead of the server by more than its window. The acknowledgements are summed up.
+ * <p>
+ * Not thread-safe.
+ */
+public class BinaryTickClient implements Closeable {
+
+    public static final int DEFAULT_WINDOW = 16;
+    public static final int DEFAULT_MAX_FRAME_BYTES = BinaryTickProtocol.DEFAULT_MAX_FRAME_BYTES;
+
+    private final SocketChannel channel;
+    private final int window;
+    private final ByteBuffer frame;
+    private final ByteBuffer ack = ByteBuffer.allocate(ACK_BYTES);
+    // UTF-8 bytes of the instruments sent so far
+    private final Map<String, byte[]> instruments = new HashMap<>();
+
+    private int nextSequence;
+    private int unacknowledged;
+    private long accepted;
+    private long stale;
+    private long invalid;
+
+    public BinaryTickClient(String host, int port) throws IOException {
+        this(host, port, DEFAULT_WINDOW, DEFAULT_MAX_FRAME_BYTES);
+    }
+
+    /**
+     * @param window maximum number of unacknowledged frames
+     * @param maxFrameBytes maximum size of a frame, must not exceed the one of the server
+     */
+    public BinaryTickClient(String host, int port, int window, int maxFrameBytes) throws IOException {
+        if (window < 1) {
+            throw new IllegalArgumentException("The window must allow at least one frame: " + window);
+        }
+        this.window = window;
+        this.frame = ByteBuffer.allocateDirect(LENGTH_BYTES + maxFrameBytes);
+        this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Sends the ticks, as many frames as necessary. Ticks are validated by the server, a tick
+     * without instrument is sent with a blank one.
+     *
+     * @throws IllegalArgumentException if a single tick exceeds the maximum frame size
+     */
+    public void send(TickBatch ticks) throws IOException {
+        int next = 0;
+        while (next < ticks.size()) {
+            next = sendFrame(ticks, next);
+        }
+    }
+
+    /**
+     * Waits until all frames sent so far have been acknowledged
+     */
+    public void flush() throws IOException {
+        awaitAcks(0);
+    }
+
+    /**
+     * @return number of acknowledged ticks that have been added
+     */
+    public long getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * @return number of acknowledged ticks older than the longest window
+     */
+    public long getStale() {
+        return stale;
+    }
+
+    /**
+     * @return number of acknowledged ticks that have been rejected as invalid
+     */
+    public long getInvalid() {
+        return invalid;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Sends the ticks from the given one on that fit into a frame, returns the first one that did not
+    private int sendFrame(TickBatch ticks, int from) throws IOException {
+        awaitAcks(window - 1);
+        frame.clear();
+        frame.position(LENGTH_BYTES + HEADER_BYTES);
+        int next = from;
+        while (next < ticks.size() && next - from < MAX_TICKS_PER_FRAME) {
+            byte[] instrument = bytesOf(ticks.getInstrument(next));
+            if (frame.remaining() < instrument.length + TICK_FIXED_BYTES) {
+                if (next == from) {
+                    throw new IllegalArgumentException("Tick of " + ticks.getInstrument(next) + " exceeds the frame size");
+                }
+                break;
+            }
+            frame.putShort((short) instrument.length)
+                    .put(instrument)
+                    .putDouble(ticks.getPrice(next))
+                    .putLong(ticks.getTimestamp(next));
+            next++;
+        }
+        frame.putInt(0, frame.position() - LENGTH_BYTES)
+                .putInt(LENGTH_BYTES, nextSequence++)
+                .putShort(LENGTH_BYTES + 4, (short) (next - from));
+        frame.flip();
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+        unacknowledged++;
+        return next;
+    }
+
+    private byte[] bytesOf(String instrument) {
+        String key = instrument == null ? "" : instrument;
+        byte[] bytes = instruments.get(key);
+        if (bytes == null) {
+            bytes = key.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_INSTRUMENT_BYTES) {
+                throw new IllegalArgumentException("Instrument exceeds " + MAX_INSTRUMENT_BYTES + " bytes: " + key);
+            }
+            instruments.put(key, bytes);
+        }
+        return bytes;
+    }
+
+    private void awaitAcks(int maxUnacknowledged) throws IOException {
+        while (unacknowledged > maxUnacknowledged) {
+            ack.clear();
+            while (ack.hasRemaining()) {
+                if (channel.read(ack) < 0) {
+                    throw new EOFException("Connection closed by the server with " + unacknowledged + " frames unacknowledged");
+                }
+            }
+            ack.flip();
+            int sequence = ack.getInt();
+            int expected = nextSequence - unacknowledged;
+            if (sequence != expected) {
+                throw new ProtocolException("Acknowledgement of frame " + sequence + ", expected " + expected);
+            }
+            accepted += ack.getInt();
+            stale += ack.getInt();
+            invalid += ack.getInt();
+            unacknowledged--;
+        }
+    }
+}
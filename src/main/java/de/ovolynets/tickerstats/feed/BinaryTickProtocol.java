@@ -0,0 +1,35 @@
+package de.ovolynets.tickerstats.feed;
+
+/**
+ * Wire format of the binary tick feed, all numbers big-endian.
+ * <pre>
+ * frame: int32   length of the rest of the frame in bytes
+ *        int32   sequence number, echoed by the acknowledgement
+ *        uint16  number of ticks, followed by every tick:
+ *                uint16  length of the instrument in UTF-8 bytes, then the instrument
+ *                float64 price
+ *                int64   timestamp in milliseconds since the epoch
+ * ack:   int32   sequence number of the frame
+ *        int32   ticks accepted
+ *        int32   ticks older than the longest window
+ *        int32   invalid ticks (blank instrument, negative price or timestamp)
+ * </pre>
+ * Every frame is acknowledged in the order the frames have been sent. A frame that does not follow
+ * the format, or is longer than the maximum frame size of the server, closes the connection.
+ */
+final class BinaryTickProtocol {
+
+    static final int LENGTH_BYTES = 4;
+    // Sequence number and number of ticks
+    static final int HEADER_BYTES = 6;
+    // Length of the instrument, price and timestamp
+    static final int TICK_FIXED_BYTES = 18;
+    static final int ACK_BYTES = 16;
+
+    static final int MAX_TICKS_PER_FRAME = 0xFFFF;
+    static final int MAX_INSTRUMENT_BYTES = 0xFFFF;
+
+    static final int DEFAULT_MAX_FRAME_BYTES = 1 << 20;
+
+    private BinaryTickProtocol() {}
+}
@@ -0,0 +1,204 @@
+package de.ovolynets.tickerstats.feed;
+
+import de.ovolynets.tickerstats.service.TickerService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Listener of the binary tick feed (see {@link BinaryTickProtocol}) for feed handlers, which send
+ * ticks far cheaper than as JSON over HTTP. Ticks are decoded straight from the network buffers
+ * into batches for the {@link TickerService}, no {@code Tick} is created, and the same validation
+ * rules as for the HTTP API apply.
+ * <p>
+ * Connections are accepted by one thread and spread over a fixed number of selector threads, each
+ * of which reads, applies and acknowledges the frames of its connections (see {@link FeedConnection}).
+ * Every selector thread writes to its own stripe of the store, like a request thread of the HTTP API.
+ */
+@Component
+@ConditionalOnProperty(name = "binary-ingestion-enabled", havingValue = "true")
+public class BinaryTickServer {
+
+    private final Logger logger = LoggerFactory.getLogger(BinaryTickServer.class);
+
+    private final TickerService tickerService;
+    private final int maxFrameBytes;
+    private final ServerSocketChannel serverChannel;
+    private final Worker[] workers;
+    private volatile boolean closed;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Counter appliedFrames;
+    private final Counter rejectedConnections;
+
+    @Autowired
+    public BinaryTickServer(TickerService tickerService,
+                            @Value("${binary-ingestion-port:7070}") int port,
+                            @Value("${binary-ingestion-threads:2}") int threads,
+                            @Value("${binary-ingestion-max-frame-bytes:1048576}") int maxFrameBytes,
+                            MeterRegistry meterRegistry) throws IOException {
+        this(tickerService, new InetSocketAddress(port), threads, maxFrameBytes, meterRegistry);
+    }
+
+    BinaryTickServer(TickerService tickerService, InetSocketAddress address, int threads, int maxFrameBytes,
+                     MeterRegistry meterRegistry) throws IOException {
+        if (maxFrameBytes < BinaryTickProtocol.HEADER_BYTES) {
+            throw new IllegalArgumentException("Frames must be allowed at least " + BinaryTickProtocol.HEADER_BYTES + " bytes");
+        }
+        this.tickerService = tickerService;
+        this.maxFrameBytes = maxFrameBytes;
+
+        Gauge.builder("tickerstats.feed.connections", connections, AtomicInteger::get)
+                .description("Open connections of the binary tick feed")
+                .register(meterRegistry);
+        appliedFrames = Counter.builder("tickerstats.feed.frames")
+                .description("Frames of the binary tick feed applied and acknowledged")
+                .register(meterRegistry);
+        rejectedConnections = Counter.builder("tickerstats.feed.rejected")
+                .description("Connections of the binary tick feed closed for frames that violate the protocol")
+                .register(meterRegistry);
+
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker();
+            startThread(workers[i], "binary-feed-" + i);
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        startThread(this::accept, "binary-feed-accept");
+        logger.info("Listening for the binary tick feed on {}", serverChannel.getLocalAddress());
+    }
+
+    /**
+     * @return port the feed is accepted on, e.g. if an ephemeral one has been requested
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Stops accepting ticks and closes all connections
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        closed = true;
+        serverChannel.close();
+        for (Worker worker : workers) {
+            worker.selector.wakeup();
+        }
+    }
+
+    private void accept() {
+        int next = 0;
+        while (!closed) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                workers[next].register(channel);
+                next = (next + 1) % workers.length;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                logger.warn("Failed to accept a connection of the binary tick feed", e);
+            }
+        }
+    }
+
+    private static void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private final class Worker implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+
+        private Worker() throws IOException {
+            selector = Selector.open();
+        }
+
+        private void register(SocketChannel channel) {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = registrations.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ,
+                                new FeedConnection(channel, tickerService, maxFrameBytes, appliedFrames));
+                        connections.incrementAndGet();
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        serve(key);
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                logger.error("Binary tick feed stopped", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    disconnect(key);
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    logger.debug("Failed to close the selector", e);
+                }
+            }
+        }
+
+        private void serve(SelectionKey key) {
+            FeedConnection connection = (FeedConnection) key.attachment();
+            try {
+                if (!connection.onReady(key)) {
+                    disconnect(key);
+                }
+            } catch (ProtocolException e) {
+                logger.debug("Closing a connection of the binary tick feed: {}", e.getMessage());
+                rejectedConnections.increment();
+                disconnect(key);
+            } catch (IOException | RuntimeException e) {
+                // A failing connection must not stop the others of the thread
+                logger.debug("Closing a failed connection of the binary tick feed", e);
+                disconnect(key);
+            }
+        }
+
+        private void disconnect(SelectionKey key) {
+            key.cancel();
+            try {
+                ((FeedConnection) key.attachment()).channel().close();
+            } catch (IOException e) {
+                logger.debug("Failed to close a connection of the binary tick feed", e);
+            }
+            connections.decrementAndGet();
+        }
+    }
+}
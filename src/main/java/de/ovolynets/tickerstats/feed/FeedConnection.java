@@ -0,0 +1,160 @@
+package de.ovolynets.tickerstats.feed;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+import de.ovolynets.tickerstats.service.TickerService;
+import io.micrometer.core.instrument.Counter;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import static de.ovolynets.tickerstats.feed.BinaryTickProtocol.ACK_BYTES;
+import static de.ovolynets.tickerstats.feed.BinaryTickProtocol.HEADER_BYTES;
+import static de.ovolynets.tickerstats.feed.BinaryTickProtocol.LENGTH_BYTES;
+import static de.ovolynets.tickerstats.feed.BinaryTickProtocol.TICK_FIXED_BYTES;
+
+/**
+ * One connection of the binary tick feed, driven by the selector thread it is registered with.
+ * <p>
+ * Frames are decoded from the buffer they have been read into, the ticks of a frame are collected
+ * in a reused {@link TickBatch} and handed to the {@link TickerService} at once, and the
+ * acknowledgement is queued for sending. Flow control: the connection is only read while its buffer
+ * has room for the rest of a frame and the queue has room for its acknowledgement. A client that
+ * does not take its acknowledgements therefore fills the socket buffers and is blocked by TCP,
+ * while the memory of a connection stays bounded by the maximum frame size.
+ */
+final class FeedConnection {
+
+    // Acknowledgements queued before the connection stops reading
+    private static final int MAX_PENDING_ACKS = 64;
+
+    private final SocketChannel channel;
+    private final TickerService tickerService;
+    private final int maxFrameBytes;
+    private final ByteBuffer in;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(MAX_PENDING_ACKS * ACK_BYTES);
+    private final TickBatch batch = new TickBatch(1_000);
+    private final SymbolCache symbols = new SymbolCache();
+    private final Counter appliedFrames;
+    private boolean inputClosed;
+
+    FeedConnection(SocketChannel channel, TickerService tickerService, int maxFrameBytes, Counter appliedFrames) {
+        this.channel = channel;
+        this.tickerService = tickerService;
+        this.maxFrameBytes = maxFrameBytes;
+        this.appliedFrames = appliedFrames;
+        this.in = ByteBuffer.allocateDirect(LENGTH_BYTES + maxFrameBytes);
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Reads, applies and acknowledges the frames the channel is ready for
+     *
+     * @return {@code false} once the client has closed the connection and all acknowledgements have been sent
+     * @throws ProtocolException if a frame does not follow the {@link BinaryTickProtocol}
+     */
+    boolean onReady(SelectionKey key) throws IOException {
+        if (key.isWritable()) {
+            flush();
+        }
+        if (key.isReadable() && channel.read(in) < 0) {
+            inputClosed = true;
+        }
+        boolean waitingForRoom;
+        do {
+            waitingForRoom = process();
+            flush();
+        } while (waitingForRoom && out.position() == 0);
+        if (inputClosed && out.position() == 0) {
+            return false;
+        }
+        int interest = 0;
+        if (out.position() > 0) {
+            interest |= SelectionKey.OP_WRITE;
+        }
+        if (!inputClosed && in.hasRemaining() && out.remaining() >= ACK_BYTES) {
+            interest |= SelectionKey.OP_READ;
+        }
+        key.interestOps(interest);
+        return true;
+    }
+
+    // Applies the complete frames read so far, returns whether it has stopped for lack of room for the acknowledgements
+    private boolean process() throws ProtocolException {
+        in.flip();
+        try {
+            while (in.remaining() >= LENGTH_BYTES) {
+                if (out.remaining() < ACK_BYTES) {
+                    return true;
+                }
+                int start = in.position();
+                int length = in.getInt(start);
+                if (length < HEADER_BYTES || length > maxFrameBytes) {
+                    throw new ProtocolException("Frame of " + length + " bytes, expected "
+                            + HEADER_BYTES + " to " + maxFrameBytes);
+                }
+                if (in.remaining() < LENGTH_BYTES + length) {
+                    break;
+                }
+                applyFrame(start + LENGTH_BYTES, start + LENGTH_BYTES + length);
+                in.position(start + LENGTH_BYTES + length);
+            }
+            return false;
+        } finally {
+            in.compact();
+        }
+    }
+
+    private void applyFrame(int start, int end) throws ProtocolException {
+        int sequence = in.getInt(start);
+        int count = Short.toUnsignedInt(in.getShort(start + 4));
+        int position = start + HEADER_BYTES;
+        int invalid = 0;
+        batch.clear();
+        for (int i = 0; i < count; i++) {
+            if (position + TICK_FIXED_BYTES > end) {
+                throw new ProtocolException("Frame " + sequence + " ends within tick " + i);
+            }
+            int instrumentLength = Short.toUnsignedInt(in.getShort(position));
+            position += 2;
+            if (position + instrumentLength + TICK_FIXED_BYTES - 2 > end) {
+                throw new ProtocolException("Frame " + sequence + " ends within tick " + i);
+            }
+            String instrument = symbols.get(in, position, instrumentLength);
+            position += instrumentLength;
+            double price = in.getDouble(position);
+            long timestamp = in.getLong(position + 8);
+            position += 16;
+            // Same rules as the validation of the ticks of the HTTP API
+            if (!instrument.isBlank() && instrument.length() <= TickerService.MAX_INSTRUMENT_LENGTH
+                    && price >= 0 && timestamp >= 0) {
+                batch.add(instrument, price, timestamp);
+            } else {
+                invalid++;
+            }
+        }
+        if (position != end) {
+            throw new ProtocolException("Frame " + sequence + " has " + (end - position) + " bytes after its ticks");
+        }
+        int accepted = batch.size() > 0 ? tickerService.addTicks(batch) : 0;
+        out.putInt(sequence).putInt(accepted).putInt(batch.size() - accepted).putInt(invalid);
+        appliedFrames.increment();
+    }
+
+    private void flush() throws IOException {
+        if (out.position() == 0) {
+            return;
+        }
+        out.flip();
+        try {
+            channel.write(out);
+        } finally {
+            out.compact();
+        }
+    }
+}
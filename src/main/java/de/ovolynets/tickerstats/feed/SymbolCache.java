@@ -0,0 +1,50 @@
+package de.ovolynets.tickerstats.feed;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes instruments straight from the network buffer and returns the same string for the same
+ * bytes, so that a feed of a stable set of instruments does not allocate per tick. The cache is
+ * direct-mapped: an instrument replaces the one in the same slot, which only costs a decode when
+ * the replaced one comes back.
+ * <p>
+ * Not thread-safe, every connection has its own cache.
+ */
+final class SymbolCache {
+
+    private static final int SLOTS = 8_192;
+
+    private final byte[][] keys = new byte[SLOTS][];
+    private final String[] values = new String[SLOTS];
+
+    String get(ByteBuffer buffer, int offset, int length) {
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buffer.get(offset + i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+        byte[] key = keys[slot];
+        if (key != null && matches(key, buffer, offset, length)) {
+            return values[slot];
+        }
+        key = new byte[length];
+        buffer.get(offset, key);
+        String value = new String(key, StandardCharsets.UTF_8);
+        keys[slot] = key;
+        values[slot] = value;
+        return value;
+    }
+
+    private static boolean matches(byte[] key, ByteBuffer buffer, int offset, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != buffer.get(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,106 @@
+package de.ovolynets.tickerstats.replay;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader of a recording of the frames a client of the binary feed sends, all numbers big-endian.
+ * <pre>
+ * frame: int32   length of the rest of the frame in bytes
+ *        int32   sequence number
+ *        uint16  number of ticks, followed by every tick:
+ *                uint16  length of the instrument in UTF-8 bytes, then the instrument
+ *                float64 price
+ *                int64   timestamp in milliseconds since the epoch
+ * </pre>
+ * Frames are read tick by tick, so a batch may end within a frame.
+ */
+class BinaryTickReader implements RecordedTickReader {
+
+    // Sequence number and number of ticks
+    private static final int HEADER_BYTES = 6;
+    // Length of the instrument, price and timestamp
+    private static final int TICK_FIXED_BYTES = 18;
+
+    private final DataInputStream input;
+    // Ticks and bytes left in the current frame
+    private int frameTicks;
+    private long frameBytes;
+    private boolean finished;
+    private long invalid;
+
+    BinaryTickReader(InputStream inputStream) {
+        this.input = new DataInputStream(inputStream);
+    }
+
+    @Override
+    public void readInto(TickBatch batch) throws IOException {
+        while (!finished && !batch.isFull()) {
+            if (frameTicks == 0) {
+                if (frameBytes != 0) {
+                    throw new IOException("Frame has " + frameBytes + " bytes after its ticks");
+                }
+                readHeader();
+            } else {
+                readTick(batch);
+            }
+        }
+    }
+
+    private void readHeader() throws IOException {
+        int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException e) {
+            finished = true;
+            return;
+        }
+        if (length < HEADER_BYTES) {
+            throw new IOException("Frame of " + length + " bytes has no header");
+        }
+        input.readInt();
+        frameTicks = input.readUnsignedShort();
+        frameBytes = length - HEADER_BYTES;
+    }
+
+    private void readTick(TickBatch batch) throws IOException {
+        int length = input.readUnsignedShort();
+        frameBytes -= TICK_FIXED_BYTES + length;
+        if (frameBytes < 0) {
+            throw new IOException("Tick exceeds the length of its frame");
+        }
+        byte[] instrument = input.readNBytes(length);
+        if (instrument.length < length) {
+            throw new EOFException("Recording ends within a tick");
+        }
+        double price = input.readDouble();
+        long timestamp = input.readLong();
+        frameTicks--;
+        String name = new String(instrument, StandardCharsets.UTF_8);
+        if (!name.isBlank() && price >= 0 && timestamp >= 0) {
+            batch.add(name, price, timestamp);
+        } else {
+            invalid++;
+        }
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public long getInvalid() {
+        return invalid;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
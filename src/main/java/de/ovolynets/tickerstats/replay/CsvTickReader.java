@@ -0,0 +1,73 @@
+package de.ovolynets.tickerstats.replay;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Reader of ticks recorded as {@code instrument,price,timestamp} lines. A first line that starts
+ * with {@code instrument} is taken as the header, blank lines are skipped.
+ */
+class CsvTickReader implements RecordedTickReader {
+
+    private final BufferedReader reader;
+    private long lines;
+    private boolean finished;
+    private long invalid;
+
+    CsvTickReader(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public void readInto(TickBatch batch) throws IOException {
+        while (!finished && !batch.isFull()) {
+            String line = reader.readLine();
+            if (line == null) {
+                finished = true;
+            } else if (lines++ == 0 && line.startsWith("instrument")) {
+                continue;
+            } else if (!line.isBlank()) {
+                readTick(line, batch);
+            }
+        }
+    }
+
+    private void readTick(String line, TickBatch batch) throws IOException {
+        int first = line.indexOf(',');
+        int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+        if (second < 0 || line.indexOf(',', second + 1) >= 0) {
+            throw new IOException("Line " + lines + " is not instrument,price,timestamp: " + line);
+        }
+        String instrument = line.substring(0, first).trim();
+        double price;
+        long timestamp;
+        try {
+            price = Double.parseDouble(line.substring(first + 1, second).trim());
+            timestamp = Long.parseLong(line.substring(second + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Line " + lines + " has no numeric price and timestamp: " + line, e);
+        }
+        if (!instrument.isEmpty() && price >= 0 && timestamp >= 0) {
+            batch.add(instrument, price, timestamp);
+        } else {
+            invalid++;
+        }
+    }
+
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public long getInvalid() {
+        return invalid;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
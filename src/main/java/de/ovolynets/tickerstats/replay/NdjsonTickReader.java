@@ -0,0 +1,42 @@
+package de.ovolynets.tickerstats.replay;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import de.ovolynets.tickerstats.controller.TickStreamReader;
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reader of ticks recorded as JSON, parsed like the body of a batch request (see {@link TickStreamReader})
+ */
+class NdjsonTickReader implements RecordedTickReader {
+
+    private final InputStream inputStream;
+    private final TickStreamReader reader;
+
+    NdjsonTickReader(JsonFactory jsonFactory, InputStream inputStream) throws IOException {
+        this.inputStream = inputStream;
+        this.reader = new TickStreamReader(jsonFactory, inputStream);
+    }
+
+    @Override
+    public void readInto(TickBatch batch) throws IOException {
+        reader.readInto(batch);
+    }
+
+    @Override
+    public boolean isFinished() {
+        return reader.isFinished();
+    }
+
+    @Override
+    public long getInvalid() {
+        return reader.getInvalid();
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+}
@@ -0,0 +1,41 @@
+package de.ovolynets.tickerstats.replay;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Incremental reader of recorded ticks, in the order they have been recorded. Ticks violating the
+ * rules of the API (blank instrument, negative price or timestamp) are skipped and counted as invalid,
+ * a recording that does not follow its format fails the read.
+ */
+public interface RecordedTickReader extends Closeable {
+
+    static RecordedTickReader open(Path file, RecordingFormat format) throws IOException {
+        switch (format) {
+            case CSV:
+                return new CsvTickReader(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+            case NDJSON:
+                return new NdjsonTickReader(new JsonFactory(), Files.newInputStream(file));
+            case BINARY:
+                return new BinaryTickReader(new BufferedInputStream(Files.newInputStream(file)));
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+
+    /**
+     * Reads ticks into the batch until it is full or the recording is exhausted
+     */
+    void readInto(TickBatch batch) throws IOException;
+
+    boolean isFinished();
+
+    long getInvalid();
+}
@@ -0,0 +1,43 @@
+package de.ovolynets.tickerstats.replay;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Formats of recorded ticks a replay reads, see the {@code replay-format} property
+ */
+public enum RecordingFormat {
+    /**
+     * One tick per line as {@code instrument,price,timestamp}, with an optional header line
+     */
+    CSV,
+    /**
+     * Newline-delimited JSON objects or a JSON array of ticks, like the body of {@code POST /api/ticks/batch}
+     */
+    NDJSON,
+    /**
+     * Frames of the binary feed as a client sends them, without the acknowledgements
+     */
+    BINARY;
+
+    /**
+     * @param value name of the format, or {@code auto} to tell it from the extension of the file
+     */
+    public static RecordingFormat fromProperty(String value, Path file) {
+        String format = value.trim().toUpperCase(Locale.ROOT);
+        if (!format.equals("AUTO")) {
+            return valueOf(format);
+        }
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv")) {
+            return CSV;
+        }
+        if (name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json")) {
+            return NDJSON;
+        }
+        if (name.endsWith(".bin")) {
+            return BINARY;
+        }
+        throw new IllegalArgumentException("Cannot tell the format of " + file + " from its extension, set replay-format");
+    }
+}
@@ -0,0 +1,40 @@
+package de.ovolynets.tickerstats.replay;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+import de.ovolynets.tickerstats.service.impl.ManualTickClock;
+import de.ovolynets.tickerstats.service.impl.TickClock;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+@Configuration
+public class ReplayConfiguration {
+
+    /**
+     * Clock of the service: the system clock, or in replay mode the event time of the recording,
+     * starting at its first tick (see {@link ReplayRunner})
+     */
+    @Bean(destroyMethod = "close")
+    public TickClock tickClock(@Value("${replay-file:}") String replayFile,
+                               @Value("${replay-format:auto}") String replayFormat) throws IOException {
+        if (replayFile.isBlank()) {
+            return TickClock.system();
+        }
+        Path file = Paths.get(replayFile);
+        return new ManualTickClock(firstTimestamp(file, RecordingFormat.fromProperty(replayFormat, file)));
+    }
+
+    private static long firstTimestamp(Path file, RecordingFormat format) throws IOException {
+        try (RecordedTickReader reader = RecordedTickReader.open(file, format)) {
+            TickBatch first = new TickBatch(1);
+            while (first.size() == 0 && !reader.isFinished()) {
+                reader.readInto(first);
+            }
+            return first.size() == 0 ? System.currentTimeMillis() : first.getTimestamp(0);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package de.ovolynets.tickerstats.replay;
+
+/**
+ * Outcome of a replay: the ticks it read, how much event time they span and how fast they were replayed
+ */
+public class ReplayResult {
+    private final long ticks;
+    private final long accepted;
+    private final long invalid;
+    private final long eventMillis;
+    private final long elapsedNanos;
+
+    ReplayResult(long ticks, long accepted, long invalid, long eventMillis, long elapsedNanos) {
+        this.ticks = ticks;
+        this.accepted = accepted;
+        this.invalid = invalid;
+        this.eventMillis = eventMillis;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return valid ticks read from the recording
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * @return ticks the service accepted, the others were stale or rejected by its admission
+     */
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getInvalid() {
+        return invalid;
+    }
+
+    /**
+     * @return event time from the first to the last tick
+     */
+    public long getEventMillis() {
+        return eventMillis;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getTicksPerSecond() {
+        return elapsedNanos == 0 ? 0 : ticks * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return event time replayed per wall clock time
+     */
+    public double getSpeedUp() {
+        return elapsedNanos == 0 ? 0 : eventMillis * 1e6 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d ticks (%d accepted, %d invalid) over %d ms of event time in %d ms: "
+                        + "%.0f ticks/s, %.1fx real time", ticks, accepted, invalid, eventMillis,
+                elapsedNanos / 1_000_000, getTicksPerSecond(), getSpeedUp());
+    }
+}
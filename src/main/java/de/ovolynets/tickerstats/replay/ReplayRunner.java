@@ -0,0 +1,91 @@
+package de.ovolynets.tickerstats.replay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.ovolynets.tickerstats.service.impl.ManualTickClock;
+import de.ovolynets.tickerstats.service.impl.TickClock;
+import de.ovolynets.tickerstats.service.impl.TickerServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Replay mode: with {@code replay-file}, the application replays the recording through its
+ * service in event time once it has started (see {@link TickReplay}), writes the snapshots as
+ * newline-delimited JSON to {@code replay-output}, logs the achieved throughput and shuts down.
+ */
+@Component
+@ConditionalOnProperty(name = "replay-file")
+public class ReplayRunner implements ApplicationRunner {
+
+    private final Logger logger = LoggerFactory.getLogger(ReplayRunner.class);
+
+    private final TickerServiceImpl tickerService;
+    private final ManualTickClock clock;
+    private final ObjectMapper objectMapper;
+    private final ConfigurableApplicationContext context;
+    private final Path file;
+    private final RecordingFormat format;
+    private final double speed;
+    private final long snapshotIntervalMillis;
+    private final int batchSize;
+    private final Path output;
+
+    @Autowired
+    public ReplayRunner(TickerServiceImpl tickerService, TickClock clock, ObjectMapper objectMapper,
+                        ConfigurableApplicationContext context,
+                        @Value("${replay-file}") String file,
+                        @Value("${replay-format:auto}") String format,
+                        @Value("${replay-speed:0}") double speed,
+                        @Value("${replay-snapshot-interval-ms:60000}") long snapshotIntervalMillis,
+                        @Value("${replay-batch-size:1000}") int batchSize,
+                        @Value("${replay-output:replay-snapshots.ndjson}") String output) {
+        if (!(clock instanceof ManualTickClock)) {
+            throw new IllegalStateException("A replay needs the service to run on the event time of the recording");
+        }
+        this.tickerService = tickerService;
+        this.clock = (ManualTickClock) clock;
+        this.objectMapper = objectMapper;
+        this.context = context;
+        this.file = Paths.get(file);
+        this.format = RecordingFormat.fromProperty(format, this.file);
+        this.speed = speed;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+        this.batchSize = batchSize;
+        this.output = Paths.get(output);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException, InterruptedException {
+        logger.info("Replaying {} ({}) at {}, snapshots every {} ms to {}", file, format,
+                speed == 0 ? "full speed" : speed + "x real time", snapshotIntervalMillis, output);
+        TickReplay replay = new TickReplay(tickerService, clock, speed, snapshotIntervalMillis, batchSize);
+        try (RecordedTickReader reader = RecordedTickReader.open(file, format);
+             BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            ReplayResult result = replay.run(reader, (snapshot) -> {
+                try {
+                    writer.write(objectMapper.writeValueAsString(snapshot));
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            logger.info("Replayed {}", result);
+        } finally {
+            context.close();
+        }
+    }
+}
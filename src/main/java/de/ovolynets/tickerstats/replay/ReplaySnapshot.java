@@ -0,0 +1,37 @@
+package de.ovolynets.tickerstats.replay;
+
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+
+import java.util.Map;
+
+/**
+ * Overall statistics at a point in the event time of a replay
+ */
+public class ReplaySnapshot {
+    // Event time in milliseconds since the epoch
+    private long time;
+    // Ticks replayed up to the snapshot
+    private long ticks;
+    // Statistics by window, e.g. 60s
+    private Map<String, TickerStatistics> statistics;
+
+    public ReplaySnapshot() {}
+
+    public ReplaySnapshot(long time, long ticks, Map<String, TickerStatistics> statistics) {
+        this.time = time;
+        this.ticks = ticks;
+        this.statistics = statistics;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    public Map<String, TickerStatistics> getStatistics() {
+        return statistics;
+    }
+}
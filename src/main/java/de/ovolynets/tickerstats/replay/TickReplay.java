@@ -0,0 +1,141 @@
+package de.ovolynets.tickerstats.replay;
+
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.TickBatch;
+import de.ovolynets.tickerstats.service.TickerService;
+import de.ovolynets.tickerstats.service.impl.ManualTickClock;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Streams recorded ticks through a service in event time. The service runs on a
+ * {@link ManualTickClock} that follows the timestamps of the ticks, so admission, expiry and the
+ * scheduled refresh see the time of the recording rather than the wall clock, and a trading day
+ * is replayed as fast as the service takes the ticks, or at a given multiple of real time.
+ * <p>
+ * Ticks are handed over in batches. Before a batch is added, the clock is advanced to its latest
+ * tick, running the refreshes and snapshots that are due up to then. A batch is closed once it is
+ * full or the next tick is more than {@value #STEP_MILLIS} ms ahead of the clock, so refreshes and
+ * snapshots miss at most the ticks of one batch. Ticks recorded out of order are added late, like
+ * the service would take them live.
+ */
+public class TickReplay {
+
+    // Event time a batch spans at most, unless it fills up before
+    static final long STEP_MILLIS = 10;
+
+    private final TickerService service;
+    private final ManualTickClock clock;
+    private final double speed;
+    private final long snapshotIntervalMillis;
+    private final int batchSize;
+
+    private long ticks;
+    private long accepted;
+    private long firstTimestamp = -1;
+    private long lastTimestamp;
+    private long startNanos;
+
+    /**
+     * @param clock clock of the service, starting at or before the first recorded tick
+     * @param speed multiple of real time to replay at, 0 for as fast as possible
+     * @param snapshotIntervalMillis event time between two snapshots, 0 for a snapshot at the end only
+     */
+    public TickReplay(TickerService service, ManualTickClock clock, double speed, long snapshotIntervalMillis,
+                      int batchSize) {
+        if (!(speed >= 0) || snapshotIntervalMillis < 0 || batchSize < 1) {
+            throw new IllegalArgumentException("Invalid replay options: speed " + speed + ", snapshots every "
+                    + snapshotIntervalMillis + " ms, batches of " + batchSize);
+        }
+        this.service = service;
+        this.clock = clock;
+        this.speed = speed;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Replays the recording to its end, a replay runs only once
+     *
+     * @param snapshots receives the snapshots in the replaying thread
+     */
+    public ReplayResult run(RecordedTickReader reader, Consumer<ReplaySnapshot> snapshots)
+            throws IOException, InterruptedException {
+        startNanos = System.nanoTime();
+        if (snapshotIntervalMillis > 0) {
+            scheduleSnapshot(snapshots);
+        }
+        TickBatch read = new TickBatch(batchSize);
+        TickBatch pending = new TickBatch(batchSize);
+        long pendingLatest = Long.MIN_VALUE;
+        while (!reader.isFinished()) {
+            read.clear();
+            reader.readInto(read);
+            for (int i = 0; i < read.size(); i++) {
+                long timestamp = read.getTimestamp(i);
+                if (pending.isFull() || (pending.size() > 0 && timestamp > clock.millis() + STEP_MILLIS)) {
+                    add(pending, pendingLatest);
+                    pendingLatest = Long.MIN_VALUE;
+                }
+                pending.add(read.getInstrument(i), read.getPrice(i), timestamp);
+                pendingLatest = Math.max(pendingLatest, timestamp);
+            }
+        }
+        if (pending.size() > 0) {
+            add(pending, pendingLatest);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        snapshots.accept(snapshot());
+        return new ReplayResult(ticks, accepted, reader.getInvalid(),
+                firstTimestamp < 0 ? 0 : lastTimestamp - firstTimestamp, elapsedNanos);
+    }
+
+    private void add(TickBatch batch, long latest) throws InterruptedException {
+        if (firstTimestamp < 0) {
+            firstTimestamp = latest;
+        }
+        lastTimestamp = Math.max(lastTimestamp, latest);
+        pace(lastTimestamp);
+        clock.advanceTo(latest);
+        accepted += service.addTicks(batch);
+        ticks += batch.size();
+        batch.clear();
+    }
+
+    // Waits until the wall clock catches up with the event time at the given speed
+    private void pace(long eventTime) throws InterruptedException {
+        if (speed == 0) {
+            return;
+        }
+        long dueNanos = startNanos + (long) ((eventTime - firstTimestamp) * 1e6 / speed);
+        long waitNanos = dueNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void scheduleSnapshot(Consumer<ReplaySnapshot> snapshots) {
+        clock.schedule(() -> {
+            snapshots.accept(snapshot());
+            scheduleSnapshot(snapshots);
+        }, snapshotIntervalMillis);
+    }
+
+    private ReplaySnapshot snapshot() {
+        Map<String, TickerStatistics> statistics = new LinkedHashMap<>();
+        for (Duration window : service.getWindows()) {
+            statistics.put(name(window), service.getStatistics(window));
+        }
+        return new ReplaySnapshot(clock.millis(), ticks, statistics);
+    }
+
+    // Windows are named like in the configuration, e.g. 10s or 1500ms
+    private static String name(Duration window) {
+        return window.toMillis() % 1_000 == 0 ? window.toSeconds() + "s" : window.toMillis() + "ms";
+    }
+}
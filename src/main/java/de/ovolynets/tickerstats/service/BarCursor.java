@@ -0,0 +1,39 @@
+package de.ovolynets.tickerstats.service;
+
+/**
+ * Price bars (open, high, low, close) of an instrument in ascending order of time, read one at a
+ * time so that a long range is never copied as a whole. The getters return the values of the
+ * current bar. Not thread-safe.
+ */
+public interface BarCursor {
+
+    /**
+     * Moves to the next bar, bars without ticks are skipped
+     *
+     * @return {@code false} if there are no more bars in the range
+     */
+    boolean next();
+
+    /**
+     * @return start of the bar, as epoch milliseconds
+     */
+    long getStart();
+
+    /**
+     * @return price of the tick with the earliest timestamp within the bar
+     */
+    double getOpen();
+
+    double getHigh();
+
+    double getLow();
+
+    /**
+     * @return price of the tick with the latest timestamp within the bar
+     */
+    double getClose();
+
+    long getCount();
+
+    double getAvg();
+}
@@ -0,0 +1,12 @@
+package de.ovolynets.tickerstats.service;
+
+/**
+ * Thrown when history is requested at a resolution it is not kept at, for a range that ends before
+ * it starts, or while history is not enabled
+ */
+public class InvalidHistoryRequestException extends IllegalArgumentException {
+
+    public InvalidHistoryRequestException(String message) {
+        super(message);
+    }
+}
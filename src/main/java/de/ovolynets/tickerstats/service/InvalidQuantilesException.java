@@ -0,0 +1,11 @@
+package de.ovolynets.tickerstats.service;
+
+/**
+ * Thrown when quantiles are requested that are not between 0 and 1, or while quantiles are not enabled
+ */
+public class InvalidQuantilesException extends IllegalArgumentException {
+
+    public InvalidQuantilesException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package de.ovolynets.tickerstats.service;
+
+/**
+ * Thrown when instruments are to be ranked by an unknown key, or the number of ranked instruments is out of range
+ */
+public class InvalidRankingException extends IllegalArgumentException {
+
+    public InvalidRankingException(String message) {
+        super(message);
+    }
+}
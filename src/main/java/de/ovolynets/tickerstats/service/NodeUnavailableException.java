@@ -0,0 +1,11 @@
+package de.ovolynets.tickerstats.service;
+
+/**
+ * Thrown when statistics cannot be gathered because a node of the cluster that holds some of them does not answer
+ */
+public class NodeUnavailableException extends RuntimeException {
+
+    public NodeUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
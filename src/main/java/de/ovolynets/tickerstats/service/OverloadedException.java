@@ -0,0 +1,37 @@
+package de.ovolynets.tickerstats.service;
+
+import java.time.Duration;
+
+/**
+ * Thrown when ticks are not taken because the service sheds load, the client is expected to retry later
+ */
+public class OverloadedException extends RuntimeException {
+
+    public enum Reason {
+        /**
+         * Too many calls are adding ticks at the same time
+         */
+        TOO_MANY_INGESTS,
+        /**
+         * The statistics have not been refreshed for too long, writes outpace the refresh
+         */
+        REFRESH_LAGGING
+    }
+
+    private final Reason reason;
+    private final Duration retryAfter;
+
+    public OverloadedException(String message, Reason reason, Duration retryAfter) {
+        super(message);
+        this.reason = reason;
+        this.retryAfter = retryAfter;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,34 @@
+package de.ovolynets.tickerstats.service;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * What instruments are ranked by, highest first, see {@code GET /api/rankings?by=}
+ */
+public enum Ranking {
+    /**
+     * Number of ticks in the window, the most active instruments first
+     */
+    COUNT,
+    /**
+     * Difference between the highest and the lowest price in the window, the biggest movers first
+     */
+    RANGE,
+    /**
+     * Average price in the window
+     */
+    AVG;
+
+    /**
+     * @throws InvalidRankingException if the value names no ranking
+     */
+    public static Ranking fromParameter(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRankingException("'" + value + "' is not a ranking, expected one of "
+                    + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package de.ovolynets.tickerstats.service;
+
+import java.time.Duration;
+import java.util.Collection;
+
+public interface StatisticsPublisher {
+    /**
+     * Subscribes to the statistics of the given instruments. The current statistics are delivered right
+     * away, afterwards only the ones that changed, at most at the configured rate
+     *
+     * @param instruments instrument IDs, the statistics over all instruments if empty
+     * @param window window of the statistics, the default window if {@code null}
+     * @throws UnknownWindowException if statistics are not served for the window
+     */
+    Subscription subscribe(Collection<String> instruments, Duration window, StatisticsSubscriber subscriber);
+
+    interface Subscription {
+        /**
+         * Stops the delivery of updates, can be called more than once
+         */
+        void cancel();
+    }
+}
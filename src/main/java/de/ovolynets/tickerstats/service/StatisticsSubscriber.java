@@ -0,0 +1,23 @@
+package de.ovolynets.tickerstats.service;
+
+import de.ovolynets.tickerstats.controller.StatisticsUpdate;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receiver of the statistics pushed by the {@link StatisticsPublisher}
+ */
+public interface StatisticsSubscriber {
+    /**
+     * Delivers the statistics that changed since the last delivery, at most one value per instrument.
+     * Never called concurrently for the same subscriber. A failure cancels the subscription
+     */
+    void deliver(List<StatisticsUpdate> updates) throws IOException;
+
+    /**
+     * Called once the publisher has cancelled the subscription, e.g. because the subscriber is too slow,
+     * and no delivery is in flight any more. A delivery that blocks delays the call until it returns
+     */
+    void close();
+}
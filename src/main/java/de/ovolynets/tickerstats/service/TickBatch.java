@@ -0,0 +1,64 @@
+package de.ovolynets.tickerstats.service;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffer of ticks kept as parallel arrays, used to hand over many ticks to the
+ * {@link TickerService} at once without creating an object per tick
+ */
+public class TickBatch {
+
+    private String[] instruments;
+    private double[] prices;
+    private long[] timestamps;
+    private int size;
+
+    public TickBatch(int capacity) {
+        instruments = new String[capacity];
+        prices = new double[capacity];
+        timestamps = new long[capacity];
+    }
+
+    public void add(String instrument, double price, long timestamp) {
+        if (size == instruments.length) {
+            int capacity = Math.max(16, 2 * size);
+            instruments = Arrays.copyOf(instruments, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+        instruments[size] = instrument;
+        prices[size] = price;
+        timestamps[size] = timestamp;
+        size++;
+    }
+
+    public String getInstrument(int index) {
+        return instruments[index];
+    }
+
+    public double getPrice(int index) {
+        return prices[index];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return instruments.length;
+    }
+
+    public boolean isFull() {
+        return size == instruments.length;
+    }
+
+    public void clear() {
+        // Drop the references to the instruments so that they can be garbage collected
+        Arrays.fill(instruments, 0, size, null);
+        size = 0;
+    }
+}
@@ -0,0 +1,25 @@
+package de.ovolynets.tickerstats.service;
+
+/**
+ * Ticks of a batch handed to {@link TickerService#addOrForwardTicks(TickBatch)} that have been added
+ * to the windows of this node, and ones handed on to the nodes of the cluster that own their
+ * instruments, which apply their own admission to them. The rest of the batch has been rejected.
+ */
+public final class TickCounts {
+
+    private final int added;
+    private final int forwarded;
+
+    public TickCounts(int added, int forwarded) {
+        this.added = added;
+        this.forwarded = forwarded;
+    }
+
+    public int getAdded() {
+        return added;
+    }
+
+    public int getForwarded() {
+        return forwarded;
+    }
+}
@@ -0,0 +1,19 @@
+package de.ovolynets.tickerstats.service;
+
+/**
+ * What became of a tick handed to {@link TickerService#addOrForwardTick(String, double, long)}
+ */
+public enum TickOutcome {
+    /**
+     * Added to the windows of this node
+     */
+    ADDED,
+    /**
+     * Handed on to the node of the cluster that owns its instrument, which applies its own admission
+     */
+    FORWARDED,
+    /**
+     * Older than the longest window or not admitted, or dropped because it could not be forwarded
+     */
+    REJECTED
+}
@@ -1,26 +1,96 @@
 package de.ovolynets.tickerstats.service;
 
+import de.ovolynets.tickerstats.controller.StatisticsUpdate;
 import de.ovolynets.tickerstats.controller.Tick;
 import de.ovolynets.tickerstats.controller.TickerStatistics;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 
 public interface TickerService {
+    /**
+     * Longest instrument name in characters. Ticks of longer instruments are invalid, so that every
+     * accepted tick fits the journal and the binary protocols, which all store at most 1024 bytes of
+     * UTF-8 per name.
+     */
+    int MAX_INSTRUMENT_LENGTH = 256;
+
     /**
      * Add tick data into the database
      *
      * @param tick tick data containing instrument name, price and timestamp
-     * @return {@code false} if data is older than 60 seconds, {@code true} otherwise
+     * @return {@code false} if data is older than the longest window or not admitted (too far in the
+     * future, or of a new instrument beyond the instrument cap), {@code true} otherwise
+     */
+    default boolean addTick(Tick tick) {
+        return addTick(tick.getInstrument(), tick.getPrice(), tick.getTimestamp());
+    }
+
+    /**
+     * Add tick data into the database, for callers that hold the fields of a validated tick as primitives
+     *
+     * @return {@code false} if data is older than the longest window or not admitted, {@code true} otherwise
      */
-    boolean addTick(Tick tick);
+    boolean addTick(String instrument, double price, long timestamp);
 
     /**
-     * Returns overall statistics on all available ticker data
+     * Add many ticks into the database at once. Ticks are expected to be validated already.
+     * Compared to one-by-one updates, locking and expiry of old data are amortized over the batch
+     *
+     * @param ticks tick data, left unchanged
+     * @return number of ticks that have been added, the rest is older than the longest window or not admitted
+     */
+    int addTicks(TickBatch ticks);
+
+    /**
+     * Add tick data like {@link #addTick(String, double, long)}, or forward it to the node of the cluster
+     * that owns its instrument, which is told apart from adding it, as that node admits it on its own
+     *
+     * @return whether the tick has been added, forwarded or rejected
+     */
+    default TickOutcome addOrForwardTick(String instrument, double price, long timestamp) {
+        return addTick(instrument, price, timestamp) ? TickOutcome.ADDED : TickOutcome.REJECTED;
+    }
+
+    /**
+     * Add many ticks like {@link #addTicks(TickBatch)}, and count the ones forwarded to the nodes of the
+     * cluster that own their instruments apart from the added ones
+     *
+     * @param ticks tick data, left unchanged
+     * @return numbers of ticks that have been added and forwarded
+     */
+    default TickCounts addOrForwardTicks(TickBatch ticks) {
+        return new TickCounts(addTicks(ticks), 0);
+    }
+
+    /**
+     * Admits a call that is about to add ticks for a client that can retry it, e.g. a request. Every
+     * admitted call has to be followed by {@link #releaseIngest()} once it has added its ticks.
+     *
+     * @throws OverloadedException if the service sheds load, before the call has added anything
+     */
+    void admitIngest();
+
+    /**
+     * Ends a call admitted by {@link #admitIngest()}
+     */
+    void releaseIngest();
+
+    /**
+     * Returns overall statistics on all available ticker data of the default window
      *
      * @return overall statistics
      */
     TickerStatistics getStatistics();
 
+    /**
+     * Returns overall statistics on the ticker data of the given window
+     *
+     * @throws UnknownWindowException if statistics are not served for the window
+     */
+    TickerStatistics getStatistics(Duration window);
+
     /**
      * Returns statistics on ticker data for a given instrument ID. If no data is available
      * for the given instrument, returns {@code Optional.empty()}
@@ -28,4 +98,67 @@ public interface TickerService {
      * @return statistics data for the instrument
      */
     Optional<TickerStatistics> getStatistics(String instrumentId);
+
+    /**
+     * Returns statistics on the ticker data of the given window for a given instrument ID
+     *
+     * @throws UnknownWindowException if statistics are not served for the window
+     */
+    Optional<TickerStatistics> getStatistics(String instrumentId, Duration window);
+
+    /**
+     * Returns quantiles of the prices in the given window, within the configured relative accuracy
+     *
+     * @param instrumentId instrument ID, {@code null} for all instruments
+     * @param window window of the prices, {@code null} for the default window
+     * @param quantiles quantiles between 0 and 1, e.g. 0.5 for the median
+     * @return price of every quantile, empty if there are no ticks (of the instrument) in the window
+     * @throws InvalidQuantilesException if a quantile is out of range or quantiles are not enabled
+     * @throws UnknownWindowException if statistics are not served for the window
+     * @throws UnsupportedInClusterException in cluster mode
+     */
+    Optional<double[]> getQuantiles(String instrumentId, Duration window, double[] quantiles);
+
+    /**
+     * Returns the statistics of the instruments ranked highest in the given window, e.g. the most
+     * active ones. Rankings are kept up to date as statistics change, so a request does not sort
+     * the instruments; they may be up to one refresh old, like the statistics of the periodic mode.
+     *
+     * @param window window of the statistics, {@code null} for the default window
+     * @param limit maximum number of instruments returned
+     * @return statistics of the instruments with data in the window, highest ranked first
+     * @throws InvalidRankingException if the limit is out of range
+     * @throws UnknownWindowException if statistics are not served for the window
+     * @throws UnsupportedInClusterException in cluster mode
+     */
+    List<StatisticsUpdate> getRankings(Ranking ranking, Duration window, int limit);
+
+    /**
+     * Returns the price bars of an instrument that start from {@code from} (inclusive) to {@code to}
+     * (exclusive), oldest first. Bars are kept for a limited number of periods per resolution, the
+     * parts of the range outside of them have no bars.
+     *
+     * @param from start of the range, as epoch milliseconds
+     * @param to end of the range, as epoch milliseconds
+     * @param resolution length of the bars, {@code null} for the finest resolution
+     * @return bars of the instrument, empty if there is no history of the instrument
+     * @throws InvalidHistoryRequestException if history is not enabled or not kept at the resolution,
+     * or the range ends before it starts
+     * @throws UnsupportedInClusterException in cluster mode
+     */
+    Optional<BarCursor> getHistory(String instrumentId, long from, long to, Duration resolution);
+
+    /**
+     * Returns the generation of the statistics, e.g. to tell clients whether their copy is still up to date.
+     * It changes whenever statistics may have changed, in the periodic mode on a rebuild with new results,
+     * and stays the same as long as all statistics do. Statistics read afterwards are at least as recent.
+     *
+     * @return generation of the statistics of all windows, only comparable within the same process
+     */
+    long getGeneration();
+
+    /**
+     * @return windows statistics are served for, in ascending order
+     */
+    List<Duration> getWindows();
 }
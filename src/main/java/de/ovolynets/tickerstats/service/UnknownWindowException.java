@@ -0,0 +1,11 @@
+package de.ovolynets.tickerstats.service;
+
+/**
+ * Thrown when statistics are requested for a window that is not configured
+ */
+public class UnknownWindowException extends IllegalArgumentException {
+
+    public UnknownWindowException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package de.ovolynets.tickerstats.service;
+
+/**
+ * Thrown in cluster mode for queries that would have to be merged across the nodes but are not, so that a node
+ * does not answer them from the instruments it owns as if those were all of them
+ */
+public class UnsupportedInClusterException extends UnsupportedOperationException {
+
+    public UnsupportedInClusterException(String message) {
+        super(message);
+    }
+}
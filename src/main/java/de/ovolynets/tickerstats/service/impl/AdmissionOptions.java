@@ -0,0 +1,79 @@
+package de.ovolynets.tickerstats.service.impl;
+
+/**
+ * Which ticks are admitted to the windows and when calls that add ticks are shed, see {@link TickAdmission}.
+ * A limit of 0 means no limit.
+ */
+public final class AdmissionOptions {
+
+    /**
+     * Ticks are admitted up to the end of the slot rings, and calls are never shed
+     */
+    public static final AdmissionOptions UNLIMITED = new AdmissionOptions(0, 0, 0, 0, 1_000);
+
+    private final long maxFutureSkewMillis;
+    private final int maxInstruments;
+    private final int maxConcurrentIngests;
+    private final long maxRefreshLagMillis;
+    private final long retryAfterMillis;
+
+    private AdmissionOptions(long maxFutureSkewMillis, int maxInstruments, int maxConcurrentIngests,
+                             long maxRefreshLagMillis, long retryAfterMillis) {
+        this.maxFutureSkewMillis = maxFutureSkewMillis;
+        this.maxInstruments = maxInstruments;
+        this.maxConcurrentIngests = maxConcurrentIngests;
+        this.maxRefreshLagMillis = maxRefreshLagMillis;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @param maxFutureSkewMillis how far a timestamp may be ahead of the clock of the service
+     * @param maxInstruments most instruments with an id, ticks of new instruments are rejected beyond it
+     * @param maxConcurrentIngests most calls adding ticks at the same time, further ones are shed
+     * @param maxRefreshLagMillis longest time since the start of the last completed refresh, calls are shed beyond it
+     * @param retryAfterMillis time shed calls are asked to wait before they retry
+     */
+    public static AdmissionOptions limited(long maxFutureSkewMillis, int maxInstruments, int maxConcurrentIngests,
+                                           long maxRefreshLagMillis, long retryAfterMillis) {
+        if (maxFutureSkewMillis < 0 || maxInstruments < 0 || maxConcurrentIngests < 0 || maxRefreshLagMillis < 0) {
+            throw new IllegalArgumentException("Admission limits must not be negative: " + maxFutureSkewMillis + ", "
+                    + maxInstruments + ", " + maxConcurrentIngests + ", " + maxRefreshLagMillis);
+        }
+        if (retryAfterMillis <= 0) {
+            throw new IllegalArgumentException("Retry after must be positive: " + retryAfterMillis);
+        }
+        return new AdmissionOptions(maxFutureSkewMillis, maxInstruments, maxConcurrentIngests, maxRefreshLagMillis,
+                retryAfterMillis);
+    }
+
+    public long getMaxFutureSkewMillis() {
+        return maxFutureSkewMillis;
+    }
+
+    public int getMaxInstruments() {
+        return maxInstruments;
+    }
+
+    public int getMaxConcurrentIngests() {
+        return maxConcurrentIngests;
+    }
+
+    public long getMaxRefreshLagMillis() {
+        return maxRefreshLagMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "future skew " + limitOf(maxFutureSkewMillis, " ms") + ", instruments " + limitOf(maxInstruments, "")
+                + ", concurrent ingests " + limitOf(maxConcurrentIngests, "") + ", refresh lag "
+                + limitOf(maxRefreshLagMillis, " ms");
+    }
+
+    private static String limitOf(long limit, String unit) {
+        return limit > 0 ? "up to " + limit + unit : "unlimited";
+    }
+}
@@ -0,0 +1,136 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import java.util.Arrays;
+
+/**
+ * Price bars (open, high, low, close, count, sum) of one instrument at one resolution, kept in a
+ * fixed ring of primitive arrays that is allocated once, so the memory of an instrument is known
+ * upfront: {@value #BYTES_PER_BAR} bytes per bar. Bar {@code i} covers the timestamps
+ * {@code [i * resolutionMillis, (i + 1) * resolutionMillis)}, a ring position is taken over by the
+ * next newer bar that maps to it, which drops the bar it held.
+ * <p>
+ * Ticks may arrive out of order, so the open and close prices are the ones of the ticks with the
+ * earliest and the latest timestamp within the bar, rather than of the first and the last tick added.
+ * <p>
+ * Not thread-safe, callers synchronize.
+ */
+class BarRing {
+
+    static final int BYTES_PER_BAR = 64;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final long resolutionMillis;
+    // Bar index (timestamp divided by the resolution) every ring position holds
+    private final long[] bars;
+    private final double[] opens;
+    private final double[] highs;
+    private final double[] lows;
+    private final double[] closes;
+    private final double[] sums;
+    private final long[] counts;
+    // Time of the opening and the closing tick, relative to the start of the bar
+    private final int[] openOffsets;
+    private final int[] closeOffsets;
+
+    BarRing(long resolutionMillis, int capacity) {
+        if (resolutionMillis <= 0 || resolutionMillis > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Resolution of bars must be positive and shorter than 24 days: " + resolutionMillis);
+        }
+        this.resolutionMillis = resolutionMillis;
+        this.bars = new long[capacity];
+        Arrays.fill(bars, EMPTY);
+        this.opens = new double[capacity];
+        this.highs = new double[capacity];
+        this.lows = new double[capacity];
+        this.closes = new double[capacity];
+        this.sums = new double[capacity];
+        this.counts = new long[capacity];
+        this.openOffsets = new int[capacity];
+        this.closeOffsets = new int[capacity];
+    }
+
+    /**
+     * Adds a tick to the bar its timestamp belongs to
+     *
+     * @return {@code false} if the ring position of the bar has already been taken over by a newer bar
+     */
+    boolean add(double price, long timestamp) {
+        long bar = barOf(timestamp);
+        int position = (int) Math.floorMod(bar, (long) bars.length);
+        int offset = (int) (timestamp - bar * resolutionMillis);
+        if (bars[position] != bar) {
+            if (bars[position] > bar) {
+                return false;
+            }
+            bars[position] = bar;
+            opens[position] = price;
+            highs[position] = price;
+            lows[position] = price;
+            closes[position] = price;
+            sums[position] = price;
+            counts[position] = 1;
+            openOffsets[position] = offset;
+            closeOffsets[position] = offset;
+            return true;
+        }
+        highs[position] = Math.max(price, highs[position]);
+        lows[position] = Math.min(price, lows[position]);
+        sums[position] += price;
+        counts[position]++;
+        // The first tick of the earliest time opens the bar, the last tick of the latest time closes it
+        if (offset < openOffsets[position]) {
+            opens[position] = price;
+            openOffsets[position] = offset;
+        }
+        if (offset >= closeOffsets[position]) {
+            closes[position] = price;
+            closeOffsets[position] = offset;
+        }
+        return true;
+    }
+
+    long barOf(long timestamp) {
+        return Math.floorDiv(timestamp, resolutionMillis);
+    }
+
+    long resolutionMillis() {
+        return resolutionMillis;
+    }
+
+    int capacity() {
+        return bars.length;
+    }
+
+    /**
+     * @return position of the bar in the ring, -1 if the ring does not hold it
+     */
+    int positionOf(long bar) {
+        int position = (int) Math.floorMod(bar, (long) bars.length);
+        return bars[position] == bar ? position : -1;
+    }
+
+    double openAt(int position) {
+        return opens[position];
+    }
+
+    double highAt(int position) {
+        return highs[position];
+    }
+
+    double lowAt(int position) {
+        return lows[position];
+    }
+
+    double closeAt(int position) {
+        return closes[position];
+    }
+
+    double sumAt(int position) {
+        return sums[position];
+    }
+
+    long countAt(int position) {
+        return counts[position];
+    }
+}
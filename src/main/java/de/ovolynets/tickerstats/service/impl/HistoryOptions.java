@@ -0,0 +1,61 @@
+package de.ovolynets.tickerstats.service.impl;
+
+/**
+ * Whether price bars are kept beyond the windows and for how long, see {@link PriceHistory}
+ */
+public final class HistoryOptions {
+
+    /**
+     * No history is kept, requests for it are rejected
+     */
+    public static final HistoryOptions DISABLED = new HistoryOptions(false, 0, 0);
+
+    private final boolean enabled;
+    private final int minuteBars;
+    private final int hourBars;
+
+    private HistoryOptions(boolean enabled, int minuteBars, int hourBars) {
+        this.enabled = enabled;
+        this.minuteBars = minuteBars;
+        this.hourBars = hourBars;
+    }
+
+    /**
+     * @param minuteBars number of 1-minute bars kept per instrument, e.g. 1440 for a day
+     * @param hourBars number of 1-hour bars kept per instrument, 0 for none
+     */
+    public static HistoryOptions enabled(int minuteBars, int hourBars) {
+        if (minuteBars < 1 || hourBars < 0) {
+            throw new IllegalArgumentException("History needs at least one minute bar and no negative number of hour bars: "
+                    + minuteBars + ", " + hourBars);
+        }
+        return new HistoryOptions(true, minuteBars, hourBars);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMinuteBars() {
+        return minuteBars;
+    }
+
+    public int getHourBars() {
+        return hourBars;
+    }
+
+    /**
+     * @return time the history of an instrument reaches back
+     */
+    public long horizonMillis() {
+        return Math.max(minuteBars * PriceHistory.MINUTE_MILLIS, hourBars * PriceHistory.HOUR_MILLIS);
+    }
+
+    @Override
+    public String toString() {
+        return enabled
+                ? minuteBars + " minute bars, " + hourBars + " hour bars, " + (minuteBars + hourBars) * BarRing.BYTES_PER_BAR
+                + " bytes per instrument"
+                : "disabled";
+    }
+}
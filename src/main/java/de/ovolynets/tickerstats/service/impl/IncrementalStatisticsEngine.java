@@ -0,0 +1,269 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.StatisticsUpdate;
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.Ranking;
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Maintains a {@link SlidingAggregate} per instrument id and striped ones for all ticks. Every insert
+ * updates the aggregate of its instrument and the overall aggregate of the writer's stripe (see
+ * {@link Stripes}), expired slots are subtracted lazily whenever an aggregate is touched, so reads
+ * always reflect the current window without scanning it. The overall statistics are merged from
+ * the stripes at read time.
+ * <p>
+ * Each aggregate is guarded by its own monitor, there is no lock shared by all writers; only
+ * writers of the same instrument contend. Visibility: a tick for which {@code add} has returned
+ * is seen by every read that starts afterwards. Statistics of an instrument are an atomic view of
+ * its aggregate, while the overall statistics are merged stripe by stripe and may include a tick
+ * that is concurrent with the read but miss another one.
+ * <p>
+ * An aggregate is created once per instrument id and reused by the next instrument that gets the
+ * id after a retirement, so in a steady state adding a tick allocates nothing. Instruments without
+ * data in the window are reported as missing just like in the periodic mode.
+ * <p>
+ * The statistics of the default window change only when a tick is added or the oldest live slot
+ * moves on, so the generation is the sum of both, each of which only ever grows.
+ * <p>
+ * Ranking on every tick would serialize the writers, so the default window is ranked as of the
+ * last refresh: the refresh visits every aggregate anyway and writes its statistics into one of two
+ * {@link StatisticsTable}s, which keep the rankings up to date, and publishes it afterwards.
+ * <p>
+ * Only the default window is maintained incrementally. If further windows are configured, ticks
+ * are also added to a {@link PeriodicStatisticsEngine} of the other windows only (see
+ * {@link StatisticsWindows#withoutDefault()}), so a tick is kept once per window rather than once
+ * more for the default window. A tick is accepted if the default window or a longer one keeps it.
+ */
+class IncrementalStatisticsEngine implements StatisticsEngine {
+
+    private final StatisticsWindows windows;
+    private final WindowSlots windowSlots;
+    private final InstrumentRegistry registry;
+    // Aggregates indexed by instrument id, created lazily and grown under the lock of the engine
+    private volatile SlidingAggregate[] aggregates = new SlidingAggregate[0];
+    private final SlidingAggregate[] totalStripes;
+    private volatile int windowEntries;
+    // Statistics of the default window as of a refresh, to rank the instruments by: one side
+    // published for the readers, the other one written by the next refresh
+    private final StatisticsTable[] rankedTables = {new StatisticsTable(), new StatisticsTable()};
+    private volatile int rankedSide;
+    private final StatisticsAccumulator rankedStatistics = new StatisticsAccumulator();
+    // Store of the windows other than the default one, null if there are none
+    private final PeriodicStatisticsEngine otherWindows;
+    // Ticks older than the default window down to this age are kept by a longer window
+    private final long otherWindowsMillis;
+
+    IncrementalStatisticsEngine(StatisticsWindows windows, InstrumentRegistry registry, int stripeCount) {
+        this.windows = windows;
+        this.windowSlots = new WindowSlots(windows.windowMillis(windows.defaultWindow()), windows.tier(0).slotMillis());
+        this.registry = registry;
+        this.totalStripes = new SlidingAggregate[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            totalStripes[i] = new SlidingAggregate(windowSlots);
+        }
+        this.otherWindows = windows.count() > 1
+                ? new PeriodicStatisticsEngine(windows.withoutDefault(), registry, stripeCount)
+                : null;
+        this.otherWindowsMillis = windows.longestMillis();
+    }
+
+    @Override
+    public StatisticsWindows windows() {
+        return windows;
+    }
+
+    @Override
+    public boolean add(String instrument, double price, long timestamp, long now) {
+        boolean added = addToDefaultWindow(instrument, price, timestamp, now);
+        if (otherWindows != null) {
+            // Accepted as long as the tick is inside of any window
+            boolean addedToOthers = otherWindows.add(instrument, price, timestamp, now);
+            added = added || addedToOthers;
+        }
+        return added;
+    }
+
+    private boolean addToDefaultWindow(String instrument, double price, long timestamp, long now) {
+        long slot = windowSlots.slotOf(timestamp, now);
+        if (slot == WindowSlots.REJECTED) {
+            return false;
+        }
+        long oldestLiveSlot = windowSlots.oldestLiveSlot(now);
+        if (!addToInstrument(registry.register(instrument, now), slot, price, oldestLiveSlot)) {
+            return false;
+        }
+        SlidingAggregate totalAggregate = currentTotalStripe();
+        synchronized (totalAggregate) {
+            totalAggregate.expire(oldestLiveSlot);
+            totalAggregate.add(slot, price);
+        }
+        return true;
+    }
+
+    @Override
+    public int addAll(TickBatch batch, long now) {
+        long oldestLiveSlot = windowSlots.oldestLiveSlot(now);
+        long defaultStart = now - windowSlots.windowMillis();
+        int added = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            long timestamp = batch.getTimestamp(i);
+            long slot = windowSlots.slotOf(timestamp, now);
+            if (slot != WindowSlots.REJECTED) {
+                if (addToInstrument(registry.register(batch.getInstrument(i), now), slot, batch.getPrice(i), oldestLiveSlot)) {
+                    added++;
+                }
+            } else if (timestamp < defaultStart && timestamp >= now - otherWindowsMillis) {
+                // Only kept by a window longer than the default one
+                added++;
+            }
+        }
+        // The overall statistics of the stripe are locked once per batch
+        SlidingAggregate totalAggregate = currentTotalStripe();
+        synchronized (totalAggregate) {
+            totalAggregate.expire(oldestLiveSlot);
+            for (int i = 0; i < batch.size(); i++) {
+                long slot = windowSlots.slotOf(batch.getTimestamp(i), now);
+                if (slot != WindowSlots.REJECTED) {
+                    totalAggregate.add(slot, batch.getPrice(i));
+                }
+            }
+        }
+        if (otherWindows != null) {
+            otherWindows.addAll(batch, now);
+        }
+        return added;
+    }
+
+    private boolean addToInstrument(int id, long slot, double price, long oldestLiveSlot) {
+        SlidingAggregate aggregate = aggregateOf(id);
+        synchronized (aggregate) {
+            aggregate.expire(oldestLiveSlot);
+            return aggregate.add(slot, price);
+        }
+    }
+
+    @Override
+    public int refresh(long now) {
+        long oldestLiveSlot = windowSlots.oldestLiveSlot(now);
+        int expired = 0;
+        int entries = 0;
+        SlidingAggregate[] aggregates = this.aggregates;
+        StatisticsTable ranked = rankedTables[rankedSide ^ 1];
+        ranked.beginWrite(aggregates.length);
+        for (int id = 0; id < aggregates.length; id++) {
+            SlidingAggregate aggregate = aggregates[id];
+            if (aggregate != null) {
+                rankedStatistics.clear();
+                synchronized (aggregate) {
+                    expired += aggregate.expire(oldestLiveSlot);
+                    entries += aggregate.liveSlots();
+                    aggregate.mergeInto(rankedStatistics);
+                }
+                // An aggregate without data in the window drops the instrument from the rankings
+                ranked.put(id, rankedStatistics.sum, rankedStatistics.count, rankedStatistics.min, rankedStatistics.max);
+            }
+        }
+        ranked.endWrite();
+        rankedSide ^= 1;
+        for (SlidingAggregate totalAggregate : totalStripes) {
+            synchronized (totalAggregate) {
+                totalAggregate.expire(oldestLiveSlot);
+            }
+        }
+        windowEntries = entries;
+        if (otherWindows != null) {
+            expired += otherWindows.refresh(now);
+        }
+        return expired;
+    }
+
+    @Override
+    public int windowEntries() {
+        return otherWindows != null ? windowEntries + otherWindows.windowEntries() : windowEntries;
+    }
+
+    @Override
+    public long generation(long now) {
+        long generation = windowSlots.oldestLiveSlot(now);
+        for (SlidingAggregate totalAggregate : totalStripes) {
+            synchronized (totalAggregate) {
+                // Every tick of the default window is added to the overall statistics after its instrument
+                generation += totalAggregate.additions();
+            }
+        }
+        return otherWindows != null ? generation + otherWindows.generation(now) : generation;
+    }
+
+    @Override
+    public TickerStatistics getStatistics(int window, long now) {
+        if (window != windows.defaultWindow()) {
+            return otherWindows.getStatistics(windows.indexWithoutDefault(window), now);
+        }
+        long oldestLiveSlot = windowSlots.oldestLiveSlot(now);
+        StatisticsAccumulator accumulator = new StatisticsAccumulator();
+        for (SlidingAggregate totalAggregate : totalStripes) {
+            synchronized (totalAggregate) {
+                totalAggregate.expire(oldestLiveSlot);
+                totalAggregate.mergeInto(accumulator);
+            }
+        }
+        return accumulator.toTickerStatistics();
+    }
+
+    @Override
+    public Optional<TickerStatistics> getStatistics(String instrument, int window, long now) {
+        if (window != windows.defaultWindow()) {
+            return otherWindows.getStatistics(instrument, windows.indexWithoutDefault(window), now);
+        }
+        int id = registry.idOf(instrument);
+        SlidingAggregate[] aggregates = this.aggregates;
+        if (id == InstrumentRegistry.UNKNOWN || id >= aggregates.length || aggregates[id] == null) {
+            return Optional.empty();
+        }
+        SlidingAggregate aggregate = aggregates[id];
+        synchronized (aggregate) {
+            aggregate.expire(windowSlots.oldestLiveSlot(now));
+            if (aggregate.isEmpty()) {
+                return Optional.empty();
+            }
+            return Optional.of(aggregate.toTickerStatistics());
+        }
+    }
+
+    @Override
+    public List<StatisticsUpdate> getRankings(Ranking ranking, int window, int limit, long now) {
+        if (window != windows.defaultWindow()) {
+            return otherWindows.getRankings(ranking, windows.indexWithoutDefault(window), limit, now);
+        }
+        return StatisticsTable.readRanking(() -> rankedTables[rankedSide], ranking, limit, registry);
+    }
+
+    private SlidingAggregate aggregateOf(int id) {
+        SlidingAggregate[] aggregates = this.aggregates;
+        if (id < aggregates.length && aggregates[id] != null) {
+            return aggregates[id];
+        }
+        return createAggregate(id);
+    }
+
+    private synchronized SlidingAggregate createAggregate(int id) {
+        SlidingAggregate[] aggregates = this.aggregates;
+        if (id >= aggregates.length) {
+            aggregates = Arrays.copyOf(aggregates, Math.max(id + 1, registry.capacity()));
+        }
+        if (aggregates[id] == null) {
+            aggregates[id] = new SlidingAggregate(windowSlots);
+        }
+        // Write the reference back to publish the new element to readers of the volatile field
+        this.aggregates = aggregates;
+        return aggregates[id];
+    }
+
+    private SlidingAggregate currentTotalStripe() {
+        return totalStripes[Stripes.ofCurrentThread(totalStripes.length)];
+    }
+}
@@ -0,0 +1,185 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import java.util.Arrays;
+
+/**
+ * Partial aggregates (sum, min, max, count) of the instruments of one time slot, kept as parallel
+ * primitive arrays and looked up by instrument id through an open-addressing index. Clearing keeps
+ * the arrays, so once they have grown to the number of instruments per slot, adding a tick
+ * allocates nothing. The instruments whose aggregates changed are listed until the changes are
+ * taken, so that a rebuild can recompute just these.
+ * <p>
+ * Not thread-safe, callers synchronize.
+ */
+class InstrumentAggregates {
+
+    private int[] ids = new int[8];
+    private double[] sums = new double[8];
+    private double[] mins = new double[8];
+    private double[] maxs = new double[8];
+    private long[] counts = new long[8];
+    private int size;
+
+    // Positions changed since the changes have last been taken, flagged and listed
+    private boolean[] changed = new boolean[8];
+    private int[] changedPositions = new int[8];
+    private int changedSize;
+
+    // Position of an id in the arrays above plus one, zero marks a free entry
+    private int[] index = new int[16];
+
+    void add(int id, double price) {
+        int position = positionOf(id);
+        if (position < 0) {
+            position = append(id);
+            sums[position] = price;
+            mins[position] = price;
+            maxs[position] = price;
+            counts[position] = 1;
+        } else {
+            sums[position] += price;
+            mins[position] = Math.min(price, mins[position]);
+            maxs[position] = Math.max(price, maxs[position]);
+            counts[position] += 1;
+        }
+        markChanged(position);
+    }
+
+    /**
+     * Adds the partial aggregate of another slot, e.g. when a slot is rolled up into a coarser one
+     */
+    void merge(int id, double sum, long count, double min, double max) {
+        int position = positionOf(id);
+        if (position < 0) {
+            position = append(id);
+            sums[position] = sum;
+            mins[position] = min;
+            maxs[position] = max;
+            counts[position] = count;
+        } else {
+            sums[position] += sum;
+            mins[position] = Math.min(min, mins[position]);
+            maxs[position] = Math.max(max, maxs[position]);
+            counts[position] += count;
+        }
+        markChanged(position);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int idAt(int position) {
+        return ids[position];
+    }
+
+    double sumAt(int position) {
+        return sums[position];
+    }
+
+    double minAt(int position) {
+        return mins[position];
+    }
+
+    double maxAt(int position) {
+        return maxs[position];
+    }
+
+    long countAt(int position) {
+        return counts[position];
+    }
+
+    /**
+     * @return number of instruments whose aggregates changed since the changes have last been taken
+     */
+    int changedSize() {
+        return changedSize;
+    }
+
+    int changedIdAt(int i) {
+        return ids[changedPositions[i]];
+    }
+
+    /**
+     * Forgets the changes, e.g. once a rebuild has taken them
+     */
+    void clearChanged() {
+        for (int i = 0; i < changedSize; i++) {
+            changed[changedPositions[i]] = false;
+        }
+        changedSize = 0;
+    }
+
+    void clear() {
+        clearChanged();
+        if (size > 0) {
+            Arrays.fill(index, 0);
+            size = 0;
+        }
+    }
+
+    private void markChanged(int position) {
+        if (!changed[position]) {
+            changed[position] = true;
+            changedPositions[changedSize++] = position;
+        }
+    }
+
+    /**
+     * @return position of the instrument in this slot, -1 if the slot has no data of it
+     */
+    int positionOf(int id) {
+        int mask = index.length - 1;
+        for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+            int entry = index[i];
+            if (entry == 0) {
+                return -1;
+            }
+            if (ids[entry - 1] == id) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private int append(int id) {
+        if (size == ids.length) {
+            int capacity = 2 * size;
+            ids = Arrays.copyOf(ids, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            changed = Arrays.copyOf(changed, capacity);
+            changedPositions = Arrays.copyOf(changedPositions, capacity);
+        }
+        int position = size++;
+        ids[position] = id;
+        if (2 * size > index.length) {
+            index = new int[2 * index.length];
+            for (int i = 0; i < size; i++) {
+                insertIntoIndex(i);
+            }
+        } else {
+            insertIntoIndex(position);
+        }
+        return position;
+    }
+
+    private void insertIntoIndex(int position) {
+        int mask = index.length - 1;
+        int i = hash(ids[position]) & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = position + 1;
+    }
+
+    private static int hash(int id) {
+        // Ids are dense, spread them over the table
+        return id * 0x9E3779B9 >>> 7;
+    }
+}
@@ -0,0 +1,178 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Dictionary of instruments: interns every instrument name to a dense int id, so that the window
+ * state can live in primitive arrays indexed by that id. Looking up a known instrument takes no
+ * lock and allocates nothing.
+ * <p>
+ * Instruments without ticks for longer than the retention period are retired and their ids are
+ * reused, so the id space stays bounded by the number of instruments active within that period.
+ * The retention is at least twice the sliding window, so a retired instrument has no data left
+ * in the window. A freed id is only handed out again after another retention period, by then
+ * even a writer that looked up the id right before the retirement has expired from the window.
+ * <p>
+ * Last seen timestamps are kept in chunks that are never copied, growing the registry only adds
+ * chunks, so that a writer that marks an instrument as active while the registry grows does not
+ * write to an array the registry has already replaced.
+ */
+class InstrumentRegistry {
+
+    static final int UNKNOWN = -1;
+
+    // Last seen timestamps are only updated if they are older than this, to keep
+    // writers of different instruments from bouncing the same cache lines
+    private static final long LAST_SEEN_PRECISION_MS = 1_000;
+    private static final int LAST_SEEN_CHUNK_BITS = 10;
+    private static final int LAST_SEEN_CHUNK_MASK = (1 << LAST_SEEN_CHUNK_BITS) - 1;
+
+    private final long retentionMillis;
+    private final Map<String, Integer> idByName = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private volatile AtomicLongArray[] lastSeen = {new AtomicLongArray(1 << LAST_SEEN_CHUNK_BITS)};
+
+    // Guarded by this
+    private int nextId;
+    private final ArrayDeque<RetiredId> retiredIds = new ArrayDeque<>();
+
+    InstrumentRegistry(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Returns the id of the instrument, registering it if it is not known yet, and marks
+     * the instrument as active at the given time
+     */
+    int register(String instrument, long now) {
+        Integer id = idByName.get(instrument);
+        if (id == null) {
+            return registerNew(instrument, now, Integer.MAX_VALUE);
+        }
+        AtomicLongArray lastSeen = lastSeenChunk(id);
+        int index = id & LAST_SEEN_CHUNK_MASK;
+        if (lastSeen.get(index) < now - LAST_SEEN_PRECISION_MS) {
+            lastSeen.lazySet(index, now);
+        }
+        return id;
+    }
+
+    /**
+     * Same as {@link #register(String, long)}, but a new instrument is only registered while fewer than
+     * {@code maxInstruments} have an id
+     *
+     * @return id of the instrument or {@link #UNKNOWN} if it is new and there is no room for it
+     */
+    int register(String instrument, long now, int maxInstruments) {
+        Integer id = idByName.get(instrument);
+        return id == null ? registerNew(instrument, now, maxInstruments) : register(instrument, now);
+    }
+
+    /**
+     * @return id of the instrument or {@link #UNKNOWN}
+     */
+    int idOf(String instrument) {
+        Integer id = idByName.get(instrument);
+        return id == null ? UNKNOWN : id;
+    }
+
+    /**
+     * @return name of the instrument with the given id, {@code null} if the id is not in use
+     */
+    String nameOf(int id) {
+        String[] names = this.names;
+        return id < names.length ? names[id] : null;
+    }
+
+    /**
+     * @return upper bound (exclusive) of the ids handed out so far
+     */
+    int capacity() {
+        return names.length;
+    }
+
+    int size() {
+        return idByName.size();
+    }
+
+    /**
+     * Retires the instruments that have not been seen for longer than the retention period
+     *
+     * @return number of retired instruments
+     */
+    synchronized int retireIdle(long now) {
+        int retired = 0;
+        String[] names = this.names;
+        for (int id = 0; id < nextId; id++) {
+            String name = names[id];
+            if (name != null && lastSeenChunk(id).get(id & LAST_SEEN_CHUNK_MASK) < now - retentionMillis) {
+                idByName.remove(name, id);
+                names[id] = null;
+                this.names = names;
+                retiredIds.addLast(new RetiredId(id, now));
+                retired++;
+            }
+        }
+        return retired;
+    }
+
+    private synchronized int registerNew(String instrument, long now, int maxInstruments) {
+        Integer existing = idByName.get(instrument);
+        if (existing != null) {
+            return existing;
+        }
+        if (idByName.size() >= maxInstruments) {
+            return UNKNOWN;
+        }
+        int id;
+        RetiredId reusable = retiredIds.peekFirst();
+        if (reusable != null && reusable.retiredAt < now - retentionMillis) {
+            id = retiredIds.removeFirst().id;
+        } else {
+            id = nextId++;
+            ensureCapacity(nextId);
+        }
+        lastSeenChunk(id).set(id & LAST_SEEN_CHUNK_MASK, now);
+        String[] names = this.names;
+        names[id] = instrument;
+        // Write the reference back to publish the new element to readers of the volatile field
+        this.names = names;
+        idByName.put(instrument, id);
+        return id;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= names.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, 2 * names.length);
+        int chunks = ((newCapacity - 1) >>> LAST_SEEN_CHUNK_BITS) + 1;
+        if (chunks > lastSeen.length) {
+            // The chunks are shared with the old directory, writers that still read that one update them all the same
+            AtomicLongArray[] grownLastSeen = Arrays.copyOf(lastSeen, chunks);
+            for (int chunk = lastSeen.length; chunk < chunks; chunk++) {
+                grownLastSeen[chunk] = new AtomicLongArray(1 << LAST_SEEN_CHUNK_BITS);
+            }
+            lastSeen = grownLastSeen;
+        }
+        names = Arrays.copyOf(names, newCapacity);
+    }
+
+    private AtomicLongArray lastSeenChunk(int id) {
+        return lastSeen[id >>> LAST_SEEN_CHUNK_BITS];
+    }
+
+    private static class RetiredId {
+        private final int id;
+        private final long retiredAt;
+
+        private RetiredId(int id, long retiredAt) {
+            this.id = id;
+            this.retiredAt = retiredAt;
+        }
+    }
+}
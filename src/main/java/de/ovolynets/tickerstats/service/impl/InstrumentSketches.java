@@ -0,0 +1,130 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import java.util.Arrays;
+
+/**
+ * {@link QuantileSketch}es of the instruments of one time slot plus one over all of them, looked up
+ * by instrument id through an open-addressing index like {@link InstrumentAggregates}. Clearing keeps
+ * the sketches for the instruments of the next slot that reuses the ring position, so in a steady
+ * state adding a tick allocates nothing.
+ * <p>
+ * Not thread-safe, callers synchronize.
+ */
+class InstrumentSketches {
+
+    private final double relativeAccuracy;
+    private final int maxBins;
+
+    private int[] ids = new int[8];
+    private QuantileSketch[] sketches = new QuantileSketch[8];
+    private int size;
+    private final QuantileSketch total;
+
+    // Position of an id in the arrays above plus one, zero marks a free entry
+    private int[] index = new int[16];
+
+    InstrumentSketches(double relativeAccuracy, int maxBins) {
+        this.relativeAccuracy = relativeAccuracy;
+        this.maxBins = maxBins;
+        this.total = new QuantileSketch(relativeAccuracy, maxBins);
+    }
+
+    void add(int id, double price) {
+        sketchOf(id).add(price);
+        total.add(price);
+    }
+
+    /**
+     * Adds the sketches of another slot, e.g. when a slot is rolled up into a coarser one
+     */
+    void merge(InstrumentSketches other) {
+        for (int position = 0; position < other.size; position++) {
+            sketchOf(other.ids[position]).merge(other.sketches[position]);
+        }
+        total.merge(other.total);
+    }
+
+    /**
+     * @return sketch of the instrument, {@code null} if there are no ticks of it in the slot
+     */
+    QuantileSketch get(int id) {
+        int position = positionOf(id);
+        return position < 0 ? null : sketches[position];
+    }
+
+    QuantileSketch total() {
+        return total;
+    }
+
+    boolean isEmpty() {
+        return total.count() == 0;
+    }
+
+    void clear() {
+        if (size > 0) {
+            for (int position = 0; position < size; position++) {
+                sketches[position].clear();
+            }
+            Arrays.fill(index, 0);
+            size = 0;
+        }
+        total.clear();
+    }
+
+    private QuantileSketch sketchOf(int id) {
+        int position = positionOf(id);
+        if (position < 0) {
+            position = append(id);
+        }
+        return sketches[position];
+    }
+
+    private int positionOf(int id) {
+        int mask = index.length - 1;
+        for (int i = hash(id) & mask; ; i = (i + 1) & mask) {
+            int entry = index[i];
+            if (entry == 0) {
+                return -1;
+            }
+            if (ids[entry - 1] == id) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private int append(int id) {
+        if (size == ids.length) {
+            int capacity = 2 * size;
+            ids = Arrays.copyOf(ids, capacity);
+            sketches = Arrays.copyOf(sketches, capacity);
+        }
+        int position = size++;
+        ids[position] = id;
+        if (sketches[position] == null) {
+            sketches[position] = new QuantileSketch(relativeAccuracy, maxBins);
+        }
+        if (2 * size > index.length) {
+            index = new int[2 * index.length];
+            for (int i = 0; i < size; i++) {
+                insertIntoIndex(i);
+            }
+        } else {
+            insertIntoIndex(position);
+        }
+        return position;
+    }
+
+    private void insertIntoIndex(int position) {
+        int mask = index.length - 1;
+        int i = hash(ids[position]) & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = position + 1;
+    }
+
+    private static int hash(int id) {
+        // Ids are dense, spread them over the table
+        return id * 0x9E3779B9 >>> 7;
+    }
+}
@@ -0,0 +1,28 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+@Configuration
+public class JournalConfiguration {
+
+    @Bean
+    public TickJournal tickJournal(@Value("${journal-enabled:false}") boolean enabled,
+                                   @Value("${journal-directory:journal}") String directory,
+                                   @Value("${journal-segment-bytes:67108864}") int segmentBytes,
+                                   @Value("${journal-segment-duration-ms:10000}") long segmentDurationMillis,
+                                   @Value("${journal-fsync:none}") String fsyncPolicy,
+                                   @Value("${journal-fsync-interval-ms:1000}") long fsyncIntervalMillis,
+                                   @Value("${write-stripes:0}") int writeStripes) throws IOException {
+        if (!enabled) {
+            return TickJournal.NONE;
+        }
+        return new MappedTickJournal(Paths.get(directory), segmentBytes, segmentDurationMillis,
+                MappedTickJournal.FsyncPolicy.fromProperty(fsyncPolicy), fsyncIntervalMillis,
+                Stripes.count(writeStripes));
+    }
+}
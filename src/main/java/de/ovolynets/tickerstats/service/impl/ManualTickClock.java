@@ -0,0 +1,82 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Clock that only moves when it is advanced. Tasks run in the thread that advances the clock, at
+ * their due time: the clock stops at every due task, so that a task sees the time it was scheduled
+ * for and may schedule the next one within the same advance. Time never goes backwards.
+ */
+public final class ManualTickClock implements TickClock {
+
+    private volatile long millis;
+    // Guarded by the clock
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private long scheduled;
+    private boolean closed;
+
+    public ManualTickClock(long millis) {
+        this.millis = millis;
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public synchronized void schedule(Runnable task, long delayMillis) {
+        if (closed) {
+            throw new RejectedExecutionException("The clock has been closed");
+        }
+        timers.add(new Timer(millis + Math.max(0, delayMillis), scheduled++, task));
+    }
+
+    /**
+     * Moves the clock forward to the given time, running all tasks that are due up to it
+     */
+    public void advanceTo(long target) {
+        Timer timer;
+        while ((timer = nextDue(target)) != null) {
+            timer.task.run();
+        }
+        synchronized (this) {
+            millis = Math.max(millis, target);
+        }
+    }
+
+    private synchronized Timer nextDue(long target) {
+        Timer timer = timers.peek();
+        if (timer == null || timer.due > target) {
+            return null;
+        }
+        timers.poll();
+        millis = Math.max(millis, timer.due);
+        return timer;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        timers.clear();
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        private final long due;
+        // Tasks due at the same time run in the order they have been scheduled
+        private final long sequence;
+        private final Runnable task;
+
+        private Timer(long due, long sequence, Runnable task) {
+            this.due = due;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return due != other.due ? Long.compare(due, other.due) : Long.compare(sequence, other.sequence);
+        }
+    }
+}
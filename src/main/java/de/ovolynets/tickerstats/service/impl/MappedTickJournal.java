@@ -0,0 +1,412 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of ticks in memory-mapped segment files.
+ * <p>
+ * Every write stripe (see {@link Stripes}) appends to its own segments, so journaling adds no lock
+ * shared by all writers. A segment is closed once it is full or older than the segment duration,
+ * and the whole file is deleted once all of its ticks have left the window. After a restart all
+ * remaining segments are replayed and new ticks go to new segments. A segment that cannot be
+ * replayed, e.g. of an unknown format, is never deleted: it is renamed to {@code .unreadable}, so
+ * that it is kept for inspection but not found again, and segments found on startup are only
+ * dropped once they have been replayed.
+ * <p>
+ * Segment layout: an 8 byte header (magic number and format version) followed by records of
+ * {@code [int body length][int CRC32 of the body][short instrument length][instrument UTF-8]
+ * [double price][long timestamp]}. The rest of a segment is zero-filled, so a zero length marks
+ * the end of the data, and a checksum mismatch marks a record torn by a crash.
+ * <p>
+ * Durability depends on the fsync policy: {@code none} leaves flushing to the operating system
+ * (ticks survive a crash of the process but not of the machine), {@code interval} forces the
+ * segments to disk in regular intervals and {@code always} after every append.
+ */
+class MappedTickJournal implements TickJournal {
+
+    enum FsyncPolicy {
+        NONE, INTERVAL, ALWAYS;
+
+        static FsyncPolicy fromProperty(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final int MAGIC = 0x5449434B;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_OVERHEAD_BYTES = 4 + 4 + 2 + 8 + 8;
+    private static final int MAX_INSTRUMENT_BYTES = 1_024;
+    private static final int REPLAY_BATCH_SIZE = 4_096;
+    private static final String FILE_PREFIX = "ticks-";
+    private static final String FILE_SUFFIX = ".journal";
+    private static final String UNREADABLE_SUFFIX = ".unreadable";
+
+    private final Logger logger = LoggerFactory.getLogger(MappedTickJournal.class);
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long segmentDurationMillis;
+    private final FsyncPolicy fsyncPolicy;
+    private final StripeWriter[] writers;
+    // Segments found on startup, guarded by itself
+    private final ArrayDeque<Segment> recoveredSegments = new ArrayDeque<>();
+    private final ScheduledExecutorService fsyncScheduler;
+
+    MappedTickJournal(Path directory, int segmentBytes, long segmentDurationMillis, FsyncPolicy fsyncPolicy,
+                      long fsyncIntervalMillis, int stripeCount) throws IOException {
+        if (segmentBytes < HEADER_BYTES + RECORD_OVERHEAD_BYTES + MAX_INSTRUMENT_BYTES) {
+            throw new IllegalArgumentException("Journal segments are too small: " + segmentBytes);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.segmentDurationMillis = segmentDurationMillis;
+        this.fsyncPolicy = fsyncPolicy;
+        this.writers = new StripeWriter[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            writers[i] = new StripeWriter(i);
+        }
+        recoveredSegments.addAll(findSegments());
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            fsyncScheduler = Executors.newSingleThreadScheduledExecutor();
+            fsyncScheduler.scheduleWithFixedDelay(this::force, fsyncIntervalMillis, fsyncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            fsyncScheduler = null;
+        }
+        logger.info("Journaling ticks to {} with fsync policy {}, {} segments recovered",
+                directory, fsyncPolicy, recoveredSegments.size());
+    }
+
+    @Override
+    public void append(String instrument, double price, long timestamp, long now) {
+        StripeWriter writer = currentWriter();
+        synchronized (writer) {
+            writer.append(instrument, price, timestamp, now);
+            writer.forceIfRequired();
+        }
+    }
+
+    @Override
+    public void appendAll(TickBatch batch, long expiredBefore, long now) {
+        StripeWriter writer = currentWriter();
+        synchronized (writer) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.getTimestamp(i) >= expiredBefore) {
+                    writer.append(batch.getInstrument(i), batch.getPrice(i), batch.getTimestamp(i), now);
+                }
+            }
+            writer.forceIfRequired();
+        }
+    }
+
+    @Override
+    public void replay(long expiredBefore, Consumer<TickBatch> sink) {
+        TickBatch batch = new TickBatch(REPLAY_BATCH_SIZE);
+        List<Segment> segments;
+        synchronized (recoveredSegments) {
+            segments = new ArrayList<>(recoveredSegments);
+        }
+        long replayed = 0;
+        for (Segment segment : segments) {
+            try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                replayed += replaySegment(segment, buffer, expiredBefore, batch, sink);
+                segment.replayed = true;
+            } catch (IOException e) {
+                logger.warn("Cannot replay journal segment {}", segment.path, e);
+                setAside(segment);
+            }
+        }
+        if (batch.size() > 0) {
+            sink.accept(batch);
+            batch.clear();
+        }
+        logger.info("Replayed {} ticks from {} journal segments", replayed, segments.size());
+    }
+
+    @Override
+    public void dropExpired(long expiredBefore) {
+        synchronized (recoveredSegments) {
+            // The timestamps of a segment are only known once it has been replayed
+            recoveredSegments.removeIf((segment) -> segment.replayed && segment.maxTimestamp < expiredBefore
+                    && delete(segment));
+        }
+        for (StripeWriter writer : writers) {
+            synchronized (writer) {
+                writer.dropExpired(expiredBefore);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (fsyncScheduler != null) {
+            fsyncScheduler.shutdown();
+        }
+        for (StripeWriter writer : writers) {
+            synchronized (writer) {
+                writer.closeCurrent(fsyncPolicy != FsyncPolicy.NONE);
+            }
+        }
+    }
+
+    private void force() {
+        for (StripeWriter writer : writers) {
+            synchronized (writer) {
+                writer.forceCurrent();
+            }
+        }
+    }
+
+    private long replaySegment(Segment segment, ByteBuffer buffer, long expiredBefore, TickBatch batch,
+                               Consumer<TickBatch> sink) throws IOException {
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Unknown format of journal segment " + segment.path);
+        }
+        CRC32 crc = new CRC32();
+        long replayed = 0;
+        int position = HEADER_BYTES;
+        while (position + RECORD_OVERHEAD_BYTES <= buffer.limit()) {
+            int bodyLength = buffer.getInt(position);
+            int bodyStart = position + 8;
+            if (bodyLength <= 0 || bodyStart + bodyLength > buffer.limit()) {
+                break;
+            }
+            crc.reset();
+            buffer.limit(bodyStart + bodyLength).position(bodyStart);
+            crc.update(buffer);
+            buffer.limit(buffer.capacity());
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                logger.warn("Torn record in journal segment {} at {}, ignoring the rest", segment.path, position);
+                break;
+            }
+            int instrumentLength = buffer.getShort(bodyStart);
+            byte[] instrumentBytes = new byte[instrumentLength];
+            buffer.position(bodyStart + 2);
+            buffer.get(instrumentBytes);
+            double price = buffer.getDouble(bodyStart + 2 + instrumentLength);
+            long timestamp = buffer.getLong(bodyStart + 2 + instrumentLength + 8);
+            segment.maxTimestamp = Math.max(segment.maxTimestamp, timestamp);
+            if (timestamp >= expiredBefore) {
+                batch.add(new String(instrumentBytes, StandardCharsets.UTF_8), price, timestamp);
+                replayed++;
+                if (batch.isFull()) {
+                    sink.accept(batch);
+                    batch.clear();
+                }
+            }
+            position = bodyStart + bodyLength;
+        }
+        return replayed;
+    }
+
+    private List<Segment> findSegments() throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(new Segment(file, startOf(file)));
+            }
+        }
+        segments.sort(Comparator.comparingLong((Segment segment) -> segment.start));
+        return segments;
+    }
+
+    private static long startOf(Path file) {
+        String name = file.getFileName().toString();
+        String[] parts = name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()).split("-");
+        try {
+            return Long.parseLong(parts[0]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Renames a segment that cannot be replayed, so that it is neither replayed nor dropped
+    private void setAside(Segment segment) {
+        Path unreadable = segment.path.resolveSibling(segment.path.getFileName() + UNREADABLE_SUFFIX);
+        try {
+            Files.move(segment.path, unreadable, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (recoveredSegments) {
+                recoveredSegments.remove(segment);
+            }
+            logger.warn("Kept the unreadable journal segment {} as {}", segment.path, unreadable);
+        } catch (IOException e) {
+            logger.warn("Cannot rename the unreadable journal segment {}, keeping it in place", segment.path, e);
+        }
+    }
+
+    private boolean delete(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.path);
+            logger.debug("Dropped expired journal segment {}", segment.path);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Cannot delete expired journal segment {}", segment.path, e);
+            return false;
+        }
+    }
+
+    private StripeWriter currentWriter() {
+        return writers[Stripes.ofCurrentThread(writers.length)];
+    }
+
+    private static class Segment {
+        private final Path path;
+        private final long start;
+        private long maxTimestamp = Long.MIN_VALUE;
+        private boolean replayed;
+
+        private Segment(Path path, long start) {
+            this.path = path;
+            this.start = start;
+        }
+    }
+
+    // Segments of one write stripe, guarded by the writer itself
+    private class StripeWriter {
+        private final int stripe;
+        private final ArrayDeque<Segment> closedSegments = new ArrayDeque<>();
+        private final CRC32 crc = new CRC32();
+        // Tells apart segments of the stripe created in the same millisecond
+        private int sequence;
+        private Segment current;
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        private int position;
+        // Start of the data written since the last force
+        private int unforcedFrom;
+
+        private StripeWriter(int stripe) {
+            this.stripe = stripe;
+        }
+
+        private void append(String instrument, double price, long timestamp, long now) {
+            int instrumentLength = encodedLength(instrument);
+            if (instrumentLength > MAX_INSTRUMENT_BYTES) {
+                throw new IllegalArgumentException("Instrument name is too long to be journaled: " + instrument);
+            }
+            int recordLength = RECORD_OVERHEAD_BYTES + instrumentLength;
+            if (current == null || position + recordLength > segmentBytes
+                    || now >= current.start + segmentDurationMillis) {
+                rollOver(now);
+            }
+            int bodyStart = position + 8;
+            int bodyLength = recordLength - 8;
+            buffer.putShort(bodyStart, (short) instrumentLength);
+            encode(instrument, bodyStart + 2);
+            buffer.putDouble(bodyStart + 2 + instrumentLength, price);
+            buffer.putLong(bodyStart + 2 + instrumentLength + 8, timestamp);
+            crc.reset();
+            buffer.limit(bodyStart + bodyLength).position(bodyStart);
+            crc.update(buffer);
+            buffer.limit(buffer.capacity());
+            buffer.putInt(position + 4, (int) crc.getValue());
+            // The length goes last, it marks the record as present
+            buffer.putInt(position, bodyLength);
+            position += recordLength;
+            current.maxTimestamp = Math.max(current.maxTimestamp, timestamp);
+        }
+
+        private void forceIfRequired() {
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                forceCurrent();
+            }
+        }
+
+        private void forceCurrent() {
+            if (buffer != null && position > unforcedFrom) {
+                buffer.force(unforcedFrom, position - unforcedFrom);
+                unforcedFrom = position;
+            }
+        }
+
+        private void dropExpired(long expiredBefore) {
+            closedSegments.removeIf((segment) -> segment.maxTimestamp < expiredBefore && delete(segment));
+        }
+
+        private void rollOver(long now) {
+            closeCurrent(fsyncPolicy != FsyncPolicy.NONE);
+            Path path = directory.resolve(FILE_PREFIX + now + "-" + stripe + "-" + sequence++ + FILE_SUFFIX);
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create journal segment " + path, e);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            current = new Segment(path, now);
+            position = HEADER_BYTES;
+            unforcedFrom = 0;
+        }
+
+        private void closeCurrent(boolean force) {
+            if (current == null) {
+                return;
+            }
+            if (force) {
+                forceCurrent();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Cannot close journal segment {}", current.path, e);
+            }
+            // The mapping itself is released once the buffer is garbage collected
+            closedSegments.addLast(current);
+            current = null;
+            channel = null;
+            buffer = null;
+        }
+
+        private int encodedLength(String instrument) {
+            int length = instrument.length();
+            for (int i = 0; i < instrument.length(); i++) {
+                if (instrument.charAt(i) >= 0x80) {
+                    return instrument.getBytes(StandardCharsets.UTF_8).length;
+                }
+            }
+            return length;
+        }
+
+        // Writes the instrument at the given position, without allocation for the common ASCII names
+        private void encode(String instrument, int at) {
+            int length = instrument.length();
+            for (int i = 0; i < length; i++) {
+                char c = instrument.charAt(i);
+                if (c >= 0x80) {
+                    buffer.position(at);
+                    buffer.put(instrument.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                buffer.put(at + i, (byte) c);
+            }
+        }
+    }
+}
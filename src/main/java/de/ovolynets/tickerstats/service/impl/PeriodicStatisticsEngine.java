@@ -0,0 +1,399 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.StatisticsUpdate;
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.Ranking;
+import de.ovolynets.tickerstats.service.TickBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the ticks in {@link TickWindow}s and rebuilds the statistics from them on every refresh.
+ * Reads are served from the table of the last rebuild in O(1) time, rankings of the instruments
+ * from the heaps the table keeps up to date (see {@link StatisticsTable}).
+ * <p>
+ * A rebuild only recomputes the instruments whose statistics may have changed since the previous
+ * one: the instruments that have received ticks or roll-ups in any slot, and the ones of the
+ * slots that have left one of the windows. A refresh without such instruments leaves the published
+ * tables as they are, and the cost of a rebuild follows the changes rather than the number of
+ * instruments in the windows.
+ * <p>
+ * Every tier of the {@link StatisticsWindows} has its own window, a tick is added to the finest
+ * tier that still keeps its timestamp. On refresh the expired slots of every tier are rolled up
+ * into the next coarser one, and the slots are merged from the newest to the oldest ones: the
+ * statistics of a window are written to its table once the merge has reached its start, and the
+ * merge continues for the next longer window. Every slot is merged once, no matter how many
+ * windows it belongs to.
+ * <p>
+ * Writers are spread over one set of windows per stripe (see {@link Stripes}), so ticks of the
+ * same slot do not contend for the same lock, and the rebuild merges all stripes. Visibility: a
+ * tick for which {@code add} has returned is included in every rebuild that starts afterwards,
+ * because the rebuild acquires the monitor of every slot the writer has released. Readers see the
+ * result of the last completed rebuild, published through a volatile write.
+ * <p>
+ * The rebuild merges into dense primitive arrays indexed by instrument id and writes the result
+ * into one of two {@link StatisticsTable}s per window, so in a steady state it allocates nothing.
+ * The table written has last been written two rebuilds ago, so the instruments changed by the
+ * previous rebuild are brought up to date from the published table.
+ * Refreshes must not run concurrently, which the single-threaded scheduler guarantees.
+ * <p>
+ * The generation is counted up by every rebuild whose tables differ from the previously published
+ * ones, so it stays the same while no ticks arrive and no slot expires.
+ */
+class PeriodicStatisticsEngine implements StatisticsEngine {
+
+    private final Logger logger = LoggerFactory.getLogger(PeriodicStatisticsEngine.class);
+
+    private final StatisticsWindows windows;
+    private final InstrumentRegistry registry;
+    // Windows of every stripe, indexed by stripe and tier
+    private final TickWindow[][] stripes;
+
+    // Tables with the statistics of every window: one side published for the readers, the other
+    // one written by the next rebuild
+    private final StatisticsTable[][] tables;
+    private volatile int publishedSide;
+    private volatile long generation;
+
+    // Working state of the rebuild, indexed by instrument id
+    private double[] sums = new double[0];
+    private double[] mins = new double[0];
+    private double[] maxs = new double[0];
+    private long[] counts = new long[0];
+    private int[] touchedIds = new int[0];
+    private int touchedSize;
+    private int mergedEntries;
+    private volatile int windowEntries;
+    private final Consumer<InstrumentAggregates> slotMerger = this::mergeSlot;
+    // Per tier, the oldest slot that has been merged by the running rebuild
+    private final long[] mergedFrom;
+
+    // Instruments to recompute: marked with the number of the rebuild and listed in dirtyIds. The
+    // ones of the previous rebuild are kept to bring the table of the other side up to date
+    private int[] dirtyMarks = new int[0];
+    private int dirtyRound;
+    private int[] dirtyIds = new int[0];
+    private int dirtySize;
+    private int[] previousDirtyIds = new int[0];
+    private int previousDirtySize;
+    private final Consumer<InstrumentAggregates> dirtyMarker = this::markDirty;
+    private final Consumer<InstrumentAggregates> changeMarker = this::markChangedDirty;
+    // Rebuilds left that recompute all instruments, so that the tables of both sides are complete
+    private int fullRebuilds = 2;
+    private boolean fullRebuild;
+    // Per window, the slot of its tier the window started at in the last rebuild
+    private final long[] windowStarts;
+
+    PeriodicStatisticsEngine(StatisticsWindows windows, InstrumentRegistry registry, int stripeCount) {
+        this.windows = windows;
+        this.registry = registry;
+        this.stripes = new TickWindow[stripeCount][windows.tierCount()];
+        for (TickWindow[] tiers : stripes) {
+            for (int tier = tiers.length - 1; tier >= 0; tier--) {
+                tiers[tier] = new TickWindow(windows.tier(tier), registry, tier + 1 < tiers.length ? tiers[tier + 1] : null);
+            }
+        }
+        this.tables = new StatisticsTable[2][windows.count()];
+        for (StatisticsTable[] side : tables) {
+            for (int window = 0; window < side.length; window++) {
+                side[window] = new StatisticsTable();
+            }
+        }
+        this.mergedFrom = new long[windows.tierCount()];
+        this.windowStarts = new long[windows.count()];
+        Arrays.fill(windowStarts, Long.MIN_VALUE);
+    }
+
+    @Override
+    public StatisticsWindows windows() {
+        return windows;
+    }
+
+    @Override
+    public boolean add(String instrument, double price, long timestamp, long now) {
+        return currentStripe()[windows.tierOfTimestamp(timestamp, now)].add(instrument, price, timestamp, now);
+    }
+
+    @Override
+    public int addAll(TickBatch batch, long now) {
+        TickWindow[] tiers = currentStripe();
+        int added = tiers[0].addAll(batch, now);
+        if (added == batch.size()) {
+            return added;
+        }
+        // Ticks too old for the finest tier
+        for (int tier = 1; tier < tiers.length; tier++) {
+            added += tiers[tier].addAll(batch, now - windows.tier(tier - 1).windowMillis(), now);
+        }
+        return added;
+    }
+
+    @Override
+    public int refresh(long now) {
+        return rebuildStatisticsIndex(now);
+    }
+
+    @Override
+    public int windowEntries() {
+        return windowEntries;
+    }
+
+    @Override
+    public long generation(long now) {
+        return generation;
+    }
+
+    @Override
+    public TickerStatistics getStatistics(int window, long now) {
+        while (true) {
+            StatisticsTable table = tables[publishedSide][window];
+            long version = table.startRead();
+            TickerStatistics statistics = table.readTotal();
+            if (table.validate(version)) {
+                return statistics;
+            }
+        }
+    }
+
+    @Override
+    public Optional<TickerStatistics> getStatistics(String instrument, int window, long now) {
+        int id = registry.idOf(instrument);
+        if (id == InstrumentRegistry.UNKNOWN) {
+            return Optional.empty();
+        }
+        while (true) {
+            StatisticsTable table = tables[publishedSide][window];
+            long version = table.startRead();
+            TickerStatistics statistics = table.read(id);
+            if (table.validate(version)) {
+                return Optional.ofNullable(statistics);
+            }
+        }
+    }
+
+    @Override
+    public List<StatisticsUpdate> getRankings(Ranking ranking, int window, int limit, long now) {
+        return StatisticsTable.readRanking(() -> tables[publishedSide][window], ranking, limit, registry);
+    }
+
+    int rebuildStatisticsIndex(long now) {
+        // Update the index/cache of the statistics. First collect the instruments of the slots
+        // that left a window since the last rebuild, while the slots are still there. Then reset
+        // the slots that left the window of their tier, rolling them up into the next coarser
+        // tier, and collect the instruments that received ticks or roll-ups in any slot. Only
+        // these instruments are merged from the partial aggregates of all stripes. Only one slot
+        // (two while rolling up) is locked at a time, so writers to other slots are not blocked
+        // by the rebuild.
+        startDirtyRound();
+        for (int window = 0; window < windows.count(); window++) {
+            int tier = windows.tierOf(window);
+            long start = windows.tier(tier).slotIndexOf(now - windows.windowMillis(window));
+            if (start != windowStarts[window]) {
+                for (TickWindow[] tiers : stripes) {
+                    tiers[tier].forEachLive(Math.min(start, windowStarts[window]), Math.max(start, windowStarts[window]),
+                            dirtyMarker);
+                }
+                windowStarts[window] = start;
+            }
+        }
+        int evicted = 0;
+        for (TickWindow[] tiers : stripes) {
+            for (int tier = 0; tier < tiers.length; tier++) {
+                evicted += tiers[tier].evict(now);
+            }
+        }
+        logger.trace("Dropped {} expired entries", evicted);
+        for (TickWindow[] tiers : stripes) {
+            for (TickWindow tier : tiers) {
+                tier.forEachChanged(changeMarker);
+                if (tier.takeOverwritten()) {
+                    recomputeAll();
+                }
+            }
+        }
+        fullRebuild = fullRebuilds > 0;
+        if (!fullRebuild && dirtySize == 0) {
+            // No statistics changed, the published tables stay
+            return evicted;
+        }
+
+        // Ids collected above have been registered before the slots were read
+        int capacity = Math.max(registry.capacity(), dirtyMarks.length);
+        ensureCapacity(capacity);
+        mergedEntries = 0;
+        Arrays.fill(mergedFrom, Long.MAX_VALUE);
+
+        int side = publishedSide ^ 1;
+        boolean changed = false;
+        for (int window = 0; window < windows.count(); window++) {
+            // Finer tiers are part of the window as a whole, its own tier from the slot of its start on
+            int windowTier = windows.tierOf(window);
+            for (int tier = 0; tier < windowTier; tier++) {
+                mergeTier(tier, windows.tier(tier).oldestLiveSlot(now));
+            }
+            mergeTier(windowTier, windows.tier(windowTier).slotIndexOf(now - windows.windowMillis(window)));
+
+            StatisticsTable table = tables[side][window];
+            StatisticsTable published = tables[publishedSide][window];
+            table.beginWrite(capacity);
+            if (fullRebuild) {
+                table.clear();
+                for (int i = 0; i < touchedSize; i++) {
+                    int id = touchedIds[i];
+                    table.put(id, sums[id], counts[id], mins[id], maxs[id]);
+                }
+            } else {
+                for (int i = 0; i < previousDirtySize; i++) {
+                    int id = previousDirtyIds[i];
+                    if (!isDirty(id)) {
+                        table.copy(id, published);
+                    }
+                }
+                // Instruments without data in the window any more have a count of zero and are dropped
+                for (int i = 0; i < dirtySize; i++) {
+                    int id = dirtyIds[i];
+                    table.put(id, sums[id], counts[id], mins[id], maxs[id]);
+                }
+            }
+            table.endWrite();
+            changed |= !table.sameAs(published);
+        }
+        publishedSide = side;
+        if (changed) {
+            // Counted up after the tables have been published
+            generation++;
+        }
+
+        for (int i = 0; i < touchedSize; i++) {
+            counts[touchedIds[i]] = 0;
+        }
+        touchedSize = 0;
+        int[] ids = previousDirtyIds;
+        previousDirtyIds = dirtyIds;
+        previousDirtySize = dirtySize;
+        dirtyIds = ids;
+        dirtySize = 0;
+        if (fullRebuilds > 0) {
+            fullRebuilds--;
+        }
+        windowEntries = mergedEntries;
+        return evicted;
+    }
+
+    /**
+     * Makes the next rebuilds recompute all instruments instead of the changed ones, until the
+     * tables of both sides are complete again
+     */
+    void recomputeAll() {
+        fullRebuilds = 2;
+    }
+
+    // Merges the slots of a tier from the given one up to the oldest slot merged so far
+    private void mergeTier(int tier, long fromSlot) {
+        if (fromSlot >= mergedFrom[tier]) {
+            return;
+        }
+        for (TickWindow[] tiers : stripes) {
+            tiers[tier].forEachLive(fromSlot, mergedFrom[tier], slotMerger);
+        }
+        mergedFrom[tier] = fromSlot;
+    }
+
+    private void mergeSlot(InstrumentAggregates aggregates) {
+        mergedEntries += aggregates.size();
+        if (fullRebuild || aggregates.size() <= dirtySize) {
+            for (int position = 0; position < aggregates.size(); position++) {
+                int id = aggregates.idAt(position);
+                // Ids registered after the rebuild has started are picked up by the next one
+                if (fullRebuild ? id < counts.length : isDirty(id)) {
+                    mergeEntry(aggregates, position, id);
+                }
+            }
+        } else {
+            // The slot holds more instruments than there are to recompute, look them up instead
+            for (int i = 0; i < dirtySize; i++) {
+                int position = aggregates.positionOf(dirtyIds[i]);
+                if (position >= 0) {
+                    mergeEntry(aggregates, position, dirtyIds[i]);
+                }
+            }
+        }
+    }
+
+    private void mergeEntry(InstrumentAggregates aggregates, int position, int id) {
+        double sum = aggregates.sumAt(position);
+        long count = aggregates.countAt(position);
+        double min = aggregates.minAt(position);
+        double max = aggregates.maxAt(position);
+        if (counts[id] == 0) {
+            touchedIds[touchedSize++] = id;
+            sums[id] = sum;
+            counts[id] = count;
+            mins[id] = min;
+            maxs[id] = max;
+        } else {
+            sums[id] += sum;
+            counts[id] += count;
+            mins[id] = Math.min(min, mins[id]);
+            maxs[id] = Math.max(max, maxs[id]);
+        }
+    }
+
+    private void startDirtyRound() {
+        if (++dirtyRound == 0) {
+            // Marks of the rebuild four billion rebuilds ago would match again
+            Arrays.fill(dirtyMarks, 0);
+            dirtyRound = 1;
+        }
+    }
+
+    // Marks all instruments of a slot
+    private void markDirty(InstrumentAggregates aggregates) {
+        for (int position = 0; position < aggregates.size(); position++) {
+            markDirty(aggregates.idAt(position));
+        }
+    }
+
+    // Marks the instruments of a slot that changed
+    private void markChangedDirty(InstrumentAggregates aggregates) {
+        for (int i = 0; i < aggregates.changedSize(); i++) {
+            markDirty(aggregates.changedIdAt(i));
+        }
+    }
+
+    private void markDirty(int id) {
+        if (id >= dirtyMarks.length) {
+            int capacity = Math.max(registry.capacity(), id + 1);
+            dirtyMarks = Arrays.copyOf(dirtyMarks, capacity);
+            dirtyIds = Arrays.copyOf(dirtyIds, capacity);
+            previousDirtyIds = Arrays.copyOf(previousDirtyIds, capacity);
+        }
+        if (dirtyMarks[id] != dirtyRound) {
+            dirtyMarks[id] = dirtyRound;
+            dirtyIds[dirtySize++] = id;
+        }
+    }
+
+    private boolean isDirty(int id) {
+        return id < dirtyMarks.length && dirtyMarks[id] == dirtyRound;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (counts.length < capacity) {
+            sums = Arrays.copyOf(sums, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            touchedIds = Arrays.copyOf(touchedIds, capacity);
+        }
+    }
+
+    private TickWindow[] currentStripe() {
+        return stripes[Stripes.ofCurrentThread(stripes.length)];
+    }
+}
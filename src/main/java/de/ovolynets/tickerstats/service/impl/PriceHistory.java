@@ -0,0 +1,235 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.service.BarCursor;
+import de.ovolynets.tickerstats.service.InvalidHistoryRequestException;
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * History of the prices beyond the windows: 1-minute and optionally 1-hour bars per instrument id,
+ * each resolution in a {@link BarRing} of a configured number of bars (see {@link HistoryOptions}).
+ * <p>
+ * The slots of the windows keep no open and close prices, so bars are not rolled up from them but
+ * updated on every accepted tick, under the monitor of the history of the instrument like the
+ * aggregates of {@link IncrementalStatisticsEngine}: only writers of the same instrument contend.
+ * The rings of an instrument are allocated with its first tick and reused by the next instrument
+ * that gets its id, as ids are retained for at least the time the history reaches back.
+ * <p>
+ * Reads copy the bars in chunks of {@value #CURSOR_CHUNK} under the monitor, so that a long range
+ * neither blocks the writers for long nor is copied as a whole. Every chunk is consistent, a range
+ * read while ticks arrive may include some of them.
+ */
+class PriceHistory {
+
+    static final long MINUTE_MILLIS = 60_000;
+    static final long HOUR_MILLIS = 3_600_000;
+
+    private static final int CURSOR_CHUNK = 256;
+
+    private final InstrumentRegistry registry;
+    private final int minuteBars;
+    private final int hourBars;
+    // Ticks are accepted up to the longest window into the past and the future, like by the windows
+    private final long acceptedMillis;
+    // Histories indexed by instrument id, created lazily and grown under the lock of this object
+    private volatile InstrumentHistory[] histories = new InstrumentHistory[0];
+
+    PriceHistory(InstrumentRegistry registry, HistoryOptions options, long acceptedMillis) {
+        this.registry = registry;
+        this.minuteBars = options.getMinuteBars();
+        this.hourBars = options.getHourBars();
+        this.acceptedMillis = acceptedMillis;
+    }
+
+    /**
+     * Adds the price of a tick that has been accepted by the statistics engine
+     */
+    void add(String instrument, double price, long timestamp) {
+        int id = registry.idOf(instrument);
+        if (id != InstrumentRegistry.UNKNOWN) {
+            InstrumentHistory history = historyOf(id);
+            synchronized (history) {
+                history.add(price, timestamp);
+            }
+        }
+    }
+
+    void addAll(TickBatch batch, long now) {
+        for (int i = 0; i < batch.size(); i++) {
+            long timestamp = batch.getTimestamp(i);
+            if (timestamp >= now - acceptedMillis && timestamp < now + acceptedMillis) {
+                add(batch.getInstrument(i), batch.getPrice(i), timestamp);
+            }
+        }
+    }
+
+    /**
+     * @param resolution length of the bars, {@code null} for 1 minute
+     * @return bars that start within the range, empty if the instrument has no history
+     */
+    Optional<BarCursor> bars(String instrument, Duration resolution, long from, long to, long now) {
+        int ring = ringOf(resolution);
+        if (from > to) {
+            throw new InvalidHistoryRequestException("The range ends before it starts: " + from + " to " + to);
+        }
+        int id = registry.idOf(instrument);
+        InstrumentHistory[] histories = this.histories;
+        if (id == InstrumentRegistry.UNKNOWN || id >= histories.length || histories[id] == null) {
+            return Optional.empty();
+        }
+        InstrumentHistory history = histories[id];
+        BarRing bars = history.rings[ring];
+        // Bars older than the ring reaches back from now may be left over from an instrument that had
+        // the id before, newer ones than the newest accepted tick do not exist
+        long resolutionMillis = bars.resolutionMillis();
+        long start = Math.max(from, (bars.barOf(now) - bars.capacity() + 1) * resolutionMillis);
+        long end = Math.min(to, (bars.barOf(now + acceptedMillis) + 1) * resolutionMillis);
+        return Optional.of(new Cursor(history, ring, -Math.floorDiv(-start, resolutionMillis),
+                -Math.floorDiv(-end, resolutionMillis)));
+    }
+
+    private int ringOf(Duration resolution) {
+        if (resolution == null || resolution.toMillis() == MINUTE_MILLIS) {
+            return 0;
+        }
+        if (hourBars > 0 && resolution.toMillis() == HOUR_MILLIS) {
+            return 1;
+        }
+        throw new InvalidHistoryRequestException("History is kept at the resolutions " + (hourBars > 0 ? "1m and 1h" : "1m")
+                + " only");
+    }
+
+    private InstrumentHistory historyOf(int id) {
+        InstrumentHistory[] histories = this.histories;
+        if (id < histories.length && histories[id] != null) {
+            return histories[id];
+        }
+        return createHistory(id);
+    }
+
+    private synchronized InstrumentHistory createHistory(int id) {
+        InstrumentHistory[] histories = this.histories;
+        if (id >= histories.length) {
+            histories = Arrays.copyOf(histories, Math.max(id + 1, registry.capacity()));
+        }
+        if (histories[id] == null) {
+            histories[id] = new InstrumentHistory(minuteBars, hourBars);
+        }
+        // Write the reference back to publish the new element to readers of the volatile field
+        this.histories = histories;
+        return histories[id];
+    }
+
+    private static final class InstrumentHistory {
+        // Minute bars, followed by hour bars if they are kept
+        private final BarRing[] rings;
+
+        private InstrumentHistory(int minuteBars, int hourBars) {
+            rings = hourBars > 0
+                    ? new BarRing[]{new BarRing(MINUTE_MILLIS, minuteBars), new BarRing(HOUR_MILLIS, hourBars)}
+                    : new BarRing[]{new BarRing(MINUTE_MILLIS, minuteBars)};
+        }
+
+        private void add(double price, long timestamp) {
+            for (BarRing ring : rings) {
+                ring.add(price, timestamp);
+            }
+        }
+    }
+
+    private static final class Cursor implements BarCursor {
+        private final InstrumentHistory history;
+        private final int ring;
+        private long nextBar;
+        private final long endBar;
+
+        // Current chunk of bars
+        private final long[] starts = new long[CURSOR_CHUNK];
+        private final double[] opens = new double[CURSOR_CHUNK];
+        private final double[] highs = new double[CURSOR_CHUNK];
+        private final double[] lows = new double[CURSOR_CHUNK];
+        private final double[] closes = new double[CURSOR_CHUNK];
+        private final double[] sums = new double[CURSOR_CHUNK];
+        private final long[] counts = new long[CURSOR_CHUNK];
+        private int size;
+        private int current = -1;
+
+        private Cursor(InstrumentHistory history, int ring, long fromBar, long endBar) {
+            this.history = history;
+            this.ring = ring;
+            this.nextBar = fromBar;
+            this.endBar = endBar;
+        }
+
+        @Override
+        public boolean next() {
+            while (++current >= size) {
+                if (nextBar >= endBar) {
+                    return false;
+                }
+                readChunk();
+            }
+            return true;
+        }
+
+        private void readChunk() {
+            size = 0;
+            current = -1;
+            synchronized (history) {
+                BarRing bars = history.rings[ring];
+                while (nextBar < endBar && size < CURSOR_CHUNK) {
+                    int position = bars.positionOf(nextBar);
+                    if (position >= 0) {
+                        starts[size] = nextBar * bars.resolutionMillis();
+                        opens[size] = bars.openAt(position);
+                        highs[size] = bars.highAt(position);
+                        lows[size] = bars.lowAt(position);
+                        closes[size] = bars.closeAt(position);
+                        sums[size] = bars.sumAt(position);
+                        counts[size] = bars.countAt(position);
+                        size++;
+                    }
+                    nextBar++;
+                }
+            }
+        }
+
+        @Override
+        public long getStart() {
+            return starts[current];
+        }
+
+        @Override
+        public double getOpen() {
+            return opens[current];
+        }
+
+        @Override
+        public double getHigh() {
+            return highs[current];
+        }
+
+        @Override
+        public double getLow() {
+            return lows[current];
+        }
+
+        @Override
+        public double getClose() {
+            return closes[current];
+        }
+
+        @Override
+        public long getCount() {
+            return counts[current];
+        }
+
+        @Override
+        public double getAvg() {
+            return sums[current] / counts[current];
+        }
+    }
+}
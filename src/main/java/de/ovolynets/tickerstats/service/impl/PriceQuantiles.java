@@ -0,0 +1,105 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.util.Optional;
+
+/**
+ * Quantiles of the prices per instrument and over all instruments for every window of the
+ * {@link StatisticsWindows}.
+ * <p>
+ * Prices are added to a {@link QuantileSketch} per instrument and slot, kept in a {@link QuantileWindow}
+ * per tier and write stripe, the same way {@link PeriodicStatisticsEngine} keeps the aggregates. The
+ * quantiles of a window are computed when they are requested, by merging the sketches of the slots
+ * inside the window, so only the readers of quantiles pay for the merge: O(slots * bins) per request.
+ * Memory is bounded by the number of slots and active instruments per slot times the size of a
+ * sketch (see {@link QuantileSketch}). The quantiles are exact within the relative accuracy of the
+ * sketches, apart from the expiry precision of the slots, and a request concurrent with a refresh may
+ * miss or double count a slot that is being rolled up.
+ */
+class PriceQuantiles {
+
+    private final StatisticsWindows windows;
+    private final InstrumentRegistry registry;
+    private final double relativeAccuracy;
+    private final int maxBins;
+    // Windows of every stripe, indexed by stripe and tier
+    private final QuantileWindow[][] stripes;
+
+    PriceQuantiles(StatisticsWindows windows, InstrumentRegistry registry, int stripeCount, QuantileOptions options) {
+        this.windows = windows;
+        this.registry = registry;
+        this.relativeAccuracy = options.getRelativeAccuracy();
+        this.maxBins = options.getMaxBins();
+        this.stripes = new QuantileWindow[stripeCount][windows.tierCount()];
+        for (QuantileWindow[] tiers : stripes) {
+            for (int tier = tiers.length - 1; tier >= 0; tier--) {
+                tiers[tier] = new QuantileWindow(windows.tier(tier), relativeAccuracy, maxBins,
+                        tier + 1 < tiers.length ? tiers[tier + 1] : null);
+            }
+        }
+    }
+
+    /**
+     * Adds the price of a tick that has been accepted by the statistics engine
+     */
+    void add(String instrument, double price, long timestamp, long now) {
+        int id = registry.idOf(instrument);
+        if (id != InstrumentRegistry.UNKNOWN) {
+            currentStripe()[windows.tierOfTimestamp(timestamp, now)].add(id, price, timestamp, now);
+        }
+    }
+
+    void addAll(TickBatch batch, long now) {
+        QuantileWindow[] tiers = currentStripe();
+        for (int i = 0; i < batch.size(); i++) {
+            int id = registry.idOf(batch.getInstrument(i));
+            if (id != InstrumentRegistry.UNKNOWN) {
+                long timestamp = batch.getTimestamp(i);
+                tiers[windows.tierOfTimestamp(timestamp, now)].add(id, batch.getPrice(i), timestamp, now);
+            }
+        }
+    }
+
+    void refresh(long now) {
+        for (QuantileWindow[] tiers : stripes) {
+            for (QuantileWindow tier : tiers) {
+                tier.evict(now);
+            }
+        }
+    }
+
+    /**
+     * @param instrument instrument ID, {@code null} for all instruments
+     * @return price of every quantile, empty if there are no ticks in the window
+     */
+    Optional<double[]> quantiles(String instrument, int window, double[] quantiles, long now) {
+        int id = InstrumentRegistry.UNKNOWN;
+        if (instrument != null) {
+            id = registry.idOf(instrument);
+            if (id == InstrumentRegistry.UNKNOWN) {
+                return Optional.empty();
+            }
+        }
+        QuantileSketch merged = new QuantileSketch(relativeAccuracy, maxBins);
+        long windowStart = now - windows.windowMillis(window);
+        for (QuantileWindow[] tiers : stripes) {
+            // The window covers all finer tiers, which may still hold slots that are about to be rolled up
+            for (int tier = 0; tier <= windows.tierOf(window); tier++) {
+                tiers[tier].mergeInto(merged, id, windows.tier(tier).slotIndexOf(windowStart));
+            }
+        }
+        if (merged.count() == 0) {
+            return Optional.empty();
+        }
+        double[] prices = new double[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) {
+            prices[i] = merged.quantile(quantiles[i]);
+        }
+        return Optional.of(prices);
+    }
+
+    private QuantileWindow[] currentStripe() {
+        return stripes[Stripes.ofCurrentThread(stripes.length)];
+    }
+}
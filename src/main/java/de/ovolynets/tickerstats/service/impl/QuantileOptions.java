@@ -0,0 +1,53 @@
+package de.ovolynets.tickerstats.service.impl;
+
+/**
+ * Whether price quantiles are kept and how accurate they are, see {@link QuantileSketch}
+ */
+public final class QuantileOptions {
+
+    /**
+     * No quantiles are kept, requests for them are rejected
+     */
+    public static final QuantileOptions DISABLED = new QuantileOptions(false, 0, 0);
+
+    private final boolean enabled;
+    private final double relativeAccuracy;
+    private final int maxBins;
+
+    private QuantileOptions(boolean enabled, double relativeAccuracy, int maxBins) {
+        this.enabled = enabled;
+        this.relativeAccuracy = relativeAccuracy;
+        this.maxBins = maxBins;
+    }
+
+    /**
+     * @param relativeAccuracy maximum relative error of a quantile, e.g. 0.01
+     * @param maxBins maximum number of bins per sketch, the lowest ones are collapsed beyond it
+     */
+    public static QuantileOptions enabled(double relativeAccuracy, int maxBins) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("Relative accuracy of quantiles must be between 0 and 1: " + relativeAccuracy);
+        }
+        if (maxBins < 1) {
+            throw new IllegalArgumentException("Quantile sketches need at least one bin: " + maxBins);
+        }
+        return new QuantileOptions(true, relativeAccuracy, maxBins);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    public int getMaxBins() {
+        return maxBins;
+    }
+
+    @Override
+    public String toString() {
+        return enabled ? "relative accuracy " + relativeAccuracy + ", at most " + maxBins + " bins" : "disabled";
+    }
+}
@@ -0,0 +1,167 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import java.util.Arrays;
+
+/**
+ * Mergeable sketch of the distribution of prices with a relative accuracy guarantee, after DDSketch.
+ * <p>
+ * A positive price {@code v} is counted in the bin {@code ceil(log(v) / log(gamma))} with
+ * {@code gamma = (1 + alpha) / (1 - alpha)}, so every bin covers a range of prices whose values are all
+ * within the relative accuracy {@code alpha} of the bin's representative value. Prices too small
+ * for the bins (in particular zero) are counted separately. Two sketches with the same accuracy are
+ * merged by adding the counts of their bins, the result is the same as if all prices had been added
+ * to one sketch.
+ * <p>
+ * The bins are a dense array over the range of bins in use, which is narrow for the prices of one
+ * instrument within a time slot. It is limited to {@code maxBins}: beyond that, the lowest bins are
+ * collapsed into one, which keeps the accuracy of all quantiles above them. Memory is therefore at
+ * most {@code 4 * maxBins} bytes per sketch, adding a price is O(1) and merging is O(bins). Clearing
+ * keeps the array, so a reused sketch allocates nothing once it has grown.
+ * <p>
+ * Not thread-safe, callers synchronize.
+ */
+class QuantileSketch {
+
+    // Smallest price with a bin of its own, smaller ones are counted as zero
+    private static final double MIN_INDEXED_PRICE = 1e-9;
+
+    private final double gamma;
+    private final double logGamma;
+    private final int maxBins;
+
+    // Counts of the bins from offset (inclusive) to offset + length (exclusive)
+    private int[] bins = new int[8];
+    private int offset;
+    private int length;
+    private long zeroCount;
+    private long count;
+
+    QuantileSketch(double relativeAccuracy, int maxBins) {
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.maxBins = maxBins;
+    }
+
+    void add(double price) {
+        count++;
+        if (price < MIN_INDEXED_PRICE) {
+            zeroCount++;
+        } else {
+            // The position first, extending the range may replace the array
+            int position = binPosition((int) Math.ceil(Math.log(price) / logGamma));
+            bins[position]++;
+        }
+    }
+
+    /**
+     * Adds the counts of another sketch, which must have the same relative accuracy
+     */
+    void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        count += other.count;
+        zeroCount += other.zeroCount;
+        for (int i = 0; i < other.length; i++) {
+            int binCount = other.bins[i];
+            if (binCount > 0) {
+                int position = binPosition(other.offset + i);
+                bins[position] += binCount;
+            }
+        }
+    }
+
+    long count() {
+        return count;
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return price at the quantile within the relative accuracy, NaN if the sketch is empty
+     */
+    double quantile(double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        // Zero-based rank of the price, the lower one of two neighbours
+        long rank = (long) Math.floor(quantile * (count - 1));
+        long seen = zeroCount;
+        if (rank < seen) {
+            return 0;
+        }
+        for (int i = 0; i < length; i++) {
+            seen += bins[i];
+            if (rank < seen) {
+                return 2 * Math.pow(gamma, offset + i) / (gamma + 1);
+            }
+        }
+        return 2 * Math.pow(gamma, offset + length - 1) / (gamma + 1);
+    }
+
+    void clear() {
+        if (count > 0) {
+            Arrays.fill(bins, 0, length, 0);
+            length = 0;
+            zeroCount = 0;
+            count = 0;
+        }
+    }
+
+    // Position of the bin in the array, after extending the range of bins to it
+    private int binPosition(int bin) {
+        if (length == 0) {
+            offset = bin;
+            length = 1;
+            return 0;
+        }
+        if (bin < offset) {
+            // Beyond the limit of bins the price is counted in the lowest one
+            int lowest = Math.max(bin, offset + length - maxBins);
+            if (lowest < offset) {
+                extendDown(lowest);
+            }
+            return lowest - offset;
+        }
+        if (bin >= offset + length) {
+            extendUp(bin);
+        }
+        return bin - offset;
+    }
+
+    private void extendDown(int bin) {
+        int shift = offset - bin;
+        ensureCapacity(length + shift);
+        System.arraycopy(bins, 0, bins, shift, length);
+        Arrays.fill(bins, 0, shift, 0);
+        offset = bin;
+        length += shift;
+    }
+
+    private void extendUp(int bin) {
+        int newLength = bin - offset + 1;
+        if (newLength > maxBins) {
+            // Collapse the lowest bins into one, so that the range ends at the new bin
+            int collapsed = newLength - maxBins;
+            int sum = 0;
+            for (int i = 0; i <= collapsed && i < length; i++) {
+                sum += bins[i];
+            }
+            int moved = Math.max(length - 1 - collapsed, 0);
+            if (moved > 0) {
+                System.arraycopy(bins, collapsed + 1, bins, 1, moved);
+            }
+            bins[0] = sum;
+            Arrays.fill(bins, moved + 1, length, 0);
+            offset += collapsed;
+            newLength = maxBins;
+        }
+        ensureCapacity(newLength);
+        length = newLength;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (bins.length < capacity) {
+            bins = Arrays.copyOf(bins, Math.min(Math.max(capacity, 2 * bins.length), maxBins));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package de.ovolynets.tickerstats.service.impl;
+
+/**
+ * Sliding window of price sketches, a fixed ring of time slots like {@link TickWindow} with the
+ * {@link InstrumentSketches} of the ticks that fall into every slot. Expired slots are rolled up
+ * into the coarser window, if there is one.
+ */
+class QuantileWindow {
+
+    private final WindowSlots windowSlots;
+    private final Slot[] slots;
+    // Window the expired slots are rolled up into, null if they are dropped
+    private final QuantileWindow coarser;
+
+    QuantileWindow(WindowSlots windowSlots, double relativeAccuracy, int maxBins, QuantileWindow coarser) {
+        this.windowSlots = windowSlots;
+        this.coarser = coarser;
+        this.slots = new Slot[windowSlots.ringSize()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(new InstrumentSketches(relativeAccuracy, maxBins));
+        }
+    }
+
+    /**
+     * Adds the price to the slot of the timestamp, unless the tick is outside of the window
+     */
+    void add(int id, double price, long timestamp, long now) {
+        long slotIndex = windowSlots.slotOf(timestamp, now);
+        if (slotIndex == WindowSlots.REJECTED) {
+            return;
+        }
+        Slot slot = slots[windowSlots.position(slotIndex)];
+        synchronized (slot) {
+            if (slot.claim(slotIndex)) {
+                slot.sketches.add(id, price);
+            }
+        }
+    }
+
+    /**
+     * Resets all slots that are no longer inside the window, after rolling them up into the
+     * coarser window, if there is one
+     */
+    void evict(long now) {
+        long oldestLiveSlot = windowSlots.oldestLiveSlot(now);
+        for (Slot slot : slots) {
+            synchronized (slot) {
+                if (slot.index < oldestLiveSlot && !slot.sketches.isEmpty()) {
+                    if (coarser != null) {
+                        coarser.merge(windowSlots.slotStart(slot.index), slot.sketches, now);
+                    }
+                    slot.reset(Slot.EMPTY);
+                }
+            }
+        }
+    }
+
+    // Merges the sketches of a slot of a finer window that starts at the given time into the slot
+    // covering it, or further up if that one has left the window already
+    private void merge(long start, InstrumentSketches sketches, long now) {
+        long slotIndex = windowSlots.slotIndexOf(start);
+        if (slotIndex < windowSlots.oldestLiveSlot(now)) {
+            if (coarser != null) {
+                coarser.merge(start, sketches, now);
+            }
+            return;
+        }
+        Slot slot = slots[windowSlots.position(slotIndex)];
+        synchronized (slot) {
+            if (slot.claim(slotIndex)) {
+                slot.sketches.merge(sketches);
+            }
+        }
+    }
+
+    /**
+     * Merges the sketches of an instrument, or all instruments for {@link InstrumentRegistry#UNKNOWN},
+     * of the slots from {@code fromSlot} (inclusive) on into the target
+     */
+    void mergeInto(QuantileSketch target, int id, long fromSlot) {
+        for (Slot slot : slots) {
+            synchronized (slot) {
+                if (slot.index >= fromSlot && !slot.sketches.isEmpty()) {
+                    QuantileSketch sketch = id == InstrumentRegistry.UNKNOWN ? slot.sketches.total() : slot.sketches.get(id);
+                    if (sketch != null) {
+                        target.merge(sketch);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Slot {
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long index = EMPTY;
+        private final InstrumentSketches sketches;
+
+        private Slot(InstrumentSketches sketches) {
+            this.sketches = sketches;
+        }
+
+        // Same as the slots of TickWindow: fails if the position holds a newer slot already
+        private boolean claim(long slotIndex) {
+            if (index == slotIndex) {
+                return true;
+            }
+            if (index > slotIndex) {
+                return false;
+            }
+            reset(slotIndex);
+            return true;
+        }
+
+        private void reset(long newIndex) {
+            index = newIndex;
+            sketches.clear();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import java.util.Arrays;
+
+/**
+ * Instrument ids ordered by a key, highest first, ties by the lower id: a binary max-heap that
+ * knows the position of every id, so the key of an id is changed or dropped in O(log n) time, and
+ * in O(1) time if it stays the same. The first {@code limit} ids are read in O(limit log limit)
+ * time without changing the heap, no matter how many ids it holds.
+ * <p>
+ * Not thread-safe: a {@link StatisticsTable} writes its heaps under its sequence lock, and readers
+ * discard what they read from a heap that has been written in the meantime, so reads of a heap
+ * that is being written must not fail, but may return anything.
+ */
+final class RankingHeap {
+
+    // Keys and the position in the heap plus one by id, zero for ids not in the heap
+    private double[] keys = new double[0];
+    private int[] positions = new int[0];
+    // Ids, every one before its children at 2i + 1 and 2i + 2
+    private int[] heap = new int[0];
+    private int size;
+
+    void ensureCapacity(int capacity) {
+        if (keys.length < capacity) {
+            keys = Arrays.copyOf(keys, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            heap = Arrays.copyOf(heap, capacity);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds the id or changes its key
+     */
+    void set(int id, double key) {
+        int position = positions[id] - 1;
+        if (position < 0) {
+            keys[id] = key;
+            heap[size] = id;
+            positions[id] = ++size;
+            siftUp(size - 1);
+            return;
+        }
+        double previous = keys[id];
+        keys[id] = key;
+        if (key > previous) {
+            siftUp(position);
+        } else if (key < previous) {
+            siftDown(position);
+        }
+    }
+
+    void remove(int id) {
+        int position = positions[id] - 1;
+        if (position < 0) {
+            return;
+        }
+        positions[id] = 0;
+        int last = heap[--size];
+        if (last != id) {
+            heap[position] = last;
+            positions[last] = position + 1;
+            siftDown(siftUp(position));
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * Reads the ids with the highest keys, highest first. The heap is walked from the root on,
+     * always taking the best of the children of the ids taken so far.
+     *
+     * @param ids receives the ids, at least {@code limit} long
+     * @return number of ids read
+     */
+    int top(int limit, int[] ids) {
+        int[] heap = this.heap;
+        double[] keys = this.keys;
+        int size = Math.min(this.size, heap.length);
+        int count = 0;
+        if (size == 0 || limit <= 0) {
+            return 0;
+        }
+        // Positions in the heap whose parents have been taken, in heap order themselves. Every id
+        // taken adds at most two and removes one, so there are at most limit + 1 of them
+        int[] candidates = new int[limit + 1];
+        int candidateSize = 1;
+        while (count < limit && candidateSize > 0) {
+            int position = candidates[0];
+            candidates[0] = candidates[--candidateSize];
+            siftDownCandidate(candidates, candidateSize, heap, keys);
+            ids[count++] = heap[position];
+            for (int child = 2 * position + 1; child <= 2 * position + 2 && child < size; child++) {
+                candidates[candidateSize] = child;
+                siftUpCandidate(candidates, candidateSize++, heap, keys);
+            }
+        }
+        return count;
+    }
+
+    private int siftUp(int position) {
+        int id = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!before(keys, id, heap[parent])) {
+                break;
+            }
+            move(heap[parent], position);
+            position = parent;
+        }
+        move(id, position);
+        return position;
+    }
+
+    private void siftDown(int position) {
+        int id = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(keys, heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(keys, heap[child], id)) {
+                break;
+            }
+            move(heap[child], position);
+            position = child;
+        }
+        move(id, position);
+    }
+
+    private void move(int id, int position) {
+        heap[position] = id;
+        positions[id] = position + 1;
+    }
+
+    private static void siftUpCandidate(int[] candidates, int position, int[] heap, double[] keys) {
+        int candidate = candidates[position];
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!before(keys, heap[candidate], heap[candidates[parent]])) {
+                break;
+            }
+            candidates[position] = candidates[parent];
+            position = parent;
+        }
+        candidates[position] = candidate;
+    }
+
+    private static void siftDownCandidate(int[] candidates, int size, int[] heap, double[] keys) {
+        if (size == 0) {
+            return;
+        }
+        int position = 0;
+        int candidate = candidates[0];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(keys, heap[candidates[child + 1]], heap[candidates[child]])) {
+                child++;
+            }
+            if (!before(keys, heap[candidates[child]], heap[candidate])) {
+                break;
+            }
+            candidates[position] = candidates[child];
+            position = child;
+        }
+        candidates[position] = candidate;
+    }
+
+    // Ids out of range only occur in reads of a heap that is being written, whose result is discarded
+    private static boolean before(double[] keys, int id, int other) {
+        if (id >= keys.length || other >= keys.length) {
+            return false;
+        }
+        return keys[id] > keys[other] || (keys[id] == keys[other] && id < other);
+    }
+}
@@ -0,0 +1,75 @@
+package de.ovolynets.tickerstats.service.impl;
+
+/**
+ * When the scheduled refresh of the statistics runs next. A fixed schedule runs it every period.
+ * An adaptive one runs it every minimum period while at least {@code busyTicks} ticks arrive per
+ * period, so that statistics under load stay fresh, and doubles the period up to the maximum one
+ * while no ticks arrive at all, so that an idle service wakes up less often.
+ */
+final class RefreshSchedule {
+
+    private final long periodMillis;
+    private final long minPeriodMillis;
+    private final long maxPeriodMillis;
+    private final long busyTicks;
+
+    private RefreshSchedule(long periodMillis, long minPeriodMillis, long maxPeriodMillis, long busyTicks) {
+        if (periodMillis <= 0 || minPeriodMillis <= 0) {
+            throw new IllegalArgumentException("Refresh periods must be positive: " + minPeriodMillis + ", " + periodMillis);
+        }
+        this.periodMillis = periodMillis;
+        this.minPeriodMillis = minPeriodMillis;
+        this.maxPeriodMillis = maxPeriodMillis;
+        this.busyTicks = busyTicks;
+    }
+
+    static RefreshSchedule fixed(long periodMillis) {
+        return new RefreshSchedule(periodMillis, periodMillis, periodMillis, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param periodMillis period under normal load, the bounds are widened to include it
+     * @param busyTicks ticks per period from which on the minimum period is used
+     */
+    static RefreshSchedule adaptive(long periodMillis, long minPeriodMillis, long maxPeriodMillis, long busyTicks) {
+        if (busyTicks < 1) {
+            throw new IllegalArgumentException("Busy ticks must be positive: " + busyTicks);
+        }
+        return new RefreshSchedule(periodMillis, Math.min(minPeriodMillis, periodMillis),
+                Math.max(maxPeriodMillis, periodMillis), busyTicks);
+    }
+
+    long periodMillis() {
+        return periodMillis;
+    }
+
+    /**
+     * @return longest period between two refreshes, the one of an idle service
+     */
+    long maxPeriodMillis() {
+        return maxPeriodMillis;
+    }
+
+    /**
+     * @param lastPeriodMillis period the last refresh has been scheduled with
+     * @param ticks ticks accepted during that period
+     * @return period of the next refresh
+     */
+    long nextPeriodMillis(long lastPeriodMillis, long ticks) {
+        if (ticks >= busyTicks) {
+            return minPeriodMillis;
+        }
+        if (ticks == 0) {
+            return Math.min(2 * Math.max(lastPeriodMillis, periodMillis), maxPeriodMillis);
+        }
+        return periodMillis;
+    }
+
+    @Override
+    public String toString() {
+        return minPeriodMillis == maxPeriodMillis
+                ? "every " + periodMillis + " ms"
+                : "every " + periodMillis + " ms, " + minPeriodMillis + " ms from " + busyTicks + " ticks on, up to "
+                + maxPeriodMillis + " ms while idle";
+    }
+}
@@ -0,0 +1,195 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.service.OverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Internal meters of {@link TickerServiceImpl}. All meters are registered upfront, recording only
+ * updates counters and preallocated histogram buckets, so it allocates nothing and stays enabled
+ * in production. Gauges are evaluated when the registry is scraped, not on the hot path.
+ */
+class ServiceMetrics {
+
+    private final Timer addTickTimer;
+    private final Timer addTicksTimer;
+    private final Counter acceptedTicks;
+    private final Counter staleTicks;
+    private final Counter futureTicks;
+    private final Counter cappedTicks;
+    private final Counter invalidTicks;
+    private final Counter journalFailures;
+    private final Counter[] shedIngests;
+    private final MeterRegistry meterRegistry;
+    private final Timer refreshTimer;
+    private final Counter evictedEntries;
+    private final Counter retiredInstruments;
+    private final Counter skippedRefreshes;
+
+    // Accepted ticks for the refresh schedule, which cannot rely on the counter of a registry that
+    // may keep only the count of the current step
+    private final LongAdder acceptedTotal = new LongAdder();
+
+    // Clock reading at the start of the last completed refresh
+    private volatile long lastRefresh;
+    private volatile long refreshPeriod;
+
+    ServiceMetrics(MeterRegistry meterRegistry, StatisticsEngine engine, InstrumentRegistry instruments,
+                   LongSupplier clock) {
+        addTickTimer = addTimer(meterRegistry, "single");
+        addTicksTimer = addTimer(meterRegistry, "batch");
+        acceptedTicks = Counter.builder("tickerstats.ticks")
+                .description("Ticks inside the window, which have been added")
+                .tag("result", "accepted")
+                .register(meterRegistry);
+        staleTicks = Counter.builder("tickerstats.ticks")
+                .description("Ticks outside of the window, which have been rejected")
+                .tag("result", "stale")
+                .register(meterRegistry);
+        futureTicks = Counter.builder("tickerstats.ticks")
+                .description("Ticks further ahead of the clock than the future skew, which have been rejected")
+                .tag("result", "future")
+                .register(meterRegistry);
+        cappedTicks = Counter.builder("tickerstats.ticks")
+                .description("Ticks of new instruments while the instrument cap was reached, which have been rejected")
+                .tag("result", "capped")
+                .register(meterRegistry);
+        invalidTicks = Counter.builder("tickerstats.ticks")
+                .description("Ticks with an instrument too long to be journaled, which have been rejected")
+                .tag("result", "invalid")
+                .register(meterRegistry);
+        journalFailures = Counter.builder("tickerstats.journal.failures")
+                .description("Calls whose ticks have been added to the windows, but could not all be journaled")
+                .register(meterRegistry);
+        OverloadedException.Reason[] reasons = OverloadedException.Reason.values();
+        shedIngests = new Counter[reasons.length];
+        for (OverloadedException.Reason reason : reasons) {
+            shedIngests[reason.ordinal()] = Counter.builder("tickerstats.ingest.shed")
+                    .description("Calls adding ticks that have been shed before adding any")
+                    .tag("reason", reason.name().toLowerCase(Locale.ROOT).replace('_', '-'))
+                    .register(meterRegistry);
+        }
+        this.meterRegistry = meterRegistry;
+        refreshTimer = Timer.builder("tickerstats.statistics.refresh")
+                .description("Duration of the scheduled refresh: statistics rebuild or expiry, journal cleanup, instrument retirement")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meterRegistry);
+        evictedEntries = Counter.builder("tickerstats.window.evictions")
+                .description("Partial aggregates (of one instrument in one slot) dropped from the window")
+                .register(meterRegistry);
+        retiredInstruments = Counter.builder("tickerstats.instruments.retired")
+                .description("Idle instruments whose ids have been released")
+                .register(meterRegistry);
+        skippedRefreshes = Counter.builder("tickerstats.statistics.refresh.skipped")
+                .description("Scheduled refreshes skipped because the previous one was still running")
+                .register(meterRegistry);
+
+        lastRefresh = clock.getAsLong();
+        Gauge.builder("tickerstats.statistics.lag", this, (metrics) -> clock.getAsLong() - metrics.lastRefresh)
+                .description("Time since the start of the last completed refresh")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("tickerstats.statistics.refresh.period", this, (metrics) -> metrics.refreshPeriod)
+                .description("Period the next refresh has been scheduled with, which adapts to the load")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("tickerstats.window.entries", engine, StatisticsEngine::windowEntries)
+                .description("Partial aggregates (of one instrument in one slot) in the window as of the last refresh")
+                .register(meterRegistry);
+        Gauge.builder("tickerstats.window.ticks", engine, (statistics) -> statistics.getStatistics(clock.getAsLong()).getCount())
+                .description("Ticks in the window")
+                .register(meterRegistry);
+        Gauge.builder("tickerstats.instruments", instruments, InstrumentRegistry::size)
+                .description("Instruments with an id, i.e. with ticks within the retention period")
+                .register(meterRegistry);
+    }
+
+    private static Timer addTimer(MeterRegistry meterRegistry, String type) {
+        return Timer.builder("tickerstats.ticks.add")
+                .description("Latency of adding ticks to the window, per call")
+                .tag("type", type)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(100))
+                .maximumExpectedValue(Duration.ofMillis(100))
+                .register(meterRegistry);
+    }
+
+    void tickAdded(boolean accepted, long startNanos) {
+        addTickTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        if (accepted) {
+            acceptedTicks.increment();
+            acceptedTotal.increment();
+        } else {
+            staleTicks.increment();
+        }
+    }
+
+    void tickTooFarAhead() {
+        futureTicks.increment();
+    }
+
+    void tickOverInstrumentCap() {
+        cappedTicks.increment();
+    }
+
+    void tickInvalid() {
+        invalidTicks.increment();
+    }
+
+    void journalFailed() {
+        journalFailures.increment();
+    }
+
+    void ingestShed(OverloadedException.Reason reason) {
+        shedIngests[reason.ordinal()].increment();
+    }
+
+    void trackIngests(LongAdder ingestsInFlight) {
+        Gauge.builder("tickerstats.ingest.in-flight", ingestsInFlight, LongAdder::sum)
+                .description("Calls adding ticks at the moment")
+                .register(meterRegistry);
+    }
+
+    void ticksAdded(int accepted, int stale, long startNanos) {
+        addTicksTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        acceptedTicks.increment(accepted);
+        acceptedTotal.add(accepted);
+        staleTicks.increment(stale);
+    }
+
+    /**
+     * @return ticks accepted since the start of the service
+     */
+    long acceptedTicks() {
+        return acceptedTotal.sum();
+    }
+
+    /**
+     * @return clock reading at the start of the last completed refresh
+     */
+    long lastRefresh() {
+        return lastRefresh;
+    }
+
+    void refreshed(long now, int evicted, int retired, long startNanos) {
+        refreshTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        evictedEntries.increment(evicted);
+        retiredInstruments.increment(retired);
+        lastRefresh = now;
+    }
+
+    void refreshScheduled(long periodMillis, long skipped) {
+        refreshPeriod = periodMillis;
+        skippedRefreshes.increment(skipped);
+    }
+}
@@ -0,0 +1,154 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+
+/**
+ * Statistics of a single series of ticks (one instrument or all of them) over the sliding
+ * window, maintained incrementally. Every slot keeps its own sum, count, minimum and maximum;
+ * the running sum and count are updated on insert and on expiry of a slot, minimum and maximum
+ * come from monotonic deques over the slot extremes. Reading the statistics therefore never
+ * scans the window.
+ * <p>
+ * The running sum is corrected by subtraction when a slot expires and is reset to zero whenever
+ * the window becomes empty, so floating point errors cannot accumulate over time.
+ * <p>
+ * Not thread-safe, callers synchronize.
+ */
+class SlidingAggregate {
+
+    private final WindowSlots windowSlots;
+
+    // Partial aggregates per ring position
+    private final long[] slotIndex;
+    private final double[] slotSum;
+    private final long[] slotCount;
+    private final double[] slotMin;
+    private final double[] slotMax;
+
+    private final SlotMaxima maxima;
+    // Minima are kept as maxima of the negated prices
+    private final SlotMaxima negatedMinima;
+
+    private double sum;
+    private long count;
+    // Number of prices added so far, only ever grows
+    private long additions;
+    // Number of slots with ticks
+    private int liveSlots;
+    // All slots before this one have been expired already
+    private long expiredUpTo = Long.MIN_VALUE;
+
+    SlidingAggregate(WindowSlots windowSlots) {
+        this.windowSlots = windowSlots;
+        int ringSize = windowSlots.ringSize();
+        slotIndex = new long[ringSize];
+        slotSum = new double[ringSize];
+        slotCount = new long[ringSize];
+        slotMin = new double[ringSize];
+        slotMax = new double[ringSize];
+        maxima = new SlotMaxima(ringSize);
+        negatedMinima = new SlotMaxima(ringSize);
+    }
+
+    /**
+     * Adds a price to a live slot. {@link #expire(long)} must have been called before
+     * with the current oldest live slot, so that the ring position of the slot is free.
+     *
+     * @return {@code false} if the slot has been expired in the meantime by a caller with a more
+     * recent clock reading, so that the price has not been added
+     */
+    boolean add(long slot, double price) {
+        if (slot < expiredUpTo) {
+            return false;
+        }
+        int position = windowSlots.position(slot);
+        if (slotCount[position] == 0 || slotIndex[position] != slot) {
+            if (slotCount[position] == 0) {
+                liveSlots++;
+            }
+            slotIndex[position] = slot;
+            slotSum[position] = price;
+            slotCount[position] = 1;
+            slotMin[position] = price;
+            slotMax[position] = price;
+            maxima.update(slot, price);
+            negatedMinima.update(slot, -price);
+        } else {
+            slotSum[position] += price;
+            slotCount[position] += 1;
+            if (price > slotMax[position]) {
+                slotMax[position] = price;
+                maxima.update(slot, price);
+            }
+            if (price < slotMin[position]) {
+                slotMin[position] = price;
+                negatedMinima.update(slot, -price);
+            }
+        }
+        sum += price;
+        count += 1;
+        additions++;
+        return true;
+    }
+
+    /**
+     * Removes all slots older than the given one from the running statistics
+     *
+     * @return number of slots with ticks that have been removed
+     */
+    int expire(long oldestLiveSlot) {
+        if (oldestLiveSlot <= expiredUpTo) {
+            return 0;
+        }
+        int expired = 0;
+        long steps = expiredUpTo == Long.MIN_VALUE
+                ? slotIndex.length
+                : Math.min(oldestLiveSlot - expiredUpTo, slotIndex.length);
+        long first = oldestLiveSlot - steps;
+        for (long slot = first; slot < oldestLiveSlot; slot++) {
+            int position = windowSlots.position(slot);
+            if (slotCount[position] > 0 && slotIndex[position] < oldestLiveSlot) {
+                sum -= slotSum[position];
+                count -= slotCount[position];
+                slotCount[position] = 0;
+                expired++;
+            }
+        }
+        liveSlots -= expired;
+        if (count == 0) {
+            sum = 0;
+            maxima.clear();
+            negatedMinima.clear();
+        } else {
+            maxima.expire(oldestLiveSlot);
+            negatedMinima.expire(oldestLiveSlot);
+        }
+        expiredUpTo = oldestLiveSlot;
+        return expired;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    int liveSlots() {
+        return liveSlots;
+    }
+
+    long additions() {
+        return additions;
+    }
+
+    void mergeInto(StatisticsAccumulator accumulator) {
+        if (count > 0) {
+            accumulator.merge(sum, count, -negatedMinima.peek(), maxima.peek());
+        }
+    }
+
+    TickerStatistics toTickerStatistics() {
+        if (count == 0) {
+            return new TickerStatistics();
+        }
+        return TickerStatistics.ofSum(sum, maxima.peek(), -negatedMinima.peek(), count);
+    }
+}
@@ -0,0 +1,146 @@
+package de.ovolynets.tickerstats.service.impl;
+
+/**
+ * Monotonic deque of the slot maxima of a sliding window: slot indices increase and values
+ * strictly decrease from the front to the back, so the front is the maximum of the window.
+ * A slot is dropped as soon as a newer slot has a value at least as large, because the newer
+ * slot outlives it.
+ * <p>
+ * Unlike the textbook version, updates are not limited to the newest slot: ticks arrive out of
+ * order, so any live slot may get a larger maximum. This only works because the value of a slot
+ * never decreases until the slot expires. Updates of the newest slot and expiry from the front
+ * are amortized O(1); an update of an older slot costs a binary search and a shift of at most
+ * the number of slots in the ring. Minima are kept by storing negated values.
+ * <p>
+ * Not thread-safe, callers synchronize.
+ */
+class SlotMaxima {
+
+    private final long[] slots;
+    private final double[] values;
+    private int head;
+    private int size;
+
+    SlotMaxima(int capacity) {
+        slots = new long[capacity];
+        values = new double[capacity];
+    }
+
+    /**
+     * Records that the maximum of the given slot has grown to the given value
+     */
+    void update(long slot, double value) {
+        int position;
+        if (size == 0 || slot > slotAt(size - 1)) {
+            position = size;
+        } else {
+            position = search(slot);
+        }
+        if (position < size && slotAt(position) == slot) {
+            setValueAt(position, value);
+        } else {
+            if (position < size && valueAt(position) >= value) {
+                // A newer slot with a larger value dominates the slot
+                return;
+            }
+            insertAt(position, slot, value);
+        }
+        // Drop the older slots dominated by the updated one. They form a contiguous range
+        // right in front of it, because the values decrease from the front to the back
+        int firstDominated = position;
+        while (firstDominated > 0 && valueAt(firstDominated - 1) <= value) {
+            firstDominated--;
+        }
+        removeRange(firstDominated, position);
+    }
+
+    /**
+     * Removes all slots older than the given one
+     */
+    void expire(long oldestLiveSlot) {
+        while (size > 0 && slots[head] < oldestLiveSlot) {
+            head = (head + 1) % slots.length;
+            size--;
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return maximum value over all live slots, undefined if the deque is empty
+     */
+    double peek() {
+        return values[head];
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    // First position with a slot index not smaller than the given one
+    private int search(long slot) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (slotAt(middle) < slot) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void insertAt(int position, long slot, double value) {
+        if (size == slots.length) {
+            throw new IllegalStateException("More live slots than the ring can hold");
+        }
+        for (int i = size; i > position; i--) {
+            int to = index(i);
+            int from = index(i - 1);
+            slots[to] = slots[from];
+            values[to] = values[from];
+        }
+        size++;
+        slots[index(position)] = slot;
+        values[index(position)] = value;
+    }
+
+    private void removeRange(int from, int to) {
+        int removed = to - from;
+        if (removed == 0) {
+            return;
+        }
+        if (from == 0) {
+            head = index(removed);
+        } else {
+            for (int i = to; i < size; i++) {
+                int target = index(i - removed);
+                int source = index(i);
+                slots[target] = slots[source];
+                values[target] = values[source];
+            }
+        }
+        size -= removed;
+    }
+
+    private long slotAt(int position) {
+        return slots[index(position)];
+    }
+
+    private double valueAt(int position) {
+        return values[index(position)];
+    }
+
+    private void setValueAt(int position, double value) {
+        values[index(position)] = value;
+    }
+
+    private int index(int position) {
+        return (head + position) % slots.length;
+    }
+}
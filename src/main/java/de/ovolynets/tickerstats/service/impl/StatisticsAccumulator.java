@@ -0,0 +1,54 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+
+// Helper accumulator to ease statistics calculations, used both for the partial
+// aggregates of a single time slot and for merging slots into the final statistics
+class StatisticsAccumulator {
+    double sum;
+    double max;
+    double min;
+    long count;
+
+    void clear() {
+        sum = 0;
+        max = 0;
+        min = 0;
+        count = 0;
+    }
+
+    void add(double price) {
+        if (count == 0) {
+            max = price;
+            min = price;
+        } else {
+            max = Math.max(price, max);
+            min = Math.min(price, min);
+        }
+        sum += price;
+        count += 1;
+    }
+
+    void merge(StatisticsAccumulator other) {
+        merge(other.sum, other.count, other.min, other.max);
+    }
+
+    void merge(double otherSum, long otherCount, double otherMin, double otherMax) {
+        if (otherCount == 0) {
+            return;
+        }
+        if (count == 0) {
+            max = otherMax;
+            min = otherMin;
+        } else {
+            max = Math.max(otherMax, max);
+            min = Math.min(otherMin, min);
+        }
+        sum += otherSum;
+        count += otherCount;
+    }
+
+    TickerStatistics toTickerStatistics() {
+        return TickerStatistics.ofSum(sum, max, min, count);
+    }
+}
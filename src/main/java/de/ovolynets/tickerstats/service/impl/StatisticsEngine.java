@@ -0,0 +1,67 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.StatisticsUpdate;
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.Ranking;
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Storage of the sliding windows together with the way statistics are derived from them.
+ * All methods take the current time explicitly, the caller owns the clock.
+ */
+interface StatisticsEngine {
+
+    /**
+     * @return {@code false} if the tick is outside of the window, {@code true} otherwise
+     */
+    boolean add(String instrument, double price, long timestamp, long now);
+
+    /**
+     * @return number of ticks of the batch inside the window, which have been added
+     */
+    int addAll(TickBatch batch, long now);
+
+    /**
+     * Called in regular intervals by the scheduler to drop expired data and refresh caches
+     *
+     * @return number of partial aggregates (of one instrument in one slot) that have been dropped
+     */
+    int refresh(long now);
+
+    /**
+     * @return number of partial aggregates (of one instrument in one slot) in the window as of the last refresh
+     */
+    int windowEntries();
+
+    /**
+     * @return number that changes whenever the statistics of any window may have changed, equal
+     * numbers guarantee equal statistics. Statistics read after the generation are at
+     * least as recent as the generation.
+     */
+    long generation(long now);
+
+    /**
+     * @return the windows statistics are served for, reads take the index of a window
+     */
+    StatisticsWindows windows();
+
+    TickerStatistics getStatistics(int window, long now);
+
+    Optional<TickerStatistics> getStatistics(String instrument, int window, long now);
+
+    /**
+     * @return statistics of the highest ranked instruments in the window, at most {@code limit}, highest first
+     */
+    List<StatisticsUpdate> getRankings(Ranking ranking, int window, int limit, long now);
+
+    default TickerStatistics getStatistics(long now) {
+        return getStatistics(windows().defaultWindow(), now);
+    }
+
+    default Optional<TickerStatistics> getStatistics(String instrument, long now) {
+        return getStatistics(instrument, windows().defaultWindow(), now);
+    }
+}
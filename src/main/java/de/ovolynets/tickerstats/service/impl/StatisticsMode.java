@@ -0,0 +1,22 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import java.util.Locale;
+
+/**
+ * How the statistics are derived from the sliding window, see the {@code statistics-mode} property
+ */
+public enum StatisticsMode {
+    /**
+     * Statistics are rebuilt from the window in regular intervals and served from a cache,
+     * so they may be up to {@code index-update-period-ms} old
+     */
+    PERIODIC,
+    /**
+     * Statistics are updated on every insert and expiry and always reflect the current window
+     */
+    INCREMENTAL;
+
+    public static StatisticsMode fromProperty(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
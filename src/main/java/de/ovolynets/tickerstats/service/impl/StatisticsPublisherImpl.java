@@ -0,0 +1,399 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.StatisticsUpdate;
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.NodeUnavailableException;
+import de.ovolynets.tickerstats.service.StatisticsPublisher;
+import de.ovolynets.tickerstats.service.StatisticsSubscriber;
+import de.ovolynets.tickerstats.service.TickerService;
+import de.ovolynets.tickerstats.service.UnknownWindowException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes changed statistics to the subscribers.
+ * <p>
+ * Subscriptions are grouped into topics, one per instrument (or the total) and window. A dispatcher
+ * thread reads the statistics of every topic at the configured rate, each read is O(1), and hands
+ * the ones that changed to the subscribers of the topic. The cost of a round therefore grows with
+ * the number of distinct topics and changes, subscribers of unchanged statistics are not visited.
+ * Topics are only read again once the generation of the statistics has moved past the one they
+ * have been read at, and a topic whose statistics cannot be read, e.g. because a node of the cluster
+ * does not answer, keeps its last statistics until a later round reads it.
+ * <p>
+ * Delivery runs on a small pool of sender threads, with at most one delivery per subscriber in
+ * flight. While it is in flight, newer values replace the pending ones instead of being queued,
+ * so a slow subscriber receives the latest statistics once it catches up and its backlog is bounded
+ * by the number of its instruments. A subscriber that does not complete a delivery within the send
+ * timeout is disconnected.
+ * <p>
+ * Writes to a client block, and a write to a client that stopped reading only returns once the
+ * connection times out. The thread of such a stalled delivery is therefore written off: the pool
+ * gets another thread for as long as the write is blocked, so the other subscribers keep all sender
+ * threads, and the subscriber is closed once the write has returned.
+ */
+@Service
+public class StatisticsPublisherImpl implements StatisticsPublisher {
+
+    private final Logger logger = LoggerFactory.getLogger(StatisticsPublisherImpl.class);
+
+    private final TickerService tickerService;
+    private final long sendTimeoutNanos;
+
+    private final Map<TopicKey, Topic> topics = new ConcurrentHashMap<>();
+    private final Set<SubscriptionImpl> subscriptions = ConcurrentHashMap.newKeySet();
+    // Subscriptions with pending statistics, the only ones a round of the dispatcher visits
+    private final Set<SubscriptionImpl> ready = ConcurrentHashMap.newKeySet();
+    // Subscriptions with a delivery in flight, at most a few per sender thread
+    private final Set<SubscriptionImpl> delivering = ConcurrentHashMap.newKeySet();
+
+    private final Counter deliveredUpdates;
+    private final Counter disconnectedSubscribers;
+
+    private final ScheduledExecutorService dispatcher;
+    private final ThreadPoolExecutor senders;
+
+    @Autowired
+    public StatisticsPublisherImpl(TickerService tickerService,
+                                   @Value("${subscription-max-rate:4}") int maxRate,
+                                   @Value("${subscription-sender-threads:2}") int senderThreads,
+                                   @Value("${subscription-send-timeout-ms:10000}") long sendTimeoutMillis,
+                                   MeterRegistry meterRegistry) {
+        this(tickerService, dispatchPeriod(maxRate), senderThreads, sendTimeoutMillis, meterRegistry);
+    }
+
+    // The dispatcher runs on a millisecond schedule, so at most 1000 rounds a second
+    static Duration dispatchPeriod(int maxRate) {
+        if (maxRate < 1 || maxRate > 1000) {
+            throw new IllegalArgumentException("subscription-max-rate has to be between 1 and 1000 per second: " + maxRate);
+        }
+        return Duration.ofMillis(1000 / maxRate);
+    }
+
+    StatisticsPublisherImpl(TickerService tickerService, Duration dispatchPeriod, int senderThreads,
+                            long sendTimeoutMillis, MeterRegistry meterRegistry) {
+        this.tickerService = tickerService;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+
+        Gauge.builder("tickerstats.subscriptions", subscriptions, Set::size)
+                .description("Subscribers of pushed statistics")
+                .register(meterRegistry);
+        deliveredUpdates = Counter.builder("tickerstats.subscriptions.updates")
+                .description("Statistics pushed to subscribers")
+                .register(meterRegistry);
+        disconnectedSubscribers = Counter.builder("tickerstats.subscriptions.disconnected")
+                .description("Subscribers disconnected for not keeping up with the updates")
+                .register(meterRegistry);
+
+        // Unbounded queue, so only the core threads run, see writeOff
+        senders = new ThreadPoolExecutor(senderThreads, Integer.MAX_VALUE, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+        // Coalesces the updates: every subscriber receives at most one delivery per round
+        dispatcher = Executors.newScheduledThreadPool(1);
+        dispatcher.scheduleAtFixedRate(this::dispatch, dispatchPeriod.toMillis(), dispatchPeriod.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Subscription subscribe(Collection<String> instruments, Duration window, StatisticsSubscriber subscriber) {
+        if (window != null && !tickerService.getWindows().contains(window)) {
+            throw new UnknownWindowException("Statistics are served for the windows " + tickerService.getWindows() + " only");
+        }
+        Set<TopicKey> keys = new LinkedHashSet<>();
+        if (instruments.isEmpty()) {
+            keys.add(new TopicKey(null, window));
+        }
+        for (String instrument : instruments) {
+            keys.add(new TopicKey(instrument, window));
+        }
+
+        SubscriptionImpl subscription = new SubscriptionImpl(subscriber, keys);
+        subscriptions.add(subscription);
+        for (TopicKey key : keys) {
+            // Read before the statistics, which are then at least as recent
+            long generation = tickerService.getGeneration();
+            Topic topic = topics.compute(key, (k, existing) -> {
+                Topic joined = existing != null ? existing : new Topic(k, generation, read(k));
+                joined.subscribers.add(subscription);
+                return joined;
+            });
+            synchronized (topic) {
+                subscription.offer(topic.key, topic.last);
+            }
+        }
+        ready.remove(subscription);
+        if (!subscription.schedule()) {
+            ready.add(subscription);
+        }
+        return subscription;
+    }
+
+    // One round of the dispatcher: publish the changed statistics and start the deliveries
+    void dispatch() {
+        try {
+            long generation = tickerService.getGeneration();
+            int failed = 0;
+            NodeUnavailableException failure = null;
+            for (Topic topic : topics.values()) {
+                // Statistics stay the same as long as the generation does
+                if (topic.generation == generation) {
+                    continue;
+                }
+                TickerStatistics current;
+                try {
+                    current = read(topic.key);
+                } catch (NodeUnavailableException e) {
+                    // Keeps the last statistics and the generation, so the next round reads the topic again
+                    failed++;
+                    failure = e;
+                    continue;
+                }
+                topic.generation = generation;
+                synchronized (topic) {
+                    if (!Objects.equals(current, topic.last)) {
+                        topic.last = current;
+                        for (SubscriptionImpl subscription : topic.subscribers) {
+                            subscription.offer(topic.key, current);
+                        }
+                    }
+                }
+            }
+            if (failure != null) {
+                logger.warn("Failed to read the statistics of {} topics, keeping their last statistics: {}",
+                        failed, failure.getMessage());
+            }
+            long now = System.nanoTime();
+            for (SubscriptionImpl subscription : delivering) {
+                if (subscription.isStalled(now) && subscription.writeOff()) {
+                    logger.debug("Disconnecting a subscriber that did not keep up with the updates");
+                    disconnectedSubscribers.increment();
+                }
+            }
+            // Iterates a copy, a subscription added again below must not be visited again in this round
+            for (SubscriptionImpl subscription : new ArrayList<>(ready)) {
+                // Removed first, so that statistics offered in the meantime mark it as ready again
+                ready.remove(subscription);
+                if (!subscription.schedule()) {
+                    ready.add(subscription);
+                }
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel all future rounds
+            logger.error("Failed to publish statistics", e);
+        }
+    }
+
+    // Resizes the sender pool by the number of threads blocked in stalled deliveries
+    private synchronized void resizeSenders(int delta) {
+        senders.setCorePoolSize(senders.getCorePoolSize() + delta);
+    }
+
+    private TickerStatistics read(TopicKey key) {
+        if (key.instrument == null) {
+            return key.window == null ? tickerService.getStatistics() : tickerService.getStatistics(key.window);
+        }
+        return (key.window == null
+                ? tickerService.getStatistics(key.instrument)
+                : tickerService.getStatistics(key.instrument, key.window)).orElse(null);
+    }
+
+    /**
+     * Stops the dispatcher and disconnects all subscribers
+     */
+    @PreDestroy
+    public void close() {
+        dispatcher.shutdownNow();
+        senders.shutdownNow();
+        for (SubscriptionImpl subscription : subscriptions) {
+            subscription.cancel();
+        }
+    }
+
+    private class SubscriptionImpl implements Subscription {
+        private final StatisticsSubscriber subscriber;
+        private final Set<TopicKey> keys;
+
+        // Latest undelivered statistics per topic, guarded by this
+        private final Map<TopicKey, TickerStatistics> pending = new LinkedHashMap<>();
+        private boolean inFlight;
+        private long inFlightSince;
+        // The delivery in flight does not count against the sender threads any more
+        private boolean writtenOff;
+        private boolean cancelled;
+
+        private SubscriptionImpl(StatisticsSubscriber subscriber, Set<TopicKey> keys) {
+            this.subscriber = subscriber;
+            this.keys = keys;
+        }
+
+        private synchronized void offer(TopicKey key, TickerStatistics statistics) {
+            if (!cancelled) {
+                pending.put(key, statistics);
+                ready.add(this);
+            }
+        }
+
+        private synchronized boolean isStalled(long now) {
+            return inFlight && !writtenOff && now - inFlightSince > sendTimeoutNanos;
+        }
+
+        /**
+         * Starts a delivery of the pending statistics, unless one is in flight already
+         *
+         * @return {@code false} if the statistics are still pending, {@code true} otherwise
+         */
+        private synchronized boolean schedule() {
+            if (inFlight && !cancelled) {
+                return false;
+            }
+            if (!cancelled && !pending.isEmpty()) {
+                inFlight = true;
+                inFlightSince = System.nanoTime();
+                delivering.add(this);
+                senders.execute(this::deliver);
+            }
+            return true;
+        }
+
+        private void deliver() {
+            List<StatisticsUpdate> updates;
+            synchronized (this) {
+                updates = new ArrayList<>(pending.size());
+                for (Map.Entry<TopicKey, TickerStatistics> entry : pending.entrySet()) {
+                    updates.add(new StatisticsUpdate(entry.getKey().instrument, entry.getValue()));
+                }
+                pending.clear();
+            }
+            try {
+                subscriber.deliver(updates);
+                deliveredUpdates.increment(updates.size());
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Failed to deliver statistics, cancelling the subscription", e);
+                cancel();
+            }
+            boolean close;
+            synchronized (this) {
+                inFlight = false;
+                delivering.remove(this);
+                close = cancelled;
+                if (writtenOff) {
+                    writtenOff = false;
+                    resizeSenders(-1);
+                }
+            }
+            if (close) {
+                subscriber.close();
+            }
+        }
+
+        /**
+         * Cancels a subscription whose delivery is stalled, and replaces the sender thread it blocks
+         *
+         * @return {@code false} if the delivery has returned in the meantime
+         */
+        private boolean writeOff() {
+            synchronized (this) {
+                if (!inFlight || writtenOff) {
+                    return false;
+                }
+                writtenOff = true;
+                resizeSenders(1);
+            }
+            cancel();
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            boolean close;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                pending.clear();
+                // Closing may wait for the delivery in flight, it closes the subscriber once it returns
+                close = !inFlight;
+            }
+            subscriptions.remove(this);
+            ready.remove(this);
+            for (TopicKey key : keys) {
+                topics.computeIfPresent(key, (k, topic) -> {
+                    topic.subscribers.remove(this);
+                    return topic.subscribers.isEmpty() ? null : topic;
+                });
+            }
+            if (close) {
+                subscriber.close();
+            }
+        }
+    }
+
+    private static class Topic {
+        private final TopicKey key;
+        private final List<SubscriptionImpl> subscribers = new CopyOnWriteArrayList<>();
+        // Statistics last handed to the subscribers, guarded by this
+        private TickerStatistics last;
+        // Generation the statistics have been read at, only changed by the dispatcher thread
+        private long generation;
+
+        private Topic(TopicKey key, long generation, TickerStatistics last) {
+            this.key = key;
+            this.generation = generation;
+            this.last = last;
+        }
+    }
+
+    private static class TopicKey {
+        // null for the statistics over all instruments
+        private final String instrument;
+        // null for the default window
+        private final Duration window;
+
+        private TopicKey(String instrument, Duration window) {
+            this.instrument = instrument;
+            this.window = window;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            TopicKey that = (TopicKey) o;
+            return Objects.equals(instrument, that.instrument) && Objects.equals(window, that.window);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(instrument, window);
+        }
+    }
+}
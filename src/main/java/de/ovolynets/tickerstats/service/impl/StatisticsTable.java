@@ -0,0 +1,253 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.StatisticsUpdate;
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.Ranking;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Published result of a statistics rebuild: statistics per instrument id plus the overall ones,
+ * kept as primitive arrays so that a rebuild can overwrite a table instead of allocating a new one.
+ * A rebuild only writes the instruments whose statistics may have changed, the others keep theirs.
+ * <p>
+ * Tables are double-buffered by {@link PeriodicStatisticsEngine}: the rebuild writes into the table
+ * readers do not use and publishes it afterwards. A reader that still holds the other table while
+ * it is overwritten by the next rebuild detects it through the version number (a sequence lock)
+ * and retries with the newly published table.
+ * <p>
+ * Every write also updates the position of the instrument in one {@link RankingHeap} per
+ * {@link Ranking}, so the highest ranked instruments are read without sorting the table, and a
+ * write that leaves the statistics of an instrument as they are does not move it.
+ */
+class StatisticsTable {
+
+    // Odd while the table is being written
+    private volatile long version;
+
+    private double[] sums = new double[0];
+    private double[] mins = new double[0];
+    private double[] maxs = new double[0];
+    private long[] counts = new long[0];
+    private final StatisticsAccumulator total = new StatisticsAccumulator();
+
+    // Ids with statistics in this table and the position of every id in that list plus one,
+    // zero for ids without statistics
+    private int[] writtenIds = new int[0];
+    private int[] positions = new int[0];
+    private int writtenSize;
+
+    // Indexed by the ordinal of the ranking
+    private final RankingHeap[] rankings = new RankingHeap[Ranking.values().length];
+
+    StatisticsTable() {
+        for (int i = 0; i < rankings.length; i++) {
+            rankings[i] = new RankingHeap();
+        }
+    }
+
+    /**
+     * Starts writing the table, the statistics of the previous writes are kept until they are overwritten
+     */
+    void beginWrite(int capacity) {
+        version++;
+        VarHandle.storeStoreFence();
+        if (counts.length < capacity) {
+            sums = Arrays.copyOf(sums, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            writtenIds = Arrays.copyOf(writtenIds, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+        for (RankingHeap ranking : rankings) {
+            ranking.ensureCapacity(capacity);
+        }
+    }
+
+    /**
+     * Drops the statistics of all instruments
+     */
+    void clear() {
+        for (int i = 0; i < writtenSize; i++) {
+            int id = writtenIds[i];
+            counts[id] = 0;
+            positions[id] = 0;
+        }
+        writtenSize = 0;
+        for (RankingHeap ranking : rankings) {
+            ranking.clear();
+        }
+    }
+
+    /**
+     * Sets the statistics of an instrument, a count of zero drops them
+     */
+    void put(int id, double sum, long count, double min, double max) {
+        if (count == 0) {
+            remove(id);
+            return;
+        }
+        sums[id] = sum;
+        counts[id] = count;
+        mins[id] = min;
+        maxs[id] = max;
+        if (positions[id] == 0) {
+            writtenIds[writtenSize++] = id;
+            positions[id] = writtenSize;
+        }
+        rankings[Ranking.COUNT.ordinal()].set(id, count);
+        rankings[Ranking.RANGE.ordinal()].set(id, max - min);
+        rankings[Ranking.AVG.ordinal()].set(id, sum / count);
+    }
+
+    /**
+     * Sets the statistics of an instrument to the ones it has in another table that is not being written
+     */
+    void copy(int id, StatisticsTable other) {
+        if (id < other.counts.length) {
+            put(id, other.sums[id], other.counts[id], other.mins[id], other.maxs[id]);
+        } else {
+            remove(id);
+        }
+    }
+
+    private void remove(int id) {
+        int position = positions[id] - 1;
+        if (position < 0) {
+            return;
+        }
+        counts[id] = 0;
+        positions[id] = 0;
+        for (RankingHeap ranking : rankings) {
+            ranking.remove(id);
+        }
+        int last = writtenIds[--writtenSize];
+        if (last != id) {
+            writtenIds[position] = last;
+            positions[last] = position + 1;
+        }
+    }
+
+    /**
+     * Completes the write, computing the overall statistics from the ones of all instruments
+     */
+    void endWrite() {
+        total.sum = 0;
+        total.count = 0;
+        total.min = 0;
+        total.max = 0;
+        for (int i = 0; i < writtenSize; i++) {
+            int id = writtenIds[i];
+            total.merge(sums[id], counts[id], mins[id], maxs[id]);
+        }
+        version++;
+    }
+
+    /**
+     * Compares the statistics of two tables that are not being written
+     *
+     * @return {@code true} if both tables hold the same statistics
+     */
+    boolean sameAs(StatisticsTable other) {
+        // The overall statistics follow from the ones of the instruments, up to the rounding of the
+        // sum, which depends on the order the instruments have been written in
+        if (writtenSize != other.writtenSize || total.count != other.total.count) {
+            return false;
+        }
+        for (int i = 0; i < writtenSize; i++) {
+            int id = writtenIds[i];
+            if (id >= other.counts.length || counts[id] != other.counts[id] || sums[id] != other.sums[id]
+                    || mins[id] != other.mins[id] || maxs[id] != other.maxs[id]) {
+                return false;
+            }
+        }
+        // Every id of this table has statistics in the other one, which has as many ids
+        return true;
+    }
+
+    /**
+     * Starts an optimistic read, pass the result to {@link #validate(long)} after reading
+     */
+    long startRead() {
+        return version;
+    }
+
+    /**
+     * @return {@code true} if the table has not been written since the read has started,
+     * otherwise the values read have to be discarded
+     */
+    boolean validate(long readVersion) {
+        VarHandle.loadLoadFence();
+        return (readVersion & 1) == 0 && version == readVersion;
+    }
+
+    /**
+     * Reads the statistics of an instrument, the result is only valid if {@link #validate(long)} succeeds
+     *
+     * @return statistics of the instrument, {@code null} if it has no data
+     */
+    TickerStatistics read(int id) {
+        long[] counts = this.counts;
+        double[] sums = this.sums;
+        double[] mins = this.mins;
+        double[] maxs = this.maxs;
+        if (id >= counts.length || id >= sums.length || id >= mins.length || id >= maxs.length) {
+            return null;
+        }
+        long count = counts[id];
+        if (count <= 0) {
+            return null;
+        }
+        return TickerStatistics.ofSum(sums[id], maxs[id], mins[id], count);
+    }
+
+    /**
+     * Reads the ids of the highest ranked instruments, the result is only valid if {@link #validate(long)} succeeds
+     *
+     * @param ids receives the ids, highest ranked first, at least {@code limit} long
+     * @return number of ids read
+     */
+    int rank(Ranking ranking, int limit, int[] ids) {
+        return rankings[ranking.ordinal()].top(limit, ids);
+    }
+
+    /**
+     * Reads the highest ranked instruments with their statistics from the published table,
+     * retrying with the table published next if it is written while being read
+     *
+     * @param published table currently published for the readers
+     */
+    static List<StatisticsUpdate> readRanking(Supplier<StatisticsTable> published, Ranking ranking, int limit,
+                                              InstrumentRegistry registry) {
+        int[] ids = new int[limit];
+        TickerStatistics[] statistics = new TickerStatistics[limit];
+        while (true) {
+            StatisticsTable table = published.get();
+            long version = table.startRead();
+            int size = table.rank(ranking, limit, ids);
+            for (int i = 0; i < size; i++) {
+                statistics[i] = table.read(ids[i]);
+            }
+            if (table.validate(version)) {
+                List<StatisticsUpdate> ranked = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    // Instruments with statistics are not retired
+                    ranked.add(new StatisticsUpdate(registry.nameOf(ids[i]), statistics[i]));
+                }
+                return ranked;
+            }
+        }
+    }
+
+    /**
+     * Reads the overall statistics, the result is only valid if {@link #validate(long)} succeeds
+     */
+    TickerStatistics readTotal() {
+        return total.toTickerStatistics();
+    }
+}
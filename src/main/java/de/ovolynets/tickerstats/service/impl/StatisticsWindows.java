@@ -0,0 +1,197 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sliding windows the statistics are served for, ordered by length, and the tiers of time slots
+ * they are served from.
+ * <p>
+ * Tier 0 has slots of the configured slot size and serves all windows up to the default one, so
+ * the default window keeps the expiry precision of one slot. Longer windows are served from
+ * coarser tiers, whose slots are the slot size times a power of ten, chosen so that a window
+ * spans at least {@value #MIN_SLOTS_PER_WINDOW} slots. A window starts at the beginning of the slot
+ * its start falls into, so it may include up to one slot of older ticks; windows of tier 0 therefore
+ * have to span at least {@value #MIN_SLOTS_PER_FINE_WINDOW} slots. Every tier keeps its slots for the longest
+ * window it serves, and the slots that leave a tier are rolled up into the next coarser one, so
+ * a window is the sum of all finer tiers and the newest slots of its own tier. The memory and the
+ * rebuild cost therefore grow with the number of slots of the tiers, not with the length of the
+ * windows.
+ */
+class StatisticsWindows {
+
+    private static final int MIN_SLOTS_PER_WINDOW = 30;
+    private static final int MIN_SLOTS_PER_FINE_WINDOW = 10;
+    private static final int TIER_FACTOR = 10;
+
+    // Window lengths in ascending order
+    private final int[] windowMillis;
+    // -1 for the windows other than the default one, see withoutDefault
+    private final int defaultWindow;
+    private final int[] tierOfWindow;
+    private final WindowSlots[] tiers;
+
+    StatisticsWindows(List<Duration> windows, Duration defaultWindow, int slotMillis) {
+        this(windows.stream().mapToInt(StatisticsWindows::toMillis).sorted().distinct().toArray(),
+                toMillis(defaultWindow), true, slotMillis);
+        if (this.defaultWindow < 0) {
+            throw new IllegalArgumentException("Default window " + defaultWindow + " is not one of the windows " + windows);
+        }
+    }
+
+    // Windows up to fineMillis keep the slot size, the window of fineMillis is the default one if it is included
+    private StatisticsWindows(int[] windowMillis, int fineMillis, boolean includesDefault, int slotMillis) {
+        this.windowMillis = windowMillis;
+        if (windowMillis.length > 0 && windowMillis[0] <= fineMillis
+                && windowMillis[0] < (long) MIN_SLOTS_PER_FINE_WINDOW * slotMillis) {
+            throw new IllegalArgumentException("Window of " + windowMillis[0] + " ms spans less than "
+                    + MIN_SLOTS_PER_FINE_WINDOW + " slots of " + slotMillis + " ms, use a longer window or smaller slots");
+        }
+        this.defaultWindow = includesDefault ? Arrays.binarySearch(windowMillis, fineMillis) : -1;
+
+        // Tier of every window as a power of ten of the slot size, renumbered to the tiers in use afterwards
+        int[] exponents = new int[windowMillis.length];
+        for (int window = 0; window < windowMillis.length; window++) {
+            if (windowMillis[window] > fineMillis) {
+                long tierSlotMillis = slotMillis;
+                while (tierSlotMillis * TIER_FACTOR * MIN_SLOTS_PER_WINDOW <= windowMillis[window]) {
+                    tierSlotMillis *= TIER_FACTOR;
+                    exponents[window]++;
+                }
+            }
+        }
+        this.tierOfWindow = new int[windowMillis.length];
+        List<WindowSlots> tiers = new ArrayList<>();
+        for (int window = 0; window < windowMillis.length; window++) {
+            boolean longestOfTier = window + 1 == windowMillis.length || exponents[window + 1] != exponents[window];
+            tierOfWindow[window] = tiers.size();
+            if (longestOfTier) {
+                int tierSlotMillis = (int) (slotMillis * Math.pow(TIER_FACTOR, exponents[window]));
+                tiers.add(new WindowSlots(windowMillis[window], tierSlotMillis));
+            }
+        }
+        this.tiers = tiers.toArray(new WindowSlots[0]);
+    }
+
+    /**
+     * Returns the windows other than the default one, on the same tiers as here: windows shorter than
+     * the default one keep the slot size, longer ones the slots they have here. The index of a window
+     * there is {@link #indexWithoutDefault(int)}.
+     *
+     * @return the other windows, none if there is only the default window
+     */
+    StatisticsWindows withoutDefault() {
+        int[] others = new int[windowMillis.length - 1];
+        for (int window = 0, other = 0; window < windowMillis.length; window++) {
+            if (window != defaultWindow) {
+                others[other++] = windowMillis[window];
+            }
+        }
+        return new StatisticsWindows(others, windowMillis[defaultWindow], false, tiers[0].slotMillis());
+    }
+
+    /**
+     * @return index of a window other than the default one among the windows of {@link #withoutDefault()}
+     */
+    int indexWithoutDefault(int window) {
+        return window < defaultWindow ? window : window - 1;
+    }
+
+    /**
+     * @param windows comma-separated durations, e.g. {@code 10s,60s,5m}
+     */
+    static StatisticsWindows fromProperties(String windows, String defaultWindow, int slotMillis) {
+        return new StatisticsWindows(parseAll(windows), parse(defaultWindow), slotMillis);
+    }
+
+    /**
+     * @param windows comma-separated durations, e.g. {@code 10s,60s,5m}
+     */
+    static List<Duration> parseAll(String windows) {
+        List<Duration> durations = new ArrayList<>();
+        for (String window : windows.split(",")) {
+            durations.add(parse(window));
+        }
+        return durations;
+    }
+
+    /**
+     * Parses a window in the format of the configuration, e.g. {@code 500ms}, {@code 10s}, {@code 5m} or {@code 1h}
+     */
+    static Duration parse(String window) {
+        return DurationStyle.SIMPLE.parse(window.trim());
+    }
+
+    /**
+     * @return index of the window, or -1 if statistics are not served for it
+     */
+    int indexOf(Duration window) {
+        if (window.isNegative() || window.toMillis() > Integer.MAX_VALUE) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(windowMillis, (int) window.toMillis());
+        return index >= 0 ? index : -1;
+    }
+
+    int count() {
+        return windowMillis.length;
+    }
+
+    /**
+     * @return index of the default window, -1 for the windows {@link #withoutDefault() without it}
+     */
+    int defaultWindow() {
+        return defaultWindow;
+    }
+
+    int windowMillis(int window) {
+        return windowMillis[window];
+    }
+
+    int longestMillis() {
+        return windowMillis[windowMillis.length - 1];
+    }
+
+    int tierCount() {
+        return tiers.length;
+    }
+
+    int tierOf(int window) {
+        return tierOfWindow[window];
+    }
+
+    WindowSlots tier(int tier) {
+        return tiers[tier];
+    }
+
+    /**
+     * @return the finest tier that still keeps ticks with the given timestamp, the coarsest one for older ticks
+     */
+    int tierOfTimestamp(long timestamp, long now) {
+        for (int tier = 0; tier < tiers.length - 1; tier++) {
+            if (timestamp >= now - tiers[tier].windowMillis()) {
+                return tier;
+            }
+        }
+        return tiers.length - 1;
+    }
+
+    List<Duration> windows() {
+        List<Duration> windows = new ArrayList<>();
+        for (int millis : windowMillis) {
+            windows.add(Duration.ofMillis(millis));
+        }
+        return windows;
+    }
+
+    private static int toMillis(Duration window) {
+        if (window.isNegative() || window.isZero() || window.toMillis() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Window must be positive and shorter than 24 days: " + window);
+        }
+        return (int) window.toMillis();
+    }
+}
@@ -0,0 +1,31 @@
+package de.ovolynets.tickerstats.service.impl;
+
+/**
+ * Helpers to spread writers over independent stripes of state, in the spirit of the cells of
+ * {@link java.util.concurrent.atomic.LongAdder}. A thread always writes to the same stripe,
+ * so with at least as many stripes as cores the stripe locks are practically uncontended.
+ */
+final class Stripes {
+
+    private Stripes() {}
+
+    /**
+     * @param configured configured number of stripes, 0 or less for one stripe per available core
+     * @return number of stripes rounded up to a power of two
+     */
+    static int count(int configured) {
+        int stripes = configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+        int rounded = Integer.highestOneBit(stripes);
+        return rounded == stripes ? stripes : rounded << 1;
+    }
+
+    /**
+     * @param stripes number of stripes, a power of two
+     * @return stripe of the current thread
+     */
+    static int ofCurrentThread(int stripes) {
+        long id = Thread.currentThread().getId();
+        // Thread ids are sequential, mixing in the higher bits only helps for very long-lived applications
+        return (int) (id ^ (id >>> 16)) & (stripes - 1);
+    }
+}
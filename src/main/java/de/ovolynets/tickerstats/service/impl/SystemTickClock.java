@@ -0,0 +1,28 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall clock of the system, with a single timer thread
+ */
+final class SystemTickClock implements TickClock {
+
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(1);
+
+    @Override
+    public long millis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis) {
+        timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
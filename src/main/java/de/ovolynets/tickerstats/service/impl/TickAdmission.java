@@ -0,0 +1,123 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.service.OverloadedException;
+import de.ovolynets.tickerstats.service.TickBatch;
+import de.ovolynets.tickerstats.service.TickerService;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which ticks reach the windows and which calls adding ticks are shed, with the limits of
+ * {@link AdmissionOptions}.
+ * <p>
+ * Memory does not grow with the ticks, which are folded into the aggregates of their slot, but with
+ * the instruments: every instrument with an id has its aggregates in every slot, its sketches and its
+ * bars. Ticks are therefore rejected when they are too far in the future, where they would keep a slot
+ * ahead of the window busy, and when they are of a new instrument while {@code maxInstruments} have an
+ * id. Ticks of known instruments are still admitted at the cap, so the statistics of the instruments
+ * that are traded stay complete and new instruments get a place once idle ones are retired. Ticks
+ * older than the longest window do not take a place, the windows reject them anyway. Ticks of
+ * instruments longer than {@link TickerService#MAX_INSTRUMENT_LENGTH} are always rejected, callers
+ * validate them already, but nothing they cannot journal may reach the windows.
+ * <p>
+ * Calls are shed before they add anything, so a shed call can be retried as a whole: while more than
+ * {@code maxConcurrentIngests} calls are adding ticks, the ingest queue of the service, and while the
+ * last completed refresh started more than {@code maxRefreshLagMillis} ago, i.e. writes outpace the
+ * refresh. Calls in flight are counted in a {@link LongAdder}, so that admitted calls do not contend
+ * on a shared counter; the limit may therefore be exceeded by the calls admitted at the same time.
+ */
+class TickAdmission {
+
+    private final InstrumentRegistry registry;
+    private final ServiceMetrics metrics;
+    private final long longestWindowMillis;
+    private final long maxFutureSkewMillis;
+    private final int maxInstruments;
+    private final int maxConcurrentIngests;
+    private final long maxRefreshLagMillis;
+    private final Duration retryAfter;
+    private final LongAdder ingestsInFlight = new LongAdder();
+
+    TickAdmission(AdmissionOptions options, InstrumentRegistry registry, long longestWindowMillis,
+                  ServiceMetrics metrics) {
+        this.registry = registry;
+        this.metrics = metrics;
+        this.longestWindowMillis = longestWindowMillis;
+        this.maxFutureSkewMillis = options.getMaxFutureSkewMillis() > 0 ? options.getMaxFutureSkewMillis() : Long.MAX_VALUE;
+        this.maxInstruments = options.getMaxInstruments() > 0 ? options.getMaxInstruments() : Integer.MAX_VALUE;
+        this.maxConcurrentIngests = options.getMaxConcurrentIngests();
+        this.maxRefreshLagMillis = options.getMaxRefreshLagMillis();
+        this.retryAfter = Duration.ofMillis(options.getRetryAfterMillis());
+        metrics.trackIngests(ingestsInFlight);
+    }
+
+    /**
+     * @return whether the tick may be added to the windows, rejected ticks are counted
+     */
+    boolean admits(String instrument, long timestamp, long now) {
+        if (instrument.length() > TickerService.MAX_INSTRUMENT_LENGTH) {
+            metrics.tickInvalid();
+            return false;
+        }
+        if (timestamp - now > maxFutureSkewMillis) {
+            metrics.tickTooFarAhead();
+            return false;
+        }
+        if (maxInstruments < Integer.MAX_VALUE && timestamp >= now - longestWindowMillis
+                && registry.register(instrument, now, maxInstruments) == InstrumentRegistry.UNKNOWN) {
+            metrics.tickOverInstrumentCap();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the batch itself if all of its ticks are admitted, otherwise a new batch with the admitted ones
+     */
+    TickBatch admitted(TickBatch batch, long now) {
+        int rejected = 0;
+        while (rejected < batch.size() && admits(batch.getInstrument(rejected), batch.getTimestamp(rejected), now)) {
+            rejected++;
+        }
+        if (rejected == batch.size()) {
+            return batch;
+        }
+        // Rejections are rare, the copy is only made for a batch that has one
+        TickBatch admitted = new TickBatch(batch.size());
+        for (int i = 0; i < rejected; i++) {
+            admitted.add(batch.getInstrument(i), batch.getPrice(i), batch.getTimestamp(i));
+        }
+        for (int i = rejected + 1; i < batch.size(); i++) {
+            if (admits(batch.getInstrument(i), batch.getTimestamp(i), now)) {
+                admitted.add(batch.getInstrument(i), batch.getPrice(i), batch.getTimestamp(i));
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Admits a call that is about to add ticks, to be followed by {@link #exit()} once it is done
+     *
+     * @param lastRefresh clock reading at the start of the last completed refresh
+     * @throws OverloadedException if the call is shed
+     */
+    void enter(long now, long lastRefresh) {
+        if (maxRefreshLagMillis > 0 && now - lastRefresh > maxRefreshLagMillis) {
+            metrics.ingestShed(OverloadedException.Reason.REFRESH_LAGGING);
+            throw new OverloadedException("Statistics have not been refreshed for " + (now - lastRefresh) + " ms",
+                    OverloadedException.Reason.REFRESH_LAGGING, retryAfter);
+        }
+        ingestsInFlight.increment();
+        if (maxConcurrentIngests > 0 && ingestsInFlight.sum() > maxConcurrentIngests) {
+            ingestsInFlight.decrement();
+            metrics.ingestShed(OverloadedException.Reason.TOO_MANY_INGESTS);
+            throw new OverloadedException("More than " + maxConcurrentIngests + " calls are adding ticks",
+                    OverloadedException.Reason.TOO_MANY_INGESTS, retryAfter);
+        }
+    }
+
+    void exit() {
+        ingestsInFlight.decrement();
+    }
+}
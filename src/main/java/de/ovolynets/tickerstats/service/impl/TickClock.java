@@ -0,0 +1,37 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import java.io.Closeable;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Time the service runs on: the clock ticks are admitted and expired against, and the timer of the
+ * scheduled refresh. The system clock follows the wall clock, a {@link ManualTickClock} is moved by
+ * its owner, e.g. through the event time of a replay, so that refreshes and expiry follow the ticks.
+ */
+public interface TickClock extends Closeable {
+
+    /**
+     * @return system clock with a timer thread of its own, closed along with the service
+     */
+    static TickClock system() {
+        return new SystemTickClock();
+    }
+
+    /**
+     * @return current time in milliseconds since the epoch
+     */
+    long millis();
+
+    /**
+     * Runs the task once the clock has advanced by the delay
+     *
+     * @throws RejectedExecutionException if the clock has been closed
+     */
+    void schedule(Runnable task, long delayMillis);
+
+    /**
+     * Stops the timer, tasks that have not run yet are dropped
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,64 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+
+/**
+ * Durable log of accepted ticks used to restore the sliding window after a restart
+ */
+public interface TickJournal extends Closeable {
+
+    /**
+     * Journal that keeps nothing, used when persistence is disabled
+     */
+    TickJournal NONE = new TickJournal() {
+        @Override
+        public void append(String instrument, double price, long timestamp, long now) {
+        }
+
+        @Override
+        public void appendAll(TickBatch batch, long expiredBefore, long now) {
+        }
+
+        @Override
+        public void replay(long expiredBefore, Consumer<TickBatch> sink) {
+        }
+
+        @Override
+        public void dropExpired(long expiredBefore) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * Appends a tick, which has already been added to the windows
+     *
+     * @throws RuntimeException if the tick cannot be journaled, e.g. an {@link java.io.UncheckedIOException}
+     */
+    void append(String instrument, double price, long timestamp, long now);
+
+    /**
+     * Appends all ticks of the batch with a timestamp not older than {@code expiredBefore}. On a
+     * failure the ticks before the failing one have been journaled.
+     */
+    void appendAll(TickBatch batch, long expiredBefore, long now);
+
+    /**
+     * Passes all journaled ticks with a timestamp not older than {@code expiredBefore} to the sink,
+     * in batches. The batch is reused, the sink must not keep it.
+     */
+    void replay(long expiredBefore, Consumer<TickBatch> sink);
+
+    /**
+     * Drops the parts of the journal that only hold ticks older than {@code expiredBefore}
+     */
+    void dropExpired(long expiredBefore);
+
+    @Override
+    void close();
+}
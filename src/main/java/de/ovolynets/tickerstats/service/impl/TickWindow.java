@@ -0,0 +1,237 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+
+import java.util.function.Consumer;
+
+/**
+ * Sliding window of tick data kept as a fixed ring of time slots. Every slot covers
+ * {@code slotMillis} of time and holds partial aggregates (sum, min, max, count) per instrument
+ * for the ticks that fall into it, so the memory footprint is bounded by the number of slots
+ * and instruments, not by the number of distinct timestamps. Instruments are identified by their
+ * id in the {@link InstrumentRegistry} and the aggregates are primitive arrays, so once the slots
+ * have grown to the number of instruments, adding a tick allocates nothing.
+ * <p>
+ * A ring position is reused as soon as the slot it holds has left the window: eviction is
+ * a reset of the expired slot rather than a removal of individual entries. Windows of the coarser
+ * tiers of {@link StatisticsWindows} receive the expired slots of the next finer one on eviction.
+ * See {@link WindowSlots} for how timestamps map to slots.
+ */
+class TickWindow {
+
+    private final WindowSlots windowSlots;
+    private final InstrumentRegistry registry;
+    private final Slot[] slots;
+    // Window the expired slots are rolled up into, null if they are dropped
+    private final TickWindow coarser;
+    // Set when a ring position has been taken over before its slot was evicted, see takeOverwritten()
+    private volatile boolean overwritten;
+
+    TickWindow(WindowSlots windowSlots, InstrumentRegistry registry) {
+        this(windowSlots, registry, null);
+    }
+
+    TickWindow(WindowSlots windowSlots, InstrumentRegistry registry, TickWindow coarser) {
+        this.windowSlots = windowSlots;
+        this.registry = registry;
+        this.coarser = coarser;
+        this.slots = new Slot[windowSlots.ringSize()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Adds a tick to the slot its timestamp belongs to.
+     *
+     * @return {@code false} if the tick is outside of the window or too far in the future
+     * to be kept in the ring, {@code true} otherwise
+     */
+    boolean add(String instrument, double price, long timestamp, long now) {
+        long slotIndex = windowSlots.slotOf(timestamp, now);
+        if (slotIndex == WindowSlots.REJECTED) {
+            return false;
+        }
+        int id = registry.register(instrument, now);
+        Slot slot = slots[windowSlots.position(slotIndex)];
+        synchronized (slot) {
+            if (!claim(slot, slotIndex)) {
+                return false;
+            }
+            slot.aggregates.add(id, price);
+        }
+        return true;
+    }
+
+    /**
+     * Adds all ticks of the batch. Consecutive ticks of the same slot are added under a single lock
+     *
+     * @return number of ticks that have been added
+     */
+    int addAll(TickBatch batch, long now) {
+        return addAll(batch, Long.MAX_VALUE, now);
+    }
+
+    /**
+     * Adds the ticks of the batch with timestamps before {@code newerBound}, the newer ones are
+     * kept by a finer tier
+     *
+     * @return number of ticks that have been added
+     */
+    int addAll(TickBatch batch, long newerBound, long now) {
+        int added = 0;
+        int i = 0;
+        while (i < batch.size()) {
+            long slotIndex = slotOf(batch.getTimestamp(i), newerBound, now);
+            if (slotIndex == WindowSlots.REJECTED) {
+                i++;
+                continue;
+            }
+            int runEnd = i + 1;
+            while (runEnd < batch.size() && slotOf(batch.getTimestamp(runEnd), newerBound, now) == slotIndex) {
+                runEnd++;
+            }
+            Slot slot = slots[windowSlots.position(slotIndex)];
+            synchronized (slot) {
+                if (claim(slot, slotIndex)) {
+                    for (int j = i; j < runEnd; j++) {
+                        slot.aggregates.add(registry.register(batch.getInstrument(j), now), batch.getPrice(j));
+                    }
+                    added += runEnd - i;
+                }
+            }
+            i = runEnd;
+        }
+        return added;
+    }
+
+    private long slotOf(long timestamp, long newerBound, long now) {
+        return timestamp < newerBound ? windowSlots.slotOf(timestamp, now) : WindowSlots.REJECTED;
+    }
+
+    /**
+     * Resets all slots that are no longer inside the window, after rolling them up into the
+     * coarser window, if there is one
+     *
+     * @return number of partial aggregates the reset slots held that have been dropped rather than rolled up
+     */
+    int evict(long now) {
+        long oldestLiveSlot = windowSlots.oldestLiveSlot(now);
+        int evicted = 0;
+        for (Slot slot : slots) {
+            synchronized (slot) {
+                if (slot.index < oldestLiveSlot && !slot.aggregates.isEmpty()) {
+                    if (coarser == null || !coarser.merge(windowSlots.slotStart(slot.index), slot.aggregates, now)) {
+                        evicted += slot.aggregates.size();
+                    }
+                    slot.reset(Slot.EMPTY);
+                }
+            }
+        }
+        return evicted;
+    }
+
+    // Merges the aggregates of a slot of a finer window that starts at the given time into the
+    // slot covering it, or further up if that one has left the window already
+    private boolean merge(long start, InstrumentAggregates aggregates, long now) {
+        long slotIndex = windowSlots.slotIndexOf(start);
+        if (slotIndex < windowSlots.oldestLiveSlot(now)) {
+            return coarser != null && coarser.merge(start, aggregates, now);
+        }
+        Slot slot = slots[windowSlots.position(slotIndex)];
+        synchronized (slot) {
+            if (!claim(slot, slotIndex)) {
+                return false;
+            }
+            for (int position = 0; position < aggregates.size(); position++) {
+                slot.aggregates.merge(aggregates.idAt(position), aggregates.sumAt(position),
+                        aggregates.countAt(position), aggregates.minAt(position), aggregates.maxAt(position));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Passes the partial aggregates of every slot inside the window to the consumer.
+     * The consumer is called while the slot is locked and must not keep the aggregates.
+     */
+    void forEachLive(long now, Consumer<InstrumentAggregates> consumer) {
+        forEachLive(windowSlots.oldestLiveSlot(now), Long.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Passes the partial aggregates of the slots from {@code fromSlot} (inclusive) to {@code toSlot}
+     * (exclusive) to the consumer, with the same restrictions as {@link #forEachLive(long, Consumer)}
+     */
+    void forEachLive(long fromSlot, long toSlot, Consumer<InstrumentAggregates> consumer) {
+        for (Slot slot : slots) {
+            synchronized (slot) {
+                if (slot.index >= fromSlot && slot.index < toSlot && !slot.aggregates.isEmpty()) {
+                    consumer.accept(slot.aggregates);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the partial aggregates of every slot that has received ticks (or a roll-up) since the
+     * last call to the consumer, with the same restrictions as {@link #forEachLive(long, Consumer)}.
+     * The consumer reads the instruments that changed, which are forgotten afterwards.
+     */
+    void forEachChanged(Consumer<InstrumentAggregates> consumer) {
+        for (Slot slot : slots) {
+            synchronized (slot) {
+                if (slot.aggregates.changedSize() > 0) {
+                    consumer.accept(slot.aggregates);
+                    slot.aggregates.clearChanged();
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a slot has been reset for a newer one before it was evicted since the last call, e.g.
+     * because the refresh has not run for longer than the ring covers. Its instruments cannot be told
+     * from the ones of the slots that have been modified or have left a window.
+     */
+    boolean takeOverwritten() {
+        if (!overwritten) {
+            return false;
+        }
+        overwritten = false;
+        return true;
+    }
+
+    private boolean claim(Slot slot, long slotIndex) {
+        if (slot.index != Slot.EMPTY && slot.index < slotIndex && !slot.aggregates.isEmpty()) {
+            overwritten = true;
+        }
+        return slot.claim(slotIndex);
+    }
+
+    private static class Slot {
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        // Slot index (timestamp divided by the slot size) the ring position currently holds
+        private long index = EMPTY;
+        private final InstrumentAggregates aggregates = new InstrumentAggregates();
+
+        // Makes the ring position hold the given slot, resetting an older slot that has already
+        // left the window. Fails if the position has been taken over by a newer slot in the meantime
+        private boolean claim(long slotIndex) {
+            if (index == slotIndex) {
+                return true;
+            }
+            if (index > slotIndex) {
+                return false;
+            }
+            reset(slotIndex);
+            return true;
+        }
+
+        private void reset(long newIndex) {
+            index = newIndex;
+            aggregates.clear();
+        }
+    }
+}
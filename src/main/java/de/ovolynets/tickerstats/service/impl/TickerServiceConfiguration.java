@@ -0,0 +1,65 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TickerServiceConfiguration {
+
+    @Bean
+    public TickerServiceOptions tickerServiceOptions(@Value("${index-update-period-ms:500}") int indexUpdatePeriodMillis,
+                                                     @Value("${index-update-min-period-ms:100}") int indexUpdateMinPeriodMillis,
+                                                     @Value("${index-update-max-period-ms:1000}") int indexUpdateMaxPeriodMillis,
+                                                     @Value("${index-update-busy-ticks:10000}") long indexUpdateBusyTicks,
+                                                     @Value("${sliding-window-slot-ms:1000}") int slotMillis,
+                                                     @Value("${statistics-mode:periodic}") String statisticsMode,
+                                                     @Value("${write-stripes:0}") int writeStripes,
+                                                     @Value("${instrument-retention-ms:300000}") long instrumentRetentionMillis,
+                                                     @Value("${statistics-windows:60s}") String statisticsWindows,
+                                                     @Value("${default-statistics-window:60s}") String defaultWindow,
+                                                     QuantileOptions quantileOptions,
+                                                     HistoryOptions historyOptions,
+                                                     AdmissionOptions admissionOptions,
+                                                     TickJournal journal,
+                                                     TickClock clock) {
+        return TickerServiceOptions.builder()
+                .adaptiveRefresh(indexUpdatePeriodMillis, indexUpdateMinPeriodMillis, indexUpdateMaxPeriodMillis,
+                        indexUpdateBusyTicks)
+                .slotMillis(slotMillis)
+                .statisticsMode(StatisticsMode.fromProperty(statisticsMode))
+                .writeStripes(writeStripes)
+                .instrumentRetentionMillis(instrumentRetentionMillis)
+                .windows(StatisticsWindows.parseAll(statisticsWindows), StatisticsWindows.parse(defaultWindow))
+                .quantiles(quantileOptions)
+                .history(historyOptions)
+                .admission(admissionOptions)
+                .journal(journal)
+                .clock(clock)
+                .build();
+    }
+
+    @Bean
+    public QuantileOptions quantileOptions(@Value("${quantiles-enabled:false}") boolean enabled,
+                                           @Value("${quantile-relative-accuracy:0.01}") double relativeAccuracy,
+                                           @Value("${quantile-max-bins:512}") int maxBins) {
+        return enabled ? QuantileOptions.enabled(relativeAccuracy, maxBins) : QuantileOptions.DISABLED;
+    }
+
+    @Bean
+    public HistoryOptions historyOptions(@Value("${history-enabled:false}") boolean enabled,
+                                         @Value("${history-minute-bars:1440}") int minuteBars,
+                                         @Value("${history-hour-bars:0}") int hourBars) {
+        return enabled ? HistoryOptions.enabled(minuteBars, hourBars) : HistoryOptions.DISABLED;
+    }
+
+    @Bean
+    public AdmissionOptions admissionOptions(@Value("${admission-max-future-skew-ms:5000}") long maxFutureSkewMillis,
+                                             @Value("${admission-max-instruments:0}") int maxInstruments,
+                                             @Value("${admission-max-concurrent-ingests:0}") int maxConcurrentIngests,
+                                             @Value("${admission-max-refresh-lag-ms:10000}") long maxRefreshLagMillis,
+                                             @Value("${admission-retry-after-ms:1000}") long retryAfterMillis) {
+        return AdmissionOptions.limited(maxFutureSkewMillis, maxInstruments, maxConcurrentIngests, maxRefreshLagMillis,
+                retryAfterMillis);
+    }
+}
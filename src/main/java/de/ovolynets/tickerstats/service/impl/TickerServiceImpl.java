@@ -1,165 +1,303 @@
 package de.ovolynets.tickerstats.service.impl;
 
-import de.ovolynets.tickerstats.controller.Tick;
+import de.ovolynets.tickerstats.controller.StatisticsUpdate;
 import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.BarCursor;
+import de.ovolynets.tickerstats.service.InvalidHistoryRequestException;
+import de.ovolynets.tickerstats.service.InvalidQuantilesException;
+import de.ovolynets.tickerstats.service.InvalidRankingException;
+import de.ovolynets.tickerstats.service.Ranking;
+import de.ovolynets.tickerstats.service.TickBatch;
 import de.ovolynets.tickerstats.service.TickerService;
+import de.ovolynets.tickerstats.service.UnknownWindowException;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.time.ZonedDateTime;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
 
 @Service
 public class TickerServiceImpl implements TickerService {
 
     private final Logger logger = LoggerFactory.getLogger(TickerService.class);
 
-    private static final int SLIDING_WINDOW_MS = 60 * 1_000;
+    // Most instruments a ranking returns
+    static final int MAX_RANKING_LIMIT = 1_000;
 
-    // Database of input data, each millisecond corresponds to one entry.
-    // Initial capacity is set large enough as twice the expected "useful" data of the past 60 seconds
-    // to avoid unnecessary but expected expansion of the underlying data structure
-    // "Useless" data older than 60 seconds would be wiped out by the scheduled job of index rebuild
-    private final Map<Long, Map<String, Double>> priceByDateTime = new ConcurrentHashMap<>(2 * SLIDING_WINDOW_MS);
+    // Database of input data together with the statistics derived from it. The windows are kept
+    // as fixed rings of time slots with partial aggregates per instrument, so memory is bounded
+    // by the number of slots and instruments, no matter how many distinct timestamps arrive.
+    // Depending on the mode, statistics are either rebuilt by the scheduled job of index rebuild
+    // or maintained incrementally on every update
+    private final StatisticsEngine engine;
 
-    // Sorted set of available datapoints for easy removal of data older than 60 seconds
-    // while rebuilding the statistics index
-    private final Set<Long> dateTimeRecordsQueue = Collections.synchronizedSortedSet(new TreeSet<>());
+    // Windows statistics are served for, ticks are kept for the longest one
+    private final StatisticsWindows windows;
+    private final int longestWindowMillis;
 
-    // Frequently updated cache for the general statistics
-    private TickerStatistics totalStatistics = new TickerStatistics();
-    // Frequently updated cache for the statistics per instrument
-    private final Map<String, TickerStatistics> statisticsIndexByInstrument = new ConcurrentHashMap<>();
+    // Sketches of the prices for quantile requests, null if quantiles are not enabled
+    private final PriceQuantiles quantiles;
 
-    public TickerServiceImpl(@Value("${index-update-period-ms:500}") int indexUpdatePeriodMillis) {
-        // Schedule statistics updates in regular intervals
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        scheduler.scheduleAtFixedRate(this::rebuildStatisticsIndex, 0, indexUpdatePeriodMillis, TimeUnit.MILLISECONDS);
+    // Bars of the prices beyond the windows, null if history is not enabled
+    private final PriceHistory history;
+
+    // Dictionary of instrument names to the dense ids the window state is indexed by
+    private final InstrumentRegistry registry;
+
+    // Durable log of accepted ticks, replayed on startup to restore the window
+    private final TickJournal journal;
+
+    private final ServiceMetrics metrics;
+
+    // Limits of the ticks that reach the windows and of the calls that add them
+    private final TickAdmission admission;
+
+    // Time ticks are admitted, expired and refreshed against, and the timer of the refresh
+    private final TickClock clock;
+    private final RefreshSchedule refreshSchedule;
+    // Period of the next refresh and accepted ticks at the start of the last one, only used by the scheduler thread
+    private long refreshPeriodMillis;
+    private long acceptedAtRefresh;
+
+    /**
+     * Creates a service from its options, it closes their clock along with itself
+     */
+    @Autowired
+    public TickerServiceImpl(TickerServiceOptions options, MeterRegistry meterRegistry) {
+        clock = options.clock();
+        int stripeCount = Stripes.count(options.writeStripes());
+        windows = options.windows();
+        longestWindowMillis = windows.longestMillis();
+        // Retired instruments must not have data left in any window, nor bars in the history
+        HistoryOptions historyOptions = options.historyOptions();
+        long historyMillis = historyOptions.isEnabled() ? historyOptions.horizonMillis() + 2L * longestWindowMillis : 0;
+        registry = new InstrumentRegistry(Math.max(Math.max(options.instrumentRetentionMillis(), 2L * longestWindowMillis),
+                historyMillis));
+        engine = createEngine(options.statisticsMode(), windows, registry, stripeCount);
+        quantiles = options.quantileOptions().isEnabled()
+                ? new PriceQuantiles(windows, registry, stripeCount, options.quantileOptions())
+                : null;
+        history = historyOptions.isEnabled() ? new PriceHistory(registry, historyOptions, longestWindowMillis) : null;
+        refreshSchedule = options.refreshSchedule();
+        logger.info("Statistics are computed in {} mode with {} write stripes for the windows {}, quantiles: {}, "
+                        + "history: {}, admission: {}, refreshed {}",
+                options.statisticsMode(), stripeCount, windows.windows(), options.quantileOptions(), historyOptions,
+                options.admissionOptions(), refreshSchedule);
+        metrics = new ServiceMetrics(meterRegistry, engine, registry, clock::millis);
+        admission = new TickAdmission(options.admissionOptions(), registry, longestWindowMillis, metrics);
+
+        // Restore the ticks of the window that are still valid before accepting new ones
+        journal = options.journal();
+        long now = currentTimeMillis();
+        journal.replay(now - longestWindowMillis, (batch) -> {
+            engine.addAll(batch, now);
+            if (quantiles != null) {
+                quantiles.addAll(batch, now);
+            }
+            if (history != null) {
+                history.addAll(batch, now);
+            }
+        });
+        // Schedule statistics updates (or expiry of old data in the incremental mode) in intervals
+        // that follow the load, see refreshAndReschedule
+        refreshPeriodMillis = refreshSchedule.periodMillis();
+        clock.schedule(this::refreshAndReschedule, 0);
     }
 
     @Override
-    public boolean addTick(Tick tick) {
-        long now = ZonedDateTime.now().toInstant().toEpochMilli();
-        if (tick.getTimestamp() < now - SLIDING_WINDOW_MS) {
+    public boolean addTick(String instrument, double price, long timestamp) {
+        long start = System.nanoTime();
+        long now = currentTimeMillis();
+        if (!admission.admits(instrument, timestamp, now)) {
             return false;
         }
-        Map<String, Double> pricesAtDateTime = priceByDateTime.computeIfAbsent(
-                tick.getTimestamp(),
-                (ignored) -> new HashMap<>());
-        pricesAtDateTime.put(tick.getInstrument(), tick.getPrice());
-        dateTimeRecordsQueue.add(tick.getTimestamp());
+        boolean added = engine.add(instrument, price, timestamp, now);
+        if (added) {
+            if (quantiles != null) {
+                quantiles.add(instrument, price, timestamp, now);
+            }
+            if (history != null) {
+                history.add(instrument, price, timestamp);
+            }
+            try {
+                journal.append(instrument, price, timestamp, now);
+            } catch (RuntimeException e) {
+                journalFailed(e);
+            }
+        }
+        metrics.tickAdded(added, start);
+        return added;
+    }
+
+    @Override
+    public int addTicks(TickBatch batch) {
+        long start = System.nanoTime();
+        long now = currentTimeMillis();
+        TickBatch ticks = admission.admitted(batch, now);
+        int added = engine.addAll(ticks, now);
+        if (added > 0) {
+            if (quantiles != null) {
+                quantiles.addAll(ticks, now);
+            }
+            if (history != null) {
+                history.addAll(ticks, now);
+            }
+            try {
+                journal.appendAll(ticks, now - longestWindowMillis, now);
+            } catch (RuntimeException e) {
+                journalFailed(e);
+            }
+        }
+        metrics.ticksAdded(added, ticks.size() - added, start);
+        return added;
+    }
+
+    // The ticks are in the windows already, failing the call would make its client retry and count them twice
+    private void journalFailed(RuntimeException e) {
+        metrics.journalFailed();
+        logger.error("Ticks have been added, but could not be journaled, they will be lost on a restart", e);
+    }
+
+    @Override
+    public void admitIngest() {
+        admission.enter(currentTimeMillis(), metrics.lastRefresh());
+    }
 
-        // A possible design change: remove elder elements and rebuild statistics on every update
-        // Might create a large overhead but might be necessary if we need an updated statistics
-        // as frequent as possible
-//        removeEldestElements();
-//        rebuildStatisticsIndex(now);
-        return true;
+    @Override
+    public void releaseIngest() {
+        admission.exit();
     }
 
     @Override
     public TickerStatistics getStatistics() {
-        return totalStatistics;
+        return engine.getStatistics(currentTimeMillis());
+    }
+
+    @Override
+    public TickerStatistics getStatistics(Duration window) {
+        return engine.getStatistics(indexOf(window), currentTimeMillis());
     }
 
     @Override
     public Optional<TickerStatistics> getStatistics(String instrumentId) {
-        return Optional.ofNullable(statisticsIndexByInstrument.get(instrumentId));
-    }
-
-    private void removeEldestElements() {
-        long now = ZonedDateTime.now().toInstant().toEpochMilli();
-        // Synchronize on the treeset to avoid concurrent modifications
-        // of the data while we traverse it with an iterator
-        synchronized (dateTimeRecordsQueue) {
-            Iterator<Long> iterator = dateTimeRecordsQueue.iterator();
-            while (iterator.hasNext()) {
-                Long next = iterator.next();
-                if (next > now - SLIDING_WINDOW_MS) {
-                    break;
-                }
-                Map<String, Double> removed = priceByDateTime.remove(next);
-                iterator.remove();
-                logger.trace("Removing entries with timestamp {}: {}", next, removed);
+        return engine.getStatistics(instrumentId, currentTimeMillis());
+    }
+
+    @Override
+    public Optional<TickerStatistics> getStatistics(String instrumentId, Duration window) {
+        return engine.getStatistics(instrumentId, indexOf(window), currentTimeMillis());
+    }
+
+    @Override
+    public Optional<double[]> getQuantiles(String instrumentId, Duration window, double[] quantiles) {
+        if (this.quantiles == null) {
+            throw new InvalidQuantilesException("Quantiles are not enabled (quantiles-enabled)");
+        }
+        for (double quantile : quantiles) {
+            if (!(quantile >= 0 && quantile <= 1)) {
+                throw new InvalidQuantilesException("Quantiles must be between 0 and 1: " + quantile);
             }
         }
+        int index = window == null ? windows.defaultWindow() : indexOf(window);
+        return this.quantiles.quantiles(instrumentId, index, quantiles, currentTimeMillis());
     }
 
-    private void rebuildStatisticsIndex() {
-        // Update the index/cache of the statistics. First remove irrelevant entries
-        // that are older than 60 seconds. After that, calculate the statistics
-        // while locking the data HashMap for concurrent modifications.
-        // Based on the expected traffic, this solution might not scale when the updates
-        // come too frequently. In such case, we might need to chunk updates and execute
-        // multiple updates at once instead of one-by-one, e.g. by implementing an async
-        // queue solution.
-
-        logger.info("Statistics index will be rebuilt");
-        removeEldestElements();
-
-        Map<String, TickerAccumulator> indexOfPricesByInstrument = new HashMap<>();
-        TickerAccumulator totalIndexAccumulator = new TickerAccumulator();
-
-        // We need to synchronize on the map once again to avoid concurrent modifications
-        // while we calculate the statistics
-        synchronized (priceByDateTime) {
-            for (Map<String, Double> entry: priceByDateTime.values()) {
-                for (String instrument : entry.keySet()) {
-                    double price = entry.get(instrument);
-                    TickerAccumulator accumulator = indexOfPricesByInstrument.computeIfAbsent(instrument, (ignored) -> new TickerAccumulator());
-                    accumulator.sum += price;
-                    accumulator.max = Math.max(price, accumulator.max);
-                    accumulator.min = accumulator.min > 0
-                            ? Math.min(price, accumulator.min)
-                            : price;
-                    accumulator.count += 1;
-
-                    totalIndexAccumulator.sum += price;
-                    totalIndexAccumulator.max = Math.max(price, totalIndexAccumulator.max);
-                    totalIndexAccumulator.min = totalIndexAccumulator.min > 0
-                            ? Math.min(price, totalIndexAccumulator.min)
-                            : price;
-                    totalIndexAccumulator.count += 1;
-                }
-            }
+    @Override
+    public List<StatisticsUpdate> getRankings(Ranking ranking, Duration window, int limit) {
+        if (limit < 1 || limit > MAX_RANKING_LIMIT) {
+            throw new InvalidRankingException("The limit must be between 1 and " + MAX_RANKING_LIMIT + ": " + limit);
+        }
+        int index = window == null ? windows.defaultWindow() : indexOf(window);
+        return engine.getRankings(ranking, index, limit, currentTimeMillis());
+    }
+
+    @Override
+    public Optional<BarCursor> getHistory(String instrumentId, long from, long to, Duration resolution) {
+        if (history == null) {
+            throw new InvalidHistoryRequestException("History is not enabled (history-enabled)");
+        }
+        return history.bars(instrumentId, resolution, from, to, currentTimeMillis());
+    }
+
+    @Override
+    public long getGeneration() {
+        return engine.generation(currentTimeMillis());
+    }
+
+    @Override
+    public List<Duration> getWindows() {
+        return windows.windows();
+    }
+
+    private int indexOf(Duration window) {
+        int index = windows.indexOf(window);
+        if (index < 0) {
+            throw new UnknownWindowException("Statistics are served for the windows " + windows.windows() + " only");
         }
-        totalStatistics = totalIndexAccumulator.toTickerStatistics();
+        return index;
+    }
+
+    /**
+     * Stops the scheduled rebuild of the statistics and closes the clock
+     */
+    @PreDestroy
+    public void close() {
+        clock.close();
+    }
 
-        statisticsIndexByInstrument.clear();
-        for (Map.Entry<String, TickerAccumulator> entry: indexOfPricesByInstrument.entrySet()) {
-            TickerAccumulator accumulator = entry.getValue();
-            TickerStatistics tickerStatistics = accumulator.toTickerStatistics();
-            statisticsIndexByInstrument.put(entry.getKey(), tickerStatistics);
+    // Runs a refresh and schedules the next one. Every refresh picks the period of the next one from
+    // the ticks accepted during its own period. Refreshes that would have started while this one was
+    // still running are skipped instead of being run back to back, the next one starts at the
+    // following multiple of the period. Periods are on the clock of the service, a manual clock does
+    // not move during a refresh, so none are skipped
+    private void refreshAndReschedule() {
+        long start = clock.millis();
+        long accepted = metrics.acceptedTicks();
+        long ticks = accepted - acceptedAtRefresh;
+        acceptedAtRefresh = accepted;
+        try {
+            rebuildStatisticsIndex();
+        } catch (RuntimeException e) {
+            // Must not stop the schedule, the next refresh starts over
+            logger.error("Refresh of the statistics failed", e);
         }
-        logger.info("Statistics index rebuild finished");
-    }
-
-    // Private helper accumulator to ease statistics calculations
-    private static class TickerAccumulator {
-        private double sum;
-        private double max;
-        private double min;
-        private long count;
-
-        private TickerStatistics toTickerStatistics() {
-            return new TickerStatistics(
-                    count > 0 ? sum / count : 0,
-                    max,
-                    min,
-                    count
-            );
+        refreshPeriodMillis = refreshSchedule.nextPeriodMillis(refreshPeriodMillis, ticks);
+        long elapsedMillis = Math.max(0, clock.millis() - start);
+        long skipped = elapsedMillis / refreshPeriodMillis;
+        metrics.refreshScheduled(refreshPeriodMillis, skipped);
+        try {
+            clock.schedule(this::refreshAndReschedule, (skipped + 1) * refreshPeriodMillis - elapsedMillis);
+        } catch (RejectedExecutionException e) {
+            // Closed in the meantime
         }
     }
+
+    private void rebuildStatisticsIndex() {
+        long start = System.nanoTime();
+        long now = currentTimeMillis();
+        int evicted = engine.refresh(now);
+        if (quantiles != null) {
+            quantiles.refresh(now);
+        }
+        journal.dropExpired(now - longestWindowMillis);
+        int retired = registry.retireIdle(now);
+        metrics.refreshed(now, evicted, retired, start);
+    }
+
+    static StatisticsEngine createEngine(StatisticsMode statisticsMode, StatisticsWindows windows,
+                                         InstrumentRegistry registry, int stripeCount) {
+        return statisticsMode == StatisticsMode.INCREMENTAL
+                ? new IncrementalStatisticsEngine(windows, registry, stripeCount)
+                : new PeriodicStatisticsEngine(windows, registry, stripeCount);
+    }
+
+    private long currentTimeMillis() {
+        return clock.millis();
+    }
 }
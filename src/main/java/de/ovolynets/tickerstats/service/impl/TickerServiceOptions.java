@@ -0,0 +1,202 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Everything a {@link TickerServiceImpl} is created with, built by {@link #builder()}. Options that
+ * are not set keep the defaults of the configuration: statistics for a window of 60 seconds in
+ * 1 second slots, rebuilt every 500 ms, without quantiles, history, admission limits or journal,
+ * on the system clock.
+ */
+public final class TickerServiceOptions {
+
+    private static final Duration DEFAULT_WINDOW = Duration.ofSeconds(60);
+
+    private final RefreshSchedule refreshSchedule;
+    private final StatisticsMode statisticsMode;
+    private final int writeStripes;
+    private final long instrumentRetentionMillis;
+    private final StatisticsWindows windows;
+    private final QuantileOptions quantileOptions;
+    private final HistoryOptions historyOptions;
+    private final AdmissionOptions admissionOptions;
+    private final TickJournal journal;
+    private final TickClock clock;
+
+    private TickerServiceOptions(Builder builder) {
+        // Statistics of an idle service are refreshed every maximum period, so a shorter lag would shed every call
+        long maxRefreshLagMillis = builder.admissionOptions.getMaxRefreshLagMillis();
+        if (maxRefreshLagMillis > 0 && maxRefreshLagMillis <= builder.refreshSchedule.maxPeriodMillis()) {
+            throw new IllegalArgumentException("The maximum refresh lag of " + maxRefreshLagMillis
+                    + " ms must be longer than the longest refresh period of " + builder.refreshSchedule.maxPeriodMillis()
+                    + " ms");
+        }
+        this.refreshSchedule = builder.refreshSchedule;
+        this.statisticsMode = builder.statisticsMode;
+        this.writeStripes = builder.writeStripes;
+        this.instrumentRetentionMillis = builder.instrumentRetentionMillis;
+        this.windows = new StatisticsWindows(builder.windows, builder.defaultWindow, builder.slotMillis);
+        this.quantileOptions = builder.quantileOptions;
+        this.historyOptions = builder.historyOptions;
+        this.admissionOptions = builder.admissionOptions;
+        this.journal = builder.journal;
+        // Only created once it is known to be needed, the system clock runs a thread
+        this.clock = builder.clock != null ? builder.clock : TickClock.system();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    RefreshSchedule refreshSchedule() {
+        return refreshSchedule;
+    }
+
+    StatisticsMode statisticsMode() {
+        return statisticsMode;
+    }
+
+    int writeStripes() {
+        return writeStripes;
+    }
+
+    long instrumentRetentionMillis() {
+        return instrumentRetentionMillis;
+    }
+
+    StatisticsWindows windows() {
+        return windows;
+    }
+
+    QuantileOptions quantileOptions() {
+        return quantileOptions;
+    }
+
+    HistoryOptions historyOptions() {
+        return historyOptions;
+    }
+
+    AdmissionOptions admissionOptions() {
+        return admissionOptions;
+    }
+
+    TickJournal journal() {
+        return journal;
+    }
+
+    TickClock clock() {
+        return clock;
+    }
+
+    public static final class Builder {
+        private RefreshSchedule refreshSchedule = RefreshSchedule.fixed(500);
+        private int slotMillis = 1_000;
+        private StatisticsMode statisticsMode = StatisticsMode.PERIODIC;
+        private int writeStripes;
+        private long instrumentRetentionMillis = 300_000;
+        private List<Duration> windows = List.of(DEFAULT_WINDOW);
+        private Duration defaultWindow = DEFAULT_WINDOW;
+        private QuantileOptions quantileOptions = QuantileOptions.DISABLED;
+        private HistoryOptions historyOptions = HistoryOptions.DISABLED;
+        private AdmissionOptions admissionOptions = AdmissionOptions.UNLIMITED;
+        private TickJournal journal = TickJournal.NONE;
+        private TickClock clock;
+
+        private Builder() {
+        }
+
+        /**
+         * Refreshes the statistics every period
+         */
+        public Builder refreshPeriodMillis(long periodMillis) {
+            this.refreshSchedule = RefreshSchedule.fixed(periodMillis);
+            return this;
+        }
+
+        /**
+         * Refreshes the statistics in periods that follow the load, see {@link RefreshSchedule}
+         */
+        public Builder adaptiveRefresh(long periodMillis, long minPeriodMillis, long maxPeriodMillis, long busyTicks) {
+            this.refreshSchedule = RefreshSchedule.adaptive(periodMillis, minPeriodMillis, maxPeriodMillis, busyTicks);
+            return this;
+        }
+
+        /**
+         * Size of the finest time slots, which is the expiry precision of the windows up to the default one
+         */
+        public Builder slotMillis(int slotMillis) {
+            this.slotMillis = slotMillis;
+            return this;
+        }
+
+        public Builder statisticsMode(StatisticsMode statisticsMode) {
+            this.statisticsMode = statisticsMode;
+            return this;
+        }
+
+        /**
+         * @param writeStripes stripes of the write path, 0 for one per available processor
+         */
+        public Builder writeStripes(int writeStripes) {
+            this.writeStripes = writeStripes;
+            return this;
+        }
+
+        /**
+         * @param instrumentRetentionMillis time without ticks after which an instrument is retired, at least twice
+         *                                  the longest window
+         */
+        public Builder instrumentRetentionMillis(long instrumentRetentionMillis) {
+            this.instrumentRetentionMillis = instrumentRetentionMillis;
+            return this;
+        }
+
+        /**
+         * @param windows windows statistics are served for, ticks are kept for the longest one
+         * @param defaultWindow window served if a request does not name one, one of the windows
+         */
+        public Builder windows(List<Duration> windows, Duration defaultWindow) {
+            this.windows = List.copyOf(windows);
+            this.defaultWindow = defaultWindow;
+            return this;
+        }
+
+        public Builder quantiles(QuantileOptions quantileOptions) {
+            this.quantileOptions = quantileOptions;
+            return this;
+        }
+
+        public Builder history(HistoryOptions historyOptions) {
+            this.historyOptions = historyOptions;
+            return this;
+        }
+
+        public Builder admission(AdmissionOptions admissionOptions) {
+            this.admissionOptions = admissionOptions;
+            return this;
+        }
+
+        public Builder journal(TickJournal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        /**
+         * @param clock clock the service runs on, closed along with the service
+         */
+        public Builder clock(TickClock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the windows do not fit the slots, see {@link StatisticsWindows}, or
+         *                                  the maximum refresh lag of the admission is not longer than the longest
+         *                                  refresh period
+         */
+        public TickerServiceOptions build() {
+            return new TickerServiceOptions(this);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package de.ovolynets.tickerstats.service.impl;
+
+/**
+ * Division of the sliding window into time slots of a fixed size, shared by the window stores.
+ * Slot {@code i} covers the timestamps {@code [i * slotMillis, (i + 1) * slotMillis)}. A slot is
+ * inside the window as long as any part of it is, so the expiry precision is one slot.
+ * <p>
+ * Stores keep the slots in a ring that is twice as long as the window so that ticks with
+ * timestamps slightly in the future have a slot, too.
+ */
+class WindowSlots {
+
+    static final long REJECTED = Long.MIN_VALUE;
+
+    private final int windowMillis;
+    private final int slotMillis;
+    private final int ringSize;
+
+    WindowSlots(int windowMillis, int slotMillis) {
+        if (slotMillis <= 0 || slotMillis > windowMillis) {
+            throw new IllegalArgumentException("Slot size must be positive and not larger than the window: " + slotMillis);
+        }
+        this.windowMillis = windowMillis;
+        this.slotMillis = slotMillis;
+        // One extra slot for the oldest slot that is only partially inside the window
+        int windowSlots = (windowMillis + slotMillis - 1) / slotMillis + 1;
+        this.ringSize = 2 * windowSlots;
+    }
+
+    /**
+     * Returns the slot a tick with the given timestamp belongs to, or {@link #REJECTED} if the
+     * timestamp is older than the window or too far in the future to be kept in the ring
+     */
+    long slotOf(long timestamp, long now) {
+        if (timestamp < now - windowMillis) {
+            return REJECTED;
+        }
+        long slotIndex = slotIndexOf(timestamp);
+        if (slotIndex >= oldestLiveSlot(now) + ringSize) {
+            return REJECTED;
+        }
+        return slotIndex;
+    }
+
+    long oldestLiveSlot(long now) {
+        return slotIndexOf(now - windowMillis);
+    }
+
+    long slotIndexOf(long timestamp) {
+        return Math.floorDiv(timestamp, slotMillis);
+    }
+
+    long slotStart(long slotIndex) {
+        return slotIndex * slotMillis;
+    }
+
+    int windowMillis() {
+        return windowMillis;
+    }
+
+    int slotMillis() {
+        return slotMillis;
+    }
+
+    int position(long slotIndex) {
+        return (int) Math.floorMod(slotIndex, (long) ringSize);
+    }
+
+    int ringSize() {
+        return ringSize;
+    }
+}
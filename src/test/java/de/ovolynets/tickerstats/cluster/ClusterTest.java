@@ -0,0 +1,169 @@
+package de.ovolynets.tickerstats.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.ovolynets.tickerstats.TickerServiceApp;
+import de.ovolynets.tickerstats.controller.BatchResult;
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Nodes of a cluster on localhost, each in an application context of its own
+ */
+public class ClusterTest {
+
+    private static final int INSTRUMENTS = 100;
+    private static final long AWAIT_MS = 10_000;
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        contexts.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    public void partitionsInstrumentsAndRebalancesWhenNodesJoinAndLeave() throws Exception {
+        String nodeA = node(freePort());
+        String nodeB = node(freePort());
+        String nodeC = node(freePort());
+        start(nodeA, nodeA + "," + nodeB);
+        start(nodeB, nodeA + "," + nodeB);
+
+        // Every instrument gets two ticks through node A, which forwards the ones of node B and counts them apart
+        BatchResult posted = postTicks(nodeA, 100);
+        assertThat(posted.getForwarded()).isBetween(2L, 2L * INSTRUMENTS - 2);
+        assertThat(posted.getAccepted() + posted.getForwarded()).isEqualTo(2L * INSTRUMENTS);
+        await(() -> getStatistics(nodeB, "").getCount() == 2 * INSTRUMENTS);
+        assertInstrumentStatistics(nodeB, 2, 100.5);
+        assertThat(getPartial(nodeA).getCount()).isBetween(2L, 2L * INSTRUMENTS - 2);
+        // Not merged across the nodes, so not answered from the instruments of one node
+        assertThat(get(nodeA + "/api/rankings").statusCode()).isEqualTo(501);
+        assertThat(get(nodeA + "/api/history/INSTR0").statusCode()).isEqualTo(501);
+        assertThat(get(nodeA + "/api/statistics/INSTR0?quantiles=0.5").statusCode()).isEqualTo(501);
+
+        // Node C joins: new ticks of the instruments it takes over go to C, the older ones are still read from A and B
+        ConfigurableApplicationContext contextC = start(nodeC, nodeA + "," + nodeB + "," + nodeC);
+        ClusterView joined = changeNodes(nodeA, List.of(nodeA, nodeB, nodeC));
+        await(() -> getView(nodeB).getVersion() == joined.getVersion() && getView(nodeC).getVersion() == joined.getVersion());
+        postTicks(nodeC, 102);
+        await(() -> getStatistics(nodeA, "").getCount() == 3 * INSTRUMENTS);
+        assertInstrumentStatistics(nodeA, 3, 101);
+        assertInstrumentStatistics(nodeC, 3, 101);
+        long heldByC = getPartial(nodeC).getCount();
+        assertThat(heldByC).isBetween(1L, (long) INSTRUMENTS - 1);
+
+        // Node C leaves and is stopped: the ticks it held are gone, the rest is read from A and B without it
+        ClusterView left = changeNodes(nodeB, List.of(nodeA, nodeB));
+        await(() -> getView(nodeA).getVersion() == left.getVersion());
+        contextC.close();
+        assertThat(getStatistics(nodeA, "").getCount()).isEqualTo(3 * INSTRUMENTS - heldByC);
+
+        // Node B fails while still in the cluster, so overall statistics are not complete
+        contexts.get(1).close();
+        assertThat(get(nodeA + "/api/statistics").statusCode()).isEqualTo(503);
+    }
+
+    private BatchResult postTicks(String node, double price) throws IOException, InterruptedException {
+        long now = System.currentTimeMillis();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < INSTRUMENTS; i++) {
+            body.append(String.format("{\"instrument\": \"INSTR%d\", \"price\": %s, \"timestamp\": %d}%n", i, price, now));
+            if (price == 100) {
+                body.append(String.format("{\"instrument\": \"INSTR%d\", \"price\": %s, \"timestamp\": %d}%n", i, price + 1, now));
+            }
+        }
+        return read(http.send(HttpRequest.newBuilder(URI.create(node + "/api/ticks/batch"))
+                .header("Content-Type", "application/x-ndjson")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build(), HttpResponse.BodyHandlers.ofString()), BatchResult.class);
+    }
+
+    private void assertInstrumentStatistics(String node, long count, double avg) throws Exception {
+        for (int i = 0; i < INSTRUMENTS; i++) {
+            TickerStatistics statistics = getStatistics(node, "/INSTR" + i);
+            assertThat(statistics.getCount()).isEqualTo(count);
+            assertThat(statistics.getAvg()).isEqualTo(avg);
+        }
+    }
+
+    private TickerStatistics getStatistics(String node, String path) throws IOException, InterruptedException {
+        return read(get(node + "/api/statistics" + path), TickerStatistics.class);
+    }
+
+    private PartialStatistics getPartial(String node) throws IOException, InterruptedException {
+        return read(get(node + ClusterController.PARTIALS_PATH), PartialStatistics.class);
+    }
+
+    private ClusterView getView(String node) throws IOException, InterruptedException {
+        return read(get(node + "/api/cluster/nodes"), ClusterView.class);
+    }
+
+    private ClusterView changeNodes(String node, List<String> nodes) throws IOException, InterruptedException {
+        return read(http.send(HttpRequest.newBuilder(URI.create(node + "/api/cluster/nodes"))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(nodes)))
+                .build(), HttpResponse.BodyHandlers.ofString()), ClusterView.class);
+    }
+
+    private HttpResponse<String> get(String uri) throws IOException, InterruptedException {
+        return http.send(HttpRequest.newBuilder(URI.create(uri)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private <T> T read(HttpResponse<String> response, Class<T> type) throws IOException {
+        assertThat(response.statusCode()).as(response.body()).isEqualTo(200);
+        return objectMapper.readValue(response.body(), type);
+    }
+
+    private ConfigurableApplicationContext start(String self, String nodes) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(TickerServiceApp.class)
+                .properties("server.port=" + URI.create(self).getPort(),
+                        "cluster-enabled=true",
+                        "cluster-self=" + self,
+                        "cluster-nodes=" + nodes,
+                        "cluster-forward-linger-ms=5",
+                        "cluster-statistics-max-age-ms=1",
+                        "index-update-period-ms=20",
+                        "index-update-min-period-ms=10",
+                        "index-update-max-period-ms=20",
+                        "management.metrics.use-global-registry=false",
+                        "javamelody.enabled=false")
+                .run();
+        contexts.add(context);
+        return context;
+    }
+
+    private static String node(int port) {
+        return "http://localhost:" + port;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void await(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + AWAIT_MS;
+        while (!condition.call()) {
+            assertThat(System.currentTimeMillis()).as("Condition not met in time").isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package de.ovolynets.tickerstats.cluster;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ForwardedTicksTest {
+
+    @Test
+    public void encodesForwardedTicksLosslessly() {
+        TickBatch batch = new TickBatch(3);
+        batch.add("IBM.N", 140.5, 1_000);
+        batch.add("Ölpreis", 80, 2_000);
+        batch.add("", 0.1, Long.MAX_VALUE);
+
+        TickBatch decoded = ForwardedTicks.decode(ForwardedTicks.encode(batch));
+
+        assertThat(decoded.size()).isEqualTo(3);
+        for (int i = 0; i < 3; i++) {
+            assertThat(decoded.getInstrument(i)).isEqualTo(batch.getInstrument(i));
+            assertThat(decoded.getPrice(i)).isEqualTo(batch.getPrice(i));
+            assertThat(decoded.getTimestamp(i)).isEqualTo(batch.getTimestamp(i));
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedForwardedTicks() {
+        TickBatch batch = new TickBatch(1);
+        batch.add("IBM.N", 140.5, 1_000);
+        byte[] body = ForwardedTicks.encode(batch);
+
+        assertThatThrownBy(() -> ForwardedTicks.decode(Arrays.copyOf(body, body.length - 1)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ForwardedTicks.decode(new byte[2]))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
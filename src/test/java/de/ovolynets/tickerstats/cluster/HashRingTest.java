@@ -0,0 +1,58 @@
+package de.ovolynets.tickerstats.cluster;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HashRingTest {
+
+    private static final int INSTRUMENTS = 30_000;
+
+    private static final String NODE_A = "http://localhost:8081";
+    private static final String NODE_B = "http://localhost:8082";
+    private static final String NODE_C = "http://localhost:8083";
+
+    @Test
+    public void spreadsInstrumentsEvenlyOverTheNodes() {
+        HashRing ring = new HashRing(List.of(NODE_A, NODE_B, NODE_C), 128);
+
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < INSTRUMENTS; i++) {
+            owned.merge(ring.ownerOf("INSTR" + i), 1, Integer::sum);
+        }
+
+        assertThat(owned).containsOnlyKeys(NODE_A, NODE_B, NODE_C);
+        assertThat(owned.values()).allSatisfy((count) -> assertThat(count).isBetween(8_000, 12_000));
+    }
+
+    @Test
+    public void movesOnlyTheInstrumentsOfANodeThatJoins() {
+        HashRing before = new HashRing(List.of(NODE_A, NODE_B), 128);
+        HashRing after = new HashRing(List.of(NODE_A, NODE_B, NODE_C), 128);
+
+        int moved = 0;
+        for (int i = 0; i < INSTRUMENTS; i++) {
+            String instrument = "INSTR" + i;
+            if (!before.ownerOf(instrument).equals(after.ownerOf(instrument))) {
+                assertThat(after.ownerOf(instrument)).isEqualTo(NODE_C);
+                moved++;
+            }
+        }
+
+        assertThat(moved).isBetween(8_000, 12_000);
+    }
+
+    @Test
+    public void ownsInstrumentsTheSameWayOnEveryNode() {
+        HashRing ring = new HashRing(List.of(NODE_A, NODE_B, NODE_C), 128);
+        HashRing reordered = new HashRing(List.of(NODE_C, NODE_A, NODE_B), 128);
+
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(reordered.ownerOf("INSTR" + i)).isEqualTo(ring.ownerOf("INSTR" + i));
+        }
+    }
+}
@@ -4,13 +4,19 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -38,7 +44,122 @@ class APIControllerTest {
                 .contentType(MediaType.APPLICATION_JSON_VALUE)
                 .content(SAMPLE_CONTENT_MALFORMED))
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON))
-                .andExpect(status().isBadRequest());
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.instrument").value("Instrument must not be blank"));
+        mockMvc.perform(post("/api/ticks")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"instrument\": \" \", \"price\": -1, \"timestamp\": null}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.instrument").value("Instrument must not be blank"))
+                .andExpect(jsonPath("$.price").value("Price must be positive"))
+                .andExpect(jsonPath("$.timestamp").value("must not be null"));
+        mockMvc.perform(post("/api/ticks")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[" + SAMPLE_CONTENT + "]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.body").isString());
+        mockMvc.perform(post("/api/ticks")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"instrument\": \"KO\", \"price\": true, \"timestamp\": 1}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.body").isString());
+    }
+
+    @Test
+    void checkPostTickWithCoercedFields() throws Exception {
+        mockMvc.perform(post("/api/ticks")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("{\"source\": {\"feed\": 1}, \"instrument\": \"IBM.N\", \"price\": \"143.82\", "
+                        + "\"timestamp\": \"" + System.currentTimeMillis() + "\"}"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void checkPostBatchArray() throws Exception {
+        long now = System.currentTimeMillis();
+        String batch = "[" + tickJson("IBM.N", now) + ", " + tickJson("IBM.N", 1478192204000L) + ", "
+                + "{\"instrument\": \" \", \"price\": 1, \"timestamp\": " + now + "}]";
+        mockMvc.perform(post("/api/ticks/batch")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(batch))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(1))
+                .andExpect(jsonPath("$.forwarded").value(0))
+                .andExpect(jsonPath("$.stale").value(1))
+                .andExpect(jsonPath("$.invalid").value(1));
+    }
+
+    @Test
+    void checkPostBatchNdjson() throws Exception {
+        long now = System.currentTimeMillis();
+        String batch = tickJson("MSFT.O", now) + "\n" + tickJson("MSFT.O", now - 1) + "\n";
+        mockMvc.perform(post("/api/ticks/batch")
+                .contentType(APIController.APPLICATION_NDJSON_VALUE)
+                .content(batch))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.stale").value(0));
+    }
+
+    @Test
+    void checkSingleAndBatchAcceptTheSameTicks() throws Exception {
+        long now = System.currentTimeMillis();
+        String[] accepted = {
+                "{\"instrument\": \"ORCL.N\", \"price\": 1, \"timestamp\": " + now + ", \"source\": {\"feed\": [1]}}",
+                "{\"instrument\": 1301, \"price\": 1, \"timestamp\": " + now + "}",
+                "{\"instrument\": \"ORCL.N\", \"price\": \"1.5\", \"timestamp\": \"" + now + "\"}"
+        };
+        for (String tick : accepted) {
+            mockMvc.perform(post("/api/ticks")
+                    .contentType(MediaType.APPLICATION_JSON_VALUE)
+                    .content(tick))
+                    .andExpect(status().isOk());
+            mockMvc.perform(post("/api/ticks/batch")
+                    .contentType(MediaType.APPLICATION_JSON_VALUE)
+                    .content("[" + tick + "]"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.accepted").value(1))
+                    .andExpect(jsonPath("$.invalid").value(0));
+        }
+        String[] rejected = {
+                "{\"instrument\": [\"ORCL.N\"], \"price\": 1, \"timestamp\": " + now + "}",
+                "{\"instrument\": \"ORCL.N\", \"price\": true, \"timestamp\": " + now + "}",
+                "{\"instrument\": \"ORCL.N\", \"price\": -1, \"timestamp\": " + now + "}"
+        };
+        for (String tick : rejected) {
+            mockMvc.perform(post("/api/ticks")
+                    .contentType(MediaType.APPLICATION_JSON_VALUE)
+                    .content(tick))
+                    .andExpect(status().isBadRequest());
+            mockMvc.perform(post("/api/ticks/batch")
+                    .contentType(MediaType.APPLICATION_JSON_VALUE)
+                    .content("[" + tick + "]"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.accepted").value(0))
+                    .andExpect(jsonPath("$.invalid").value(1));
+        }
+    }
+
+    @Test
+    void checkPostBatchMalformed() throws Exception {
+        mockMvc.perform(post("/api/ticks/batch")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[" + SAMPLE_CONTENT + ", 42, [\"IBM.N\"]]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.stale").value(1))
+                .andExpect(jsonPath("$.invalid").value(2));
+
+        // The ticks before the malformed one have been added, the client resends the ticks after them only
+        long now = System.currentTimeMillis();
+        String batch = tickJson("NFLX.O", now) + "\n" + tickJson("NFLX.O", now) + "\n{\"instrument\": \"NFLX.O\", \"pri";
+        mockMvc.perform(post("/api/ticks/batch")
+                .contentType(APIController.APPLICATION_NDJSON_VALUE)
+                .content(batch))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.body").isString())
+                .andExpect(jsonPath("$.accepted").value(2))
+                .andExpect(jsonPath("$.stale").value(0))
+                .andExpect(jsonPath("$.invalid").value(0));
     }
 
     @Test
@@ -54,4 +175,131 @@ class APIControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    @Test
+    void checkStatisticsForWindow() throws Exception {
+        mockMvc.perform(get("/api/statistics").param("window", "5m"))
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/statistics/KO").param("window", "1h"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void checkUnknownWindow() throws Exception {
+        mockMvc.perform(get("/api/statistics").param("window", "7s"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.window").exists());
+        mockMvc.perform(get("/api/statistics").param("window", "soon"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void checkQuantiles() throws Exception {
+        mockMvc.perform(get("/api/statistics").param("quantiles", "0.5,0.99"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.quantiles").isMap());
+        mockMvc.perform(get("/api/statistics").param("quantiles", "1.5"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.quantiles").exists());
+        mockMvc.perform(get("/api/statistics"))
+                .andExpect(jsonPath("$.quantiles").doesNotExist());
+    }
+
+    @Test
+    void checkBulkStatistics() throws Exception {
+        long now = System.currentTimeMillis();
+        mockMvc.perform(post("/api/ticks")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(tickJson("AAPL.O", now)))
+                .andExpect(status().isOk());
+        // Statistics are rebuilt periodically
+        Thread.sleep(1_000);
+
+        mockMvc.perform(get("/api/statistics").param("ids", "AAPL.O,KO,AAPL.O"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(jsonPath("$.['AAPL.O'].count").value(1))
+                .andExpect(jsonPath("$.KO").value((Object) null));
+        mockMvc.perform(post("/api/statistics")
+                .param("window", "1h")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content("[\"AAPL.O\", \"KO\"]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.['AAPL.O'].max").value(143.82))
+                .andExpect(jsonPath("$.KO").value((Object) null));
+        mockMvc.perform(get("/api/statistics").param("ids", "KO").param("window", "7s"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void checkNotModified() throws Exception {
+        // Retried, as ticks of other tests may leave a window in between the polls
+        boolean notModified = false;
+        for (int attempt = 0; attempt < 10 && !notModified; attempt++) {
+            String etag = mockMvc.perform(get("/api/statistics"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+            notModified = mockMvc.perform(get("/api/statistics").header(HttpHeaders.IF_NONE_MATCH, etag))
+                    .andReturn().getResponse().getStatus() == HttpStatus.NOT_MODIFIED.value();
+        }
+        assertTrue(notModified);
+        mockMvc.perform(get("/api/statistics").header(HttpHeaders.IF_NONE_MATCH, "W/\"0-0\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void checkHistory() throws Exception {
+        long now = System.currentTimeMillis();
+        mockMvc.perform(post("/api/ticks")
+                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                .content(tickJson("NVDA.O", now)))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/history/NVDA.O").param("from", String.valueOf(now - 60_000)))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(jsonPath("$.instrument").value("NVDA.O"))
+                .andExpect(jsonPath("$.bars[0].open").value(143.82))
+                .andExpect(jsonPath("$.bars[0].count").value(1));
+        mockMvc.perform(get("/api/history/NVDA.O").param("resolution", "1h"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.bars[0].close").value(143.82));
+        mockMvc.perform(get("/api/history/KO"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/api/history/NVDA.O").param("resolution", "5s"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.history").exists());
+    }
+
+    @Test
+    void checkRankings() throws Exception {
+        mockMvc.perform(get("/api/rankings").param("by", "range").param("limit", "3"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(jsonPath("$").isArray());
+        mockMvc.perform(get("/api/rankings").param("by", "volume"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.rankings").exists());
+        mockMvc.perform(get("/api/rankings").param("limit", "0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.rankings").exists());
+    }
+
+    @Test
+    void checkSubscription() throws Exception {
+        mockMvc.perform(get("/api/subscriptions")
+                .param("instruments", "IBM.N,KO")
+                .param("window", "5m")
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted());
+        mockMvc.perform(get("/api/subscriptions")
+                .param("window", "7s")
+                .accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(status().isBadRequest());
+    }
+
+    private static String tickJson(String instrument, long timestamp) {
+        return "{\"instrument\": \"" + instrument + "\", \"price\": 143.82, \"timestamp\": " + timestamp + "}";
+    }
+
 }
@@ -0,0 +1,141 @@
+package de.ovolynets.tickerstats.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import de.ovolynets.tickerstats.service.TickerService;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TickParserTest {
+
+    private final TickParser parser = new TickParser(new JsonFactory());
+
+    @Test
+    void readsFieldsAsPrimitives() throws Exception {
+        Object[] tick = new Object[3];
+        boolean result = parser.read(body("{\"timestamp\": 1478192204000, \"price\": 143.82, \"instrument\": \"IBM.N\"}"),
+                (instrument, price, timestamp) -> {
+                    tick[0] = instrument;
+                    tick[1] = price;
+                    tick[2] = timestamp;
+                    return true;
+                });
+
+        assertThat(result).isTrue();
+        assertThat(tick).containsExactly("IBM.N", 143.82, 1478192204000L);
+    }
+
+    @Test
+    void returnsTheSameInstrumentForTheSameName() throws Exception {
+        String[] instruments = new String[2];
+        parser.read(body("{\"instrument\": \"KO\", \"price\": 1, \"timestamp\": 1}"), (instrument, price, timestamp) -> {
+            instruments[0] = instrument;
+            return true;
+        });
+        parser.read(body("{\"instrument\": \"KO\", \"price\": 2, \"timestamp\": 2}"), (instrument, price, timestamp) -> {
+            instruments[1] = instrument;
+            return true;
+        });
+
+        assertThat(instruments[1]).isSameAs(instruments[0]);
+    }
+
+    @Test
+    void reportsViolationsByField() {
+        assertThatThrownBy(() -> parser.read(body("{\"price\": -0.5, \"timestamp\": -1}"), (i, p, t) -> true))
+                .isInstanceOfSatisfying(InvalidTickException.class, (e) -> assertThat(e.getErrors())
+                        .containsEntry("instrument", Tick.BLANK_INSTRUMENT)
+                        .containsEntry("price", Tick.NEGATIVE_PRICE)
+                        .containsEntry("timestamp", Tick.NEGATIVE_TIMESTAMP));
+        assertThatThrownBy(() -> parser.read(body("{\"instrument\": \"KO\"}"), (i, p, t) -> true))
+                .isInstanceOfSatisfying(InvalidTickException.class, (e) -> assertThat(e.getErrors())
+                        .containsOnlyKeys("price", "timestamp")
+                        .containsEntry("price", Tick.MISSING));
+        assertThatThrownBy(() -> parser.read(body("{\"instrument\": \"KO\", \"price\": true, \"timestamp\": 1}"),
+                (i, p, t) -> true)).isInstanceOf(JsonParseException.class);
+        String longInstrument = "K".repeat(TickerService.MAX_INSTRUMENT_LENGTH + 1);
+        assertThatThrownBy(() -> parser.read(body("{\"instrument\": \"" + longInstrument + "\", \"price\": 1, \"timestamp\": 1}"),
+                (i, p, t) -> true)).isInstanceOfSatisfying(InvalidTickException.class, (e) -> assertThat(e.getErrors())
+                .containsOnlyKeys("instrument")
+                .containsEntry("instrument", Tick.LONG_INSTRUMENT));
+    }
+
+    @Test
+    void coercesFieldsAndSkipsUnknownOnes() throws Exception {
+        Object[] tick = new Object[3];
+        boolean result = parser.read(body("{\"instrument\": 42, \"price\": \"143.82\", \"timestamp\": \"1478192204000\","
+                        + " \"source\": {\"venue\": [\"XNYS\"]}, \"tags\": []}"),
+                (instrument, price, timestamp) -> {
+                    tick[0] = instrument;
+                    tick[1] = price;
+                    tick[2] = timestamp;
+                    return true;
+                });
+
+        assertThat(result).isTrue();
+        assertThat(tick).containsExactly("42", 143.82, 1478192204000L);
+    }
+
+    @Test
+    void reportsFieldsOfTheWrongTypeAsMalformed() {
+        assertThatThrownBy(() -> parser.read(body("{\"instrument\": \"KO\", \"price\": \"cheap\", \"timestamp\": 1}"),
+                (i, p, t) -> true)).isInstanceOf(JsonParseException.class).hasMessageContaining("'cheap' is not a price");
+        // Also when another field violates a constraint
+        assertThatThrownBy(() -> parser.read(body("{\"instrument\": [\"KO\"], \"price\": -1, \"timestamp\": 1}"),
+                (i, p, t) -> true)).isInstanceOf(JsonParseException.class).hasMessageContaining("Expected an instrument");
+        // A truncated value of an unknown field ends the tick rather than waiting for more input
+        assertThatThrownBy(() -> parser.read(body("{\"instrument\": \"KO\", \"source\": {\"venue\": ["),
+                (i, p, t) -> true)).isInstanceOf(JsonParseException.class);
+    }
+
+    @Test
+    void readsTheNextBodyAfterABrokenOne() throws Exception {
+        String tick = "{\"instrument\": \"KO\", \"price\": 1, \"timestamp\": 1}";
+        assertThatThrownBy(() -> parser.read(body("{\"instrument\": \"KO\", \"pri"), (i, p, t) -> true))
+                .isInstanceOf(JsonParseException.class);
+        assertThatThrownBy(() -> parser.read(body(""), (i, p, t) -> true)).isInstanceOf(JsonParseException.class);
+        // Content after the tick is ignored
+        assertThat(parser.<Boolean>read(body(tick + " {\"instrument\""), (i, p, t) -> true)).isTrue();
+        assertThat(parser.<Boolean>read(body(tick + "\n"), (i, p, t) -> true)).isTrue();
+        // Longer than the buffer of the thread
+        String padded = "{\"comment\": \"" + "x".repeat(10_000) + "\"," + tick.substring(1);
+        assertThat(parser.<Boolean>read(body(padded), (i, p, t) -> i.equals("KO"))).isTrue();
+        assertThat(parser.<Boolean>read(body(tick), (i, p, t) -> p == 1 && t == 1)).isTrue();
+    }
+
+    @Test
+    void convertsNumbersLikeTheJdk() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            String number;
+            switch (i % 4) {
+                case 0:
+                    // Prices with a few decimals
+                    number = random.nextInt(1_000_000) + "." + random.nextInt(10_000);
+                    break;
+                case 1:
+                    number = Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+                    break;
+                case 2:
+                    number = Long.toString(random.nextLong());
+                    break;
+                default:
+                    number = "-" + random.nextInt(100) + "." + Long.toString(Math.abs(random.nextLong())) + "e"
+                            + (random.nextInt(60) - 30);
+                    break;
+            }
+            char[] chars = ("  " + number + " ").toCharArray();
+            assertThat(TickFields.parseDouble(chars, 2, number.length())).as(number).isEqualTo(Double.parseDouble(number));
+        }
+    }
+
+    private static ByteArrayInputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,131 @@
+package de.ovolynets.tickerstats.feed;
+
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.TickBatch;
+import de.ovolynets.tickerstats.service.impl.TickerServiceImpl;
+import de.ovolynets.tickerstats.service.impl.TickerServiceOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BinaryTickServerTest {
+
+    private static final int INDEX_UPDATE_PERIOD_MS = 10;
+    private static final int SLOT_MS = 10;
+    private static final int MAX_FRAME_BYTES = 4_096;
+
+    private static final String INSTRUMENT1 = "IBM.N";
+    private static final String INSTRUMENT2 = "KO";
+
+    private TickerServiceImpl tickerService;
+    private MeterRegistry meterRegistry;
+    private BinaryTickServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        meterRegistry = new SimpleMeterRegistry();
+        tickerService = new TickerServiceImpl(TickerServiceOptions.builder()
+                .refreshPeriodMillis(INDEX_UPDATE_PERIOD_MS)
+                .slotMillis(SLOT_MS)
+                .writeStripes(2)
+                .build(), meterRegistry);
+        server = new BinaryTickServer(tickerService, new InetSocketAddress("localhost", 0), 2, MAX_FRAME_BYTES,
+                meterRegistry);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        tickerService.close();
+    }
+
+    @Test
+    public void appliesTicksWithTheValidationOfTheHttpApi() throws Exception {
+        long now = System.currentTimeMillis();
+        TickBatch batch = new TickBatch(8);
+        batch.add(INSTRUMENT1, 140, now);
+        batch.add(INSTRUMENT1, 144, now - 1_000);
+        batch.add(INSTRUMENT2, 12, now - 61_000);
+        batch.add(" ", 10, now);
+        batch.add(null, 10, now);
+        batch.add(INSTRUMENT2, -1, now);
+        batch.add(INSTRUMENT2, 10, -1);
+
+        try (BinaryTickClient client = new BinaryTickClient("localhost", server.getPort())) {
+            client.send(batch);
+            client.flush();
+
+            assertThat(client.getAccepted()).isEqualTo(2);
+            assertThat(client.getStale()).isEqualTo(1);
+            assertThat(client.getInvalid()).isEqualTo(4);
+        }
+
+        Thread.sleep(100);
+        TickerStatistics statistics = tickerService.getStatistics(INSTRUMENT1).orElseThrow();
+        assertThat(statistics.getCount()).isEqualTo(2);
+        assertThat(statistics.getAvg()).isEqualTo(142);
+        assertThat(tickerService.getStatistics(INSTRUMENT2)).isEmpty();
+    }
+
+    @Test
+    public void splitsBatchesIntoFramesWithinTheWindow() throws Exception {
+        long now = System.currentTimeMillis();
+        TickBatch batch = new TickBatch(1_000);
+        for (int i = 0; i < 1_000; i++) {
+            batch.add("INSTR" + (i % 10) + ".N", i, now);
+        }
+
+        // Several frames per batch, more frames than the window
+        try (BinaryTickClient client = new BinaryTickClient("localhost", server.getPort(), 4, 1_024)) {
+            for (int round = 0; round < 10; round++) {
+                client.send(batch);
+            }
+            client.flush();
+
+            assertThat(client.getAccepted()).isEqualTo(10_000);
+            assertThat(client.getStale() + client.getInvalid()).isZero();
+        }
+        assertThat(meterRegistry.get("tickerstats.feed.frames").counter().count()).isGreaterThan(10);
+
+        Thread.sleep(100);
+        assertThat(tickerService.getStatistics().getCount()).isEqualTo(10_000);
+    }
+
+    @Test
+    public void closesConnectionOnMalformedFrame() throws Exception {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+            ByteBuffer frame = ByteBuffer.allocate(16);
+            frame.putInt(MAX_FRAME_BYTES + 1).putInt(0).putShort((short) 0);
+            frame.flip();
+            channel.write(frame);
+
+            assertThat(channel.read(ByteBuffer.allocate(16))).isEqualTo(-1);
+        }
+        assertThat(meterRegistry.get("tickerstats.feed.rejected").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectsTicksBeyondTheEndOfTheFrame() throws Exception {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+            // Announces two ticks but carries one
+            ByteBuffer frame = ByteBuffer.allocate(64);
+            frame.putInt(0).putInt(7).putShort((short) 2)
+                    .putShort((short) 2).put("KO".getBytes()).putDouble(12).putLong(System.currentTimeMillis());
+            frame.putInt(0, frame.position() - 4);
+            frame.flip();
+            channel.write(frame);
+
+            assertThat(channel.read(ByteBuffer.allocate(16))).isEqualTo(-1);
+        }
+        assertThat(tickerService.getStatistics(INSTRUMENT2)).isEmpty();
+    }
+}
@@ -0,0 +1,164 @@
+package de.ovolynets.tickerstats.replay;
+
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.TickBatch;
+import de.ovolynets.tickerstats.service.impl.ManualTickClock;
+import de.ovolynets.tickerstats.service.impl.StatisticsMode;
+import de.ovolynets.tickerstats.service.impl.TickerServiceImpl;
+import de.ovolynets.tickerstats.service.impl.TickerServiceOptions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TickReplayTest {
+
+    private static final long START = 1_600_000_000_000L;
+    private static final String INSTRUMENT1 = "IBM.N";
+    private static final String INSTRUMENT2 = "KO";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ManualTickClock clock;
+    private TickerServiceImpl tickerService;
+
+    @Before
+    public void setUp() {
+        clock = new ManualTickClock(START);
+        // Incremental, so that snapshots are exact at their event time rather than as of the last refresh,
+        // with slots fine enough for ticks 50 ms inside a window to be told from those 50 ms outside
+        tickerService = new TickerServiceImpl(TickerServiceOptions.builder()
+                .refreshPeriodMillis(100)
+                .slotMillis(10)
+                .statisticsMode(StatisticsMode.INCREMENTAL)
+                .writeStripes(1)
+                .windows(List.of(Duration.ofSeconds(10), Duration.ofSeconds(60)), Duration.ofSeconds(60))
+                .clock(clock)
+                .build(), new SimpleMeterRegistry());
+    }
+
+    @After
+    public void tearDown() {
+        tickerService.close();
+    }
+
+    @Test
+    public void replaysARecordingInEventTime() throws Exception {
+        // Three minutes of a tick every 100 ms, at 100 for the first minute and at 200 afterwards
+        StringBuilder csv = new StringBuilder("instrument,price,timestamp\n");
+        for (int i = 0; i < 1_800; i++) {
+            csv.append(INSTRUMENT1).append(',').append(i < 600 ? 100 : 200).append(',').append(START + 50 + i * 100L)
+                    .append('\n');
+        }
+        csv.append(INSTRUMENT1).append(",-1,").append(START).append('\n');
+        Path file = folder.newFile("day.csv").toPath();
+        Files.writeString(file, csv);
+
+        List<ReplaySnapshot> snapshots = new ArrayList<>();
+        ReplayResult result;
+        try (RecordedTickReader reader = RecordedTickReader.open(file, RecordingFormat.CSV)) {
+            result = new TickReplay(tickerService, clock, 0, 60_000, 1_000).run(reader, snapshots::add);
+        }
+
+        assertThat(result.getTicks()).isEqualTo(1_800);
+        assertThat(result.getAccepted()).isEqualTo(1_800);
+        assertThat(result.getInvalid()).isEqualTo(1);
+        assertThat(result.getEventMillis()).isEqualTo(179_900);
+        assertThat(result.getTicksPerSecond()).isPositive();
+        assertThat(snapshots).extracting(ReplaySnapshot::getTime)
+                .containsExactly(START + 60_000, START + 120_000, START + 179_950);
+        assertStatistics(snapshots.get(0).getStatistics().get("10s"), 100, 100);
+        assertStatistics(snapshots.get(0).getStatistics().get("60s"), 600, 100);
+        assertStatistics(snapshots.get(1).getStatistics().get("60s"), 600, 200);
+        // The final snapshot is at the last tick, whose window starts at a tick, too
+        assertStatistics(snapshots.get(2).getStatistics().get("60s"), 601, 200);
+        assertThat(snapshots.get(2).getTicks()).isEqualTo(1_800);
+    }
+
+    @Test
+    public void replaysAtTheGivenSpeed() throws Exception {
+        Path file = folder.newFile("ticks.ndjson").toPath();
+        Files.writeString(file, "{\"instrument\": \"IBM.N\", \"price\": 140, \"timestamp\": " + START + "}\n"
+                + "{\"instrument\": \"IBM.N\", \"price\": 144, \"timestamp\": " + (START + 2_000) + "}\n");
+
+        ReplayResult result;
+        try (RecordedTickReader reader = RecordedTickReader.open(file, RecordingFormat.fromProperty("auto", file))) {
+            result = new TickReplay(tickerService, clock, 10, 0, 1_000).run(reader, (snapshot) -> {});
+        }
+
+        assertThat(result.getElapsedNanos()).isGreaterThanOrEqualTo(200_000_000L);
+        assertThat(result.getSpeedUp()).isLessThanOrEqualTo(10);
+        assertThat(tickerService.getStatistics(INSTRUMENT1).orElseThrow().getAvg()).isEqualTo(142);
+    }
+
+    @Test
+    public void readsTheSameTicksFromEveryFormat() throws IOException {
+        Path csv = folder.newFile("ticks.csv").toPath();
+        Files.writeString(csv, INSTRUMENT1 + ",140.5," + START + "\n\n" + INSTRUMENT2 + ",12," + (START + 1) + "\n"
+                + " ,10," + START + "\n");
+        Path ndjson = folder.newFile("ticks.ndjson").toPath();
+        Files.writeString(ndjson, "[{\"instrument\": \"IBM.N\", \"price\": 140.5, \"timestamp\": " + START + "},"
+                + "{\"instrument\": \"KO\", \"price\": 12, \"timestamp\": " + (START + 1) + "},"
+                + "{\"instrument\": \" \", \"price\": 10, \"timestamp\": " + START + "}]");
+        Path binary = folder.newFile("ticks.bin").toPath();
+        try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(binary))) {
+            writeFrame(output, 1, new String[]{INSTRUMENT1, INSTRUMENT2}, new double[]{140.5, 12},
+                    new long[]{START, START + 1});
+            writeFrame(output, 2, new String[]{" "}, new double[]{10}, new long[]{START});
+        }
+
+        for (Path file : List.of(csv, ndjson, binary)) {
+            try (RecordedTickReader reader = RecordedTickReader.open(file, RecordingFormat.fromProperty("auto", file))) {
+                TickBatch batch = new TickBatch(1);
+                List<String> ticks = new ArrayList<>();
+                while (!reader.isFinished()) {
+                    batch.clear();
+                    reader.readInto(batch);
+                    for (int i = 0; i < batch.size(); i++) {
+                        ticks.add(batch.getInstrument(i) + " " + batch.getPrice(i) + " " + batch.getTimestamp(i));
+                    }
+                }
+                assertThat(ticks).as(file.toString())
+                        .containsExactly(INSTRUMENT1 + " 140.5 " + START, INSTRUMENT2 + " 12.0 " + (START + 1));
+                assertThat(reader.getInvalid()).isEqualTo(1);
+            }
+        }
+    }
+
+    private static void writeFrame(DataOutputStream output, int sequence, String[] instruments, double[] prices,
+                                   long[] timestamps) throws IOException {
+        int length = 6;
+        for (String instrument : instruments) {
+            length += 18 + instrument.getBytes(StandardCharsets.UTF_8).length;
+        }
+        output.writeInt(length);
+        output.writeInt(sequence);
+        output.writeShort(instruments.length);
+        for (int i = 0; i < instruments.length; i++) {
+            byte[] instrument = instruments[i].getBytes(StandardCharsets.UTF_8);
+            output.writeShort(instrument.length);
+            output.write(instrument);
+            output.writeDouble(prices[i]);
+            output.writeLong(timestamps[i]);
+        }
+    }
+
+    private static void assertStatistics(TickerStatistics statistics, long count, double avg) {
+        assertThat(statistics.getCount()).isEqualTo(count);
+        assertThat(statistics.getAvg()).isEqualTo(avg);
+    }
+}
@@ -1,16 +1,35 @@
 package de.ovolynets.tickerstats.service;
 
+import de.ovolynets.tickerstats.controller.StatisticsUpdate;
 import de.ovolynets.tickerstats.controller.Tick;
 import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.impl.AdmissionOptions;
+import de.ovolynets.tickerstats.service.impl.ManualTickClock;
+import de.ovolynets.tickerstats.service.impl.QuantileOptions;
+import de.ovolynets.tickerstats.service.impl.StatisticsMode;
+import de.ovolynets.tickerstats.service.impl.TickJournal;
 import de.ovolynets.tickerstats.service.impl.TickerServiceImpl;
+import de.ovolynets.tickerstats.service.impl.TickerServiceOptions;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
-import java.time.ZonedDateTime;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
 
+@RunWith(Parameterized.class)
 public class TickerServiceTest {
 
     private static final double PRICE1 = 140;
@@ -26,28 +45,84 @@ public class TickerServiceTest {
     private static final String INSTRUMENT2 = "KO";
 
     private static final int INDEX_UPDATE_PERIOD_MS = 10;
-    private TickerService tickerService;
+    // Fine-grained slots so that expiry can be checked with a precision of a few milliseconds
+    private static final int SLOT_MS = 10;
+    private static final int WRITE_STRIPES = 4;
+    private static final long INSTRUMENT_RETENTION_MS = 300_000;
+    private static final long START = 1_600_000_000_000L;
+    // Time the refreshes scheduled on a manual clock take to catch up with the ticks
+    private static final long REFRESH_MS = 100;
+    private final StatisticsMode statisticsMode;
+    private ManualTickClock clock;
+    private TickerServiceImpl tickerService;
+    private MeterRegistry meterRegistry;
+
+    // Both modes have to produce the same statistics for the same scenarios
+    @Parameterized.Parameters(name = "{0}")
+    public static Object[] statisticsModes() {
+        return StatisticsMode.values();
+    }
+
+    public TickerServiceTest(StatisticsMode statisticsMode) {
+        this.statisticsMode = statisticsMode;
+    }
 
     @Before
     public void setUp() {
-        tickerService = new TickerServiceImpl(INDEX_UPDATE_PERIOD_MS);
+        meterRegistry = new SimpleMeterRegistry();
+        // The service runs on a clock of its own, so the tests neither wait nor depend on the time of day
+        clock = new ManualTickClock(START);
+        tickerService = new TickerServiceImpl(options().clock(clock).build(), meterRegistry);
+    }
+
+    private TickerServiceOptions.Builder options() {
+        return TickerServiceOptions.builder()
+                .refreshPeriodMillis(INDEX_UPDATE_PERIOD_MS)
+                .slotMillis(SLOT_MS)
+                .statisticsMode(statisticsMode)
+                .writeStripes(WRITE_STRIPES)
+                .instrumentRetentionMillis(INSTRUMENT_RETENTION_MS);
+    }
+
+    // Runs the refreshes that are due in the meantime
+    private void advance(long millis) {
+        clock.advanceTo(clock.millis() + millis);
+    }
+
+    @After
+    public void tearDown() {
+        // Stop the scheduler so that it doesn't compete for CPU with the following tests
+        tickerService.close();
     }
 
     @Test
-    public void addMultipleTicksSuccessfully() throws InterruptedException {
-        long currentTimeInMillis = ZonedDateTime.now().toInstant().toEpochMilli();
+    public void addMultipleTicksSuccessfully() {
+        long currentTimeInMillis = clock.millis();
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis - 1 * SECOND_TO_MILLIS));
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis - 2 * SECOND_TO_MILLIS));
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis - 3 * SECOND_TO_MILLIS));
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis - 64 * SECOND_TO_MILLIS));
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis - 65 * SECOND_TO_MILLIS));
 
-        Thread.sleep(100);
+        advance(REFRESH_MS);
         TickerStatistics tickerStatistics = tickerService.getStatistics();
         assertThat(tickerStatistics.getAvg()).isEqualTo(PRICE1);
         assertThat(tickerStatistics.getCount()).isEqualTo(3);
     }
 
+    @Test
+    public void keepsTheSumOfThePricesAsAddedUp() {
+        long currentTimeInMillis = clock.millis();
+        tickerService.addTick(new Tick(INSTRUMENT1, 0.3, currentTimeInMillis));
+        tickerService.addTick(new Tick(INSTRUMENT1, 0.6, currentTimeInMillis));
+        tickerService.addTick(new Tick(INSTRUMENT1, 0.7, currentTimeInMillis));
+
+        advance(REFRESH_MS);
+        // The sum the average is computed from, not the one recovered from it: avg * 3 would be 1.6
+        assertThat(tickerService.getStatistics().getSum()).isEqualTo(0.3 + 0.6 + 0.7);
+        assertThat(tickerService.getStatistics(INSTRUMENT1).orElseThrow().getSum()).isEqualTo(0.3 + 0.6 + 0.7);
+    }
+
     @Test
     public void requestEmptyStatistics() {
         TickerStatistics tickerStatistics = tickerService.getStatistics();
@@ -58,33 +133,33 @@ public class TickerServiceTest {
     }
 
     @Test
-    public void addSoonExpiringTicks() throws InterruptedException {
-        long currentTimeInMillis = ZonedDateTime.now().toInstant().toEpochMilli();
+    public void addSoonExpiringTicks() {
+        long currentTimeInMillis = clock.millis();
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis - 1 * SECOND_TO_MILLIS));
         // This tick is aboud to expire while statistics calculation
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE2, currentTimeInMillis - 60 * SECOND_TO_MILLIS + 150));
 
         // First, both ticks contribute to the statistics
-        Thread.sleep(100);
+        advance(REFRESH_MS);
         TickerStatistics tickerStatistics = tickerService.getStatistics();
         assertThat(tickerStatistics.getAvg()).isEqualTo((PRICE1+PRICE2)/2);
         assertThat(tickerStatistics.getCount()).isEqualTo(2);
 
-        // After waiting for another 100ms another round of statistics rebuild and cleanup of old values has been run
-        Thread.sleep(100);
+        // Another 100ms later another round of statistics rebuild and cleanup of old values has been run
+        advance(REFRESH_MS);
         tickerStatistics = tickerService.getStatistics();
         assertThat(tickerStatistics.getAvg()).isEqualTo(PRICE1);
         assertThat(tickerStatistics.getCount()).isEqualTo(1);
     }
 
     @Test
-    public void addMultipleTicksOfSameInstrument() throws InterruptedException {
-        long currentTimeInMillis = ZonedDateTime.now().toInstant().toEpochMilli();
+    public void addMultipleTicksOfSameInstrument() {
+        long currentTimeInMillis = clock.millis();
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis));
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE2, currentTimeInMillis - 1 * SECOND_TO_MILLIS));
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE3, currentTimeInMillis - 2 * SECOND_TO_MILLIS));
 
-        Thread.sleep(100);
+        advance(REFRESH_MS);
         TickerStatistics tickerStatistics = tickerService.getStatistics();
         assertThat(tickerStatistics.getAvg()).isEqualTo((PRICE1 + PRICE2 + PRICE3)/3.);
         assertThat(tickerStatistics.getMax()).isEqualTo(PRICE3);
@@ -93,14 +168,14 @@ public class TickerServiceTest {
     }
 
     @Test
-    public void addMultipleTicksOfDifferentInstruments() throws InterruptedException {
-        long currentTimeInMillis = ZonedDateTime.now().toInstant().toEpochMilli();
+    public void addMultipleTicksOfDifferentInstruments() {
+        long currentTimeInMillis = clock.millis();
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis));
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE2, currentTimeInMillis - SECOND_TO_MILLIS));
         tickerService.addTick(new Tick(INSTRUMENT2, PRICE21, currentTimeInMillis));
         tickerService.addTick(new Tick(INSTRUMENT2, PRICE22, currentTimeInMillis - SECOND_TO_MILLIS));
 
-        Thread.sleep(100);
+        advance(REFRESH_MS);
         TickerStatistics tickerStatistics = tickerService.getStatistics();
         assertThat(tickerStatistics.getAvg()).isEqualTo((PRICE1+PRICE2+PRICE21+PRICE22)/4);
         assertThat(tickerStatistics.getCount()).isEqualTo(4);
@@ -115,14 +190,173 @@ public class TickerServiceTest {
     }
 
     @Test
-    public void ignoresOldTick() throws InterruptedException {
-        long currentTimeInMillis = ZonedDateTime.now().toInstant().toEpochMilli();
+    public void ranksInstruments() {
+        long currentTimeInMillis = clock.millis();
+        tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis));
+        tickerService.addTick(new Tick(INSTRUMENT1, PRICE2, currentTimeInMillis - SECOND_TO_MILLIS));
+        tickerService.addTick(new Tick(INSTRUMENT2, PRICE21, currentTimeInMillis));
+        tickerService.addTick(new Tick(INSTRUMENT2, PRICE22, currentTimeInMillis - SECOND_TO_MILLIS));
+        tickerService.addTick(new Tick(INSTRUMENT2, PRICE22, currentTimeInMillis - 2 * SECOND_TO_MILLIS));
+
+        advance(REFRESH_MS);
+        assertThat(tickerService.getRankings(Ranking.COUNT, null, 10)).extracting(StatisticsUpdate::getInstrument)
+                .containsExactly(INSTRUMENT2, INSTRUMENT1);
+        assertThat(tickerService.getRankings(Ranking.AVG, null, 10)).extracting(StatisticsUpdate::getInstrument)
+                .containsExactly(INSTRUMENT1, INSTRUMENT2);
+        List<StatisticsUpdate> movers = tickerService.getRankings(Ranking.RANGE, Duration.ofSeconds(60), 1);
+        assertThat(movers).extracting(StatisticsUpdate::getInstrument).containsExactly(INSTRUMENT2);
+        assertThat(movers.get(0).getStatistics().getCount()).isEqualTo(3);
+        assertThatThrownBy(() -> tickerService.getRankings(Ranking.COUNT, null, 0))
+                .isInstanceOf(InvalidRankingException.class);
+    }
+
+    @Test
+    public void ignoresOldTick() {
+        long currentTimeInMillis = clock.millis();
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis));
         tickerService.addTick(new Tick(INSTRUMENT1, PRICE2, currentTimeInMillis - 61 * SECOND_TO_MILLIS));
 
-        Thread.sleep(100);
+        advance(REFRESH_MS);
         TickerStatistics tickerStatistics = tickerService.getStatistics();
         assertThat(tickerStatistics.getAvg()).isEqualTo(PRICE1);
         assertThat(tickerStatistics.getCount()).isEqualTo(1);
     }
+
+    @Test
+    public void recordsMetrics() {
+        long currentTimeInMillis = clock.millis();
+        tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis - 1 * SECOND_TO_MILLIS));
+        tickerService.addTick(new Tick(INSTRUMENT2, PRICE21, currentTimeInMillis - 2 * SECOND_TO_MILLIS));
+        tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis - 65 * SECOND_TO_MILLIS));
+
+        advance(REFRESH_MS);
+        assertThat(meterRegistry.get("tickerstats.ticks").tag("result", "accepted").counter().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("tickerstats.ticks").tag("result", "stale").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("tickerstats.ticks.add").tag("type", "single").timer().count()).isEqualTo(3);
+        assertThat(meterRegistry.get("tickerstats.statistics.refresh").timer().count()).isPositive();
+        assertThat(meterRegistry.get("tickerstats.window.ticks").gauge().value()).isEqualTo(2);
+        assertThat(meterRegistry.get("tickerstats.window.entries").gauge().value()).isEqualTo(2);
+        assertThat(meterRegistry.get("tickerstats.instruments").gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    public void rejectsTicksBeyondTheAdmissionLimits() {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        // Closing a service closes its clock, so every service has its own
+        clock = new ManualTickClock(START);
+        TickerServiceImpl limited = new TickerServiceImpl(options()
+                .clock(clock)
+                .admission(AdmissionOptions.limited(SECOND_TO_MILLIS, 1, 0, 0, 1_000))
+                .build(), meters);
+        try {
+            long currentTimeInMillis = clock.millis();
+            assertThat(limited.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis))).isTrue();
+            assertThat(limited.addTick(new Tick(INSTRUMENT1, PRICE2, currentTimeInMillis + 60 * SECOND_TO_MILLIS))).isFalse();
+            // Only one instrument fits, a stale tick does not take its place
+            TickBatch batch = new TickBatch(4);
+            batch.add(INSTRUMENT2, PRICE21, currentTimeInMillis - 61 * SECOND_TO_MILLIS);
+            batch.add(INSTRUMENT1, PRICE3, currentTimeInMillis);
+            batch.add(INSTRUMENT2, PRICE22, currentTimeInMillis);
+            assertThat(limited.addTicks(batch)).isEqualTo(1);
+
+            advance(REFRESH_MS);
+            TickerStatistics tickerStatistics = limited.getStatistics();
+            assertThat(tickerStatistics.getCount()).isEqualTo(2);
+            assertThat(tickerStatistics.getMax()).isEqualTo(PRICE3);
+            assertThat(limited.getStatistics(INSTRUMENT2)).isEmpty();
+            assertThat(meters.get("tickerstats.ticks").tag("result", "future").counter().count()).isEqualTo(1);
+            assertThat(meters.get("tickerstats.ticks").tag("result", "capped").counter().count()).isEqualTo(1);
+            assertThat(meters.get("tickerstats.ticks").tag("result", "stale").counter().count()).isEqualTo(1);
+        } finally {
+            limited.close();
+        }
+    }
+
+    @Test
+    public void keepsTicksThatCannotBeJournaled() {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        TickJournal failing = new TickJournal() {
+            @Override
+            public void append(String instrument, double price, long timestamp, long now) {
+                throw new UncheckedIOException(new IOException("No space left on device"));
+            }
+
+            @Override
+            public void appendAll(TickBatch batch, long expiredBefore, long now) {
+                throw new UncheckedIOException(new IOException("No space left on device"));
+            }
+
+            @Override
+            public void replay(long expiredBefore, Consumer<TickBatch> sink) {
+            }
+
+            @Override
+            public void dropExpired(long expiredBefore) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        clock = new ManualTickClock(START);
+        TickerServiceImpl unjournaled = new TickerServiceImpl(options().clock(clock).journal(failing).build(), meters);
+        try {
+            long currentTimeInMillis = clock.millis();
+            assertThat(unjournaled.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis))).isTrue();
+            TickBatch batch = new TickBatch(2);
+            batch.add(INSTRUMENT1, PRICE2, currentTimeInMillis);
+            batch.add(INSTRUMENT2, PRICE21, currentTimeInMillis);
+            assertThat(unjournaled.addTicks(batch)).isEqualTo(2);
+
+            advance(REFRESH_MS);
+            assertThat(unjournaled.getStatistics().getCount()).isEqualTo(3);
+            assertThat(meters.get("tickerstats.journal.failures").counter().count()).isEqualTo(2);
+        } finally {
+            unjournaled.close();
+        }
+    }
+
+    @Test
+    public void expiresTicksOnTheClockOfTheService() {
+        assertThat(tickerService.addTick(new Tick(INSTRUMENT1, PRICE1, START - 1 * SECOND_TO_MILLIS))).isTrue();
+        assertThat(tickerService.addTick(new Tick(INSTRUMENT1, PRICE2, START - 59 * SECOND_TO_MILLIS))).isTrue();
+        advance(INDEX_UPDATE_PERIOD_MS);
+        assertThat(tickerService.getStatistics().getCount()).isEqualTo(2);
+
+        // No waiting: the older tick leaves the window as soon as the clock has moved past it
+        clock.advanceTo(START + 2 * SECOND_TO_MILLIS);
+        TickerStatistics tickerStatistics = tickerService.getStatistics();
+        assertThat(tickerStatistics.getCount()).isEqualTo(1);
+        assertThat(tickerStatistics.getAvg()).isEqualTo(PRICE1);
+
+        clock.advanceTo(START + 60 * SECOND_TO_MILLIS);
+        assertThat(tickerService.getStatistics().getCount()).isEqualTo(0);
+        assertThat(tickerService.addTick(new Tick(INSTRUMENT2, PRICE21, START - SECOND_TO_MILLIS))).isFalse();
+    }
+
+    @Test
+    public void servesQuantilesIfEnabled() {
+        assertThatThrownBy(() -> tickerService.getQuantiles(INSTRUMENT1, null, new double[]{0.5}))
+                .isInstanceOf(InvalidQuantilesException.class);
+
+        clock = new ManualTickClock(START);
+        TickerServiceImpl withQuantiles = new TickerServiceImpl(options()
+                .clock(clock)
+                .quantiles(QuantileOptions.enabled(0.01, 512))
+                .build(), new SimpleMeterRegistry());
+        try {
+            long currentTimeInMillis = clock.millis();
+            withQuantiles.addTick(new Tick(INSTRUMENT1, PRICE1, currentTimeInMillis));
+            withQuantiles.addTick(new Tick(INSTRUMENT1, PRICE3, currentTimeInMillis));
+
+            double[] prices = withQuantiles.getQuantiles(INSTRUMENT1, null, new double[]{0, 1}).orElseThrow();
+            assertThat(prices[0]).isCloseTo(PRICE1, within(PRICE1 * 0.01));
+            assertThat(prices[1]).isCloseTo(PRICE3, within(PRICE3 * 0.01));
+            assertThat(withQuantiles.getQuantiles(INSTRUMENT2, null, new double[]{0.5})).isEmpty();
+            assertThatThrownBy(() -> withQuantiles.getQuantiles(null, null, new double[]{1.5}))
+                    .isInstanceOf(InvalidQuantilesException.class);
+        } finally {
+            withQuantiles.close();
+        }
+    }
 }
@@ -0,0 +1,121 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InstrumentRegistryTest {
+
+    private static final long RETENTION_MS = 120_000;
+    private static final long NOW = 1_600_000_000_000L;
+
+    private InstrumentRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new InstrumentRegistry(RETENTION_MS);
+    }
+
+    @Test
+    public void assignsDenseIds() {
+        assertThat(registry.register("IBM.N", NOW)).isEqualTo(0);
+        assertThat(registry.register("KO", NOW)).isEqualTo(1);
+        assertThat(registry.register("IBM.N", NOW)).isEqualTo(0);
+        assertThat(registry.idOf("KO")).isEqualTo(1);
+        assertThat(registry.idOf("MSFT.O")).isEqualTo(InstrumentRegistry.UNKNOWN);
+        assertThat(registry.nameOf(1)).isEqualTo("KO");
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() {
+        for (int i = 0; i < 2_000; i++) {
+            assertThat(registry.register("I" + i, NOW)).isEqualTo(i);
+        }
+        assertThat(registry.capacity()).isGreaterThanOrEqualTo(2_000);
+        assertThat(registry.nameOf(1_999)).isEqualTo("I1999");
+        registry.register("I1999", NOW + RETENTION_MS);
+        assertThat(registry.retireIdle(NOW + RETENTION_MS + 1)).isEqualTo(1_999);
+        assertThat(registry.idOf("I1999")).isEqualTo(1_999);
+    }
+
+    @Test
+    public void registersNewInstrumentsUpToTheCap() {
+        assertThat(registry.register("IBM.N", NOW, 2)).isEqualTo(0);
+        assertThat(registry.register("KO", NOW, 2)).isEqualTo(1);
+        assertThat(registry.register("MSFT.O", NOW, 2)).isEqualTo(InstrumentRegistry.UNKNOWN);
+        // Known instruments are still found at the cap
+        assertThat(registry.register("KO", NOW, 2)).isEqualTo(1);
+        assertThat(registry.idOf("MSFT.O")).isEqualTo(InstrumentRegistry.UNKNOWN);
+        assertThat(registry.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void retiresIdleInstrumentsAndReusesTheirIdsAfterQuarantine() {
+        registry.register("IBM.N", NOW);
+        registry.register("KO", NOW);
+        // KO stays active
+        registry.register("KO", NOW + RETENTION_MS);
+
+        assertThat(registry.retireIdle(NOW + RETENTION_MS + 1)).isEqualTo(1);
+        assertThat(registry.idOf("IBM.N")).isEqualTo(InstrumentRegistry.UNKNOWN);
+        assertThat(registry.nameOf(0)).isNull();
+        assertThat(registry.idOf("KO")).isEqualTo(1);
+
+        // The freed id is not reused right away
+        assertThat(registry.register("MSFT.O", NOW + RETENTION_MS + 2)).isEqualTo(2);
+        // After another retention period it is
+        assertThat(registry.register("GOOG.O", NOW + 3 * RETENTION_MS)).isEqualTo(0);
+        assertThat(registry.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void keepsInstrumentsSeenWhileTheRegistryGrows() throws Exception {
+        int known = 64;
+        for (int round = 0; round < 2_000; round++) {
+            InstrumentRegistry registry = new InstrumentRegistry(RETENTION_MS);
+            for (int i = 0; i < known; i++) {
+                registry.register("I" + i, NOW);
+            }
+            // The known instruments are seen again while new ones grow the registry and idle ones are retired
+            long seen = NOW + RETENTION_MS;
+            CountDownLatch start = new CountDownLatch(1);
+            Thread active = new Thread(() -> {
+                await(start);
+                for (int i = 0; i < known; i++) {
+                    registry.register("I" + i, seen);
+                }
+            });
+            Thread growing = new Thread(() -> {
+                await(start);
+                for (int i = known; i < 4 * known; i++) {
+                    registry.register("I" + i, seen);
+                }
+            });
+            Thread retiring = new Thread(() -> {
+                await(start);
+                registry.retireIdle(seen);
+            });
+            active.start();
+            growing.start();
+            retiring.start();
+            start.countDown();
+            active.join();
+            growing.join();
+            retiring.join();
+
+            assertThat(registry.retireIdle(seen + RETENTION_MS)).as("round %d", round).isZero();
+            assertThat(registry.size()).isEqualTo(4 * known);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappedTickJournalTest {
+
+    private static final int SEGMENT_BYTES = 4_096;
+    private static final long SEGMENT_DURATION_MS = 10_000;
+    private static final long NOW = 1_600_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath();
+    }
+
+    @Test
+    public void replaysJournaledTicksAfterRestart() throws IOException {
+        try (MappedTickJournal journal = open()) {
+            journal.append("IBM.N", 143.82, NOW - 1, NOW);
+            TickBatch batch = new TickBatch(4);
+            batch.add("KO", 12, NOW);
+            batch.add("KO", 16, NOW - 120_000);
+            batch.add("Nestlé", 100, NOW);
+            journal.appendAll(batch, NOW - 60_000, NOW);
+        }
+
+        List<String> replayed = replay(NOW - 60_000);
+        assertThat(replayed).containsExactly("IBM.N 143.82 " + (NOW - 1), "KO 12.0 " + NOW, "Nestlé 100.0 " + NOW);
+        // Only ticks that are still in the window are replayed
+        assertThat(replay(NOW)).containsExactly("KO 12.0 " + NOW, "Nestlé 100.0 " + NOW);
+    }
+
+    @Test
+    public void rollsOverFullAndOldSegments() throws IOException {
+        try (MappedTickJournal journal = open()) {
+            for (int i = 0; i < 500; i++) {
+                journal.append("IBM.N", i, NOW + i, NOW);
+            }
+            journal.append("IBM.N", 1, NOW + SEGMENT_DURATION_MS, NOW + SEGMENT_DURATION_MS);
+        }
+        assertThat(segments().size()).isGreaterThan(2);
+        assertThat(replay(NOW)).hasSize(501);
+    }
+
+    @Test
+    public void dropsExpiredSegmentsWhole() throws IOException {
+        try (MappedTickJournal journal = open()) {
+            journal.append("IBM.N", 1, NOW, NOW);
+            journal.append("IBM.N", 2, NOW + SEGMENT_DURATION_MS, NOW + SEGMENT_DURATION_MS);
+            assertThat(segments()).hasSize(2);
+
+            journal.dropExpired(NOW + 1);
+            assertThat(segments()).hasSize(1);
+        }
+        assertThat(replay(NOW)).containsExactly("IBM.N 2.0 " + (NOW + SEGMENT_DURATION_MS));
+    }
+
+    @Test
+    public void stopsReplayAtTornRecord() throws IOException {
+        try (MappedTickJournal journal = open()) {
+            journal.append("IBM.N", 1, NOW, NOW);
+            journal.append("IBM.N", 2, NOW, NOW);
+        }
+        Path segment = segments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            // Corrupt the price of the second record: header, first record, second record header, instrument
+            int firstRecord = 4 + 4 + 2 + "IBM.N".length() + 8 + 8;
+            file.seek(8 + firstRecord + 8 + 2 + "IBM.N".length());
+            file.writeDouble(3);
+        }
+        assertThat(replay(NOW)).containsExactly("IBM.N 1.0 " + NOW);
+    }
+
+    @Test
+    public void keepsSegmentsThatCannotBeReplayed() throws IOException {
+        try (MappedTickJournal journal = open()) {
+            journal.append("IBM.N", 1, NOW, NOW);
+        }
+        Path unknown = directory.resolve("ticks-" + NOW + "-9-0.journal");
+        Files.write(unknown, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+
+        try (MappedTickJournal journal = open()) {
+            // Segments are only dropped once their timestamps are known from the replay
+            journal.dropExpired(Long.MAX_VALUE);
+            assertThat(segments()).hasSize(2);
+
+            journal.replay(NOW, (batch) -> { });
+            journal.dropExpired(NOW + 1);
+        }
+        assertThat(segments()).containsExactly(directory.resolve(unknown.getFileName() + ".unreadable"));
+        assertThat(replay(NOW)).isEmpty();
+    }
+
+    private MappedTickJournal open() throws IOException {
+        return new MappedTickJournal(directory, SEGMENT_BYTES, SEGMENT_DURATION_MS,
+                MappedTickJournal.FsyncPolicy.ALWAYS, 1_000, 1);
+    }
+
+    private List<String> replay(long expiredBefore) throws IOException {
+        List<String> ticks = new ArrayList<>();
+        try (MappedTickJournal journal = open()) {
+            journal.replay(expiredBefore, (batch) -> {
+                for (int i = 0; i < batch.size(); i++) {
+                    ticks.add(batch.getInstrument(i) + " " + batch.getPrice(i) + " " + batch.getTimestamp(i));
+                }
+            });
+        }
+        return ticks;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class PeriodicStatisticsEngineTest {
+
+    private static final int SLOT_MS = 1_000;
+    private static final int STRIPES = 2;
+    private static final long NOW = 1_600_000_000_000L;
+    private static final int INSTRUMENTS = 50;
+
+    private StatisticsWindows windows;
+    private InstrumentRegistry registry;
+    private PeriodicStatisticsEngine engine;
+
+    @Before
+    public void setUp() {
+        windows = StatisticsWindows.fromProperties("10s,60s,5m", "60s", SLOT_MS);
+        registry = new InstrumentRegistry(2 * 300_000L);
+        engine = new PeriodicStatisticsEngine(windows, registry, STRIPES);
+    }
+
+    @Test
+    public void rebuildsChangedInstrumentsLikeAFullRebuild() {
+        Random random = new Random(42);
+        // Same ticks, but every rebuild recomputes all instruments
+        PeriodicStatisticsEngine reference = new PeriodicStatisticsEngine(windows, registry, STRIPES);
+        long now = NOW;
+        for (int round = 0; round < 400; round++) {
+            // A few instruments per round, so most of them only change by leaving a window
+            for (int i = 0; i < 5; i++) {
+                String instrument = "INSTR" + random.nextInt(INSTRUMENTS);
+                double price = random.nextInt(1_000);
+                long timestamp = now - random.nextInt(90_000);
+                engine.add(instrument, price, timestamp, now);
+                reference.add(instrument, price, timestamp, now);
+            }
+            engine.refresh(now);
+            reference.recomputeAll();
+            reference.refresh(now);
+            assertSameStatistics(reference, now);
+            now += random.nextInt(3_000);
+        }
+    }
+
+    @Test
+    public void keepsStatisticsOfUnchangedInstruments() {
+        engine.add("IBM.N", 10, NOW - 30_000, NOW);
+        engine.refresh(NOW);
+        engine.add("KO", 20, NOW, NOW);
+        engine.refresh(NOW);
+        // Both sides of the tables have been written since the last change of IBM.N
+        engine.refresh(NOW + 1);
+        engine.refresh(NOW + 2);
+
+        assertThat(engine.getStatistics("IBM.N", windows.defaultWindow(), NOW + 2).map(TickerStatistics::getCount))
+                .contains(1L);
+        assertThat(engine.getStatistics(windows.defaultWindow(), NOW + 2).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void dropsInstrumentsThatLeftTheWindow() {
+        engine.add("IBM.N", 10, NOW - 5_000, NOW);
+        engine.add("KO", 20, NOW, NOW);
+        engine.refresh(NOW);
+        int tenSeconds = windows.indexOf(StatisticsWindows.parse("10s"));
+        assertThat(engine.getStatistics(tenSeconds, NOW).getCount()).isEqualTo(2);
+
+        long later = NOW + 6_000;
+        engine.refresh(later);
+        assertThat(engine.getStatistics("IBM.N", tenSeconds, later)).isEmpty();
+        assertThat(engine.getStatistics(tenSeconds, later).getCount()).isEqualTo(1);
+        assertThat(engine.getStatistics("IBM.N", windows.defaultWindow(), later)).isPresent();
+    }
+
+    private void assertSameStatistics(PeriodicStatisticsEngine reference, long now) {
+        for (int window = 0; window < windows.count(); window++) {
+            for (int i = 0; i < INSTRUMENTS; i++) {
+                Optional<TickerStatistics> expected = reference.getStatistics("INSTR" + i, window, now);
+                Optional<TickerStatistics> actual = engine.getStatistics("INSTR" + i, window, now);
+                assertThat(actual.isPresent()).isEqualTo(expected.isPresent());
+                if (expected.isPresent()) {
+                    assertThat(actual.get().getCount()).isEqualTo(expected.get().getCount());
+                    assertThat(actual.get().getAvg()).isEqualTo(expected.get().getAvg());
+                    assertThat(actual.get().getMin()).isEqualTo(expected.get().getMin());
+                    assertThat(actual.get().getMax()).isEqualTo(expected.get().getMax());
+                }
+            }
+            TickerStatistics expectedTotal = reference.getStatistics(window, now);
+            TickerStatistics actualTotal = engine.getStatistics(window, now);
+            assertThat(actualTotal.getCount()).isEqualTo(expectedTotal.getCount());
+            assertThat(actualTotal.getAvg()).isCloseTo(expectedTotal.getAvg(), within(1e-9));
+        }
+    }
+}
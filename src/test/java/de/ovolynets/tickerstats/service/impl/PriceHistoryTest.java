@@ -0,0 +1,120 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.service.BarCursor;
+import de.ovolynets.tickerstats.service.InvalidHistoryRequestException;
+import de.ovolynets.tickerstats.service.TickBatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PriceHistoryTest {
+
+    private static final long MINUTE = 60_000;
+    private static final long HOUR = 3_600_000;
+    // Start of a minute
+    private static final long NOW = 1_600_000_020_000L;
+    private static final long LONGEST_WINDOW_MS = 3_600_000;
+
+    private static final String INSTRUMENT1 = "IBM.N";
+    private static final String INSTRUMENT2 = "KO";
+
+    private InstrumentRegistry registry;
+    private PriceHistory history;
+
+    @Before
+    public void setUp() {
+        registry = new InstrumentRegistry(2 * LONGEST_WINDOW_MS);
+        history = new PriceHistory(registry, HistoryOptions.enabled(10, 3), LONGEST_WINDOW_MS);
+    }
+
+    @Test
+    public void keepsOpenHighLowCloseByTimestamp() {
+        // Out of order: the open is the earliest tick, the close the latest one
+        add(INSTRUMENT1, 12, NOW + 30_000);
+        add(INSTRUMENT1, 10, NOW + 1_000);
+        add(INSTRUMENT1, 15, NOW + 59_999);
+        add(INSTRUMENT1, 8, NOW + 20_000);
+        add(INSTRUMENT1, 11, NOW + 59_999);
+
+        List<double[]> bars = read(INSTRUMENT1, null, NOW, NOW + MINUTE);
+        assertThat(bars).hasSize(1);
+        // start, open, high, low, close, count, avg
+        assertThat(bars.get(0)).containsExactly(NOW, 10, 15, 8, 11, 5, 11.2);
+    }
+
+    @Test
+    public void servesRangesOfBarsAtEveryResolution() {
+        for (int minute = 0; minute < 5; minute++) {
+            add(INSTRUMENT1, 100 + minute, NOW - minute * MINUTE);
+        }
+        add(INSTRUMENT2, 1, NOW);
+
+        // Bars that start within the range, oldest first
+        List<double[]> bars = read(INSTRUMENT1, Duration.ofMinutes(1), NOW - 3 * MINUTE, NOW);
+        assertThat(bars).extracting((bar) -> bar[1]).containsExactly(103.0, 102.0, 101.0);
+        assertThat(read(INSTRUMENT1, null, NOW - 3 * MINUTE + 1, NOW + 1)).extracting((bar) -> bar[1])
+                .containsExactly(102.0, 101.0, 100.0);
+
+        long hour = Math.floorDiv(NOW, HOUR) * HOUR;
+        List<double[]> hourBars = read(INSTRUMENT1, Duration.ofHours(1), Long.MIN_VALUE, Long.MAX_VALUE);
+        long ticksInHour = (NOW - hour) / MINUTE + 1;
+        assertThat(hourBars.get(hourBars.size() - 1)[0]).isEqualTo(hour);
+        assertThat(hourBars.get(hourBars.size() - 1)[5]).isEqualTo(Math.min(5, ticksInHour));
+        assertThat(history.bars("MSFT.O", null, NOW - MINUTE, NOW, NOW)).isEmpty();
+    }
+
+    @Test
+    public void dropsBarsOlderThanTheRing() {
+        TickBatch batch = new TickBatch(16);
+        for (int minute = 0; minute < 12; minute++) {
+            batch.add(INSTRUMENT1, minute, NOW + minute * MINUTE);
+        }
+        registry.register(INSTRUMENT1, NOW);
+        long now = NOW + 11 * MINUTE;
+        history.addAll(batch, now);
+
+        // Ten minute bars are kept, an older tick does not replace a newer bar
+        List<double[]> bars = read(INSTRUMENT1, null, Long.MIN_VALUE, Long.MAX_VALUE, now);
+        assertThat(bars).extracting((bar) -> bar[1]).containsExactly(2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0, 10.0, 11.0);
+        history.add(INSTRUMENT1, 100, NOW);
+        assertThat(read(INSTRUMENT1, null, NOW, NOW + MINUTE, now)).isEmpty();
+    }
+
+    @Test
+    public void rejectsUnknownResolutionsAndInvertedRanges() {
+        add(INSTRUMENT1, 10, NOW);
+
+        assertThatThrownBy(() -> history.bars(INSTRUMENT1, Duration.ofSeconds(5), NOW, NOW, NOW))
+                .isInstanceOf(InvalidHistoryRequestException.class);
+        assertThatThrownBy(() -> history.bars(INSTRUMENT1, null, NOW, NOW - 1, NOW))
+                .isInstanceOf(InvalidHistoryRequestException.class);
+        PriceHistory minutesOnly = new PriceHistory(registry, HistoryOptions.enabled(10, 0), LONGEST_WINDOW_MS);
+        assertThatThrownBy(() -> minutesOnly.bars(INSTRUMENT1, Duration.ofHours(1), NOW, NOW, NOW))
+                .isInstanceOf(InvalidHistoryRequestException.class);
+    }
+
+    private void add(String instrument, double price, long timestamp) {
+        registry.register(instrument, NOW);
+        history.add(instrument, price, timestamp);
+    }
+
+    private List<double[]> read(String instrument, Duration resolution, long from, long to) {
+        return read(instrument, resolution, from, to, NOW);
+    }
+
+    private List<double[]> read(String instrument, Duration resolution, long from, long to, long now) {
+        BarCursor cursor = history.bars(instrument, resolution, from, to, now).orElseThrow();
+        List<double[]> bars = new ArrayList<>();
+        while (cursor.next()) {
+            bars.add(new double[]{cursor.getStart(), cursor.getOpen(), cursor.getHigh(), cursor.getLow(),
+                    cursor.getClose(), cursor.getCount(), cursor.getAvg()});
+        }
+        return bars;
+    }
+}
@@ -0,0 +1,88 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.service.TickBatch;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class PriceQuantilesTest {
+
+    private static final int SLOT_MS = 1_000;
+    private static final int STRIPES = 2;
+    private static final long NOW = 1_600_000_000_000L;
+    private static final double RELATIVE_ACCURACY = 0.01;
+    private static final double[] MEDIAN = {0.5};
+
+    private static final String INSTRUMENT1 = "IBM.N";
+    private static final String INSTRUMENT2 = "KO";
+
+    private static final int WINDOW_10S = 0;
+    private static final int WINDOW_60S = 1;
+    private static final int WINDOW_5M = 2;
+
+    private InstrumentRegistry registry;
+    private PriceQuantiles quantiles;
+
+    @Before
+    public void setUp() {
+        StatisticsWindows windows = StatisticsWindows.fromProperties("10s,60s,5m", "60s", SLOT_MS);
+        registry = new InstrumentRegistry(600_000);
+        quantiles = new PriceQuantiles(windows, registry, STRIPES, QuantileOptions.enabled(RELATIVE_ACCURACY, 512));
+        registry.register(INSTRUMENT1, NOW);
+        registry.register(INSTRUMENT2, NOW);
+    }
+
+    @Test
+    public void computesQuantilesPerWindow() {
+        for (int price = 1; price <= 100; price++) {
+            quantiles.add(INSTRUMENT1, price, NOW - price * 1_000L, NOW);
+        }
+        quantiles.add(INSTRUMENT2, 1_000, NOW, NOW);
+
+        // Prices 1 to 10 in the last 10 seconds, 1 to 60 in the last minute
+        assertThat(median(INSTRUMENT1, WINDOW_10S)).isCloseTo(5, within(5 * RELATIVE_ACCURACY));
+        assertThat(median(INSTRUMENT1, WINDOW_60S)).isCloseTo(30, within(30 * RELATIVE_ACCURACY));
+        assertThat(median(INSTRUMENT1, WINDOW_5M)).isCloseTo(50, within(50 * RELATIVE_ACCURACY));
+        assertThat(quantiles.quantiles(null, WINDOW_5M, new double[]{1}, NOW).get()[0])
+                .isCloseTo(1_000, within(1_000 * RELATIVE_ACCURACY));
+        assertThat(quantiles.quantiles("MSFT.O", WINDOW_5M, MEDIAN, NOW)).isEmpty();
+    }
+
+    @Test
+    public void addsBatches() {
+        TickBatch batch = new TickBatch(10);
+        batch.add(INSTRUMENT1, 10, NOW);
+        batch.add(INSTRUMENT1, 20, NOW - 100_000);
+        batch.add(INSTRUMENT1, 30, NOW - 1_000_000);
+        quantiles.addAll(batch, NOW);
+
+        assertThat(median(INSTRUMENT1, WINDOW_60S)).isCloseTo(10, within(10 * RELATIVE_ACCURACY));
+        assertThat(quantiles.quantiles(INSTRUMENT1, WINDOW_5M, new double[]{1}, NOW).get()[0])
+                .isCloseTo(20, within(20 * RELATIVE_ACCURACY));
+    }
+
+    @Test
+    public void keepsExpiredSlotsOfLongerWindows() {
+        quantiles.add(INSTRUMENT1, 10, NOW - 30_000, NOW);
+        quantiles.add(INSTRUMENT1, 20, NOW, NOW);
+
+        long later = NOW + 45_000;
+        quantiles.refresh(later);
+        assertThat(median(INSTRUMENT1, WINDOW_60S, later)).isCloseTo(20, within(20 * RELATIVE_ACCURACY));
+        assertThat(median(INSTRUMENT1, WINDOW_5M, later)).isCloseTo(10, within(10 * RELATIVE_ACCURACY));
+
+        long muchLater = NOW + 600_000;
+        quantiles.refresh(muchLater);
+        assertThat(quantiles.quantiles(INSTRUMENT1, WINDOW_5M, MEDIAN, muchLater)).isEmpty();
+    }
+
+    private double median(String instrument, int window) {
+        return median(instrument, window, NOW);
+    }
+
+    private double median(String instrument, int window, long now) {
+        return quantiles.quantiles(instrument, window, MEDIAN, now).get()[0];
+    }
+}
@@ -0,0 +1,97 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class QuantileSketchTest {
+
+    private static final double RELATIVE_ACCURACY = 0.01;
+    private static final int MAX_BINS = 512;
+    private static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.75, 0.95, 0.99, 0.999, 1};
+
+    @Test
+    public void staysWithinRelativeAccuracy() {
+        Random random = new Random(42);
+        double[] prices = new double[100_000];
+        QuantileSketch sketch = new QuantileSketch(RELATIVE_ACCURACY, MAX_BINS);
+        for (int i = 0; i < prices.length; i++) {
+            prices[i] = Math.exp(4 + random.nextGaussian());
+            sketch.add(prices[i]);
+        }
+
+        Arrays.sort(prices);
+        assertThat(sketch.count()).isEqualTo(prices.length);
+        for (double quantile : QUANTILES) {
+            double exact = prices[(int) Math.floor(quantile * (prices.length - 1))];
+            assertThat(sketch.quantile(quantile)).isCloseTo(exact, within(exact * RELATIVE_ACCURACY));
+        }
+    }
+
+    @Test
+    public void mergesLikeOneSketch() {
+        Random random = new Random(7);
+        QuantileSketch all = new QuantileSketch(RELATIVE_ACCURACY, MAX_BINS);
+        QuantileSketch merged = new QuantileSketch(RELATIVE_ACCURACY, MAX_BINS);
+        for (int part = 0; part < 10; part++) {
+            QuantileSketch sketch = new QuantileSketch(RELATIVE_ACCURACY, MAX_BINS);
+            // Parts with disjoint price ranges, so that merging extends the bins both ways
+            double base = part % 2 == 0 ? 10 + part : 1000 - part;
+            for (int i = 0; i < 1_000; i++) {
+                double price = base * (1 + random.nextDouble());
+                sketch.add(price);
+                all.add(price);
+            }
+            merged.merge(sketch);
+        }
+
+        assertThat(merged.count()).isEqualTo(all.count());
+        for (double quantile : QUANTILES) {
+            assertThat(merged.quantile(quantile)).isEqualTo(all.quantile(quantile));
+        }
+    }
+
+    @Test
+    public void collapsesLowestBinsBeyondLimit() {
+        // 128 bins cover prices within a factor of about 13 of each other
+        QuantileSketch sketch = new QuantileSketch(RELATIVE_ACCURACY, 128);
+        for (int i = 0; i < 100; i++) {
+            sketch.add(0.001);
+            sketch.add(100);
+        }
+        sketch.add(1000);
+
+        assertThat(sketch.count()).isEqualTo(201);
+        // The low prices lose their accuracy, the high ones keep it
+        assertThat(sketch.quantile(0)).isGreaterThan(0.001);
+        assertThat(sketch.quantile(0.75)).isCloseTo(100, within(100 * RELATIVE_ACCURACY));
+        assertThat(sketch.quantile(1)).isCloseTo(1000, within(1000 * RELATIVE_ACCURACY));
+    }
+
+    @Test
+    public void countsZeroPrices() {
+        QuantileSketch sketch = new QuantileSketch(RELATIVE_ACCURACY, MAX_BINS);
+        sketch.add(0);
+        sketch.add(0);
+        sketch.add(50);
+
+        assertThat(sketch.quantile(0.5)).isEqualTo(0);
+        assertThat(sketch.quantile(1)).isCloseTo(50, within(50 * RELATIVE_ACCURACY));
+    }
+
+    @Test
+    public void isEmptyAfterClear() {
+        QuantileSketch sketch = new QuantileSketch(RELATIVE_ACCURACY, MAX_BINS);
+        sketch.add(10);
+        sketch.clear();
+
+        assertThat(sketch.count()).isZero();
+        assertThat(sketch.quantile(0.5)).isNaN();
+        sketch.add(20);
+        assertThat(sketch.quantile(0.5)).isCloseTo(20, within(20 * RELATIVE_ACCURACY));
+    }
+}
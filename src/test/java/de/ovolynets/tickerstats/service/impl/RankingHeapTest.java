@@ -0,0 +1,66 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RankingHeapTest {
+
+    private static final int IDS = 200;
+
+    @Test
+    public void readsTheHighestKeysFirst() {
+        RankingHeap heap = new RankingHeap();
+        heap.ensureCapacity(4);
+        heap.set(0, 5);
+        heap.set(1, 7);
+        heap.set(2, 5);
+        heap.set(3, 1);
+
+        int[] ids = new int[4];
+        // Ties by the lower id
+        assertThat(heap.top(3, ids)).isEqualTo(3);
+        assertThat(Arrays.copyOf(ids, 3)).containsExactly(1, 0, 2);
+        heap.set(3, 8);
+        heap.remove(1);
+        assertThat(heap.top(10, ids)).isEqualTo(3);
+        assertThat(Arrays.copyOf(ids, 3)).containsExactly(3, 0, 2);
+    }
+
+    @Test
+    public void keepsOrderUnderRandomChanges() {
+        Random random = new Random(42);
+        RankingHeap heap = new RankingHeap();
+        heap.ensureCapacity(IDS);
+        Map<Integer, Double> keys = new HashMap<>();
+        int[] ids = new int[IDS];
+        for (int round = 0; round < 5_000; round++) {
+            int id = random.nextInt(IDS);
+            if (random.nextInt(4) == 0) {
+                heap.remove(id);
+                keys.remove(id);
+            } else {
+                // Few distinct keys, so that ties are common
+                double key = random.nextInt(50);
+                heap.set(id, key);
+                keys.put(id, key);
+            }
+            if (round % 100 == 0) {
+                heap.clear();
+                keys.clear();
+            }
+            int limit = 1 + random.nextInt(20);
+            int[] expected = keys.keySet().stream()
+                    .sorted(Comparator.comparing((Integer i) -> -keys.get(i)).thenComparing(i -> i))
+                    .limit(limit).mapToInt(Integer::intValue).toArray();
+            assertThat(heap.size()).isEqualTo(keys.size());
+            assertThat(Arrays.copyOf(ids, heap.top(limit, ids))).containsExactly(expected);
+        }
+    }
+}
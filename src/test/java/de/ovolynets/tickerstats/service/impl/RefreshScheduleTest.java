@@ -0,0 +1,48 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RefreshScheduleTest {
+
+    @Test
+    public void keepsFixedPeriod() {
+        RefreshSchedule schedule = RefreshSchedule.fixed(500);
+
+        assertThat(schedule.nextPeriodMillis(500, 0)).isEqualTo(500);
+        assertThat(schedule.nextPeriodMillis(500, Long.MAX_VALUE - 1)).isEqualTo(500);
+    }
+
+    @Test
+    public void refreshesSoonerUnderLoad() {
+        RefreshSchedule schedule = RefreshSchedule.adaptive(500, 100, 2_000, 10_000);
+
+        assertThat(schedule.nextPeriodMillis(500, 10_000)).isEqualTo(100);
+        assertThat(schedule.nextPeriodMillis(100, 10_000)).isEqualTo(100);
+        // Back to the normal period as soon as the load drops
+        assertThat(schedule.nextPeriodMillis(100, 9_999)).isEqualTo(500);
+    }
+
+    @Test
+    public void backsOffWhileIdle() {
+        RefreshSchedule schedule = RefreshSchedule.adaptive(500, 100, 2_000, 10_000);
+
+        assertThat(schedule.nextPeriodMillis(500, 0)).isEqualTo(1_000);
+        assertThat(schedule.nextPeriodMillis(1_000, 0)).isEqualTo(2_000);
+        assertThat(schedule.nextPeriodMillis(2_000, 0)).isEqualTo(2_000);
+        // From the minimum period straight to the backoff of the normal one
+        assertThat(schedule.nextPeriodMillis(100, 0)).isEqualTo(1_000);
+        assertThat(schedule.nextPeriodMillis(2_000, 1)).isEqualTo(500);
+    }
+
+    @Test
+    public void widensBoundsToThePeriod() {
+        RefreshSchedule schedule = RefreshSchedule.adaptive(5_000, 100, 1_000, 10_000);
+
+        assertThat(schedule.nextPeriodMillis(5_000, 0)).isEqualTo(5_000);
+        assertThatThrownBy(() -> RefreshSchedule.adaptive(0, 100, 1_000, 10_000))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
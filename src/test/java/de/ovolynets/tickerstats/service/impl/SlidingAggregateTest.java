@@ -0,0 +1,102 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class SlidingAggregateTest {
+
+    private static final int WINDOW_MS = 10_000;
+    private static final int SLOT_MS = 1_000;
+
+    private WindowSlots windowSlots;
+    private SlidingAggregate aggregate;
+
+    @Before
+    public void setUp() {
+        windowSlots = new WindowSlots(WINDOW_MS, SLOT_MS);
+        aggregate = new SlidingAggregate(windowSlots);
+    }
+
+    @Test
+    public void emptyAggregateHasZeroStatistics() {
+        aggregate.expire(0);
+        TickerStatistics statistics = aggregate.toTickerStatistics();
+        assertThat(statistics.getCount()).isEqualTo(0);
+        assertThat(statistics.getMax()).isEqualTo(0);
+        assertThat(statistics.getMin()).isEqualTo(0);
+    }
+
+    @Test
+    public void updatesMaximumOfAnOlderSlot() {
+        aggregate.expire(0);
+        aggregate.add(5, 10);
+        aggregate.add(3, 20);
+        aggregate.add(4, 15);
+        assertThat(aggregate.toTickerStatistics().getMax()).isEqualTo(20);
+
+        // The slot holding the maximum expires, the next older one still wins over the newest
+        aggregate.expire(4);
+        assertThat(aggregate.toTickerStatistics().getMax()).isEqualTo(15);
+        assertThat(aggregate.toTickerStatistics().getMin()).isEqualTo(10);
+
+        // A slot dominated before becomes the maximum after an out of order update
+        aggregate.add(4, 30);
+        aggregate.expire(5);
+        assertThat(aggregate.toTickerStatistics().getMax()).isEqualTo(10);
+        assertThat(aggregate.toTickerStatistics().getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectsPricesOfExpiredSlots() {
+        aggregate.expire(0);
+        assertThat(aggregate.add(5, 10)).isTrue();
+        // Expired by a caller with a more recent clock reading than the one of the next add
+        aggregate.expire(6);
+        assertThat(aggregate.add(5, 20)).isFalse();
+        assertThat(aggregate.isEmpty()).isTrue();
+        assertThat(aggregate.additions()).isEqualTo(1);
+    }
+
+    @Test
+    public void matchesFullScanForRandomOutOfOrderTicks() {
+        Random random = new Random(42);
+        List<long[]> ticks = new ArrayList<>();
+        long now = 100 * SLOT_MS;
+        for (int i = 0; i < 20_000; i++) {
+            now += random.nextInt(50);
+            long timestamp = now - random.nextInt(WINDOW_MS);
+            long price = random.nextInt(1_000);
+            long slot = windowSlots.slotOf(timestamp, now);
+            long oldestLiveSlot = windowSlots.oldestLiveSlot(now);
+            aggregate.expire(oldestLiveSlot);
+            aggregate.add(slot, price);
+            ticks.add(new long[]{slot, price});
+
+            if (i % 100 == 0) {
+                assertMatchesFullScan(ticks, oldestLiveSlot);
+            }
+        }
+    }
+
+    private void assertMatchesFullScan(List<long[]> ticks, long oldestLiveSlot) {
+        StatisticsAccumulator expected = new StatisticsAccumulator();
+        for (long[] tick : ticks) {
+            if (tick[0] >= oldestLiveSlot) {
+                expected.add(tick[1]);
+            }
+        }
+        TickerStatistics actual = aggregate.toTickerStatistics();
+        assertThat(actual.getCount()).isEqualTo(expected.count);
+        assertThat(actual.getMax()).isEqualTo(expected.max);
+        assertThat(actual.getMin()).isEqualTo(expected.min);
+        assertThat(actual.getAvg()).isCloseTo(expected.sum / expected.count, within(1e-6));
+    }
+}
@@ -0,0 +1,141 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.TickBatch;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(Parameterized.class)
+public class StatisticsEngineConcurrencyTest {
+
+    private static final int WINDOW_MS = 60_000;
+    private static final int SLOT_MS = 1_000;
+    private static final int STRIPES = 4;
+    private static final int WRITERS = 8;
+    private static final int TICKS_PER_WRITER = 20_000;
+    private static final String[] INSTRUMENTS = {"IBM.N", "KO", "MSFT.O"};
+
+    private final StatisticsMode statisticsMode;
+    private StatisticsEngine engine;
+    private long now;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Object[] statisticsModes() {
+        return StatisticsMode.values();
+    }
+
+    public StatisticsEngineConcurrencyTest(StatisticsMode statisticsMode) {
+        this.statisticsMode = statisticsMode;
+    }
+
+    @Before
+    public void setUp() {
+        Duration window = Duration.ofMillis(WINDOW_MS);
+        engine = TickerServiceImpl.createEngine(statisticsMode, new StatisticsWindows(List.of(window), window, SLOT_MS),
+                new InstrumentRegistry(2 * WINDOW_MS), STRIPES);
+        now = System.currentTimeMillis();
+    }
+
+    @Test
+    public void concurrentWritersDoNotLoseTicks() throws Exception {
+        runWriters((writer, i) -> {
+            assertThat(engine.add(INSTRUMENTS[i % INSTRUMENTS.length], writer + 1, now - i % WINDOW_MS, now)).isTrue();
+        });
+        assertAllTicksVisible();
+    }
+
+    @Test
+    public void concurrentBatchWritersDoNotLoseTicks() throws Exception {
+        int batchSize = 100;
+        ThreadLocal<TickBatch> batches = ThreadLocal.withInitial(() -> new TickBatch(batchSize));
+        runWriters((writer, i) -> {
+            TickBatch batch = batches.get();
+            batch.add(INSTRUMENTS[i % INSTRUMENTS.length], writer + 1, now - i % WINDOW_MS);
+            if (batch.isFull()) {
+                assertThat(engine.addAll(batch, now)).isEqualTo(batchSize);
+                batch.clear();
+            }
+        });
+        assertAllTicksVisible();
+    }
+
+    @Test
+    public void readersNeverSeeMoreTicksThanWritten() throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newSingleThreadExecutor();
+        Future<Long> lastSeen = readers.submit(() -> {
+            long previous = 0;
+            while (running.get()) {
+                engine.refresh(now);
+                long count = engine.getStatistics(now).getCount();
+                // No tick expires during the test, so the visible count only grows
+                assertThat(count).isGreaterThanOrEqualTo(previous).isLessThanOrEqualTo(WRITERS * TICKS_PER_WRITER);
+                previous = count;
+            }
+            return previous;
+        });
+        runWriters((writer, i) -> engine.add(INSTRUMENTS[0], 1, now, now));
+        running.set(false);
+        lastSeen.get(10, TimeUnit.SECONDS);
+        readers.shutdown();
+
+        // Every add has returned, so every read from now on sees all ticks
+        engine.refresh(now);
+        assertThat(engine.getStatistics(now).getCount()).isEqualTo(WRITERS * TICKS_PER_WRITER);
+    }
+
+    private void assertAllTicksVisible() {
+        engine.refresh(now);
+        TickerStatistics total = engine.getStatistics(now);
+        assertThat(total.getCount()).isEqualTo(WRITERS * TICKS_PER_WRITER);
+        assertThat(total.getMin()).isEqualTo(1);
+        assertThat(total.getMax()).isEqualTo(WRITERS);
+        // Every writer adds its own price TICKS_PER_WRITER times: sum of 1..WRITERS
+        assertThat(total.getAvg()).isEqualTo((WRITERS + 1) / 2.0);
+
+        long perInstrument = 0;
+        for (String instrument : INSTRUMENTS) {
+            perInstrument += engine.getStatistics(instrument, now).map(TickerStatistics::getCount).orElse(0L);
+        }
+        assertThat(perInstrument).isEqualTo(WRITERS * TICKS_PER_WRITER);
+    }
+
+    private void runWriters(TickWriter tickWriter) throws Exception {
+        ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            int writerId = writer;
+            results.add(writers.submit(() -> {
+                start.await();
+                for (int i = 0; i < TICKS_PER_WRITER; i++) {
+                    tickWriter.write(writerId, i);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        writers.shutdown();
+    }
+
+    private interface TickWriter {
+        void write(int writer, int index);
+    }
+}
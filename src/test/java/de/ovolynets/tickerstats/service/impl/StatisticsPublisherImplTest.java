@@ -0,0 +1,304 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.StatisticsUpdate;
+import de.ovolynets.tickerstats.controller.Tick;
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import de.ovolynets.tickerstats.service.NodeUnavailableException;
+import de.ovolynets.tickerstats.service.StatisticsPublisher;
+import de.ovolynets.tickerstats.service.StatisticsSubscriber;
+import de.ovolynets.tickerstats.service.UnknownWindowException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StatisticsPublisherImplTest {
+
+    private static final String INSTRUMENT1 = "IBM.N";
+    private static final String INSTRUMENT2 = "KO";
+
+    private static final int INDEX_UPDATE_PERIOD_MS = 10;
+    private static final int SLOT_MS = 1000;
+    private static final long INSTRUMENT_RETENTION_MS = 300_000;
+    // Rounds of the dispatcher are triggered by the tests
+    private static final Duration DISPATCH_PERIOD = Duration.ofHours(1);
+    private static final long SEND_TIMEOUT_MS = 100;
+
+    private TickerServiceImpl tickerService;
+    private MeterRegistry meterRegistry;
+    private StatisticsPublisherImpl publisher;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        tickerService = new TickerServiceImpl(options().build(), meterRegistry);
+        publisher = new StatisticsPublisherImpl(tickerService, DISPATCH_PERIOD, 2, SEND_TIMEOUT_MS, meterRegistry);
+    }
+
+    @After
+    public void tearDown() {
+        publisher.close();
+        tickerService.close();
+    }
+
+    @Test
+    public void deliversCurrentStatisticsOnSubscribe() throws InterruptedException {
+        addTick(INSTRUMENT1, 10);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(List.of(INSTRUMENT1, INSTRUMENT2), null, subscriber);
+
+        List<StatisticsUpdate> updates = subscriber.next();
+        assertThat(updates).hasSize(2);
+        assertThat(updates.get(0).getInstrument()).isEqualTo(INSTRUMENT1);
+        assertThat(updates.get(0).getStatistics().getCount()).isEqualTo(1);
+        assertThat(updates.get(1).getInstrument()).isEqualTo(INSTRUMENT2);
+        assertThat(updates.get(1).getStatistics()).isNull();
+    }
+
+    @Test
+    public void pushesOnlyChangedStatistics() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(List.of(INSTRUMENT1, INSTRUMENT2), null, subscriber);
+        subscriber.next();
+
+        addTick(INSTRUMENT2, 20);
+        List<StatisticsUpdate> updates = dispatchUntilDelivered(subscriber);
+        assertThat(updates).hasSize(1);
+        assertThat(updates.get(0).getInstrument()).isEqualTo(INSTRUMENT2);
+        assertThat(updates.get(0).getStatistics().getAvg()).isEqualTo(20);
+
+        publisher.dispatch();
+        assertThat(subscriber.deliveries.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    public void pushesTotalForWindow() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(List.of(), Duration.ofSeconds(60), subscriber);
+        assertThat(subscriber.next().get(0).getStatistics().getCount()).isZero();
+
+        addTick(INSTRUMENT1, 10);
+        addTick(INSTRUMENT2, 20);
+        List<StatisticsUpdate> updates = dispatchUntilDelivered(subscriber);
+        assertThat(updates.get(0).getInstrument()).isNull();
+        assertThat(updates.get(0).getStatistics().getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void coalescesUpdatesWhileDeliveryIsInFlight() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        subscriber.block();
+        publisher.subscribe(List.of(INSTRUMENT1), null, subscriber);
+        assertThat(subscriber.delivering.tryAcquire(1, TimeUnit.SECONDS)).isTrue();
+
+        for (int price = 1; price <= 3; price++) {
+            addTick(INSTRUMENT1, price);
+            publisher.dispatch();
+        }
+        subscriber.unblock();
+        assertThat(subscriber.next().get(0).getStatistics()).isNull();
+
+        List<StatisticsUpdate> updates = dispatchUntilDelivered(subscriber);
+        assertThat(updates).hasSize(1);
+        assertThat(updates.get(0).getStatistics().getCount()).isEqualTo(3);
+        assertThat(subscriber.deliveries.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    public void disconnectsSlowSubscriber() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        subscriber.block();
+        publisher.subscribe(List.of(INSTRUMENT1), null, subscriber);
+
+        Thread.sleep(2 * SEND_TIMEOUT_MS);
+        addTick(INSTRUMENT1, 10);
+        publisher.dispatch();
+        assertThat(meterRegistry.get("tickerstats.subscriptions.disconnected").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("tickerstats.subscriptions").gauge().value()).isZero();
+        // Closed once the blocked delivery returns, closing an event stream waits for the write in flight
+        assertThat(subscriber.closed.getCount()).isEqualTo(1);
+        subscriber.unblock();
+        assertThat(subscriber.closed.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void keepsDeliveringWhileStalledSubscribersBlockTheSenders() throws InterruptedException {
+        StatisticsPublisherImpl singleSender = new StatisticsPublisherImpl(tickerService, DISPATCH_PERIOD, 1,
+                SEND_TIMEOUT_MS, new SimpleMeterRegistry());
+        RecordingSubscriber stalled = new RecordingSubscriber();
+        stalled.block();
+        try {
+            singleSender.subscribe(List.of(INSTRUMENT1), null, stalled);
+            assertThat(stalled.delivering.tryAcquire(1, TimeUnit.SECONDS)).isTrue();
+            Thread.sleep(2 * SEND_TIMEOUT_MS);
+            singleSender.dispatch();
+
+            // The only sender thread is still blocked, the stalled delivery does not count against it
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            singleSender.subscribe(List.of(INSTRUMENT2), null, subscriber);
+            assertThat(subscriber.next()).hasSize(1);
+        } finally {
+            stalled.unblock();
+            singleSender.close();
+        }
+    }
+
+    @Test
+    public void keepsTheLastStatisticsOfTopicsThatCannotBeRead() throws InterruptedException {
+        ManualTickClock clock = new ManualTickClock(System.currentTimeMillis());
+        AtomicBoolean unavailable = new AtomicBoolean();
+        AtomicInteger reads = new AtomicInteger();
+        TickerServiceImpl cluster = new TickerServiceImpl(options().clock(clock).build(), new SimpleMeterRegistry()) {
+            @Override
+            public Optional<TickerStatistics> getStatistics(String instrumentId) {
+                reads.incrementAndGet();
+                if (unavailable.get() && instrumentId.equals(INSTRUMENT1)) {
+                    throw new NodeUnavailableException("Node of " + instrumentId + " did not answer", null);
+                }
+                return super.getStatistics(instrumentId);
+            }
+        };
+        StatisticsPublisherImpl clusterPublisher = new StatisticsPublisherImpl(cluster, DISPATCH_PERIOD, 2,
+                SEND_TIMEOUT_MS, new SimpleMeterRegistry());
+        try {
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            clusterPublisher.subscribe(List.of(INSTRUMENT1, INSTRUMENT2), null, subscriber);
+            subscriber.next();
+
+            // Topics are not read again while the generation stays the same
+            clusterPublisher.dispatch();
+            clusterPublisher.dispatch();
+            assertThat(reads.get()).isEqualTo(2);
+
+            unavailable.set(true);
+            cluster.addTick(INSTRUMENT1, 10, clock.millis());
+            cluster.addTick(INSTRUMENT2, 20, clock.millis());
+            List<StatisticsUpdate> updates = dispatchUntilDelivered(clusterPublisher, subscriber);
+            assertThat(updates).hasSize(1);
+            assertThat(updates.get(0).getInstrument()).isEqualTo(INSTRUMENT2);
+
+            // The topic that failed is read again, though the generation has not moved
+            unavailable.set(false);
+            updates = dispatchUntilDelivered(clusterPublisher, subscriber);
+            assertThat(updates).hasSize(1);
+            assertThat(updates.get(0).getInstrument()).isEqualTo(INSTRUMENT1);
+            assertThat(updates.get(0).getStatistics().getCount()).isEqualTo(1);
+        } finally {
+            clusterPublisher.close();
+            cluster.close();
+        }
+    }
+
+    @Test
+    public void stopsDeliveringAfterCancel() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        StatisticsPublisher.Subscription subscription = publisher.subscribe(List.of(INSTRUMENT1), null, subscriber);
+        subscriber.next();
+
+        subscription.cancel();
+        subscription.cancel();
+        addTick(INSTRUMENT1, 10);
+        publisher.dispatch();
+        assertThat(subscriber.deliveries.poll(100, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(subscriber.closed.getCount()).isZero();
+    }
+
+    @Test
+    public void dispatchesAtMostAThousandTimesASecond() {
+        assertThat(StatisticsPublisherImpl.dispatchPeriod(4)).isEqualTo(Duration.ofMillis(250));
+        assertThat(StatisticsPublisherImpl.dispatchPeriod(1000)).isEqualTo(Duration.ofMillis(1));
+        assertThatThrownBy(() -> StatisticsPublisherImpl.dispatchPeriod(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> StatisticsPublisherImpl.dispatchPeriod(1001)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void rejectsUnknownWindow() {
+        assertThatThrownBy(() -> publisher.subscribe(List.of(INSTRUMENT1), Duration.ofSeconds(7), new RecordingSubscriber()))
+                .isInstanceOf(UnknownWindowException.class);
+    }
+
+    // The next round may start before the previous delivery has been completed, which leaves the
+    // updates pending for the round after it
+    private List<StatisticsUpdate> dispatchUntilDelivered(RecordingSubscriber subscriber) throws InterruptedException {
+        return dispatchUntilDelivered(publisher, subscriber);
+    }
+
+    private static List<StatisticsUpdate> dispatchUntilDelivered(StatisticsPublisherImpl publisher,
+                                                                 RecordingSubscriber subscriber) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (System.currentTimeMillis() < deadline) {
+            publisher.dispatch();
+            List<StatisticsUpdate> updates = subscriber.deliveries.poll(10, TimeUnit.MILLISECONDS);
+            if (updates != null) {
+                return updates;
+            }
+        }
+        return subscriber.next();
+    }
+
+    private static TickerServiceOptions.Builder options() {
+        // Incremental statistics reflect every tick right away
+        return TickerServiceOptions.builder()
+                .refreshPeriodMillis(INDEX_UPDATE_PERIOD_MS)
+                .slotMillis(SLOT_MS)
+                .statisticsMode(StatisticsMode.INCREMENTAL)
+                .writeStripes(1)
+                .instrumentRetentionMillis(INSTRUMENT_RETENTION_MS);
+    }
+
+    private void addTick(String instrument, double price) {
+        tickerService.addTick(new Tick(instrument, price, System.currentTimeMillis()));
+    }
+
+    private static class RecordingSubscriber implements StatisticsSubscriber {
+        private final BlockingQueue<List<StatisticsUpdate>> deliveries = new LinkedBlockingQueue<>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private final Semaphore delivering = new Semaphore(0);
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+
+        @Override
+        public void deliver(List<StatisticsUpdate> updates) {
+            delivering.release();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            deliveries.add(updates);
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        private void block() {
+            gate = new CountDownLatch(1);
+        }
+
+        private void unblock() {
+            gate.countDown();
+        }
+
+        private List<StatisticsUpdate> next() throws InterruptedException {
+            List<StatisticsUpdate> updates = deliveries.poll(1, TimeUnit.SECONDS);
+            assertThat(updates).isNotNull();
+            return updates;
+        }
+    }
+}
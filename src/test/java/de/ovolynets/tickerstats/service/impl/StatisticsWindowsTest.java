@@ -0,0 +1,188 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.controller.TickerStatistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@RunWith(Parameterized.class)
+public class StatisticsWindowsTest {
+
+    private static final int SLOT_MS = 1_000;
+    private static final int STRIPES = 2;
+    private static final long NOW = 1_600_000_000_000L;
+
+    private static final String INSTRUMENT1 = "IBM.N";
+    private static final String INSTRUMENT2 = "KO";
+
+    private static final int WINDOW_10S = 0;
+    private static final int WINDOW_60S = 1;
+    private static final int WINDOW_5M = 2;
+    private static final int WINDOW_1H = 3;
+
+    private final StatisticsMode statisticsMode;
+    private StatisticsWindows windows;
+    private StatisticsEngine engine;
+
+    // Both modes have to serve the same statistics for all windows
+    @Parameterized.Parameters(name = "{0}")
+    public static Object[] statisticsModes() {
+        return StatisticsMode.values();
+    }
+
+    public StatisticsWindowsTest(StatisticsMode statisticsMode) {
+        this.statisticsMode = statisticsMode;
+    }
+
+    @Before
+    public void setUp() {
+        windows = StatisticsWindows.fromProperties("1h, 5m,10s,60s", "60s", SLOT_MS);
+        engine = TickerServiceImpl.createEngine(statisticsMode, windows, new InstrumentRegistry(2 * 3_600_000L), STRIPES);
+    }
+
+    @Test
+    public void assignsWindowsToTiers() {
+        assertThat(windows.count()).isEqualTo(4);
+        assertThat(windows.defaultWindow()).isEqualTo(WINDOW_60S);
+        assertThat(windows.indexOf(Duration.ofMinutes(1))).isEqualTo(WINDOW_60S);
+        assertThat(windows.indexOf(Duration.ofSeconds(7))).isEqualTo(-1);
+
+        // Windows up to the default one keep the slot size, longer ones have at least 30 slots
+        assertThat(windows.tierCount()).isEqualTo(3);
+        assertThat(windows.tierOf(WINDOW_10S)).isEqualTo(0);
+        assertThat(windows.tierOf(WINDOW_60S)).isEqualTo(0);
+        assertThat(windows.tierOf(WINDOW_5M)).isEqualTo(1);
+        assertThat(windows.tierOf(WINDOW_1H)).isEqualTo(2);
+        assertThat(windows.tier(0).slotMillis()).isEqualTo(SLOT_MS);
+        assertThat(windows.tier(1).slotMillis()).isEqualTo(10_000);
+        assertThat(windows.tier(2).slotMillis()).isEqualTo(100_000);
+        assertThat(windows.tier(2).windowMillis()).isEqualTo(3_600_000);
+    }
+
+    @Test
+    public void keepsTheTiersOfTheOtherWindows() {
+        StatisticsWindows others = windows.withoutDefault();
+        assertThat(others.windows()).containsExactly(Duration.ofSeconds(10), Duration.ofMinutes(5), Duration.ofHours(1));
+        assertThat(others.defaultWindow()).isEqualTo(-1);
+        for (int window : new int[]{WINDOW_10S, WINDOW_5M, WINDOW_1H}) {
+            int other = windows.indexWithoutDefault(window);
+            assertThat(others.windowMillis(other)).isEqualTo(windows.windowMillis(window));
+            assertThat(others.tier(others.tierOf(other)).slotMillis())
+                    .isEqualTo(windows.tier(windows.tierOf(window)).slotMillis());
+        }
+        // The finest tier only spans the shorter windows
+        assertThat(others.tier(0).windowMillis()).isEqualTo(10_000);
+
+        // Without shorter windows, ticks go straight to the coarser tiers
+        StatisticsWindows longer = StatisticsWindows.fromProperties("60s,1h", "60s", SLOT_MS).withoutDefault();
+        assertThat(longer.tierCount()).isEqualTo(1);
+        assertThat(longer.tier(0).slotMillis()).isEqualTo(100_000);
+    }
+
+    @Test
+    public void keepsTheDefaultWindowOnlyOnce() {
+        engine.add(INSTRUMENT1, 10, NOW - 31_000, NOW);
+        engine.add(INSTRUMENT1, 20, NOW - 39_000, NOW);
+        engine.refresh(NOW);
+        // Two slots of the finest tier. The incremental mode keeps the longer windows apart, in one slot
+        // of 10s, but not the default window a second time
+        assertThat(engine.windowEntries()).isEqualTo(statisticsMode == StatisticsMode.INCREMENTAL ? 3 : 2);
+    }
+
+    @Test
+    public void rejectsDefaultWindowThatIsNotConfigured() {
+        assertThatThrownBy(() -> StatisticsWindows.fromProperties("10s,5m", "60s", SLOT_MS))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void rejectsWindowsOfTooFewSlots() {
+        // A window starts with the slot its start falls into, 1s of 1s slots could hold ticks of up to 2s
+        assertThatThrownBy(() -> StatisticsWindows.fromProperties("1s,10s,60s", "60s", SLOT_MS))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(StatisticsWindows.fromProperties("1s,10s,60s", "60s", SLOT_MS / 10).count()).isEqualTo(3);
+    }
+
+    @Test
+    public void servesEveryWindow() {
+        assertThat(engine.add(INSTRUMENT1, 10, NOW, NOW)).isTrue();
+        assertThat(engine.add(INSTRUMENT1, 20, NOW - 5_000, NOW)).isTrue();
+        assertThat(engine.add(INSTRUMENT1, 30, NOW - 30_000, NOW)).isTrue();
+        assertThat(engine.add(INSTRUMENT1, 40, NOW - 240_000, NOW)).isTrue();
+        assertThat(engine.add(INSTRUMENT2, 50, NOW - 3_000_000, NOW)).isTrue();
+        assertThat(engine.add(INSTRUMENT2, 60, NOW - 3_700_000, NOW)).isFalse();
+        engine.refresh(NOW);
+
+        assertThat(count(INSTRUMENT1, WINDOW_10S)).isEqualTo(2);
+        assertThat(count(INSTRUMENT1, WINDOW_60S)).isEqualTo(3);
+        assertThat(count(INSTRUMENT1, WINDOW_5M)).isEqualTo(4);
+        assertThat(count(INSTRUMENT1, WINDOW_1H)).isEqualTo(4);
+        assertThat(engine.getStatistics(INSTRUMENT2, WINDOW_5M, NOW)).isEmpty();
+        assertThat(count(INSTRUMENT2, WINDOW_1H)).isEqualTo(1);
+
+        TickerStatistics total = engine.getStatistics(WINDOW_1H, NOW);
+        assertThat(total.getCount()).isEqualTo(5);
+        assertThat(total.getAvg()).isEqualTo(30);
+        assertThat(total.getMin()).isEqualTo(10);
+        assertThat(total.getMax()).isEqualTo(50);
+        assertThat(engine.getStatistics(NOW).getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void rollsExpiredSlotsUpIntoCoarserTiers() {
+        engine.add(INSTRUMENT1, 10, NOW - 30_000, NOW);
+        engine.add(INSTRUMENT1, 20, NOW, NOW);
+
+        // The older tick has left the finest tier, but is still part of the longer windows
+        long later = NOW + 45_000;
+        engine.refresh(later);
+        assertThat(count(INSTRUMENT1, WINDOW_60S, later)).isEqualTo(1);
+        assertThat(count(INSTRUMENT1, WINDOW_5M, later)).isEqualTo(2);
+        assertThat(engine.getStatistics(INSTRUMENT1, WINDOW_5M, later).get().getMin()).isEqualTo(10);
+
+        later = NOW + 600_000;
+        engine.refresh(later);
+        assertThat(engine.getStatistics(INSTRUMENT1, WINDOW_5M, later)).isEmpty();
+        assertThat(count(INSTRUMENT1, WINDOW_1H, later)).isEqualTo(2);
+        assertThat(engine.getStatistics(INSTRUMENT1, WINDOW_1H, later).get().getAvg()).isEqualTo(15);
+
+        later = NOW + 2 * 3_600_000;
+        assertThat(engine.refresh(later)).isPositive();
+        assertThat(engine.getStatistics(INSTRUMENT1, WINDOW_1H, later)).isEmpty();
+        assertThat(engine.getStatistics(WINDOW_1H, later).getCount()).isEqualTo(0);
+    }
+
+    private long count(String instrument, int window) {
+        return count(instrument, window, NOW);
+    }
+
+    private long count(String instrument, int window, long now) {
+        return engine.getStatistics(instrument, window, now).map(TickerStatistics::getCount).orElse(0L);
+    }
+
+    @Test
+    public void changesGenerationOnlyWithStatistics() {
+        engine.refresh(NOW);
+        long empty = engine.generation(NOW);
+        engine.refresh(NOW);
+        assertThat(engine.generation(NOW)).isEqualTo(empty);
+
+        engine.add(INSTRUMENT1, 10, NOW - 30_000, NOW);
+        engine.refresh(NOW);
+        long added = engine.generation(NOW);
+        assertThat(added).isGreaterThan(empty);
+        engine.refresh(NOW);
+        assertThat(engine.generation(NOW)).isEqualTo(added);
+
+        // The tick leaves the default window
+        long later = NOW + 45_000;
+        engine.refresh(later);
+        assertThat(engine.generation(later)).isGreaterThan(added);
+    }
+}
@@ -0,0 +1,153 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import de.ovolynets.tickerstats.service.OverloadedException;
+import de.ovolynets.tickerstats.service.TickBatch;
+import de.ovolynets.tickerstats.service.TickerService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TickAdmissionTest {
+
+    private static final long NOW = 1_600_000_000_000L;
+    private static final int LONGEST_WINDOW_MS = 60_000;
+
+    private static final String INSTRUMENT1 = "IBM.N";
+    private static final String INSTRUMENT2 = "KO";
+    private static final String INSTRUMENT3 = "MSFT.O";
+
+    private InstrumentRegistry registry;
+    private MeterRegistry meterRegistry;
+    private ServiceMetrics metrics;
+
+    @Before
+    public void setUp() {
+        registry = new InstrumentRegistry(2 * LONGEST_WINDOW_MS);
+        meterRegistry = new SimpleMeterRegistry();
+        StatisticsWindows windows = new StatisticsWindows(List.of(Duration.ofMillis(LONGEST_WINDOW_MS)),
+                Duration.ofMillis(LONGEST_WINDOW_MS), 1_000);
+        metrics = new ServiceMetrics(meterRegistry, new PeriodicStatisticsEngine(windows, registry, 1), registry,
+                () -> NOW);
+    }
+
+    @Test
+    public void rejectsTicksTooFarAhead() {
+        TickAdmission admission = admission(AdmissionOptions.limited(5_000, 0, 0, 0, 1_000));
+
+        assertThat(admission.admits(INSTRUMENT1, NOW + 5_000, NOW)).isTrue();
+        assertThat(admission.admits(INSTRUMENT1, NOW + 5_001, NOW)).isFalse();
+        assertThat(admission.admits(INSTRUMENT1, NOW - 3_600_000, NOW)).isTrue();
+        assertThat(counted("future")).isEqualTo(1);
+    }
+
+    @Test
+    public void admitsKnownInstrumentsOnlyAtTheCap() {
+        TickAdmission admission = admission(AdmissionOptions.limited(0, 2, 0, 0, 1_000));
+
+        assertThat(admission.admits(INSTRUMENT1, NOW, NOW)).isTrue();
+        // Stale ticks are left to the windows, which reject them without registering the instrument
+        assertThat(admission.admits(INSTRUMENT3, NOW - LONGEST_WINDOW_MS - 1, NOW)).isTrue();
+        assertThat(admission.admits(INSTRUMENT2, NOW, NOW)).isTrue();
+        assertThat(admission.admits(INSTRUMENT3, NOW, NOW)).isFalse();
+        assertThat(admission.admits(INSTRUMENT1, NOW, NOW)).isTrue();
+        assertThat(counted("capped")).isEqualTo(1);
+
+        // Retired instruments make room
+        registry.retireIdle(NOW + 2 * LONGEST_WINDOW_MS + 1_001);
+        assertThat(admission.admits(INSTRUMENT3, NOW + 2 * LONGEST_WINDOW_MS + 1_001, NOW + 2 * LONGEST_WINDOW_MS + 1_001))
+                .isTrue();
+    }
+
+    @Test
+    public void rejectsInstrumentsTooLongToBeJournaled() {
+        TickAdmission admission = admission(AdmissionOptions.UNLIMITED);
+        String longInstrument = "K".repeat(TickerService.MAX_INSTRUMENT_LENGTH + 1);
+
+        assertThat(admission.admits(longInstrument, NOW, NOW)).isFalse();
+        TickBatch batch = new TickBatch(2);
+        batch.add(INSTRUMENT1, 1, NOW);
+        batch.add(longInstrument, 2, NOW);
+        TickBatch admitted = admission.admitted(batch, NOW);
+        assertThat(admitted.size()).isEqualTo(1);
+        assertThat(admitted.getInstrument(0)).isEqualTo(INSTRUMENT1);
+        assertThat(counted("invalid")).isEqualTo(2);
+    }
+
+    @Test
+    public void copiesOnlyBatchesWithRejectedTicks() {
+        TickAdmission admission = admission(AdmissionOptions.limited(5_000, 1, 0, 0, 1_000));
+        TickBatch batch = new TickBatch(4);
+        batch.add(INSTRUMENT1, 1, NOW);
+        batch.add(INSTRUMENT1, 2, NOW + 1_000);
+
+        assertThat(admission.admitted(batch, NOW)).isSameAs(batch);
+
+        batch.add(INSTRUMENT2, 3, NOW);
+        batch.add(INSTRUMENT1, 4, NOW + 10_000);
+        TickBatch admitted = admission.admitted(batch, NOW);
+        assertThat(admitted.size()).isEqualTo(2);
+        assertThat(admitted.getPrice(1)).isEqualTo(2);
+        assertThat(batch.size()).isEqualTo(4);
+        assertThat(admission(AdmissionOptions.UNLIMITED).admitted(batch, NOW)).isSameAs(batch);
+    }
+
+    @Test
+    public void shedsCallsBeyondTheConcurrentIngests() {
+        TickAdmission admission = admission(AdmissionOptions.limited(0, 0, 2, 0, 1_500));
+
+        admission.enter(NOW, NOW);
+        admission.enter(NOW, NOW);
+        assertThatThrownBy(() -> admission.enter(NOW, NOW))
+                .isInstanceOfSatisfying(OverloadedException.class, (e) -> {
+                    assertThat(e.getReason()).isEqualTo(OverloadedException.Reason.TOO_MANY_INGESTS);
+                    assertThat(e.getRetryAfter()).isEqualTo(Duration.ofMillis(1_500));
+                });
+        assertThat(meterRegistry.get("tickerstats.ingest.in-flight").gauge().value()).isEqualTo(2);
+
+        admission.exit();
+        admission.enter(NOW, NOW);
+        assertThat(meterRegistry.get("tickerstats.ingest.shed").tag("reason", "too-many-ingests").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void shedsCallsWhileTheRefreshLags() {
+        TickAdmission admission = admission(AdmissionOptions.limited(0, 0, 0, 10_000, 1_000));
+
+        admission.enter(NOW, NOW - 10_000);
+        assertThatThrownBy(() -> admission.enter(NOW, NOW - 10_001))
+                .isInstanceOfSatisfying(OverloadedException.class,
+                        (e) -> assertThat(e.getReason()).isEqualTo(OverloadedException.Reason.REFRESH_LAGGING));
+        assertThat(meterRegistry.get("tickerstats.ingest.shed").tag("reason", "refresh-lagging").counter().count())
+                .isEqualTo(1);
+        // A shed call is not in flight
+        assertThat(meterRegistry.get("tickerstats.ingest.in-flight").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectsRefreshLagsWithinTheLongestRefreshPeriod() {
+        TickerServiceOptions.Builder builder = TickerServiceOptions.builder()
+                .adaptiveRefresh(500, 100, 10_000, 10_000)
+                .admission(AdmissionOptions.limited(0, 0, 0, 10_000, 1_000));
+
+        // An idle service would shed every call while its refresh backs off
+        assertThatThrownBy(builder::build).isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("10000 ms");
+        builder.clock(new ManualTickClock(NOW)).adaptiveRefresh(500, 100, 9_999, 10_000).build();
+    }
+
+    private TickAdmission admission(AdmissionOptions options) {
+        return new TickAdmission(options, registry, LONGEST_WINDOW_MS, metrics);
+    }
+
+    private double counted(String result) {
+        return meterRegistry.get("tickerstats.ticks").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,85 @@
+package de.ovolynets.tickerstats.service.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TickWindowTest {
+
+    private static final int WINDOW_MS = 60_000;
+    private static final int SLOT_MS = 1_000;
+    private static final long NOW = 1_600_000_000_500L;
+
+    private static final String INSTRUMENT1 = "IBM.N";
+    private static final String INSTRUMENT2 = "KO";
+
+    private InstrumentRegistry registry;
+    private TickWindow window;
+
+    @Before
+    public void setUp() {
+        registry = new InstrumentRegistry(2 * WINDOW_MS);
+        window = new TickWindow(new WindowSlots(WINDOW_MS, SLOT_MS), registry);
+    }
+
+    @Test
+    public void aggregatesTicksOfTheSameSlot() {
+        assertThat(window.add(INSTRUMENT1, 10, NOW, NOW)).isTrue();
+        assertThat(window.add(INSTRUMENT1, 30, NOW - 1, NOW)).isTrue();
+        assertThat(window.add(INSTRUMENT2, 5, NOW - 2, NOW)).isTrue();
+
+        Map<String, StatisticsAccumulator> merged = collect(NOW);
+        assertThat(merged.get(INSTRUMENT1).count).isEqualTo(2);
+        assertThat(merged.get(INSTRUMENT1).sum).isEqualTo(40);
+        assertThat(merged.get(INSTRUMENT1).min).isEqualTo(10);
+        assertThat(merged.get(INSTRUMENT1).max).isEqualTo(30);
+        assertThat(merged.get(INSTRUMENT2).count).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectsTicksOutsideOfTheRing() {
+        assertThat(window.add(INSTRUMENT1, 10, NOW - WINDOW_MS - 1, NOW)).isFalse();
+        assertThat(window.add(INSTRUMENT1, 10, NOW + 2 * WINDOW_MS, NOW)).isFalse();
+        assertThat(window.add(INSTRUMENT1, 10, NOW + WINDOW_MS / 2, NOW)).isTrue();
+    }
+
+    @Test
+    public void evictsExpiredSlots() {
+        window.add(INSTRUMENT1, 10, NOW - WINDOW_MS + 100, NOW);
+        window.add(INSTRUMENT1, 20, NOW, NOW);
+
+        assertThat(window.evict(NOW)).isEqualTo(0);
+        assertThat(collect(NOW).get(INSTRUMENT1).count).isEqualTo(2);
+
+        long later = NOW + SLOT_MS;
+        assertThat(window.evict(later)).isEqualTo(1);
+        assertThat(collect(later).get(INSTRUMENT1).count).isEqualTo(1);
+        assertThat(collect(later).get(INSTRUMENT1).sum).isEqualTo(20);
+    }
+
+    @Test
+    public void reusesRingPositionOfExpiredSlot() {
+        window.add(INSTRUMENT1, 10, NOW, NOW);
+        // Far later, the same ring position is taken by a new slot without an explicit eviction
+        long later = NOW + 2 * (WINDOW_MS + SLOT_MS);
+        assertThat(window.add(INSTRUMENT2, 20, later, later)).isTrue();
+
+        Map<String, StatisticsAccumulator> merged = collect(later);
+        assertThat(merged).containsOnlyKeys(INSTRUMENT2);
+    }
+
+    private Map<String, StatisticsAccumulator> collect(long now) {
+        Map<String, StatisticsAccumulator> merged = new HashMap<>();
+        window.forEachLive(now, (aggregates) -> {
+            for (int i = 0; i < aggregates.size(); i++) {
+                merged.computeIfAbsent(registry.nameOf(aggregates.idAt(i)), (ignored) -> new StatisticsAccumulator())
+                        .merge(aggregates.sumAt(i), aggregates.countAt(i), aggregates.minAt(i), aggregates.maxAt(i));
+            }
+        });
+        return merged;
+    }
+}